@@ -29,13 +29,14 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.monitor.AbstractKafkaMonitor;
+import org.radarcns.monitor.MonitorState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Consumer for Aggregated Acceleration Stream
  */
-public class E4AggregatedAccelerationMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, Object> {
+public class E4AggregatedAccelerationMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, MonitorState> {
     private static final Logger logger = LoggerFactory.getLogger(E4AggregatedAccelerationMonitor.class);
 
     public E4AggregatedAccelerationMonitor(RadarPropertyHandler radar, String topic, String clientID) throws IOException {
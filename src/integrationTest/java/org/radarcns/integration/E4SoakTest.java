@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.integration;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.RadarBackend;
+import org.radarcns.config.LoadTestConfig;
+import org.radarcns.config.LoadTestConfig.TopicConfig;
+import org.radarcns.config.RadarBackendOptions;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.monitor.KafkaMonitor;
+import org.radarcns.monitor.KafkaMonitorFactory;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4BloodVolumePulse;
+import org.radarcns.passive.empatica.EmpaticaE4ElectroDermalActivity;
+import org.radarcns.passive.empatica.EmpaticaE4InterBeatInterval;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.producer.LoadGenerator;
+import org.radarcns.stream.StreamDefinition;
+import org.radarcns.stream.empatica.E4Streams;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricGroup;
+import org.radarcns.util.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Soak test of the E4 streams and the statistics and lag monitors on an embedded broker and
+ * schema registry. Synthetic E4 data is sent at the real E4 sample rates for a number of devices.
+ * The load starts when all streams have been assigned their partitions. The test fails if the
+ * streams do not reach a minimum throughput, if the 99th percentile of the emission latency of
+ * 10 second aggregates is too high, or if the heap grows too much after the warm-up. The
+ * emission latency is measured from the latest record of each aggregate, so it includes the
+ * time that aggregates wait for the commit interval of their stream. Parameters are read from
+ * system properties:
+ * <ul>
+ *     <li>{@code soak.duration}: duration of the load in seconds (default 120).</li>
+ *     <li>{@code soak.devices}: number of simulated devices (default 4 per available
+ *         processor, so that the default thresholds hold on small build machines).</li>
+ *     <li>{@code soak.minThroughput}: minimum records per second processed by each stream,
+ *         summed over the input topics (default 80% of the sent rate).</li>
+ *     <li>{@code soak.maxLatencyMs}: maximum 99th percentile emission latency (default 30000).</li>
+ *     <li>{@code soak.maxHeapGrowthMb}: maximum heap growth after the warm-up (default 64).</li>
+ * </ul>
+ */
+public class E4SoakTest {
+    private static final Logger logger = LoggerFactory.getLogger(E4SoakTest.class);
+    private static final int PARTITIONS = 3;
+    private static final int DEVICES_PER_PROCESSOR = 4;
+    private static final long STARTUP_TIMEOUT_MS = 120_000L;
+    private static final long DRAIN_TIMEOUT_MS = 120_000L;
+    private static final String TASKS_CREATED = "streams_stream-metrics_task-created-total";
+    private static final String TASKS_CLOSED = "streams_stream-metrics_task-closed-total";
+
+    /** E4 topics with their value type and sample rate. */
+    private static final Map<String, Object[]> TOPICS = new LinkedHashMap<>();
+
+    static {
+        TOPICS.put("android_empatica_e4_acceleration",
+                new Object[] {EmpaticaE4Acceleration.class, 32.0});
+        TOPICS.put("android_empatica_e4_blood_volume_pulse",
+                new Object[] {EmpaticaE4BloodVolumePulse.class, 64.0});
+        TOPICS.put("android_empatica_e4_electrodermal_activity",
+                new Object[] {EmpaticaE4ElectroDermalActivity.class, 4.0});
+        TOPICS.put("android_empatica_e4_inter_beat_interval",
+                new Object[] {EmpaticaE4InterBeatInterval.class, 1.0});
+        TOPICS.put("android_empatica_e4_temperature",
+                new Object[] {EmpaticaE4Temperature.class, 4.0});
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedKafka kafka;
+    private InMemorySchemaRegistry schemaRegistry;
+    private RadarPropertyHandler propHandler;
+    private RadarBackend backend;
+    private List<KafkaMonitor> monitors;
+    private ExecutorService monitorExecutor;
+    private String configPath;
+
+    @Before
+    public void setUp() throws Exception {
+        kafka = new EmbeddedKafka(folder.newFolder("cluster"));
+        schemaRegistry = new InMemorySchemaRegistry(0);
+
+        File config = folder.newFile("radar.yml");
+        configPath = config.getAbsolutePath();
+        Files.write(config.toPath(), createConfig().getBytes(StandardCharsets.UTF_8));
+        propHandler = RadarSingletonFactory.getRadarPropertyHandler();
+        propHandler.load(configPath);
+
+        Properties adminProps = new Properties();
+        adminProps.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, kafka.getBootstrapServers());
+        try (AdminClient admin = AdminClient.create(adminProps)) {
+            List<String> topics = new ArrayList<>(E4Streams.getInstance().getTopicNames());
+            topics.add("source_statistics_empatica_e4");
+            admin.createTopics(topics.stream()
+                    .map(t -> new NewTopic(t, PARTITIONS, (short) 1))
+                    .collect(Collectors.toList()))
+                    .all().get(60, TimeUnit.SECONDS);
+        }
+
+        backend = new RadarBackend(
+                RadarBackendOptions.parse(new String[] {"-c", configPath, "stream"}),
+                propHandler);
+        backend.start();
+
+        monitors = new ArrayList<>();
+        monitorExecutor = Executors.newCachedThreadPool();
+        for (String type : Arrays.asList("statistics", "lag")) {
+            KafkaMonitor monitor = new KafkaMonitorFactory(RadarBackendOptions.parse(
+                    new String[] {"-c", configPath, "monitor", type}), propHandler)
+                    .createMonitor();
+            monitors.add(monitor);
+            monitorExecutor.submit(() -> {
+                monitor.start();
+                return null;
+            });
+        }
+    }
+
+    private String createConfig() throws IOException {
+        return "version: 1.0\n"
+                + "released: 2018-01-01\n"
+                + "mode: standalone\n"
+                + "zookeeper:\n"
+                + "  - host: " + kafka.getZookeeperHost() + "\n"
+                + "    port: " + kafka.getZookeeperPort() + "\n"
+                + "broker:\n"
+                + "  - host: " + kafka.getBrokerHost() + "\n"
+                + "    port: " + kafka.getBrokerPort() + "\n"
+                + "schema_registry:\n"
+                + "  - host: " + schemaRegistry.getHost() + "\n"
+                + "    port: " + schemaRegistry.getPort() + "\n"
+                + "    protocol: http\n"
+                + "stream_properties:\n"
+                + "  state.dir: " + folder.newFolder("streams").getAbsolutePath() + "\n"
+                + "persistence_path: " + folder.newFolder("monitors").getAbsolutePath() + "\n"
+                + "stream_masters:\n"
+                + "  - org.radarcns.stream.empatica.E4StreamMaster\n"
+                + "statistics_monitors:\n"
+                + "  - name: Empatica E4\n"
+                + "    topics:\n"
+                + "      - android_empatica_e4_blood_volume_pulse_1min\n"
+                + "    output_topic: source_statistics_empatica_e4\n"
+                + "    flush_timeout: 10000\n"
+                + "lag_monitor:\n"
+                + "  interval: 10\n";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (monitors != null) {
+            for (KafkaMonitor monitor : monitors) {
+                monitor.shutdown();
+            }
+            monitorExecutor.shutdown();
+            monitorExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (backend != null) {
+            backend.shutdown();
+        }
+        if (schemaRegistry != null) {
+            schemaRegistry.close();
+        }
+        if (kafka != null) {
+            kafka.close();
+        }
+    }
+
+    @Test
+    public void soak() throws Exception {
+        long duration = Long.getLong("soak.duration", 120L);
+        int devices = Integer.getInteger("soak.devices",
+                DEVICES_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+        double sentRate = devices * TOPICS.values().stream()
+                .mapToDouble(v -> (Double) v[1])
+                .sum();
+        double minThroughput = Double.parseDouble(System.getProperty(
+                "soak.minThroughput", String.valueOf(0.8 * sentRate)));
+        long maxLatencyMs = Long.getLong("soak.maxLatencyMs", 30_000L);
+        long maxHeapGrowth = Long.getLong("soak.maxHeapGrowthMb", 64L) * 1024L * 1024L;
+
+        LoadTestConfig loadConfig = new LoadTestConfig();
+        loadConfig.setDevices(devices);
+        loadConfig.setDuration(duration);
+        loadConfig.setTopics(TOPICS.entrySet().stream()
+                .map(e -> {
+                    TopicConfig topic = new TopicConfig();
+                    topic.setTopic(e.getKey());
+                    topic.setValueSchema(((Class<?>) e.getValue()[0]).getName());
+                    topic.setFrequency((Double) e.getValue()[1]);
+                    return topic;
+                })
+                .collect(Collectors.toList()));
+
+        MetricsRegistry registry = RadarSingletonFactory.getMetricsRegistry();
+        awaitAssignment(registry);
+
+        long start = System.currentTimeMillis();
+        LoadGenerator generator = new LoadGenerator(loadConfig,
+                new org.apache.kafka.clients.producer.KafkaProducer<>(
+                        LoadGenerator.producerProperties(propHandler.getRadarProperties(),
+                                Collections.emptyMap())));
+        generator.start();
+
+        // measure latency and heap after startup, rebalancing and JIT compilation
+        Thread.sleep(duration * 1000L / 3);
+        for (String topic : TOPICS.keySet()) {
+            for (StreamDefinition def : definitions(topic)) {
+                streamMetrics(registry, def).histogram("emission_latency_ms").reset();
+            }
+        }
+        long heapStart = usedHeap();
+
+        generator.awaitCompletion();
+        Map<String, Long> sent = new LinkedHashMap<>();
+        for (String topic : TOPICS.keySet()) {
+            sent.put(topic, (Long) registry.group("load", topic).values().get("acked"));
+        }
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (!isDrained(registry, sent) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1000L);
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000d;
+        long heapEnd = usedHeap();
+
+        long processed = 0;
+        long maxLatency = 0;
+        long minEmitted = Long.MAX_VALUE;
+        for (String topic : TOPICS.keySet()) {
+            long minRecords = Long.MAX_VALUE;
+            for (StreamDefinition def : definitions(topic)) {
+                Map<String, Number> values = streamMetrics(registry, def).values();
+                minRecords = Math.min(minRecords, values.get("records").longValue());
+                if (def.getOutputTopic().getName().endsWith("_10sec")) {
+                    long latency = values.get("emission_latency_ms_p99").longValue();
+                    logger.info("{}: p99 emission latency {} ms", def.getStateStoreName(),
+                            latency);
+                    maxLatency = Math.max(maxLatency, latency);
+                    minEmitted = Math.min(minEmitted,
+                            values.get("emission_latency_ms_count").longValue());
+                }
+            }
+            logger.info("{}: sent {}, processed {}", topic, sent.get(topic), minRecords);
+            processed += minRecords;
+        }
+        double throughput = processed / seconds;
+        logger.info("Throughput {} records/s (sent at {}/s), p99 latency {} ms,"
+                        + " heap growth {} MB", Math.round(throughput), Math.round(sentRate),
+                maxLatency, (heapEnd - heapStart) / (1024 * 1024));
+
+        assertThat("throughput", throughput, greaterThanOrEqualTo(minThroughput));
+        assertThat("emitted 10 second aggregates", minEmitted, greaterThan(0L));
+        assertThat("p99 emission latency", maxLatency, lessThanOrEqualTo(maxLatencyMs));
+        assertThat("heap growth", heapEnd - heapStart, lessThanOrEqualTo(maxHeapGrowth));
+    }
+
+    /**
+     * Wait until all streams have tasks for all input partitions, so that the time needed to form
+     * the consumer groups is not measured.
+     */
+    private static void awaitAssignment(MetricsRegistry registry) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            boolean isAssigned = true;
+            for (String topic : TOPICS.keySet()) {
+                for (StreamDefinition def : definitions(topic)) {
+                    Map<String, Number> values = streamMetrics(registry, def).values();
+                    isAssigned &= sum(values, TASKS_CREATED) - sum(values, TASKS_CLOSED)
+                            >= PARTITIONS;
+                }
+            }
+            if (isAssigned) {
+                return;
+            }
+            Thread.sleep(1000L);
+        }
+        throw new IllegalStateException("Streams were not assigned their partitions within "
+                + STARTUP_TIMEOUT_MS + " ms");
+    }
+
+    /** Sum of the values of a Kafka metric over all stream threads. */
+    private static double sum(Map<String, Number> values, String metric) {
+        return values.entrySet().stream()
+                .filter(e -> e.getKey().startsWith(metric))
+                .mapToDouble(e -> e.getValue().doubleValue())
+                .sum();
+    }
+
+    /** Whether all streams have processed all sent records. */
+    private static boolean isDrained(MetricsRegistry registry, Map<String, Long> sent) {
+        for (Map.Entry<String, Long> topic : sent.entrySet()) {
+            for (StreamDefinition def : definitions(topic.getKey())) {
+                Number records = streamMetrics(registry, def).values().get("records");
+                if (records == null || records.longValue() < topic.getValue()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Collection<StreamDefinition> definitions(String topic) {
+        return E4Streams.getInstance().getStreamDefinition(topic);
+    }
+
+    private static MetricGroup streamMetrics(MetricsRegistry registry, StreamDefinition def) {
+        return registry.group("stream", def.getStateStoreName());
+    }
+
+    /** Used heap after garbage collection. */
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.integration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Properties;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Single-node ZooKeeper and Kafka broker running in the current JVM, for tests that should not
+ * depend on external services.
+ */
+public class EmbeddedKafka implements Closeable {
+    private final ServerCnxnFactory zookeeper;
+    private final KafkaServerStartable broker;
+    private final int brokerPort;
+
+    /**
+     * Start ZooKeeper and a broker.
+     * @param directory directory to store ZooKeeper and Kafka data in.
+     * @throws IOException if the servers cannot be started.
+     * @throws InterruptedException if starting ZooKeeper is interrupted.
+     */
+    public EmbeddedKafka(File directory) throws IOException, InterruptedException {
+        File zookeeperDir = new File(directory, "zookeeper");
+        zookeeper = ServerCnxnFactory.createFactory(new InetSocketAddress("localhost", 0), 100);
+        zookeeper.startup(new ZooKeeperServer(zookeeperDir, zookeeperDir, 500));
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            brokerPort = socket.getLocalPort();
+        }
+        Properties props = new Properties();
+        props.put("broker.id", "0");
+        props.put("zookeeper.connect", getZookeeperHost() + ":" + getZookeeperPort());
+        props.put("listeners", "PLAINTEXT://" + getBrokerHost() + ":" + brokerPort);
+        props.put("log.dirs", new File(directory, "kafka").getAbsolutePath());
+        props.put("num.partitions", "3");
+        props.put("offsets.topic.replication.factor", "1");
+        props.put("offsets.topic.num.partitions", "5");
+        props.put("transaction.state.log.replication.factor", "1");
+        props.put("transaction.state.log.min.isr", "1");
+        props.put("group.initial.rebalance.delay.ms", "0");
+        broker = new KafkaServerStartable(KafkaConfig.fromProps(props));
+        broker.startup();
+    }
+
+    public String getZookeeperHost() {
+        return "localhost";
+    }
+
+    public int getZookeeperPort() {
+        return zookeeper.getLocalPort();
+    }
+
+    public String getBrokerHost() {
+        return "localhost";
+    }
+
+    public int getBrokerPort() {
+        return brokerPort;
+    }
+
+    /** Bootstrap servers of the broker. */
+    public String getBootstrapServers() {
+        return getBrokerHost() + ":" + brokerPort;
+    }
+
+    @Override
+    public void close() {
+        broker.shutdown();
+        broker.awaitShutdown();
+        zookeeper.shutdown();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.avro.Schema;
+
+/**
+ * Schema registry that keeps schemas in memory. It implements the part of the Confluent schema
+ * registry REST API that serializers, deserializers and schema registration use: registering and
+ * looking up schemas of a subject, and retrieving schemas by ID or by subject version. Schemas are
+ * not checked for compatibility.
+ */
+public class InMemorySchemaRegistry implements Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
+
+    private final HttpServer server;
+    private final List<String> schemas;
+    private final Map<String, Integer> schemaIds;
+    private final Map<String, List<Integer>> subjects;
+
+    /**
+     * Start a schema registry.
+     * @param port port to listen on, or 0 to choose a free port.
+     * @throws IOException if the server cannot be started.
+     */
+    public InMemorySchemaRegistry(int port) throws IOException {
+        schemas = new ArrayList<>();
+        schemaIds = new HashMap<>();
+        subjects = new TreeMap<>();
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getHost() {
+        return "localhost";
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "")
+                    .split("/");
+            String method = exchange.getRequestMethod();
+            JsonNode body = null;
+            if ("POST".equals(method) || "PUT".equals(method)) {
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = MAPPER.readTree(in);
+                }
+            }
+            Object response;
+            synchronized (this) {
+                response = respond(method, path, body);
+            }
+            if (response == null) {
+                send(exchange, 404, error(40403, "Not found"));
+            } else {
+                send(exchange, 200, response);
+            }
+        } catch (RuntimeException ex) {
+            send(exchange, 500, error(50001, ex.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Response to a request, or null if the requested resource does not exist. */
+    private Object respond(String method, String[] path, JsonNode body) {
+        if (path[0].equals("config") || path[0].equals("compatibility")) {
+            // compatibility is not checked
+            return path[0].equals("config")
+                    ? Collections.singletonMap("compatibilityLevel", "NONE")
+                    : Collections.singletonMap("is_compatible", true);
+        } else if (path.length == 3 && path[0].equals("schemas") && path[1].equals("ids")) {
+            int id = Integer.parseInt(path[2]);
+            return id >= 1 && id <= schemas.size()
+                    ? Collections.singletonMap("schema", schemas.get(id - 1)) : null;
+        } else if (path[0].equals("subjects")) {
+            if (path.length == 1) {
+                return new ArrayList<>(subjects.keySet());
+            }
+            String subject = path[1];
+            List<Integer> versions = subjects.get(subject);
+            if (path.length == 2 && "POST".equals(method)) {
+                // look up the version of a schema
+                Integer id = schemaIds.get(normalize(body));
+                int version = versions == null || id == null ? -1 : versions.indexOf(id) + 1;
+                return version > 0 ? version(subject, version, id) : null;
+            } else if (path.length == 3 && "POST".equals(method)) {
+                int id = register(subject, normalize(body));
+                return Collections.singletonMap("id", id);
+            } else if (versions == null) {
+                return null;
+            } else if (path.length == 3) {
+                List<Integer> numbers = new ArrayList<>();
+                for (int i = 1; i <= versions.size(); i++) {
+                    numbers.add(i);
+                }
+                return numbers;
+            } else if (path.length == 4) {
+                int version = path[3].equals("latest")
+                        ? versions.size() : Integer.parseInt(path[3]);
+                return version >= 1 && version <= versions.size()
+                        ? version(subject, version, versions.get(version - 1)) : null;
+            }
+        }
+        return null;
+    }
+
+    private int register(String subject, String schema) {
+        Integer id = schemaIds.get(schema);
+        if (id == null) {
+            schemas.add(schema);
+            id = schemas.size();
+            schemaIds.put(schema, id);
+        }
+        List<Integer> versions = subjects.computeIfAbsent(subject, s -> new ArrayList<>());
+        if (!versions.contains(id)) {
+            versions.add(id);
+        }
+        return id;
+    }
+
+    private Map<String, Object> version(String subject, int version, int id) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("subject", subject);
+        result.put("version", version);
+        result.put("id", id);
+        result.put("schema", schemas.get(id - 1));
+        return result;
+    }
+
+    /** Schema of a request in its canonical form. */
+    private static String normalize(JsonNode body) {
+        return new Schema.Parser().parse(body.get("schema").asText()).toString();
+    }
+
+    private static Map<String, Object> error(int code, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("error_code", code);
+        result.put("message", message);
+        return result;
+    }
+
+    private static void send(HttpExchange exchange, int status, Object response)
+            throws IOException {
+        byte[] body = MAPPER.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -57,6 +57,7 @@ import org.radarcns.mock.MockProducer;
 import org.radarcns.mock.config.BasicMockConfig;
 import org.radarcns.monitor.AbstractKafkaMonitor;
 import org.radarcns.monitor.KafkaMonitor;
+import org.radarcns.monitor.MonitorState;
 import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
 import org.radarcns.passive.empatica.EmpaticaE4BatteryLevel;
 import org.radarcns.passive.empatica.EmpaticaE4BloodVolumePulse;
@@ -243,7 +244,7 @@ public class PhoneStreamTest {
     }
 
 
-    private static class PhoneOutputMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, Object> {
+    private static class PhoneOutputMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, MonitorState> {
         private final long numRecordsExpected;
         int numRecordsRead;
 
@@ -282,7 +283,7 @@ public class PhoneStreamTest {
         }
     }
 
-    private static class PhoneAggregateMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, Object> {
+    private static class PhoneAggregateMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord, MonitorState> {
         private final long numRecordsExpected;
         int numRecordsRead;
 
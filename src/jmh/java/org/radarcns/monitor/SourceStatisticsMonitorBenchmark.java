@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.RadarPropertyHandlerImpl;
+import org.radarcns.config.SourceStatisticsMonitorConfig;
+import org.radarcns.config.YamlConfigLoader;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4BatteryLevel;
+import org.radarcns.stream.SourceStatistics;
+
+/**
+ * Flushing the source statistics monitor. Each invocation updates all sources once, which
+ * triggers a single batch with the statistics of all sources and stores the state. Producer
+ * acknowledgements are immediate. Divide the number of sources by the reported time to get the
+ * throughput in sources per flush time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SourceStatisticsMonitorBenchmark {
+    private static final String TOPIC = "android_empatica_e4_battery_level";
+
+    /** Number of distinct sources in each flush. */
+    @Param({"10000", "50000"})
+    public int numSources;
+
+    private Path directory;
+    private SourceStatisticsMonitor monitor;
+    private MockProducer<ObservationKey, SourceStatistics> producer;
+    private List<Record> keys;
+    private double timeReceived;
+    private long offset;
+    private ConsumerRecords<GenericRecord, GenericRecord> records;
+
+    /** Create a monitor with a mock producer that acknowledges immediately. */
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("statistics-benchmark");
+
+        SourceStatisticsMonitorConfig statConfig = new SourceStatisticsMonitorConfig();
+        statConfig.setName("source_statistics_benchmark");
+        statConfig.setTopics(Collections.singletonList(TOPIC));
+        statConfig.setOutputTopic("source_statistics_benchmark");
+        statConfig.setMaxBatchSize(numSources);
+        statConfig.setFlushTimeout(Long.MAX_VALUE / 2);
+
+        ConfigRadar config = new ConfigRadar();
+        config.setPersistencePath(directory.resolve("state").toString());
+        config.setSchemaRegistry(Collections.emptyList());
+        config.setBroker(Collections.emptyList());
+        config.setStatisticsMonitors(Collections.singletonList(statConfig));
+        File configFile = directory.resolve("radar.yml").toFile();
+        new YamlConfigLoader().store(configFile, config);
+        RadarPropertyHandler properties = new RadarPropertyHandlerImpl();
+        properties.load(configFile.getAbsolutePath());
+
+        producer = new MockProducer<>(true, null, null);
+        monitor = new SourceStatisticsMonitor(properties, statConfig) {
+            @Override
+            protected Producer<ObservationKey, SourceStatistics> createSender() {
+                return producer;
+            }
+        };
+        monitor.setupSender();
+
+        keys = new ArrayList<>(numSources);
+        for (int i = 0; i < numSources; i++) {
+            Record key = new Record(ObservationKey.getClassSchema());
+            key.put("projectId", "benchmark");
+            key.put("userId", "user-" + (i / 2));
+            key.put("sourceId", "source-" + i);
+            keys.add(key);
+        }
+        timeReceived = 1_500_000_000d;
+        offset = 0L;
+    }
+
+    /** Create records that update the statistics of all sources. */
+    @Setup(Level.Invocation)
+    public void createRecords() {
+        producer.clear();
+        List<ConsumerRecord<GenericRecord, GenericRecord>> recordList = new ArrayList<>(
+                numSources);
+        timeReceived += 1d;
+        for (Record key : keys) {
+            Record value = new Record(EmpaticaE4BatteryLevel.getClassSchema());
+            value.put("time", timeReceived);
+            value.put("timeReceived", timeReceived);
+            value.put("batteryLevel", 0.5f);
+            recordList.add(new ConsumerRecord<>(TOPIC, 0, offset++, key, value));
+        }
+        records = new ConsumerRecords<>(
+                Collections.singletonMap(new TopicPartition(TOPIC, 0), recordList));
+    }
+
+    /** Close the monitor and remove its state. */
+    @TearDown
+    public void tearDown() throws IOException {
+        monitor.cleanUpSender();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public int flush() {
+        monitor.evaluateRecords(records);
+        return producer.history().size();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.stream.collector.AggregateListCollector;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+
+/**
+ * Adding records to the collectors of windowed aggregates. Each invocation aggregates a single
+ * window of records, so the reported time and allocation are per added record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollectorBenchmark {
+    private static final int WINDOW_SIZE = 100;
+    private static final String[] ACCELERATION_FIELDS = {"x", "y", "z"};
+
+    private EmpaticaE4Temperature[] temperatures;
+    private EmpaticaE4Acceleration[] accelerations;
+
+    /** Create a window of records with varying values. */
+    @Setup
+    public void setUp() {
+        temperatures = new EmpaticaE4Temperature[WINDOW_SIZE];
+        accelerations = new EmpaticaE4Acceleration[WINDOW_SIZE];
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            double time = 1_500_000_000d + i * 0.25;
+            temperatures[i] = new EmpaticaE4Temperature(time, time + 1d, 30f + (i % 17) * 0.1f);
+            accelerations[i] = new EmpaticaE4Acceleration(time, time + 1d,
+                    (i % 5) * 0.1f, (i % 7) * -0.1f, 1f);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW_SIZE)
+    public NumericAggregateCollector numericAdd() {
+        NumericAggregateCollector collector = new NumericAggregateCollector(
+                "temperature", EmpaticaE4Temperature.getClassSchema());
+        for (EmpaticaE4Temperature temperature : temperatures) {
+            collector = collector.add(temperature);
+        }
+        return collector;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW_SIZE)
+    public NumericAggregateCollector numericAddCustom() {
+        NumericAggregateCollector collector = new NumericAggregateCollector("temperature");
+        for (EmpaticaE4Temperature temperature : temperatures) {
+            collector = collector.add(temperature.getTemperature().doubleValue());
+        }
+        return collector;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW_SIZE)
+    public AggregateListCollector listAdd() {
+        AggregateListCollector collector = new AggregateListCollector(
+                ACCELERATION_FIELDS, EmpaticaE4Acceleration.getClassSchema());
+        for (EmpaticaE4Acceleration acceleration : accelerations) {
+            collector = collector.add(acceleration);
+        }
+        return collector;
+    }
+}
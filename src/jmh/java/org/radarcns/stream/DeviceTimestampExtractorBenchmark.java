@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+
+/** Extracting the {@code timeReceived} timestamp of a record, including latency recording. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceTimestampExtractorBenchmark {
+    private DeviceTimestampExtractor extractor;
+    private ConsumerRecord<Object, Object> record;
+
+    /** Create a recent record. */
+    @Setup
+    public void setUp() {
+        extractor = new DeviceTimestampExtractor();
+        double time = System.currentTimeMillis() / 1000d;
+        record = new ConsumerRecord<>("android_empatica_e4_temperature", 0, 0L,
+                new ObservationKey("project", "user", "source"),
+                new EmpaticaE4Temperature(time, time, 30f));
+    }
+
+    @Benchmark
+    public long extract() {
+        return extractor.extract(record, -1L);
+    }
+}
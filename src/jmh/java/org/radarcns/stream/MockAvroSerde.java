@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.streams.serdes.avro.SpecificAvroSerde;
+import org.apache.avro.specific.SpecificRecord;
+
+/**
+ * Avro serde that registers its schemas in a shared in-memory schema registry, so that streams
+ * can run on a test driver without a schema registry. Use it as the default key and value serde.
+ * @param <T> record type
+ */
+public class MockAvroSerde<T extends SpecificRecord> extends SpecificAvroSerde<T> {
+    private static final SchemaRegistryClient SCHEMA_REGISTRY = new MockSchemaRegistryClient();
+
+    public MockAvroSerde() {
+        super(SCHEMA_REGISTRY);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.producer.SyntheticRecords;
+import org.radarcns.util.RadarSingletonFactory;
+
+/**
+ * Throughput benchmark of the stream topologies. Each stream definition of the configured stream
+ * masters is run in-process on a {@link TopologyTestDriver}, with an in-memory schema registry.
+ * Synthetic records are generated for a given number of distinct keys and a given record rate per
+ * key. For each definition, the throughput, the number of output and changelog records per input
+ * record and the size of the state stores on disk are reported.
+ *
+ * <p>Record generation and serialization is not included in the throughput. The test driver
+ * commits after every input record, flushing the record caches and state stores, so the
+ * throughput is a lower bound. After each chunk of input records, wall-clock time is advanced by
+ * the commit interval, so the output counts are those of a stream that commits and emits its
+ * aggregates once per chunk. Compare numbers between runs of this benchmark rather than with a
+ * running cluster. Streams that
+ * need external services are excluded by default.
+ */
+public final class TopologyBenchmark {
+    private static final int CHUNK_SIZE = 10_000;
+    private static final String DEFAULT_EXCLUDE = "PhoneUsageStream|SourceStatisticsStream";
+    private static final Options OPTIONS = new Options()
+            .addOption("c", "config", true, "Configuration YAML file (default radar.yml).")
+            .addOption("m", "masters", true, "Comma-separated stream master classes "
+                    + "(default: stream_masters of the configuration).")
+            .addOption("k", "keys", true, "Number of distinct keys (default 100).")
+            .addOption("r", "rate", true, "Records per second per key (default 32).")
+            .addOption("n", "records", true, "Records per stream definition (default 5000).")
+            .addOption("i", "include", true, "Regex of stream classes to include (default all).")
+            .addOption("x", "exclude", true, "Regex of stream classes to exclude (default "
+                    + DEFAULT_EXCLUDE + ").")
+            .addOption("h", "help", false, "Print this help.");
+
+    private final Path stateDirectory;
+    private final int numKeys;
+    private final double rate;
+    private final long numRecords;
+    private final SyntheticRecords records;
+    private final ObservationKey[] keys;
+    private int runs;
+
+    private TopologyBenchmark(Path stateDirectory, int numKeys, double rate, long numRecords) {
+        this.stateDirectory = stateDirectory;
+        this.numKeys = numKeys;
+        this.rate = rate;
+        this.numRecords = numRecords;
+        this.records = new SyntheticRecords();
+        this.keys = new ObservationKey[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = new ObservationKey("benchmark", "user-" + i, "source-" + i);
+        }
+        this.runs = 0;
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args command-line options, see {@code --help}.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLine cli;
+        try {
+            cli = new PosixParser().parse(OPTIONS, args);
+        } catch (ParseException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("topologyBenchmark", OPTIONS);
+            System.exit(1);
+            return;
+        }
+        if (cli.hasOption("help")) {
+            new HelpFormatter().printHelp("topologyBenchmark", OPTIONS);
+            return;
+        }
+
+        RadarPropertyHandler properties = RadarSingletonFactory.getRadarPropertyHandler();
+        properties.load(cli.getOptionValue("config", "radar.yml"));
+        ConfigRadar config = properties.getRadarProperties();
+
+        List<String> masters = cli.hasOption("masters")
+                ? Arrays.asList(cli.getOptionValue("masters").split(","))
+                : config.getStreamMasters();
+        Pattern include = Pattern.compile(cli.getOptionValue("include", ".*"));
+        Pattern exclude = Pattern.compile(cli.getOptionValue("exclude", DEFAULT_EXCLUDE));
+
+        Path stateDirectory = Files.createTempDirectory("topology-benchmark");
+        try {
+            TopologyBenchmark benchmark = new TopologyBenchmark(stateDirectory,
+                    Integer.parseInt(cli.getOptionValue("keys", "100")),
+                    Double.parseDouble(cli.getOptionValue("rate", "32")),
+                    Long.parseLong(cli.getOptionValue("records", "5000")));
+
+            System.out.println(String.format("%-32s %20s %10s %12s %12s %12s %14s",
+                    "stream", "window (ms)", "records", "records/s", "output/in",
+                    "changelog/in", "state bytes"));
+            for (String masterClass : masters) {
+                StreamMaster master = (StreamMaster) Class.forName(masterClass).newInstance();
+                master.setNumberOfThreads(config);
+                List<StreamWorker> workers = new ArrayList<>();
+                master.createWorkers(workers, master);
+                for (StreamWorker worker : workers) {
+                    String name = worker.getClass().getSimpleName();
+                    if (!(worker instanceof KStreamWorker) || !include.matcher(name).matches()
+                            || exclude.matcher(name).matches()) {
+                        continue;
+                    }
+                    KStreamWorker<?, ?> kstreamWorker = (KStreamWorker<?, ?>) worker;
+                    for (StreamDefinition def : kstreamWorker.getStreamDefinitions()) {
+                        System.out.println(benchmark.run(kstreamWorker, def).format(name));
+                    }
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(stateDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /** Run a single stream definition of a worker on a test driver. */
+    private Result run(KStreamWorker<?, ?> worker, StreamDefinition def) throws IOException {
+        Path stateDir = stateDirectory.resolve(String.valueOf(runs++));
+        Properties props = worker.getStreamProperties(def);
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, MockAvroSerde.class);
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, MockAvroSerde.class);
+        props.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        String applicationId = props.getProperty(StreamsConfig.APPLICATION_ID_CONFIG);
+        long commitIntervalMs = new StreamsConfig(props).getLong(
+                StreamsConfig.COMMIT_INTERVAL_MS_CONFIG);
+
+        Map<String, Object> serdeConfig = new HashMap<>();
+        props.forEach((k, v) -> serdeConfig.put(k.toString(), v));
+        Serializer<SpecificRecord> keySerializer = new MockAvroSerde<>().serializer();
+        keySerializer.configure(serdeConfig, true);
+        Serializer<SpecificRecord> valueSerializer = new MockAvroSerde<>().serializer();
+        valueSerializer.configure(serdeConfig, false);
+
+        String inputTopic = def.getInputTopic().getName();
+        String outputTopic = def.getOutputTopic().getName();
+        Schema valueSchema = valueSchema(worker);
+        ConsumerRecordFactory<byte[], byte[]> recordFactory = new ConsumerRecordFactory<>(
+                inputTopic, new ByteArraySerializer(), new ByteArraySerializer());
+
+        long startTime = System.currentTimeMillis();
+        TopologyTestDriver driver = new TopologyTestDriver(
+                worker.createTopology(def, null), props, startTime);
+        Result result = new Result(def.getTimeWindows());
+        try {
+            List<ConsumerRecord<byte[], byte[]>> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (long offset = 0; offset < numRecords; offset += CHUNK_SIZE) {
+                chunk.clear();
+                for (long i = offset; i < Math.min(offset + CHUNK_SIZE, numRecords); i++) {
+                    double time = startTime / 1000d + (i / numKeys) / rate;
+                    byte[] key = keySerializer.serialize(inputTopic, keys[(int) (i % numKeys)]);
+                    byte[] value = valueSerializer.serialize(inputTopic,
+                            records.create(valueSchema, time));
+                    chunk.add(recordFactory.create(key, value, (long) (time * 1000d)));
+                }
+
+                long start = System.nanoTime();
+                driver.pipeInput(chunk);
+                driver.advanceWallClockTime(commitIntervalMs);
+                result.nanos += System.nanoTime() - start;
+                result.input += chunk.size();
+
+                result.output += drain(driver, outputTopic);
+                for (String store : driver.getAllStateStores().keySet()) {
+                    result.changelog += drain(driver,
+                            applicationId + '-' + store + "-changelog");
+                }
+            }
+            driver.getAllStateStores().values().forEach(StateStore::flush);
+            result.stateBytes = KStreamWorker.directorySize(stateDir);
+        } finally {
+            driver.close();
+        }
+        return result;
+    }
+
+    /** Read and count all records that were sent to given topic. */
+    private static long drain(TopologyTestDriver driver, String topic) {
+        long count = 0;
+        while (driver.readOutput(topic) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Schema of the value type of given worker. */
+    private static Schema valueSchema(KStreamWorker<?, ?> worker) {
+        Class<?> workerClass = worker.getClass();
+        while (workerClass.getSuperclass() != KStreamWorker.class) {
+            workerClass = workerClass.getSuperclass();
+        }
+        Type valueType = ((ParameterizedType) workerClass.getGenericSuperclass())
+                .getActualTypeArguments()[1];
+        return SpecificData.get().getSchema(valueType);
+    }
+
+    /** Measurements of a single stream definition. */
+    private static class Result {
+        private final TimeWindows window;
+        private long input;
+        private long output;
+        private long changelog;
+        private long nanos;
+        private long stateBytes;
+
+        private Result(TimeWindows window) {
+            this.window = window;
+        }
+
+        private String format(String name) {
+            String windowString = window == null ? "-"
+                    : window.sizeMs + "/" + window.advanceMs;
+            return String.format("%-32s %20s %10d %12.0f %12.3f %12.3f %14d",
+                    name, windowString, input, input * 1e9 / nanos,
+                    output / (double) input, changelog / (double) input, stateBytes);
+        }
+    }
+}
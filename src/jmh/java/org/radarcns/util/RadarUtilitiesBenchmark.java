@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.kafka.AggregateKey;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.stream.aggregator.AggregateList;
+import org.radarcns.stream.aggregator.NumericAggregate;
+import org.radarcns.stream.collector.AggregateListCollector;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+
+/** Conversion of collectors to Avro records when windowed aggregates are emitted. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RadarUtilitiesBenchmark {
+    private static final int WINDOW_SIZE = 100;
+
+    private RadarUtilities utilities;
+    private Windowed<ObservationKey> window;
+    private NumericAggregateCollector numericCollector;
+    private AggregateListCollector listCollector;
+
+    /** Create collectors of a single window. */
+    @Setup
+    public void setUp() {
+        utilities = RadarSingletonFactory.getRadarUtilities();
+        window = new Windowed<>(new ObservationKey("project", "user", "source"),
+                new TimeWindow(1_500_000_000_000L, 1_500_000_010_000L));
+        numericCollector = new NumericAggregateCollector("temperature",
+                EmpaticaE4Temperature.getClassSchema());
+        listCollector = new AggregateListCollector(new String[] {"x", "y", "z"},
+                EmpaticaE4Acceleration.getClassSchema());
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            double time = 1_500_000_000d + i * 0.1;
+            numericCollector.add(new EmpaticaE4Temperature(time, time, 30f + (i % 17) * 0.1f));
+            listCollector.add(new EmpaticaE4Acceleration(time, time,
+                    (i % 5) * 0.1f, (i % 7) * -0.1f, 1f));
+        }
+    }
+
+    @Benchmark
+    public KeyValue<AggregateKey, NumericAggregate> numericCollectorToAvro() {
+        return utilities.numericCollectorToAvro(window, numericCollector);
+    }
+
+    @Benchmark
+    public KeyValue<AggregateKey, AggregateList> listCollectorToAvro() {
+        return utilities.listCollectorToAvro(window, listCollector);
+    }
+}
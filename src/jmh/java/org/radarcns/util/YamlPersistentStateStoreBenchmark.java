@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.kafka.ObservationKey;
+
+/** Encoding of monitor state keys, which is done for every evaluated record. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YamlPersistentStateStoreBenchmark {
+    private Path directory;
+    private YamlPersistentStateStore stateStore;
+    private ObservationKey key;
+    private String keyString;
+    private ObservationKey escapedKey;
+    private String escapedKeyString;
+
+    /** Create a state store with a plain key and a key that needs escaping. */
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("state-benchmark");
+        stateStore = new YamlPersistentStateStore(directory.toFile());
+        key = new ObservationKey("radar-test", "4ab9b985-6eec-4e51-9a29-f4c571c89f99",
+                "0d29e7e9-1db9-4a3c-a8a9-0c5f5e8d0b5d");
+        keyString = stateStore.keyToString(key);
+        escapedKey = new ObservationKey("radar#test", "user\\1", "source#1");
+        escapedKeyString = stateStore.keyToString(escapedKey);
+    }
+
+    /** Remove the state store directory. */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public String keyToString() {
+        return stateStore.keyToString(key);
+    }
+
+    @Benchmark
+    public ObservationKey stringToKey() {
+        return stateStore.stringToKey(keyString);
+    }
+
+    @Benchmark
+    public String escapedKeyToString() {
+        return stateStore.keyToString(escapedKey);
+    }
+
+    @Benchmark
+    public ObservationKey escapedStringToKey() {
+        return stateStore.stringToKey(escapedKeyString);
+    }
+}
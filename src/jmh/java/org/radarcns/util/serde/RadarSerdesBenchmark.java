@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.serde;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.serialization.Serde;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.stream.collector.AggregateListCollector;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+
+/**
+ * JSON round-trips of the collectors, as done by the state stores of windowed aggregates on
+ * every update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RadarSerdesBenchmark {
+    private static final String TOPIC = "benchmark";
+
+    /** Number of values in each collector. */
+    @Param({"10", "100"})
+    public int numValues;
+
+    private Serde<NumericAggregateCollector> numericSerde;
+    private Serde<AggregateListCollector> listSerde;
+    private NumericAggregateCollector numericCollector;
+    private AggregateListCollector listCollector;
+
+    /** Create collectors with given number of values. */
+    @Setup
+    public void setUp() {
+        numericSerde = RadarSerdes.getInstance().getNumericAggregateCollector();
+        listSerde = RadarSerdes.getInstance().getAggregateListCollector();
+        numericCollector = new NumericAggregateCollector("temperature",
+                EmpaticaE4Temperature.getClassSchema());
+        listCollector = new AggregateListCollector(new String[] {"x", "y", "z"},
+                EmpaticaE4Acceleration.getClassSchema());
+        for (int i = 0; i < numValues; i++) {
+            double time = 1_500_000_000d + i * 0.25;
+            numericCollector.add(new EmpaticaE4Temperature(time, time, 30f + (i % 17) * 0.1f));
+            listCollector.add(new EmpaticaE4Acceleration(time, time,
+                    (i % 5) * 0.1f, (i % 7) * -0.1f, 1f));
+        }
+    }
+
+    @Benchmark
+    public NumericAggregateCollector numericRoundTrip() {
+        byte[] data = numericSerde.serializer().serialize(TOPIC, numericCollector);
+        return numericSerde.deserializer().deserialize(TOPIC, data);
+    }
+
+    @Benchmark
+    public AggregateListCollector listRoundTrip() {
+        byte[] data = listSerde.serializer().serialize(TOPIC, listCollector);
+        return listSerde.deserializer().deserialize(TOPIC, data);
+    }
+}
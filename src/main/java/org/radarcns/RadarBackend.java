@@ -25,8 +25,12 @@ import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.config.SubCommand;
 import org.radarcns.monitor.KafkaMonitorFactory;
 import org.radarcns.producer.MockProducerCommand;
+import org.radarcns.producer.ReplayCommand;
+import org.radarcns.stream.BackfillCommand;
 import org.radarcns.stream.KafkaStreamFactory;
+import org.radarcns.stream.batch.AggregateCommand;
 import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricsHttpServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +42,7 @@ public final class RadarBackend {
     private final RadarBackendOptions options;
     private final RadarPropertyHandler radarPropertyHandler;
     private SubCommand command;
+    private MetricsHttpServer metricsServer;
 
     public RadarBackend(@Nonnull RadarBackendOptions options) throws IOException {
         this(options, createPropertyHandler(options));
@@ -71,6 +76,12 @@ public final class RadarBackend {
                 return new KafkaMonitorFactory(options, radarPropertyHandler).createMonitor();
             case "mock":
                 return new MockProducerCommand(options, radarPropertyHandler);
+            case "replay":
+                return new ReplayCommand(options, radarPropertyHandler);
+            case "aggregate":
+                return new AggregateCommand(options);
+            case "backfill":
+                return new BackfillCommand(options, radarPropertyHandler);
             default:
                 throw new IllegalArgumentException("Unknown subcommand "
                         + options.getSubCommand());
@@ -108,6 +119,12 @@ public final class RadarBackend {
     public void start() throws IOException, InterruptedException {
         log.info("STARTING");
 
+        Integer metricsPort = radarPropertyHandler.getRadarProperties().getMetricsPort();
+        if (metricsPort != null) {
+            metricsServer = new MetricsHttpServer(
+                    RadarSingletonFactory.getMetricsRegistry(), metricsPort);
+        }
+
         command = createCommand();
         command.start();
 
@@ -125,6 +142,11 @@ public final class RadarBackend {
 
         command.shutdown();
 
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+
         log.info("FINISHED");
     }
 
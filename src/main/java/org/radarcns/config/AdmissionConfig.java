@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * POJO representing the admission control of a single input topic. Each source of the topic
+ * may send up to {@code rate * tolerance} records per second, with bursts of up to
+ * {@code burst_seconds} of records at that rate. Excess records are dropped or downsampled.
+ */
+public class AdmissionConfig {
+    /** Expected number of records per second of a single source. */
+    private double rate;
+
+    /** Factor of the expected rate that a source may send before it is limited. */
+    private double tolerance = 2.0;
+
+    /** Number of seconds of records at the allowed rate that may arrive at once. */
+    @JsonProperty("burst_seconds")
+    private double burstSeconds = 10.0;
+
+    /** What to do with excess records: drop or downsample. */
+    private String excess = "drop";
+
+    /** When downsampling, admit one of every this number of excess records. */
+    private int downsample = 10;
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getBurstSeconds() {
+        return burstSeconds;
+    }
+
+    public void setBurstSeconds(double burstSeconds) {
+        this.burstSeconds = burstSeconds;
+    }
+
+    public String getExcess() {
+        return excess;
+    }
+
+    public void setExcess(String excess) {
+        this.excess = excess;
+    }
+
+    public int getDownsample() {
+        return downsample;
+    }
+
+    public void setDownsample(int downsample) {
+        this.downsample = downsample;
+    }
+}
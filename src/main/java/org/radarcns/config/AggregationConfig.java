@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.config;
+
+import java.util.List;
+
+/**
+ * POJO representing the aggregations of a single input topic. Unset properties keep the
+ * aggregations that the stream defines.
+ */
+public class AggregationConfig {
+    /** Lowercase names of the time windows to aggregate in, e.g. {@code one_hour}. */
+    private List<String> windows;
+
+    /** Fields to aggregate, for streams that aggregate multiple fields. */
+    private List<String> fields;
+
+    public List<String> getWindows() {
+        return windows;
+    }
+
+    public void setWindows(List<String> windows) {
+        this.windows = windows;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+}
@@ -45,6 +45,8 @@ public class ConfigRadar {
     private BatteryMonitorConfig batteryMonitor;
     @JsonProperty("disconnect_monitor")
     private DisconnectMonitorConfig disconnectMonitor;
+    @JsonProperty("lag_monitor")
+    private LagMonitorConfig lagMonitor;
     @JsonProperty("statistics_monitors")
     private List<SourceStatisticsMonitorConfig> statisticsMonitors;
     @JsonProperty("stream_masters")
@@ -58,6 +60,23 @@ public class ConfigRadar {
     @JsonProperty("build_version")
     private String buildVersion;
 
+    @JsonProperty("metrics_port")
+    private Integer metricsPort;
+
+    private RocksDbConfig rocksdb;
+
+    @JsonProperty("in_memory_windows")
+    private InMemoryWindowConfig inMemoryWindows;
+
+    @JsonProperty("window_grace")
+    private Map<String, Long> windowGrace;
+
+    private Map<String, AdmissionConfig> admission;
+
+    private DedupConfig dedup;
+
+    private Map<String, AggregationConfig> aggregations;
+
     public Date getReleased() {
         return released;
     }
@@ -220,6 +239,14 @@ public class ConfigRadar {
         this.disconnectMonitor = disconnectMonitor;
     }
 
+    public LagMonitorConfig getLagMonitor() {
+        return lagMonitor;
+    }
+
+    public void setLagMonitor(LagMonitorConfig lagMonitor) {
+        this.lagMonitor = lagMonitor;
+    }
+
     public List<String> getStreamMasters() {
         return streamMasters;
     }
@@ -257,6 +284,69 @@ public class ConfigRadar {
         this.buildVersion = buildVersion;
     }
 
+    /** Port of the HTTP metrics endpoint, or null if it is disabled. */
+    public Integer getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(Integer metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /** RocksDB memory limits, or null to use the defaults. */
+    public RocksDbConfig getRocksdb() {
+        return rocksdb;
+    }
+
+    public void setRocksdb(RocksDbConfig rocksdb) {
+        this.rocksdb = rocksdb;
+    }
+
+    /** In-memory window stores for short windows, or null to keep all windows in RocksDB. */
+    public InMemoryWindowConfig getInMemoryWindows() {
+        return inMemoryWindows;
+    }
+
+    public void setInMemoryWindows(InMemoryWindowConfig inMemoryWindows) {
+        this.inMemoryWindows = inMemoryWindows;
+    }
+
+    /** Grace period in seconds per lowercase time window name, or null to use the defaults. */
+    public Map<String, Long> getWindowGrace() {
+        return windowGrace;
+    }
+
+    public void setWindowGrace(Map<String, Long> windowGrace) {
+        this.windowGrace = windowGrace;
+    }
+
+    /** Admission control per input topic, or null to admit all records. */
+    public Map<String, AdmissionConfig> getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(Map<String, AdmissionConfig> admission) {
+        this.admission = admission;
+    }
+
+    /** Duplicate elimination before aggregation, or null to aggregate all records. */
+    public DedupConfig getDedup() {
+        return dedup;
+    }
+
+    public void setDedup(DedupConfig dedup) {
+        this.dedup = dedup;
+    }
+
+    /** Aggregations per input topic, or null to run the aggregations of each stream. */
+    public Map<String, AggregationConfig> getAggregations() {
+        return aggregations;
+    }
+
+    public void setAggregations(Map<String, AggregationConfig> aggregations) {
+        this.aggregations = aggregations;
+    }
+
     public List<SourceStatisticsMonitorConfig> getStatisticsMonitors() {
         return statisticsMonitors;
     }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * POJO representing the elimination of duplicate records before aggregation. Records with the
+ * same key and time within the horizon are considered duplicates.
+ */
+public class DedupConfig {
+    /** Minimum number of seconds of record time over which duplicates are detected. */
+    @JsonProperty("horizon_seconds")
+    private long horizonSeconds = 3600L;
+
+    /** Expected number of records per stream task per horizon. */
+    @JsonProperty("expected_records")
+    private long expectedRecords = 100_000L;
+
+    /** Fraction of unique records that may be mistaken for a duplicate. */
+    @JsonProperty("false_positive_rate")
+    private double falsePositiveRate = 0.0001;
+
+    public long getHorizonSeconds() {
+        return horizonSeconds;
+    }
+
+    public void setHorizonSeconds(long horizonSeconds) {
+        this.horizonSeconds = horizonSeconds;
+    }
+
+    public long getExpectedRecords() {
+        return expectedRecords;
+    }
+
+    public void setExpectedRecords(long expectedRecords) {
+        this.expectedRecords = expectedRecords;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * POJO representing the in-memory window stores of short windows. Without this configuration,
+ * all windows are kept in RocksDB.
+ */
+public class InMemoryWindowConfig {
+    /**
+     * Serialized size in bytes of the aggregates of a single store instance above which a
+     * warning is logged.
+     */
+    @JsonProperty("max_bytes")
+    private long maxBytes = 64L * 1024 * 1024;
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
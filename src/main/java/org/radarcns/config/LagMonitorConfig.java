@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * POJO representing a consumer lag monitor configuration. Alerts are sent to all configured
+ * email addresses.
+ */
+public class LagMonitorConfig extends MonitorConfig {
+    /** Interval in seconds between lag computations. */
+    private long interval = 60L;
+
+    /** Number of consecutive intervals of growing lag after which an alert is sent. */
+    @JsonProperty("alert_after")
+    private int alertAfter = 5;
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getAlertAfter() {
+        return alertAfter;
+    }
+
+    public void setAlertAfter(int alertAfter) {
+        this.alertAfter = alertAfter;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * POJO representing a load test of the mock command. Each device sends records on every topic
+ * at the frequency of that topic, directly to Kafka.
+ */
+public class LoadTestConfig {
+    /** Number of simulated devices, each with its own key. */
+    private int devices = 1000;
+
+    /** Number of threads generating records. */
+    private int threads = 1;
+
+    /** Duration of the test in seconds, or 0 to run until stopped. */
+    private long duration = 0L;
+
+    /** Time in seconds to reach the full rate. */
+    @JsonProperty("ramp_up")
+    private long rampUp = 0L;
+
+    /** Number of equal steps to ramp up with, or 0 to ramp up linearly. */
+    @JsonProperty("ramp_steps")
+    private int rampSteps = 0;
+
+    /** Interval in seconds between throughput reports. */
+    @JsonProperty("report_interval")
+    private long reportInterval = 10L;
+
+    /**
+     * Whether records are sent at their scheduled times regardless of how long sending previous
+     * records took. Latency is then measured from the scheduled time, which avoids coordinated
+     * omission. Otherwise, records that fall behind schedule are skipped and latency is measured
+     * from the actual send time.
+     */
+    @JsonProperty("open_loop")
+    private boolean openLoop = true;
+
+    /** Kafka producer properties, for example batching and compression settings. */
+    private Map<String, String> producer = Collections.emptyMap();
+
+    private List<TopicConfig> topics = Collections.emptyList();
+
+    public int getDevices() {
+        return devices;
+    }
+
+    public void setDevices(int devices) {
+        this.devices = devices;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getRampUp() {
+        return rampUp;
+    }
+
+    public void setRampUp(long rampUp) {
+        this.rampUp = rampUp;
+    }
+
+    public int getRampSteps() {
+        return rampSteps;
+    }
+
+    public void setRampSteps(int rampSteps) {
+        this.rampSteps = rampSteps;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public boolean isOpenLoop() {
+        return openLoop;
+    }
+
+    public void setOpenLoop(boolean openLoop) {
+        this.openLoop = openLoop;
+    }
+
+    public Map<String, String> getProducer() {
+        return producer;
+    }
+
+    public void setProducer(Map<String, String> producer) {
+        this.producer = producer;
+    }
+
+    public List<TopicConfig> getTopics() {
+        return topics;
+    }
+
+    public void setTopics(List<TopicConfig> topics) {
+        this.topics = topics;
+    }
+
+    /** Topic to send records to. */
+    public static class TopicConfig {
+        private String topic;
+
+        /** Fully qualified class name of the specific Avro value record. */
+        @JsonProperty("value_schema")
+        private String valueSchema;
+
+        /** Records per second per device. */
+        private double frequency;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public String getValueSchema() {
+            return valueSchema;
+        }
+
+        public void setValueSchema(String valueSchema) {
+            this.valueSchema = valueSchema;
+        }
+
+        public double getFrequency() {
+            return frequency;
+        }
+
+        public void setFrequency(double frequency) {
+            this.frequency = frequency;
+        }
+    }
+}
@@ -16,12 +16,16 @@
 
 package org.radarcns.config;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 import org.radarcns.mock.config.MockDataConfig;
 
 public class MockConfig {
     private List<MockDataConfig> data;
 
+    @JsonProperty("load_test")
+    private LoadTestConfig loadTest;
+
     public List<MockDataConfig> getData() {
         return data;
     }
@@ -29,4 +33,12 @@ public class MockConfig {
     public void setData(List<MockDataConfig> data) {
         this.data = data;
     }
+
+    public LoadTestConfig getLoadTest() {
+        return loadTest;
+    }
+
+    public void setLoadTest(LoadTestConfig loadTest) {
+        this.loadTest = loadTest;
+    }
 }
@@ -43,6 +43,13 @@ public class MonitorConfig {
     @JsonProperty("message")
     private String message = null;
 
+    /** Time in seconds after which sources that are no longer seen are removed from state. */
+    @JsonProperty("state_ttl")
+    private long stateTtl = 0L;
+
+    @JsonProperty("archive_expired_state")
+    private boolean archiveExpiredState = false;
+
     public List<NotifyConfig> getNotifyConfig() {
         return notifyConfig;
     }
@@ -98,4 +105,20 @@ public class MonitorConfig {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public long getStateTtl() {
+        return stateTtl;
+    }
+
+    public void setStateTtl(long stateTtl) {
+        this.stateTtl = stateTtl;
+    }
+
+    public boolean isArchiveExpiredState() {
+        return archiveExpiredState;
+    }
+
+    public void setArchiveExpiredState(boolean archiveExpiredState) {
+        this.archiveExpiredState = archiveExpiredState;
+    }
 }
@@ -17,6 +17,8 @@
 package org.radarcns.config;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import javax.annotation.Nonnull;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
@@ -32,10 +34,20 @@ public class RadarBackendOptions {
     private final String[] subCommandArgs;
     public static final Options OPTIONS = new Options()
             .addOption("c", "config", true, "Configuration YAML file")
-            .addOption("d", "devices", true, "Number of devices to use with the mock command.")
+            .addOption("d", "devices", true,
+                    "Number of devices to use with the mock and replay commands.")
             .addOption("D", "direct", false, "The mock device will bypass the rest-proxy and use "
                     + "the Kafka Producer API instead.")
-            .addOption("f", "file", true, "Read mock data from given configuration file.");
+            .addOption("f", "file", true, "Read mock data from given configuration file.")
+            .addOption("s", "speed", true, "Time acceleration of the replay command, "
+                    + "or 0 to replay as fast as possible (default 1).")
+            .addOption("r", "repeat", true, "Number of times to replay the recordings.")
+            .addOption("t", "threads", true, "Number of threads of the aggregate command "
+                    + "(default: number of processors).")
+            .addOption("w", "windows", true, "Comma-separated windows to recompute with the "
+                    + "backfill command, like 10sec,1min (default: all).")
+            .addOption("o", "output-suffix", true, "Suffix to append to the output topics of "
+                    + "the backfill command (required).");
 
 
     /**
@@ -74,6 +86,28 @@ public class RadarBackendOptions {
         return this.cli.hasOption("direct");
     }
 
+    public double getReplaySpeed() {
+        return Double.parseDouble(this.cli.getOptionValue("speed", "1"));
+    }
+
+    public int getReplayRepeat() {
+        return Integer.parseInt(this.cli.getOptionValue("repeat", "1"));
+    }
+
+    public int getNumThreads() {
+        return Integer.parseInt(this.cli.getOptionValue("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public List<String> getBackfillWindows() {
+        String windows = this.cli.getOptionValue("windows", null);
+        return windows == null ? null : Arrays.asList(windows.split(","));
+    }
+
+    public String getBackfillOutputSuffix() {
+        return this.cli.getOptionValue("output-suffix", null);
+    }
+
     public File getMockFile() {
         String file = this.cli.getOptionValue("file", null);
         if (file == null) {
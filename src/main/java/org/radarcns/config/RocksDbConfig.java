@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.HashMap;
+import java.util.Map;
+import org.radarcns.config.RadarPropertyHandler.Priority;
+
+/**
+ * POJO representing the off-heap memory limits of the RocksDB state stores of all streams.
+ * Sizes are in bytes.
+ */
+public class RocksDbConfig {
+    /** Budget for the block caches and memtables of all RocksDB instances in the process. */
+    @JsonProperty("memory_budget_bytes")
+    private long memoryBudgetBytes = 512L * 1024 * 1024;
+
+    /** Block cache size of each RocksDB instance, including index and filter blocks. */
+    @JsonProperty("block_cache_bytes")
+    private long blockCacheBytes = 1024L * 1024;
+
+    /** Size of a single memtable of each RocksDB instance, by stream priority. */
+    @JsonProperty("write_buffer_bytes")
+    private Map<String, Long> writeBufferBytes = new HashMap<>();
+
+    /** Maximum number of memtables of each RocksDB instance. */
+    @JsonProperty("max_write_buffers")
+    private int maxWriteBuffers = 2;
+
+    /** Compression of the stored values: none, snappy, lz4 or zstd. */
+    private String compression = "lz4";
+
+    public RocksDbConfig() {
+        writeBufferBytes.put(Priority.LOW.getParam(), 1024L * 1024);
+        writeBufferBytes.put(Priority.NORMAL.getParam(), 2L * 1024 * 1024);
+        writeBufferBytes.put(Priority.HIGH.getParam(), 4L * 1024 * 1024);
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public void setBlockCacheBytes(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+    }
+
+    public Map<String, Long> getWriteBufferBytes() {
+        return writeBufferBytes;
+    }
+
+    /** Memtable size of given priority, or of normal priority if it is not configured. */
+    public long getWriteBufferBytes(Priority priority) {
+        Long bytes = priority != null ? writeBufferBytes.get(priority.getParam()) : null;
+        if (bytes == null) {
+            bytes = writeBufferBytes.get(Priority.NORMAL.getParam());
+        }
+        return bytes != null ? bytes : 2L * 1024 * 1024;
+    }
+
+    /** Merge the configured memtable sizes with the default ones. */
+    public void setWriteBufferBytes(Map<String, Long> writeBufferBytes) {
+        this.writeBufferBytes.putAll(writeBufferBytes);
+    }
+
+    public int getMaxWriteBuffers() {
+        return maxWriteBuffers;
+    }
+
+    public void setMaxWriteBuffers(int maxWriteBuffers) {
+        this.maxWriteBuffers = maxWriteBuffers;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+}
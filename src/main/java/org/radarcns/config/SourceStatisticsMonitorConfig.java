@@ -17,6 +17,13 @@ public class SourceStatisticsMonitorConfig {
     @JsonProperty("flush_timeout")
     private long flushTimeout = 60_000L;
 
+    /** Time in seconds after which sources that are no longer seen are removed from state. */
+    @JsonProperty("state_ttl")
+    private long stateTtl = 0L;
+
+    @JsonProperty("archive_expired_state")
+    private boolean archiveExpiredState = false;
+
     public List<String> getTopics() {
         return topics;
     }
@@ -49,6 +56,22 @@ public class SourceStatisticsMonitorConfig {
         this.flushTimeout = flushTimeout;
     }
 
+    public long getStateTtl() {
+        return stateTtl;
+    }
+
+    public void setStateTtl(long stateTtl) {
+        this.stateTtl = stateTtl;
+    }
+
+    public boolean isArchiveExpiredState() {
+        return archiveExpiredState;
+    }
+
+    public void setArchiveExpiredState(boolean archiveExpiredState) {
+        this.archiveExpiredState = archiveExpiredState;
+    }
+
     public String getName() {
         return name;
     }
@@ -17,30 +17,48 @@
 package org.radarcns.monitor;
 
 import static io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.CLIENT_ID_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.GROUP_ID_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG;
 
 import io.confluent.kafka.serializers.KafkaAvroDeserializer;
 import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.RangeAssignor;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.InterruptException;
@@ -49,28 +67,71 @@ import org.apache.kafka.common.errors.WakeupException;
 import org.radarcns.config.ConfigRadar;
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.kafka.ObservationKey;
+import org.radarcns.monitor.MonitorState.ExpiredState;
 import org.radarcns.util.PersistentStateStore;
+import org.radarcns.util.RadarSingletonFactory;
 import org.radarcns.util.RollingTimeAverage;
+import org.radarcns.util.metrics.Histogram;
+import org.radarcns.util.metrics.MetricGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Monitor a list of topics for anomalous behavior.
+ *
+ * <p>Offsets are committed manually, only after the state has been stored. The stored state
+ * includes the offsets it reflects, so on restart the monitor seeks to those offsets and
+ * reprocesses only the records after the last checkpoint.
+ *
+ * <p>State is segmented by topic partition: the records of each partition update their own
+ * segment, so each segment is owned by the single monitor instance that is assigned its
+ * partition, and a monitor can be scaled out by starting more instances with the same group ID.
+ * Segments are loaded when their partitions are assigned and stored and dropped when they are
+ * revoked. To hand off state between hosts, all instances should share the same
+ * {@code persistence_path}. Monitors that override {@link #isSegmented()} keep a single state
+ * for all partitions instead, and should run as a single instance. Monitors that override
+ * {@link #isCoPartitioned()} are assigned the same partitions of every topic, so that all
+ * segments of a key are owned by the same instance.
+ *
+ * <p>State stored by earlier versions, which kept a single state per monitor, is loaded as a
+ * legacy segment by the instance that owns the first partition of the first topic. It is
+ * included in {@link #getStates()}, and the state of a key moves to its partition segment when
+ * {@link #getState(TopicPartition, String)} is called for it. Once the legacy segment holds no
+ * more keys, it is dropped.
+ *
+ * <p>Only segments that were modified since they were last stored are stored again. Segments
+ * retrieved with {@link #getState(TopicPartition)} are marked as modified; subclasses that
+ * modify segments retrieved with {@link #getStates()} should call {@link #markModified}.
  * @param <K> record key type
  * @param <V> record value type
  * @param <S> state type
  */
-public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
+public abstract class AbstractKafkaMonitor<K, V, S extends MonitorState>
+        implements KafkaMonitor {
     private static final Logger logger = LoggerFactory.getLogger(AbstractKafkaMonitor.class);
 
     protected final Collection<String> topics;
-    protected final S state;
 
     private final PersistentStateStore stateStore;
     private final Properties properties;
     private final AtomicLong pollTimeout;
     private final String groupId;
     private final String clientId;
+    private final Map<TopicPartition, OffsetAndMetadata> uncommittedOffsets;
+    private final Supplier<S> stateFactory;
+    private final Map<TopicPartition, S> segments;
+    private final Set<TopicPartition> revokedSegments;
+    private final TopicPartition legacyOwner;
+    private S legacySegment;
+    private final Set<S> modifiedSegments;
+    private BinaryOperator<ConsumerRecord<K, V>> recordReducer;
+    private final AtomicLong numExpiredKeys;
+    private volatile long stateTtl;
+    private volatile boolean archiveExpiredState;
+    private final MetricGroup metrics;
+    private final Histogram storeTime;
+    private final Histogram commitTime;
+    private volatile double recordsPerSecond;
 
     private KafkaConsumer consumer;
     private boolean done;
@@ -84,10 +145,10 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
      * @param topics topics to monitor
      * @param groupId Kafka group ID
      * @param clientId Kafka client ID
-     * @param stateDefault default state. If null, no state may be used.
+     * @param stateFactory creates an empty state segment. If null, no state may be used.
      */
     public AbstractKafkaMonitor(RadarPropertyHandler radar, Collection<String> topics,
-            String groupId, String clientId, S stateDefault) {
+            String groupId, String clientId, Supplier<S> stateFactory) {
         if (topics == null || topics.isEmpty()) {
             throw new IllegalArgumentException("Cannot start monitor without topics.");
         }
@@ -99,8 +160,7 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
         properties.setProperty(VALUE_DESERIALIZER_CLASS_CONFIG, deserializer);
         properties.setProperty(GROUP_ID_CONFIG, groupId);
         properties.setProperty(CLIENT_ID_CONFIG, monitorClientId);
-        properties.setProperty(ENABLE_AUTO_COMMIT_CONFIG, "true");
-        properties.setProperty(AUTO_COMMIT_INTERVAL_MS_CONFIG, "1001");
+        properties.setProperty(ENABLE_AUTO_COMMIT_CONFIG, "false");
         properties.setProperty(SESSION_TIMEOUT_MS_CONFIG, "15101");
         properties.setProperty(HEARTBEAT_INTERVAL_MS_CONFIG, "7500");
 
@@ -114,31 +174,40 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
         this.done = false;
         this.clientId = monitorClientId;
         this.groupId = groupId;
+        this.uncommittedOffsets = new HashMap<>();
+        this.stateFactory = stateFactory;
+        this.segments = new ConcurrentHashMap<>();
+        this.revokedSegments = new HashSet<>();
+        this.legacyOwner = new TopicPartition(topics.iterator().next(), 0);
+        this.legacySegment = null;
+        this.modifiedSegments = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        this.numExpiredKeys = new AtomicLong(0L);
+        this.stateTtl = 0L;
+        this.archiveExpiredState = false;
+        this.recordsPerSecond = 0.0;
+
+        this.metrics = RadarSingletonFactory.getMetricsRegistry()
+                .group("monitor", monitorClientId);
+        this.storeTime = metrics.histogram("store_time_us");
+        this.commitTime = metrics.histogram("commit_time_us");
+        metrics.gauge("records_per_second", () -> recordsPerSecond);
+        metrics.gauge("segments", () -> getStates().size());
+        metrics.gauge("live_keys", this::getNumberOfLiveKeys);
+        metrics.gauge("expired_keys", this::getNumberOfExpiredKeys);
 
         PersistentStateStore localStateStore;
         try {
             localStateStore = radar.getPersistentStateStore();
         } catch (IOException ex) {
-            logger.warn("Cannot get persistent state store {}. Not persisting state.",
-                    stateDefault.getClass().getName(), ex);
+            logger.warn("Cannot get persistent state store. Not persisting state.", ex);
             localStateStore = null;
         }
         this.stateStore = localStateStore;
 
-        S localState = stateDefault;
-        if (stateStore != null && stateDefault != null) {
-            try {
-                localState = stateStore.retrieveState(groupId, monitorClientId, stateDefault);
-                logger.info("Using existing {} from persistence store.",
-                        stateDefault.getClass().getName());
-            } catch (IOException ex) {
-                logger.warn("Cannot retrieve persistent state {}. Restarting from empty state.",
-                        stateDefault.getClass().getName(), ex);
-            }
-        } else if (stateDefault != null) {
+        if (stateStore == null && stateFactory != null) {
             logger.info("Persistence path not specified; not retrieving or storing state.");
         }
-        state = localState;
     }
 
     /**
@@ -148,6 +217,90 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
         this.properties.putAll(properties);
     }
 
+    /**
+     * Reduce all records with the same key and topic partition in a single poll to a single
+     * record before evaluating them. With a reducer set, {@link #evaluateRecord(ConsumerRecord)}
+     * is called once per distinct key in a poll, in order of first occurrence, instead of once
+     * per record. Offsets of all records are still tracked.
+     * @param reducer function that reduces an earlier and a later record to a single record, or
+     *                null to evaluate each record individually.
+     */
+    protected final void setRecordReducer(BinaryOperator<ConsumerRecord<K, V>> reducer) {
+        this.recordReducer = reducer;
+    }
+
+    /**
+     * Expire the state of keys that have not been updated for a given duration. Expired keys are
+     * found without scanning all state, in time proportional to the number of expired keys.
+     * @param ttl time to live in milliseconds, or 0 to keep all state.
+     * @param archive whether to append expired state to the archive of the persistent state
+     *                store, so that it can still be inspected.
+     */
+    public void setStateExpiry(long ttl, boolean archive) {
+        this.stateTtl = ttl;
+        this.archiveExpiredState = archive;
+    }
+
+    /**
+     * Mark a key of a state segment as updated now, if state expiry is enabled. Keys that are
+     * never marked are never expired.
+     */
+    protected void markUpdated(S segment, String key, long time) {
+        if (stateTtl > 0) {
+            segment.touch(key, time);
+        }
+        markModified(segment);
+    }
+
+    /** Mark a state segment as modified, so that it is stored with the next state. */
+    protected void markModified(S segment) {
+        modifiedSegments.add(segment);
+    }
+
+    /** Number of keys in the loaded state segments that are tracked for expiry. */
+    public long getNumberOfLiveKeys() {
+        long numKeys = 0;
+        for (S segment : getStates()) {
+            numKeys += segment.numberOfKeys();
+        }
+        return numKeys;
+    }
+
+    /** Number of keys that were expired since the monitor was created. */
+    public long getNumberOfExpiredKeys() {
+        return numExpiredKeys.get();
+    }
+
+    /** Expire stale keys from all loaded segments, archiving them if configured. */
+    private void expireState() {
+        long ttl = stateTtl;
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int numExpired = 0;
+        for (S segment : getStates()) {
+            Map<String, Object> expired = segment.expire(now - ttl);
+            if (expired.isEmpty()) {
+                continue;
+            }
+            numExpired += expired.size();
+            markModified(segment);
+            if (archiveExpiredState && stateStore != null) {
+                try {
+                    stateStore.archiveState(groupId, clientId, new ExpiredState(now, expired));
+                } catch (IOException ex) {
+                    logger.error("Failed to archive expired state: {}", ex.toString());
+                }
+            }
+        }
+        if (numExpired > 0) {
+            numExpiredKeys.addAndGet(numExpired);
+            logger.info("Expired {} stale keys of {}; {} live keys remaining.", numExpired,
+                    getClass().getSimpleName(), getNumberOfLiveKeys());
+        }
+    }
+
     /**
      * Monitor a given topic until the {@link #isShutdown()} method returns true.
      *
@@ -156,11 +309,36 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
      */
     @Override
     public void start() {
+        if (isCoPartitioned()) {
+            properties.setProperty(PARTITION_ASSIGNMENT_STRATEGY_CONFIG,
+                    RangeAssignor.class.getName());
+        }
         consumer = new KafkaConsumer<>(this.properties);
-        consumer.subscribe(topics);
+        if (isCoPartitioned()) {
+            checkCoPartitioned(numberOfPartitions(consumer));
+        }
+        KafkaConsumer metricsConsumer = consumer;
+        @SuppressWarnings("unchecked")
+        Supplier<Map<MetricName, ? extends Metric>> consumerMetrics = metricsConsumer::metrics;
+        metrics.kafkaMetrics("consumer", consumerMetrics);
+        consumer.subscribe(topics, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                storeState();
+                uncommittedOffsets.keySet().removeAll(partitions);
+                revokedSegments.addAll(partitions);
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                assignSegments(partitions);
+            }
+        });
 
         logger.info("Monitoring streams {}", topics);
         RollingTimeAverage ops = new RollingTimeAverage(20000);
+        LongAdder recordCount = metrics.counter("records");
+        Histogram processingTime = metrics.histogram("poll_processing_time_us");
 
         try {
             while (!isShutdown()) {
@@ -168,7 +346,11 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
                     @SuppressWarnings("unchecked")
                     ConsumerRecords<K, V> records = consumer.poll(getPollTimeout());
                     ops.add(records.count());
+                    recordCount.add(records.count());
+                    recordsPerSecond = ops.hasAverage() ? ops.getAverage() : 0.0;
+                    long startTime = System.nanoTime();
                     evaluateRecords(records);
+                    processingTime.record((System.nanoTime() - startTime) / 1000L);
                 } catch (SerializationException ex) {
                     handleSerializationException();
                 } catch (WakeupException ex) {
@@ -181,6 +363,7 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
                 }
             }
         } finally {
+            metrics.removeKafkaMetrics("consumer");
             consumer.close();
         }
     }
@@ -218,24 +401,343 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
     /** Evaluate a single record that the monitor receives by overriding this function */
     protected abstract void evaluateRecord(ConsumerRecord<K, V> records);
 
-    /** Evaluates the records that the monitor receives */
+    /**
+     * Evaluates the records that the monitor receives. If a record reducer is set, the records
+     * are first reduced per key.
+     */
     protected void evaluateRecords(ConsumerRecords<K, V> records) {
-        for (ConsumerRecord<K, V> record : records) {
-            evaluateRecord(record);
+        BinaryOperator<ConsumerRecord<K, V>> reducer = recordReducer;
+        if (reducer == null) {
+            for (ConsumerRecord<K, V> record : records) {
+                evaluateRecord(record);
+                updateOffset(record);
+            }
+        } else {
+            Map<Map.Entry<TopicPartition, K>, ConsumerRecord<K, V>> reduced =
+                    new LinkedHashMap<>(records.count() * 2);
+            for (ConsumerRecord<K, V> record : records) {
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                reduced.merge(new SimpleImmutableEntry<>(partition, record.key()),
+                        record, reducer);
+                updateOffset(record);
+            }
+            for (ConsumerRecord<K, V> record : reduced.values()) {
+                evaluateRecord(record);
+            }
         }
+        expireState();
         afterEvaluate();
     }
 
-    /** Store the current state. */
-    protected void storeState() {
-        if (getStateStore() != null && state != null) {
+    private void updateOffset(ConsumerRecord<K, V> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        uncommittedOffsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+        if (stateFactory != null) {
+            getState(partition).setOffset(partition, record.offset() + 1);
+        }
+    }
+
+    /**
+     * State segment of given topic partition. If the segment is not loaded yet, it is retrieved
+     * from the persistent state store, or created empty if none is stored. Monitors that are not
+     * segmented return their single state. The segment is marked as modified.
+     * @throws IllegalStateException if this monitor does not use state.
+     */
+    protected S getState(TopicPartition partition) {
+        S segment = loadState(partition);
+        markModified(segment);
+        return segment;
+    }
+
+    /** State segment of given topic partition, loading it if needed. */
+    private S loadState(TopicPartition partition) {
+        if (!isSegmented()) {
+            if (legacySegment == null) {
+                legacySegment = loadSegment(null);
+            }
+            return legacySegment;
+        }
+        S segment = segments.get(partition);
+        if (segment == null) {
+            segment = loadSegment(partition);
+            segments.put(partition, segment);
+            if (legacySegment == null && partition.equals(legacyOwner)) {
+                legacySegment = loadSegment(null);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * State segment of given topic partition, to update given key in. If the legacy segment
+     * still has state of the key, that state is moved to the partition segment first.
+     */
+    protected S getState(TopicPartition partition, String key) {
+        S segment = getState(partition);
+        if (legacySegment != null && legacySegment != segment
+                && legacySegment.moveKey(key, segment)) {
+            markModified(legacySegment);
+        }
+        return segment;
+    }
+
+    /** All state segments that are currently loaded, including any legacy segment. */
+    protected Collection<S> getStates() {
+        if (legacySegment == null) {
+            return Collections.unmodifiableCollection(segments.values());
+        }
+        List<S> states = new ArrayList<>(segments.size() + 1);
+        states.addAll(segments.values());
+        states.add(legacySegment);
+        return states;
+    }
+
+    /**
+     * Whether state is kept per topic partition. This implementation returns true. If false,
+     * a single state is kept for all partitions, which is never handed off, so only a single
+     * instance of the monitor should run.
+     */
+    protected boolean isSegmented() {
+        return true;
+    }
+
+    /**
+     * Whether all topics should be co-partitioned, so that every instance is assigned the same
+     * partitions of each topic. This implementation returns false. If true, partitions are
+     * assigned by range, and the monitor does not start unless all topics have the same number
+     * of partitions. Records with equal keys are then assigned to the same instance, as long
+     * as they are produced with the same key serialization and partitioner.
+     */
+    protected boolean isCoPartitioned() {
+        return false;
+    }
+
+    /** Number of partitions per monitored topic, for the topics that exist. */
+    private Map<String, Integer> numberOfPartitions(KafkaConsumer<?, ?> kafkaConsumer) {
+        Map<String, Integer> numPartitions = new LinkedHashMap<>();
+        for (String topic : topics) {
+            List<PartitionInfo> partitions = kafkaConsumer.partitionsFor(topic);
+            if (partitions != null && !partitions.isEmpty()) {
+                numPartitions.put(topic, partitions.size());
+            }
+        }
+        return numPartitions;
+    }
+
+    /**
+     * Check that all topics have the same number of partitions, so that range assignment
+     * assigns the same partitions of each topic to an instance.
+     * @param numPartitions number of partitions per topic.
+     * @throws IllegalStateException if the topics have different numbers of partitions.
+     */
+    static void checkCoPartitioned(Map<String, Integer> numPartitions) {
+        if (new HashSet<>(numPartitions.values()).size() > 1) {
+            throw new IllegalStateException("Topics must have the same number of partitions "
+                    + "to be monitored together, but they have " + numPartitions);
+        }
+    }
+
+    /** Called when a state segment has been loaded. */
+    protected void onSegmentAssigned(S segment) {
+        // do nothing by default
+    }
+
+    /**
+     * Called when a state segment is no longer owned by this monitor. The segment has already
+     * been stored.
+     */
+    protected void onSegmentRevoked(S segment) {
+        // do nothing by default
+    }
+
+    /**
+     * Whether to reprocess partitions from the beginning if no offset was stored for them in
+     * their state. This implementation returns false, continuing from the committed offset
+     * instead.
+     */
+    protected boolean replayWithoutState() {
+        return false;
+    }
+
+    /**
+     * Load the state segment of given topic partition, or the legacy segment if the partition
+     * is null.
+     */
+    private S loadSegment(TopicPartition partition) {
+        if (stateFactory == null) {
+            throw new IllegalStateException("Monitor " + getClass().getSimpleName()
+                    + " does not use state.");
+        }
+        S segment = stateFactory.get();
+        if (stateStore != null) {
             try {
-                getStateStore().storeState(groupId, clientId, state);
+                segment = stateStore.retrieveState(groupId, segmentId(partition), segment);
             } catch (IOException ex) {
-                logger.error("Failed to store monitor state: {}. "
-                        + "When restarted, all current state will be lost.", ex.getMessage());
+                logger.warn("Cannot retrieve state of {}. Restarting from empty state.",
+                        partition != null ? partition : "monitor", ex);
+            }
+        }
+        onSegmentAssigned(segment);
+        return segment;
+    }
+
+    /**
+     * Drop the segments that were revoked and not reassigned, and load the segments of newly
+     * assigned partitions. Each partition is then positioned at the offset of its segment.
+     */
+    private void assignSegments(Collection<TopicPartition> partitions) {
+        if (stateFactory == null) {
+            revokedSegments.clear();
+            return;
+        }
+        if (isSegmented()) {
+            for (TopicPartition partition : revokedSegments) {
+                if (partitions.contains(partition)) {
+                    continue;
+                }
+                S segment = segments.remove(partition);
+                if (segment != null) {
+                    modifiedSegments.remove(segment);
+                    logger.info("Handing off state of {}", partition);
+                    onSegmentRevoked(segment);
+                }
+                if (partition.equals(legacyOwner) && legacySegment != null) {
+                    logger.info("Handing off legacy state");
+                    onSegmentRevoked(legacySegment);
+                    modifiedSegments.remove(legacySegment);
+                    legacySegment = null;
+                }
             }
         }
+        revokedSegments.clear();
+        seekToStoredOffsets(partitions);
+    }
+
+    /**
+     * Persistent state store client ID of the state segment of a topic partition. The legacy
+     * segment, which is also the state of monitors that are not segmented, has the client ID
+     * itself.
+     */
+    private String segmentId(TopicPartition partition) {
+        if (partition == null) {
+            return clientId;
+        }
+        return clientId + "-" + partition.topic() + "-" + partition.partition();
+    }
+
+    /**
+     * Store the state segments that were modified together with the offsets they reflect, and
+     * then commit those offsets. If any segment cannot be stored, the offsets are not committed,
+     * so that the records are processed again after a restart. An empty legacy segment is
+     * dropped.
+     */
+    protected void storeState() {
+        long startTime = System.nanoTime();
+        if (getStateStore() != null) {
+            boolean dropLegacy = legacySegment != null && isSegmented()
+                    && legacySegment.isEmpty();
+            if (dropLegacy) {
+                moveLegacyOffsets();
+            }
+            Map<TopicPartition, S> toStore = new HashMap<>(segments);
+            if (legacySegment != null) {
+                toStore.put(null, legacySegment);
+            }
+            for (Map.Entry<TopicPartition, S> segment : toStore.entrySet()) {
+                if (!storeSegment(segment.getKey(), segment.getValue())) {
+                    return;
+                }
+            }
+            if (dropLegacy) {
+                logger.info("Dropping empty legacy state");
+                legacySegment = null;
+            }
+        }
+        storeTime.record((System.nanoTime() - startTime) / 1000L);
+        commitOffsets();
+    }
+
+    /**
+     * Store a segment if it was modified.
+     * @return whether the segment is stored.
+     */
+    private boolean storeSegment(TopicPartition partition, S segment) {
+        if (!modifiedSegments.remove(segment)) {
+            return true;
+        }
+        try {
+            getStateStore().storeState(groupId, segmentId(partition), segment);
+            return true;
+        } catch (IOException ex) {
+            modifiedSegments.add(segment);
+            logger.error("Failed to store monitor state of {}: {}. "
+                    + "When restarted, its current state will be lost.",
+                    partition != null ? partition : "monitor", ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Move the offsets of an empty legacy segment to the partition segments that do not have an
+     * offset yet, so that the legacy segment can be stored without offsets and is no longer
+     * needed to resume.
+     */
+    private void moveLegacyOffsets() {
+        for (Map.Entry<TopicPartition, S> segment : segments.entrySet()) {
+            TopicPartition partition = segment.getKey();
+            Long offset = legacySegment.getOffset(partition);
+            if (offset != null && segment.getValue().getOffset(partition) == null) {
+                segment.getValue().setOffset(partition, offset);
+                markModified(segment.getValue());
+            }
+        }
+        if (!legacySegment.getOffsets().isEmpty()) {
+            legacySegment.getOffsets().clear();
+            markModified(legacySegment);
+        }
+    }
+
+    /** Commit the offsets of all records that have been evaluated. */
+    private void commitOffsets() {
+        if (consumer == null || uncommittedOffsets.isEmpty()) {
+            return;
+        }
+        try {
+            long startTime = System.nanoTime();
+            consumer.commitSync(uncommittedOffsets);
+            commitTime.record((System.nanoTime() - startTime) / 1000L);
+            uncommittedOffsets.clear();
+        } catch (KafkaException ex) {
+            logger.warn("Failed to commit offsets; they will be committed with the next state: {}",
+                    ex.toString());
+        }
+    }
+
+    /**
+     * Seek newly assigned partitions to the offsets in their state segment, or in the legacy
+     * segment if their own segment has none. Partitions without a stored offset continue from
+     * the committed offset, or from the beginning if {@link #replayWithoutState()} is set.
+     */
+    private void seekToStoredOffsets(Collection<TopicPartition> partitions) {
+        // load all segments first, so that the legacy segment is loaded if it is owned here
+        partitions.forEach(this::loadState);
+        List<TopicPartition> replay = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            Long offset = loadState(partition).getOffset(partition);
+            if (offset == null && legacySegment != null) {
+                offset = legacySegment.getOffset(partition);
+            }
+            if (offset != null) {
+                logger.info("Resuming {} at stored offset {}", partition, offset);
+                consumer.seek(partition, offset);
+            } else if (replayWithoutState()) {
+                replay.add(partition);
+            }
+        }
+        if (!replay.isEmpty()) {
+            logger.info("No stored state for {}. Processing them from the beginning.", replay);
+            consumer.seekToBeginning(replay);
+        }
     }
 
     /** Called after a set of records has been evaluated. */
@@ -300,6 +802,11 @@ public abstract class AbstractKafkaMonitor<K, V, S> implements KafkaMonitor {
                 record.get(sourceIdField.pos()).toString());
     }
 
+    /** Metrics of this monitor. */
+    protected MetricGroup getMetrics() {
+        return metrics;
+    }
+
     public PersistentStateStore getStateStore() {
         return stateStore;
     }
@@ -27,6 +27,7 @@ import org.apache.avro.Schema.Field;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.kafka.ObservationKey;
 import org.radarcns.monitor.BatteryLevelMonitor.BatteryLevelState;
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 public class BatteryLevelMonitor extends
         AbstractKafkaMonitor<GenericRecord, GenericRecord, BatteryLevelState> {
     private static final Logger logger = LoggerFactory.getLogger(BatteryLevelMonitor.class);
+    public static final String GROUP_ID = "battery_monitors";
 
     private final EmailSenders senders;
     private final Status minLevel;
@@ -59,11 +61,12 @@ public class BatteryLevelMonitor extends
      */
     public BatteryLevelMonitor(RadarPropertyHandler radar, Collection<String> topics,
                                EmailSenders senders, Status minLevel, long logInterval) {
-        super(radar, topics, "battery_monitors", "1", new BatteryLevelState());
+        super(radar, topics, GROUP_ID, "1", BatteryLevelState::new);
 
         Properties props = new Properties();
         props.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
         configure(props);
+        setRecordReducer(BatteryLevelMonitor::lowestBatteryLevel);
 
         this.senders = senders;
         this.minLevel = minLevel == null ? Status.CRITICAL : minLevel;
@@ -75,7 +78,11 @@ public class BatteryLevelMonitor extends
         try {
             ObservationKey key = extractKey(record);
             float batteryLevel = extractBatteryLevel(record);
-            float previousLevel = state.updateLevel(getStateStore().keyToString(key), batteryLevel);
+            String keyString = getStateStore().keyToString(key);
+            BatteryLevelState segment = getState(
+                    new TopicPartition(record.topic(), record.partition()), keyString);
+            float previousLevel = segment.updateLevel(keyString, batteryLevel);
+            markUpdated(segment, keyString, System.currentTimeMillis());
 
             if (logInterval > 0 && ((int) (messageNumber % logInterval)) == 0) {
                 logger.info("Measuring battery level of record offset {} of {} with value {}",
@@ -138,8 +145,32 @@ public class BatteryLevelMonitor extends
         }
     }
 
-    private float extractBatteryLevel(ConsumerRecord<?, GenericRecord> record) {
+    /**
+     * Of two records, keep the one with the lowest battery level, so that a low battery level is
+     * always reported even if the level recovered within the same poll. Records without a valid
+     * battery level are only kept if neither record has one.
+     */
+    private static ConsumerRecord<GenericRecord, GenericRecord> lowestBatteryLevel(
+            ConsumerRecord<GenericRecord, GenericRecord> earlier,
+            ConsumerRecord<GenericRecord, GenericRecord> later) {
+        float earlierLevel;
+        try {
+            earlierLevel = extractBatteryLevel(earlier);
+        } catch (IllegalArgumentException ex) {
+            return later;
+        }
+        try {
+            return extractBatteryLevel(later) < earlierLevel ? later : earlier;
+        } catch (IllegalArgumentException ex) {
+            return earlier;
+        }
+    }
+
+    private static float extractBatteryLevel(ConsumerRecord<?, GenericRecord> record) {
         GenericRecord value = record.value();
+        if (value == null) {
+            throw new IllegalArgumentException("Failed to process record without a value.");
+        }
         Field batteryField = value.getSchema().getField("batteryLevel");
         if (batteryField == null) {
             throw new IllegalArgumentException("Failed to process record with value type "
@@ -175,7 +206,7 @@ public class BatteryLevelMonitor extends
     }
 
     /** Persist messages that have been sent. */
-    public static class BatteryLevelState {
+    public static class BatteryLevelState extends MonitorState {
         private Map<String, Float> levels = new HashMap<>();
 
         public Map<String, Float> getLevels() {
@@ -192,5 +223,26 @@ public class BatteryLevelMonitor extends
             Float previousLevel = levels.put(key, level);
             return previousLevel == null ? 1.0f : previousLevel;
         }
+
+        @Override
+        protected Object removeKey(String key) {
+            return levels.remove(key);
+        }
+
+        @Override
+        protected boolean moveKey(String key, MonitorState target) {
+            boolean moved = super.moveKey(key, target);
+            Float level = levels.remove(key);
+            if (level != null) {
+                ((BatteryLevelState) target).levels.put(key, level);
+                moved = true;
+            }
+            return moved;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return super.isEmpty() && levels.isEmpty();
+        }
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Lag of a single consumer group on its input topics. Committed offsets are updated as they are
+ * read and lag is computed at intervals against the log-end offsets. The rates at which the
+ * committed and log-end offsets advance between intervals give an estimate of the time that the
+ * group needs to catch up.
+ */
+class ConsumerGroupLag {
+    private final String groupId;
+    private final Collection<String> topics;
+    private final Map<TopicPartition, Long> committedOffsets;
+    private final Map<TopicPartition, Long> partitionLag;
+    private Map<TopicPartition, Long> previousCommitted;
+    private Map<TopicPartition, Long> previousEnd;
+    private long previousTime;
+    private volatile long totalLag;
+    private volatile double catchUpTime;
+    private volatile int growingIntervals;
+
+    /**
+     * Lag of a consumer group.
+     * @param groupId consumer group ID or Kafka Streams application ID.
+     * @param topics topics that the group consumes.
+     */
+    ConsumerGroupLag(@Nonnull String groupId, @Nonnull Collection<String> topics) {
+        this.groupId = groupId;
+        this.topics = topics;
+        this.committedOffsets = new ConcurrentHashMap<>();
+        this.partitionLag = new ConcurrentHashMap<>();
+        this.previousCommitted = Collections.emptyMap();
+        this.previousEnd = Collections.emptyMap();
+        this.previousTime = -1L;
+        this.totalLag = 0L;
+        this.catchUpTime = Double.NaN;
+        this.growingIntervals = 0;
+    }
+
+    String getGroupId() {
+        return groupId;
+    }
+
+    Collection<String> getTopics() {
+        return topics;
+    }
+
+    /**
+     * Update the committed offset of a partition.
+     * @param partition topic partition, ignored if the group does not consume its topic.
+     * @param offset committed offset, or a negative number if the offset was deleted.
+     */
+    void updateCommitted(TopicPartition partition, long offset) {
+        if (!topics.contains(partition.topic())) {
+            return;
+        }
+        if (offset < 0) {
+            committedOffsets.remove(partition);
+            partitionLag.remove(partition);
+        } else {
+            committedOffsets.put(partition, offset);
+        }
+    }
+
+    /**
+     * Compute the lag at given log-end offsets. Partitions without a committed offset are not
+     * counted.
+     * @param endOffsets log-end offsets, including those of partitions of other groups.
+     * @param time current time in milliseconds.
+     */
+    void update(Map<TopicPartition, Long> endOffsets, long time) {
+        Map<TopicPartition, Long> committed = new HashMap<>();
+        Map<TopicPartition, Long> end = new HashMap<>();
+        long lag = 0L;
+        for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+            Long offset = committedOffsets.get(entry.getKey());
+            if (offset == null || entry.getValue() == null) {
+                continue;
+            }
+            long partLag = Math.max(0L, entry.getValue() - offset);
+            partitionLag.put(entry.getKey(), partLag);
+            lag += partLag;
+            committed.put(entry.getKey(), offset);
+            end.put(entry.getKey(), entry.getValue());
+        }
+
+        if (previousTime >= 0 && time > previousTime) {
+            double seconds = (time - previousTime) / 1000d;
+            long consumed = 0L;
+            long produced = 0L;
+            for (Map.Entry<TopicPartition, Long> entry : committed.entrySet()) {
+                Long previousOffset = previousCommitted.get(entry.getKey());
+                Long previousEndOffset = previousEnd.get(entry.getKey());
+                if (previousOffset != null && previousEndOffset != null) {
+                    consumed += entry.getValue() - previousOffset;
+                    produced += end.get(entry.getKey()) - previousEndOffset;
+                }
+            }
+            double catchUpRate = (consumed - produced) / seconds;
+            if (lag == 0L) {
+                catchUpTime = 0.0;
+            } else if (catchUpRate > 0.0) {
+                catchUpTime = lag / catchUpRate;
+            } else {
+                catchUpTime = Double.POSITIVE_INFINITY;
+            }
+            growingIntervals = lag > totalLag ? growingIntervals + 1 : 0;
+        }
+
+        totalLag = lag;
+        previousCommitted = committed;
+        previousEnd = end;
+        previousTime = time;
+    }
+
+    /** Total lag over all partitions with a committed offset. */
+    long getLag() {
+        return totalLag;
+    }
+
+    /** Lag of a single partition, or null if it has no committed offset. */
+    Long getLag(TopicPartition partition) {
+        return partitionLag.get(partition);
+    }
+
+    /** Lag per partition. */
+    Map<TopicPartition, Long> getPartitionLag() {
+        return Collections.unmodifiableMap(partitionLag);
+    }
+
+    /**
+     * Estimated time in seconds to catch up with the log-end offsets at the current rates,
+     * infinite if the lag is not decreasing or NaN if it cannot be estimated yet.
+     */
+    double getCatchUpTime() {
+        return catchUpTime;
+    }
+
+    /** Number of consecutive updates that the total lag has increased. */
+    int getGrowingIntervals() {
+        return growingIntervals;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.CLIENT_ID_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.mail.MessagingException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.util.EmailSender;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors the lag of consumer groups and Kafka Streams applications. Committed offsets of all
+ * groups are read with a single consumer from the internal {@code __consumer_offsets} topic, and
+ * log-end offsets of all their partitions are queried in a single batch per interval. An alert
+ * is sent when the lag of a group has grown for a given number of consecutive intervals.
+ */
+public class ConsumerLagMonitor implements KafkaMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerLagMonitor.class);
+    static final String CONSUMER_OFFSETS_TOPIC = "__consumer_offsets";
+    /** Latest key version of an offset commit. Version 2 is group metadata. */
+    private static final short MAX_OFFSET_KEY_VERSION = 1;
+    private static final short GROUP_METADATA_KEY_VERSION = 2;
+    /** Latest known offset commit value version. Versions up to 3 all start with the offset. */
+    private static final short MAX_OFFSET_VALUE_VERSION = 3;
+    /** Unrecognized key and value versions that have already been logged. */
+    private static final Set<String> loggedVersions = ConcurrentHashMap.newKeySet();
+
+    private final Properties properties;
+    private final Map<String, ConsumerGroupLag> groups;
+    private final long interval;
+    private final int alertAfter;
+    private final Collection<EmailSender> senders;
+    private final AtomicLong pollTimeout;
+    private final Set<String> alertedGroups;
+
+    private KafkaConsumer<byte[], byte[]> consumer;
+    private boolean done;
+
+    /**
+     * Lag monitor.
+     * @param radar radar properties
+     * @param groupTopics input topics per consumer group ID or Kafka Streams application ID.
+     * @param interval interval between lag computations in milliseconds.
+     * @param alertAfter number of consecutive intervals of growing lag after which an alert is
+     *                   sent.
+     * @param senders email senders for alerts, empty if alerts should only be logged.
+     */
+    public ConsumerLagMonitor(RadarPropertyHandler radar,
+            @Nonnull Map<String, ? extends Collection<String>> groupTopics, long interval,
+            int alertAfter, @Nonnull Collection<EmailSender> senders) {
+        if (groupTopics.isEmpty()) {
+            throw new IllegalArgumentException("Cannot monitor lag without consumer groups.");
+        }
+        this.groups = groupTopics.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey,
+                        e -> new ConsumerGroupLag(e.getKey(), new HashSet<>(e.getValue()))));
+        this.interval = interval;
+        this.alertAfter = alertAfter;
+        this.senders = senders;
+        this.pollTimeout = new AtomicLong(Long.MAX_VALUE);
+        this.alertedGroups = new HashSet<>();
+        this.done = false;
+
+        properties = new Properties();
+        String deserializer = ByteArrayDeserializer.class.getName();
+        properties.setProperty(KEY_DESERIALIZER_CLASS_CONFIG, deserializer);
+        properties.setProperty(VALUE_DESERIALIZER_CLASS_CONFIG, deserializer);
+        properties.setProperty(CLIENT_ID_CONFIG, getClass().getName());
+        properties.setProperty(ENABLE_AUTO_COMMIT_CONFIG, "false");
+        properties.setProperty(BOOTSTRAP_SERVERS_CONFIG,
+                radar.getRadarProperties().getBrokerPaths());
+
+        for (ConsumerGroupLag lag : groups.values()) {
+            MetricGroup metrics = RadarSingletonFactory.getMetricsRegistry()
+                    .group("lag", lag.getGroupId());
+            metrics.gauge("lag", lag::getLag);
+            metrics.gauge("catch_up_seconds", lag::getCatchUpTime);
+            metrics.gauge("growing_intervals", lag::getGrowingIntervals);
+        }
+    }
+
+    /**
+     * Read committed offsets until shut down, computing the lag of all groups at each interval.
+     * Lag is first computed once all committed offsets present at startup have been read.
+     */
+    @Override
+    public void start() {
+        consumer = new KafkaConsumer<>(properties);
+        try {
+            List<TopicPartition> offsetPartitions = partitions(CONSUMER_OFFSETS_TOPIC);
+            consumer.assign(offsetPartitions);
+            consumer.seekToBeginning(offsetPartitions);
+            Map<TopicPartition, Long> startupOffsets = consumer.endOffsets(offsetPartitions);
+            boolean caughtUp = false;
+
+            logger.info("Monitoring lag of consumer groups {}", groups.keySet());
+            long nextCheck = System.currentTimeMillis() + interval;
+
+            while (!isShutdown()) {
+                try {
+                    long timeout = Math.max(0L, Math.min(getPollTimeout(),
+                            nextCheck - System.currentTimeMillis()));
+                    ConsumerRecords<byte[], byte[]> records = consumer.poll(timeout);
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        updateCommitted(record.key(), record.value());
+                    }
+                    if (!caughtUp) {
+                        caughtUp = startupOffsets.entrySet().stream()
+                                .allMatch(e -> consumer.position(e.getKey()) >= e.getValue());
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= nextCheck) {
+                        if (caughtUp) {
+                            checkLag(now);
+                        }
+                        nextCheck = now + interval;
+                    }
+                } catch (WakeupException ex) {
+                    logger.info("Consumer woke up");
+                } catch (InterruptException ex) {
+                    logger.info("Consumer was interrupted");
+                    shutdown();
+                } catch (KafkaException ex) {
+                    logger.error("Kafka consumer gave exception", ex);
+                }
+            }
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /** IDs of the monitored consumer groups. */
+    Collection<String> getGroupIds() {
+        return groups.keySet();
+    }
+
+    /** Update the committed offset of a group from a record of the consumer offsets topic. */
+    private void updateCommitted(byte[] key, byte[] value) {
+        OffsetKey offsetKey = parseKey(key);
+        if (offsetKey == null) {
+            return;
+        }
+        ConsumerGroupLag lag = groups.get(offsetKey.groupId);
+        if (lag == null) {
+            return;
+        }
+        Long offset = parseOffset(value);
+        if (offset != null) {
+            lag.updateCommitted(offsetKey.partition, offset);
+        }
+    }
+
+    /** Compute the lag of all groups with a single log-end offsets query. */
+    private void checkLag(long time) {
+        Set<TopicPartition> partitions = new HashSet<>();
+        Set<String> topics = new HashSet<>();
+        for (ConsumerGroupLag lag : groups.values()) {
+            topics.addAll(lag.getTopics());
+        }
+        for (String topic : topics) {
+            partitions.addAll(partitions(topic));
+        }
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+        for (ConsumerGroupLag lag : groups.values()) {
+            lag.update(endOffsets, time);
+            MetricGroup metrics = RadarSingletonFactory.getMetricsRegistry()
+                    .group("lag", lag.getGroupId());
+            for (TopicPartition partition : lag.getPartitionLag().keySet()) {
+                metrics.gauge("lag_" + partition.topic() + "_" + partition.partition(),
+                        () -> lag.getLag(partition));
+            }
+            logger.info("Consumer group {} has lag {}; estimated catch-up time {} seconds",
+                    lag.getGroupId(), lag.getLag(), lag.getCatchUpTime());
+
+            if (lag.getGrowingIntervals() >= alertAfter) {
+                if (alertedGroups.add(lag.getGroupId())) {
+                    alert(lag);
+                }
+            } else if (lag.getGrowingIntervals() == 0) {
+                alertedGroups.remove(lag.getGroupId());
+            }
+        }
+    }
+
+    private void alert(ConsumerGroupLag lag) {
+        String message = "The lag of consumer group " + lag.getGroupId() + " on topics "
+                + lag.getTopics() + " has grown for " + lag.getGrowingIntervals()
+                + " consecutive checks to " + lag.getLag() + " records.";
+        logger.warn(message);
+        for (EmailSender sender : senders) {
+            try {
+                sender.sendEmail("[RADAR-CNS] consumer lag is growing", message);
+            } catch (MessagingException ex) {
+                logger.error("Failed to send consumer lag alert.", ex);
+            }
+        }
+    }
+
+    private List<TopicPartition> partitions(String topic) {
+        List<PartitionInfo> infos = consumer.partitionsFor(topic);
+        List<TopicPartition> partitions = new ArrayList<>();
+        if (infos != null) {
+            for (PartitionInfo info : infos) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Parse the key of a consumer offsets record.
+     * @return group and partition of an offset commit, or null if the record is not an offset
+     *         commit or if its key version is not recognized.
+     */
+    static OffsetKey parseKey(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(key);
+            short version = buffer.getShort();
+            if (version < 0 || version > MAX_OFFSET_KEY_VERSION) {
+                if (version != GROUP_METADATA_KEY_VERSION) {
+                    logUnrecognizedVersion("key", version);
+                }
+                return null;
+            }
+            String groupId = readString(buffer);
+            String topic = readString(buffer);
+            int partition = buffer.getInt();
+            return new OffsetKey(groupId, new TopicPartition(topic, partition));
+        } catch (BufferUnderflowException ex) {
+            logger.warn("Cannot parse consumer offsets key");
+            return null;
+        }
+    }
+
+    /**
+     * Parse the committed offset of a consumer offsets record value. All known value versions
+     * start with the offset.
+     * @return committed offset, -1 if the offset was deleted, or null if the value version is not
+     *         recognized.
+     */
+    static Long parseOffset(byte[] value) {
+        if (value == null || value.length < 10) {
+            return -1L;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        short version = buffer.getShort();
+        if (version < 0 || version > MAX_OFFSET_VALUE_VERSION) {
+            logUnrecognizedVersion("value", version);
+            return null;
+        }
+        return buffer.getLong();
+    }
+
+    /** Log an unrecognized consumer offsets version, once per version. */
+    private static void logUnrecognizedVersion(String type, short version) {
+        if (loggedVersions.add(type + version)) {
+            logger.warn("Skipping consumer offsets records with unrecognized {} version {}",
+                    type, version);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return done;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        logger.info("Shutting down monitor {}", getClass().getSimpleName());
+        this.done = true;
+        if (consumer != null) {
+            consumer.wakeup();
+        }
+    }
+
+    @Override
+    public long getPollTimeout() {
+        return pollTimeout.get();
+    }
+
+    @Override
+    public void setPollTimeout(long pollTimeout) {
+        this.pollTimeout.set(pollTimeout);
+    }
+
+    /** Group and partition of a committed offset. */
+    static final class OffsetKey {
+        final String groupId;
+        final TopicPartition partition;
+
+        OffsetKey(String groupId, TopicPartition partition) {
+            this.groupId = groupId;
+            this.partition = partition;
+        }
+    }
+}
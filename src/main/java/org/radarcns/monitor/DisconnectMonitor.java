@@ -37,6 +37,7 @@ import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
 import org.radarcns.config.DisconnectMonitorConfig;
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.kafka.ObservationKey;
@@ -64,10 +65,11 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
     private final long minRepetitionInterval;
     private final Monitor monitor;
     private final String message;
+    private volatile boolean schedulerStarted;
 
     public DisconnectMonitor(RadarPropertyHandler radar, Collection<String> topics, String groupId,
                              EmailSenders senders) {
-        super(radar, topics, groupId, "1", new DisconnectMonitorState());
+        super(radar, topics, groupId, "1", DisconnectMonitorState::new);
         this.senders = senders;
         this.dayFormat = DateFormat.getDateTimeInstance(
                 DateFormat.MEDIUM, DateFormat.SHORT, Locale.US);
@@ -85,6 +87,8 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
         props.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
         configure(props);
 
+        // only whether a source was seen matters, not how often
+        setRecordReducer((earlier, later) -> later);
         super.setPollTimeout(timeUntilReportedMissing);
     }
 
@@ -105,33 +109,63 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
     }
 
     /**
-     * Starts the scheduled alert updates.
+     * Starts the scheduled alert updates of the state segments that are already loaded. Segments
+     * that are loaded later schedule their alert updates when they are assigned.
      * Protected method to support unit testing
      */
     protected void startScheduler() {
         if (numRepetitions > 0) {
             logger.info("Start scheduled alert updates with the delay of {}", repeatInterval);
-            state.reportedMissing.forEach(this::scheduleRepetition);
+            schedulerStarted = true;
+            getStates().forEach(this::scheduleRepetitions);
         }
     }
 
+    @Override
+    protected void onSegmentAssigned(DisconnectMonitorState segment) {
+        if (schedulerStarted) {
+            scheduleRepetitions(segment);
+        }
+    }
+
+    /**
+     * A device may send data to any of the topics, so all its segments should be owned by the
+     * same instance to tell whether it is still seen.
+     */
+    @Override
+    protected boolean isCoPartitioned() {
+        return true;
+    }
+
+    /** Cancel alert repetitions of devices that are now monitored by another instance. */
+    @Override
+    protected void onSegmentRevoked(DisconnectMonitorState segment) {
+        segment.reportedMissing.values().forEach(MissingRecordsReport::cancelRepetition);
+    }
+
     @Override
     protected void evaluateRecords(ConsumerRecords<GenericRecord, GenericRecord> records) {
         super.evaluateRecords(records);
 
         long now = System.currentTimeMillis();
 
-        Iterator<Map.Entry<String, Long>> iterator = state.lastSeen.entrySet().iterator();
-
-        while (iterator.hasNext()) {
-            Map.Entry<String, Long> entry = iterator.next();
-            // calculate timeout from current timestamp per device
-            long lastSeen = entry.getValue();
-            if (now - lastSeen > timeUntilReportedMissing) {
-                String missingKey = entry.getKey();
-                // remove processed records to prevent adding alerts multiple times
-                iterator.remove();
-                reportMissing(missingKey, new MissingRecordsReport(lastSeen));
+        Collection<DisconnectMonitorState> segments = getStates();
+        for (DisconnectMonitorState segment : segments) {
+            Iterator<Map.Entry<String, Long>> iterator = segment.lastSeen.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                // calculate timeout from current timestamp per device
+                long lastSeen = entry.getValue();
+                if (now - lastSeen > timeUntilReportedMissing) {
+                    String missingKey = entry.getKey();
+                    // remove processed records to prevent adding alerts multiple times
+                    iterator.remove();
+                    markModified(segment);
+                    if (!isMonitoredElsewhere(segments, missingKey)) {
+                        reportMissing(segment, missingKey, new MissingRecordsReport(lastSeen));
+                    }
+                }
             }
         }
     }
@@ -144,31 +178,65 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
 
         long now = System.currentTimeMillis();
         String keyString = getStateStore().keyToString(key);
-        state.lastSeen.put(keyString, now);
-
-        MissingRecordsReport missingReport = state.reportedMissing.remove(keyString);
+        DisconnectMonitorState segment = getState(
+                new TopicPartition(record.topic(), record.partition()), keyString);
+        segment.lastSeen.put(keyString, now);
+        markUpdated(segment, keyString, now);
+
+        // a device may have been reported missing from another topic
+        MissingRecordsReport missingReport = null;
+        for (DisconnectMonitorState state : getStates()) {
+            MissingRecordsReport report = state.reportedMissing.remove(keyString);
+            if (report != null) {
+                report.cancelRepetition();
+                markModified(state);
+                missingReport = report;
+            }
+        }
         if (missingReport != null) {
-            missingReport.cancelRepetition();
             reportRecovered(key, missingReport.getReportedMissing());
         }
     }
 
+    /**
+     * Whether a device is still seen in, or already reported missing from, another segment, as
+     * happens when multiple topics are monitored. Since the topics are co-partitioned, all
+     * segments of a device are loaded by this instance.
+     */
+    private static boolean isMonitoredElsewhere(Collection<DisconnectMonitorState> segments,
+            String key) {
+        for (DisconnectMonitorState segment : segments) {
+            if (segment.lastSeen.containsKey(key) || segment.reportedMissing.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleRepetitions(DisconnectMonitorState segment) {
+        segment.reportedMissing.forEach((key, report) -> scheduleRepetition(segment, key, report));
+    }
+
     /**
      * Schedule a missing device message to be sent again.
+     * @param segment state segment that the key belongs to
      * @param key record key
      * @param report missing record details
      */
-    private void scheduleRepetition(final String key, final MissingRecordsReport report) {
+    private void scheduleRepetition(final DisconnectMonitorState segment, final String key,
+            final MissingRecordsReport report) {
         if (report.getMessageNumber() < numRepetitions) {
             long passedInterval = System.currentTimeMillis() - report.getReportedMissing();
             long nextRepetition = Math.max(minRepetitionInterval, repeatInterval - passedInterval);
 
-            report.setFuture(scheduler.schedule(() -> reportMissing(key, report.newRepetition()),
+            report.setFuture(scheduler.schedule(
+                    () -> reportMissing(segment, key, report.newRepetition()),
                     nextRepetition, TimeUnit.MILLISECONDS));
         }
     }
 
-    private void reportMissing(String keyString, MissingRecordsReport report) {
+    private void reportMissing(DisconnectMonitorState segment, String keyString,
+            MissingRecordsReport report) {
         ObservationKey key = getStateStore().stringToKey(keyString);
 
         // Don't report if no email address for this projectId
@@ -204,8 +272,9 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
             logger.error("Failed to send disconnected message.", mex);
         } finally {
             // store last seen and reportedMissing timestamp
-            state.getReportedMissing().put(keyString, report);
-            scheduleRepetition(keyString, report);
+            segment.getReportedMissing().put(keyString, report);
+            markModified(segment);
+            scheduleRepetition(segment, keyString, report);
         }
     }
 
@@ -235,7 +304,7 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
     /**
      * State of disconnect monitor
      */
-    public static class DisconnectMonitorState {
+    public static class DisconnectMonitorState extends MonitorState {
         private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
         private final Map<String, MissingRecordsReport> reportedMissing = new ConcurrentHashMap<>();
 
@@ -254,6 +323,40 @@ public class DisconnectMonitor extends AbstractKafkaMonitor<
         public void setReportedMissing(Map<String, MissingRecordsReport> reportedMissing) {
             this.reportedMissing.putAll(reportedMissing);
         }
+
+        /** Stop monitoring a device, including any alert repetitions. */
+        @Override
+        protected Object removeKey(String key) {
+            Long lastSeenTime = lastSeen.remove(key);
+            MissingRecordsReport report = reportedMissing.remove(key);
+            if (report != null) {
+                report.cancelRepetition();
+                return report;
+            }
+            return lastSeenTime;
+        }
+
+        @Override
+        protected boolean moveKey(String key, MonitorState target) {
+            boolean moved = super.moveKey(key, target);
+            DisconnectMonitorState targetState = (DisconnectMonitorState) target;
+            Long lastSeenTime = lastSeen.remove(key);
+            if (lastSeenTime != null) {
+                targetState.lastSeen.put(key, lastSeenTime);
+                moved = true;
+            }
+            MissingRecordsReport report = reportedMissing.remove(key);
+            if (report != null) {
+                targetState.reportedMissing.put(key, report);
+                moved = true;
+            }
+            return moved;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return super.isEmpty() && lastSeen.isEmpty() && reportedMissing.isEmpty();
+        }
     }
 
     /**
@@ -23,9 +23,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import org.radarcns.config.*;
+import org.radarcns.stream.KafkaStreamFactory;
 import org.radarcns.util.EmailSenders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,7 @@ import org.slf4j.LoggerFactory;
 public class KafkaMonitorFactory {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaMonitorFactory.class);
+    private static final String DISCONNECT_GROUP_ID = "disconnect_monitor";
 
     private final RadarPropertyHandler properties;
     private final RadarBackendOptions options;
@@ -63,11 +67,15 @@ public class KafkaMonitorFactory {
             case "statistics":
                 monitor = new CombinedKafkaMonitor(createStatisticsMonitors());
                 break;
+            case "lag":
+                monitor = createLagMonitor();
+                break;
             case "all":
                 List<KafkaMonitor> monitors = new ArrayList<>();
                 monitors.add(createDisconnectMonitor());
                 monitors.add(createBatteryLevelMonitor());
                 monitors.addAll(createStatisticsMonitors());
+                monitors.add(createLagMonitor());
                 monitor = new CombinedKafkaMonitor(monitors);
                 break;
             default:
@@ -89,7 +97,13 @@ public class KafkaMonitorFactory {
         }
 
         return configs.stream()
-                .map(config -> new SourceStatisticsMonitor(properties, config))
+                .map(config -> {
+                    SourceStatisticsMonitor monitor = new SourceStatisticsMonitor(
+                            properties, config);
+                    monitor.setStateExpiry(config.getStateTtl() * 1000L,
+                            config.isArchiveExpiredState());
+                    return monitor;
+                })
                 .collect(Collectors.toList());
     }
 
@@ -117,7 +131,10 @@ public class KafkaMonitorFactory {
         }
         long logInterval = config.getLogInterval();
 
-        return new BatteryLevelMonitor(properties, topics, senders, minLevel, logInterval);
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties, topics, senders,
+                minLevel, logInterval);
+        monitor.setStateExpiry(config.getStateTtl() * 1000L, config.isArchiveExpiredState());
+        return monitor;
     }
 
     private KafkaMonitor createDisconnectMonitor()
@@ -129,10 +146,47 @@ public class KafkaMonitorFactory {
         }
         EmailSenders senders = getSenders(config);
         Collection<String> topics = getTopics(config, "android_empatica_e4_temperature");
-        return new DisconnectMonitor(properties, topics, "disconnect_monitor", senders);
+        DisconnectMonitor monitor = new DisconnectMonitor(properties, topics,
+                DISCONNECT_GROUP_ID, senders);
+        monitor.setStateExpiry(config.getStateTtl() * 1000L, config.isArchiveExpiredState());
+        return monitor;
     }
 
 
+    private KafkaMonitor createLagMonitor() throws IOException {
+        ConfigRadar radar = properties.getRadarProperties();
+        LagMonitorConfig config = radar.getLagMonitor();
+        if (config == null) {
+            logger.warn("Lag monitor is not configured. Cannot start it.");
+            return null;
+        }
+
+        Map<String, Collection<String>> groupTopics = new TreeMap<>();
+        if (radar.getBatteryMonitor() != null) {
+            groupTopics.put(BatteryLevelMonitor.GROUP_ID, getTopics(radar.getBatteryMonitor(),
+                    "android_empatica_e4_battery_level"));
+        }
+        if (radar.getDisconnectMonitor() != null) {
+            groupTopics.put(DISCONNECT_GROUP_ID, getTopics(radar.getDisconnectMonitor(),
+                    "android_empatica_e4_temperature"));
+        }
+        if (radar.getStatisticsMonitors() != null) {
+            for (SourceStatisticsMonitorConfig statistics : radar.getStatisticsMonitors()) {
+                groupTopics.put(statistics.getName(), statistics.getTopics());
+            }
+        }
+        if (radar.getStreamMasters() != null && !radar.getStreamMasters().isEmpty()) {
+            groupTopics.putAll(new KafkaStreamFactory(options, properties)
+                    .createStreamMaster(radar.getStreamMasters())
+                    .getApplicationTopics());
+        }
+
+        EmailSenders senders = getSenders(config);
+        return new ConsumerLagMonitor(properties, groupTopics, config.getInterval() * 1000L,
+                config.getAlertAfter(), senders != null
+                        ? senders.getEmailSenders() : Collections.emptyList());
+    }
+
     private EmailSenders getSenders(MonitorConfig config) throws IOException {
         if (config != null && config.getNotifyConfig() != null) {
             return EmailSenders.parseConfig(config);
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Base state of a Kafka monitor. Besides the monitor-specific state, it stores the consumer
+ * offsets that the state reflects, so that a restarted monitor can continue exactly where the
+ * stored state left off.
+ *
+ * <p>Monitors that expire stale keys mark each key with {@link #touch(String, long)} when it is
+ * updated. Keys are kept in order of last update, so that {@link #expire(long)} only visits
+ * expired keys.
+ */
+public class MonitorState {
+    /** Next offset to read, per topic and partition. */
+    @JsonInclude(Include.NON_EMPTY)
+    private final Map<String, Map<Integer, Long>> offsets = new HashMap<>();
+
+    /** Time that each key was last updated, from least to most recently updated. */
+    @JsonInclude(Include.NON_EMPTY)
+    private final Map<String, Long> lastUpdated = new LinkedHashMap<>();
+
+    public Map<String, Map<Integer, Long>> getOffsets() {
+        return offsets;
+    }
+
+    public void setOffsets(Map<String, Map<Integer, Long>> offsets) {
+        this.offsets.putAll(offsets);
+    }
+
+    /** Get the next offset to read for given partition, or null if it is unknown. */
+    public Long getOffset(TopicPartition partition) {
+        Map<Integer, Long> partitions = offsets.get(partition.topic());
+        return partitions != null ? partitions.get(partition.partition()) : null;
+    }
+
+    /** Set the next offset to read for given partition. */
+    public void setOffset(TopicPartition partition, long offset) {
+        offsets.computeIfAbsent(partition.topic(), t -> new HashMap<>())
+                .put(partition.partition(), offset);
+    }
+
+    public Map<String, Long> getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Map<String, Long> lastUpdated) {
+        this.lastUpdated.putAll(lastUpdated);
+    }
+
+    /** Mark a key as updated at given time. */
+    public void touch(String key, long time) {
+        // reinsert to move the key to the end of the update order
+        lastUpdated.remove(key);
+        lastUpdated.put(key, time);
+    }
+
+    /**
+     * Remove all keys that have not been updated since given time.
+     * @param time earliest update time to keep.
+     * @return removed state per removed key, in order of last update.
+     */
+    public Map<String, Object> expire(long time) {
+        Map<String, Object> expired = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Long>> iterator = lastUpdated.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() >= time) {
+                break;
+            }
+            iterator.remove();
+            expired.put(entry.getKey(), removeKey(entry.getKey()));
+        }
+        return expired;
+    }
+
+    /** Number of keys that are tracked for expiry. */
+    public int numberOfKeys() {
+        return lastUpdated.size();
+    }
+
+    /**
+     * Remove all state of given key. This implementation does not hold any state per key.
+     * @return removed state, or null if none was present.
+     */
+    protected Object removeKey(String key) {
+        return null;
+    }
+
+    /**
+     * Move all state of given key to another state of the same type, if this state has any.
+     * This implementation only moves the time that the key was last updated. Subclasses that
+     * hold state per key should move that state as well.
+     * @return whether any state was moved.
+     */
+    protected boolean moveKey(String key, MonitorState target) {
+        Long time = lastUpdated.remove(key);
+        if (time != null) {
+            target.touch(key, time);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether this state holds no state of any key, disregarding offsets. This implementation
+     * only considers the keys that are tracked for expiry. Subclasses that hold state per key
+     * should consider that state as well.
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return lastUpdated.isEmpty();
+    }
+
+    /** State that was expired at a given time. */
+    public static class ExpiredState {
+        private final long expiredAt;
+        private final Map<String, Object> entries;
+
+        public ExpiredState(long expiredAt, Map<String, Object> entries) {
+            this.expiredAt = expiredAt;
+            this.entries = entries;
+        }
+
+        public long getExpiredAt() {
+            return expiredAt;
+        }
+
+        public Map<String, Object> getEntries() {
+            return entries;
+        }
+    }
+}
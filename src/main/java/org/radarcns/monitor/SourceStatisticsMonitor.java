@@ -1,54 +1,61 @@
 package org.radarcns.monitor;
 
 import static io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG;
 import static org.apache.kafka.clients.consumer.ConsumerConfig.AUTO_OFFSET_RESET_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.CLIENT_ID_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.GROUP_ID_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG;
-import static org.apache.kafka.clients.consumer.ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.ACKS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BATCH_SIZE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BOOTSTRAP_SERVERS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.CLIENT_ID_CONFIG;
 import static org.apache.kafka.clients.producer.ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.LINGER_MS_CONFIG;
 import static org.apache.kafka.clients.producer.ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG;
 
 import io.confluent.kafka.serializers.KafkaAvroSerializer;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
 import org.radarcns.config.ConfigRadar;
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.config.SourceStatisticsMonitorConfig;
 import org.radarcns.kafka.ObservationKey;
-import org.radarcns.producer.KafkaSender;
-import org.radarcns.producer.KafkaTopicSender;
-import org.radarcns.producer.direct.DirectSender;
 import org.radarcns.stream.SourceStatistics;
-import org.radarcns.topic.AvroTopic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Monitor a set of streams and compute some basic statistics.
+ *
+ * <p>The monitored topics may have different keys and partitioning, so the statistics of a
+ * source can come from any of their partitions. State is therefore not segmented: a single
+ * state holds the statistics of all sources, so that each source is sent with its statistics
+ * of all topics combined. Run a single instance per monitor name. Partitions without a stored
+ * offset are processed from the beginning, so that their statistics are complete.
  */
 public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord, GenericRecord,
         SourceStatisticsMonitor.SourceStatisticsState> {
     private static final Logger logger = LoggerFactory.getLogger(SourceStatisticsMonitor.class);
-    private final AvroTopic<ObservationKey, SourceStatistics> outputTopic;
+    private final String outputTopic;
     private final RadarPropertyHandler radar;
     private final long timeout;
     private final int maxSize;
+    private final Map<ObservationKey, SourceStatistics> inFlight;
+    private final Queue<Acknowledgement> acknowledgements;
     private long lastEmpty;
-    private KafkaSender producer;
-    private KafkaTopicSender<ObservationKey, SourceStatistics> sender;
+    private Producer<ObservationKey, SourceStatistics> producer;
 
     /**
      * Set some basic properties.
@@ -59,9 +66,8 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
     public SourceStatisticsMonitor(RadarPropertyHandler radar,
             SourceStatisticsMonitorConfig config) {
         super(radar, config.getTopics(), Objects.requireNonNull(config.getName(),
-                "Source statistics monitor must have a name"), "1-"
-                        + config.getOutputTopic() + UUID.randomUUID(),
-                new SourceStatisticsState());
+                "Source statistics monitor must have a name"), "1-" + config.getOutputTopic(),
+                SourceStatisticsState::new);
 
         if (getStateStore() == null) {
             throw new IllegalArgumentException("Source statistics requires persistent state."
@@ -69,20 +75,35 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
         }
 
         this.radar = radar;
-        // Group ID based on what persistent state we have.
-        // If the persistent state is lost, start from scratch.
-        this.outputTopic = new AvroTopic<>(config.getOutputTopic(),
-                ObservationKey.getClassSchema(), SourceStatistics.getClassSchema(),
-                ObservationKey.class, SourceStatistics.class);
+        this.outputTopic = config.getOutputTopic();
+        this.inFlight = new HashMap<>();
+        this.acknowledgements = new ConcurrentLinkedQueue<>();
 
         Properties props = new Properties();
         props.setProperty(AUTO_OFFSET_RESET_CONFIG, "earliest");
-        props.setProperty(GROUP_ID_CONFIG, state.getGroupId());
         configure(props);
 
         this.maxSize = config.getMaxBatchSize();
         this.timeout = config.getFlushTimeout();
-        this.lastEmpty = state.getUnsent().isEmpty() ? System.currentTimeMillis() : 0L;
+        this.lastEmpty = System.currentTimeMillis();
+    }
+
+    @Override
+    protected boolean isSegmented() {
+        return false;
+    }
+
+    @Override
+    protected boolean replayWithoutState() {
+        return true;
+    }
+
+    /** Send any statistics that were left unsent by a previous run. */
+    @Override
+    protected void onSegmentAssigned(SourceStatisticsState segment) {
+        if (!segment.getUnsent().isEmpty()) {
+            lastEmpty = 0L;
+        }
     }
 
     @Override
@@ -90,33 +111,32 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
         try {
             setupSender();
             super.start();
-        } catch (IOException ex) {
+        } catch (KafkaException ex) {
             logger.error("Failed to create sender.", ex);
         } finally {
             cleanUpSender();
         }
     }
 
+    /**
+     * Close the producer, waiting for all in-flight records to be sent, and store the state with
+     * the resulting acknowledgements.
+     */
     protected void cleanUpSender() {
-        if (sender != null) {
-            try {
-                sender.close();
-            } catch (IOException e) {
-                logger.error("Failed to close sender", e);
-            }
-        }
         if (producer != null) {
             try {
                 producer.close();
-            } catch (IOException e) {
-                logger.error("Failed to close sender", e);
+            } catch (KafkaException ex) {
+                logger.error("Failed to close sender", ex);
             }
+            producer = null;
+            processAcknowledgements();
+            storeState();
         }
     }
 
-    protected void setupSender() throws IOException {
+    protected void setupSender() {
         producer = createSender();
-        sender = producer.sender(outputTopic);
     }
 
     @Override
@@ -151,36 +171,97 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
             return;
         }
 
-        state.updateSource(newKey, getStateStore().keyToString(newKey), start, end);
+        SourceStatisticsState state = getState(
+                new TopicPartition(entry.topic(), entry.partition()));
+        String keyString = getStateStore().keyToString(newKey);
+        state.updateSource(newKey, keyString, start, end);
+        markUpdated(state, keyString, System.currentTimeMillis());
     }
 
     @Override
     protected void afterEvaluate() {
+        processAcknowledgements();
+
         long now = System.currentTimeMillis();
-        Set<ObservationKey> unsent = state.getUnsent();
-        if (!unsent.isEmpty() && (now >= lastEmpty + timeout || unsent.size() >= maxSize)) {
-            // send all entries and remove them from the batch only if successful.
-            unsent.removeIf(key -> {
-                try {
-                    SourceStatistics value = state.getSource(getStateStore().keyToString(key));
-                    sender.send(key, value);
-                    return true;
-                } catch (Exception ex) {
-                    logger.error("Failed to update state for observation {}",
-                            key, ex);
-                    return false;
-                }
-            });
+        int numUnsent = 0;
+        for (SourceStatisticsState state : getStates()) {
+            numUnsent += state.getUnsent().size();
+        }
+        if (numUnsent > inFlight.size()
+                && (now >= lastEmpty + timeout || numUnsent >= maxSize)) {
+            sendBatch();
         }
 
-        // either it was empty before or all records were sent
-        if (unsent.isEmpty()) {
+        // either it was empty before or all records were acknowledged
+        if (numUnsent == 0) {
             lastEmpty = now;
         }
 
         storeState();
     }
 
+    /**
+     * Send all unsent statistics that are not already in flight as a single asynchronous batch.
+     * Entries are only removed from the unsent set once their acknowledgement is processed.
+     */
+    private void sendBatch() {
+        int numSent = 0;
+        sending:
+        for (SourceStatisticsState state : getStates()) {
+            Iterator<ObservationKey> unsent = state.getUnsent().iterator();
+            while (unsent.hasNext()) {
+                ObservationKey key = unsent.next();
+                if (inFlight.containsKey(key)) {
+                    continue;
+                }
+                SourceStatistics value = state.getSource(
+                        getStateStore().keyToString(key));
+                if (value == null) {
+                    // source has expired
+                    unsent.remove();
+                    markModified(state);
+                    continue;
+                }
+                SourceStatistics sentValue = new SourceStatistics(
+                        value.getTimeStart(), value.getTimeEnd());
+                try {
+                    producer.send(new ProducerRecord<>(outputTopic, key, sentValue),
+                            (metadata, ex) -> acknowledgements.add(
+                                    new Acknowledgement(key, sentValue, ex)));
+                    inFlight.put(key, sentValue);
+                    numSent++;
+                } catch (KafkaException ex) {
+                    logger.error("Failed to send statistics of observation {}", key, ex);
+                    break sending;
+                }
+            }
+        }
+        logger.debug("Sent batch of {} source statistics", numSent);
+    }
+
+    /**
+     * Process the producer acknowledgements received so far. An observation is removed from the
+     * unsent set only if it was sent successfully and it has not changed since.
+     */
+    protected void processAcknowledgements() {
+        Acknowledgement ack;
+        while ((ack = acknowledgements.poll()) != null) {
+            inFlight.remove(ack.key);
+            if (ack.exception != null) {
+                logger.error("Failed to update statistics of observation {}",
+                        ack.key, ack.exception);
+                continue;
+            }
+            String keyString = getStateStore().keyToString(ack.key);
+            for (SourceStatisticsState state : getStates()) {
+                if (ack.value.equals(state.getSource(keyString))
+                        && state.getUnsent().remove(ack.key)) {
+                    markModified(state);
+                }
+            }
+        }
+    }
+
     private static double getTime(GenericRecord record, Schema schema, String fieldName,
             double defaultValue) {
         Schema.Field field = schema.getField(fieldName);
@@ -191,29 +272,43 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
         }
     }
 
-    /** Create a Kafka sender to send data with. */
-    protected KafkaSender createSender() {
+    /**
+     * Create a Kafka producer to send data with. Records of a single flush are batched by the
+     * producer and sent asynchronously.
+     */
+    protected Producer<ObservationKey, SourceStatistics> createSender() {
         Properties properties = new Properties();
         properties.setProperty(KEY_SERIALIZER_CLASS_CONFIG, KafkaAvroSerializer.class.getName());
         properties.setProperty(VALUE_SERIALIZER_CLASS_CONFIG, KafkaAvroSerializer.class.getName());
-        properties.setProperty(GROUP_ID_CONFIG, state.getGroupId() + "_producers");
         properties.setProperty(CLIENT_ID_CONFIG, getClass().getName() + "-1");
-        properties.setProperty(ENABLE_AUTO_COMMIT_CONFIG, "true");
-        properties.setProperty(AUTO_COMMIT_INTERVAL_MS_CONFIG, "1001");
-        properties.setProperty(SESSION_TIMEOUT_MS_CONFIG, "15101");
-        properties.setProperty(HEARTBEAT_INTERVAL_MS_CONFIG, "7500");
+        properties.setProperty(ACKS_CONFIG, "all");
+        properties.setProperty(LINGER_MS_CONFIG, "100");
+        properties.setProperty(BATCH_SIZE_CONFIG, "65536");
 
         ConfigRadar config = radar.getRadarProperties();
         properties.setProperty(SCHEMA_REGISTRY_URL_CONFIG, config.getSchemaRegistryPaths());
         properties.setProperty(BOOTSTRAP_SERVERS_CONFIG, config.getBrokerPaths());
 
-        return new DirectSender(properties);
+        return new KafkaProducer<>(properties);
+    }
+
+    /** Producer acknowledgement of a single statistics update. */
+    private static class Acknowledgement {
+        private final ObservationKey key;
+        private final SourceStatistics value;
+        private final Exception exception;
+
+        private Acknowledgement(ObservationKey key, SourceStatistics value,
+                Exception exception) {
+            this.key = key;
+            this.value = value;
+            this.exception = exception;
+        }
     }
 
-    public static class SourceStatisticsState {
+    public static class SourceStatisticsState extends MonitorState {
         private final Map<String, SourceStatistics> sources = new HashMap<>();
         private final Set<ObservationKey> unsent = new HashSet<>();
-        private String groupId = UUID.randomUUID().toString();
 
         public SourceStatistics getSource(String key) {
             return this.sources.get(key);
@@ -227,37 +322,51 @@ public class SourceStatisticsMonitor extends AbstractKafkaMonitor<GenericRecord,
             this.sources.putAll(sources);
         }
 
+        /**
+         * Update the statistics of a source. The source is only marked as unsent if its
+         * statistics actually changed.
+         */
         public void updateSource(ObservationKey key, String keyString, double start, double end) {
-            sources.compute(keyString, (k, v) -> {
-                if (v == null) {
-                    return new SourceStatistics(start, end);
-                } else {
-                    if (v.getTimeStart() > start) {
-                        v.setTimeStart(start);
-                    }
-                    if (v.getTimeEnd() < end) {
-                        v.setTimeEnd(end);
-                    }
-                    return v;
+            SourceStatistics stats = sources.get(keyString);
+            if (stats == null) {
+                sources.put(keyString, new SourceStatistics(start, end));
+                unsent.add(key);
+            } else {
+                boolean changed = false;
+                if (stats.getTimeStart() > start) {
+                    stats.setTimeStart(start);
+                    changed = true;
                 }
-            });
-            unsent.add(key);
-        }
-
-        public String getGroupId() {
-            return groupId;
-        }
-
-        public void setGroupId(String groupId) {
-            this.groupId = groupId;
+                if (stats.getTimeEnd() < end) {
+                    stats.setTimeEnd(end);
+                    changed = true;
+                }
+                if (changed) {
+                    unsent.add(key);
+                }
+            }
         }
 
         public Set<ObservationKey> getUnsent() {
             return unsent;
         }
 
+        /**
+         * Remove the statistics of a source. If they were not sent yet, they are removed from
+         * the unsent set when the next batch is sent.
+         */
+        @Override
+        protected Object removeKey(String key) {
+            return sources.remove(key);
+        }
+
         public void setUnsent(Set<ObservationKey> unsent) {
             this.unsent.addAll(unsent);
         }
+
+        @Override
+        public boolean isEmpty() {
+            return super.isEmpty() && sources.isEmpty() && unsent.isEmpty();
+        }
     }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.annotation.Nonnull;
+
+/**
+ * Reader of a CSV file in the format of the Empatica E4 export. The file is memory-mapped and
+ * numbers are parsed directly from the mapped bytes, so large recordings can be read quickly and
+ * without loading them on the heap.
+ *
+ * <p>Most files start with a line with the start time of each column in seconds since the Unix
+ * epoch and a line with the sample rate in Hz, followed by one line per sample. Inter-beat
+ * interval files have a single header line with the start time and {@code IBI}, followed by lines
+ * with the time offset from the start and the interval, both in seconds.
+ */
+public class E4CsvReader {
+    private static final int MAX_VALUES = 8;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final MappedByteBuffer buffer;
+    private final double startTime;
+    private final double sampleRate;
+    private final int dataStart;
+    private final double[] values;
+    private int numValues;
+    private long sampleIndex;
+    private double time;
+
+    /**
+     * Open an E4 CSV file.
+     * @param file file to read.
+     * @throws IOException if the file cannot be read or does not have a valid header.
+     */
+    public E4CsvReader(@Nonnull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File " + file + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        values = new double[MAX_VALUES];
+
+        if (!readLine()) {
+            throw new IOException("File " + file + " does not contain a start time");
+        }
+        startTime = values[0];
+        if (numValues == 0 || Double.isNaN(startTime)) {
+            throw new IOException("File " + file + " does not start with a start time");
+        }
+        if (numValues == 2 && Double.isNaN(values[1])) {
+            // inter-beat interval file: second column header is IBI
+            sampleRate = 0.0;
+        } else {
+            if (!readLine() || Double.isNaN(values[0]) || values[0] <= 0.0) {
+                throw new IOException("File " + file + " does not contain a sample rate");
+            }
+            sampleRate = values[0];
+        }
+        dataStart = buffer.position();
+        rewind();
+    }
+
+    /** Start time of the recording in seconds since the Unix epoch. */
+    public double getStartTime() {
+        return startTime;
+    }
+
+    /** Sample rate in Hz, or 0 if each line contains its own time offset. */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Read the next sample.
+     * @return true if a sample was read, false if the end of the file was reached.
+     */
+    public boolean next() {
+        if (!readLine()) {
+            return false;
+        }
+        if (sampleRate > 0.0) {
+            time = startTime + sampleIndex / sampleRate;
+        } else {
+            time = startTime + values[0];
+            System.arraycopy(values, 1, values, 0, numValues - 1);
+            numValues--;
+        }
+        sampleIndex++;
+        return true;
+    }
+
+    /** Time of the current sample in seconds since the Unix epoch. */
+    public double getTime() {
+        return time;
+    }
+
+    /** Number of values of the current sample. */
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /** Value of the current sample in given column, or NaN if it is not a number. */
+    public double getValue(int column) {
+        if (column >= numValues) {
+            throw new IndexOutOfBoundsException("Sample has only " + numValues + " values");
+        }
+        return values[column];
+    }
+
+    /** Start reading samples from the beginning again. */
+    public void rewind() {
+        buffer.position(dataStart);
+        sampleIndex = 0;
+        numValues = 0;
+        time = Double.NaN;
+    }
+
+    /** Parse the next non-empty line into values. */
+    private boolean readLine() {
+        numValues = 0;
+        while (numValues == 0 && buffer.hasRemaining()) {
+            int fieldStart = buffer.position();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == ',' || b == '\n') {
+                    addValue(fieldStart, buffer.position() - 1);
+                    fieldStart = buffer.position();
+                    if (b == '\n') {
+                        break;
+                    }
+                } else if (!buffer.hasRemaining()) {
+                    addValue(fieldStart, buffer.position());
+                }
+            }
+        }
+        return numValues > 0;
+    }
+
+    private void addValue(int start, int end) {
+        while (start < end && isWhitespace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(buffer.get(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        if (numValues == MAX_VALUES) {
+            throw new IllegalStateException("E4 CSV line has more than " + MAX_VALUES + " values");
+        }
+        values[numValues++] = parseNumber(start, end);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /** Parse a plain decimal number, or return NaN if the field is not a number. */
+    private double parseNumber(int start, int end) {
+        int i = start;
+        boolean isNegative = buffer.get(i) == '-';
+        if (isNegative || buffer.get(i) == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits > 18 || digits == 0) {
+            // exponents, long numbers and text are rare, use the slow path
+            byte[] field = new byte[end - start];
+            for (int j = 0; j < field.length; j++) {
+                field[j] = buffer.get(start + j);
+            }
+            try {
+                return Double.parseDouble(new String(field, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return isNegative ? -value : value;
+    }
+}
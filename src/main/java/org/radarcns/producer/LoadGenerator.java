@@ -0,0 +1,384 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import static io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG;
+
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificData;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.LoadTestConfig;
+import org.radarcns.config.LoadTestConfig.TopicConfig;
+import org.radarcns.config.SubCommand;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.Histogram;
+import org.radarcns.util.metrics.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load test that sends synthetic records directly to Kafka. Every simulated device sends records
+ * to each configured topic at the frequency of that topic, after an optional linear or stepwise
+ * ramp-up. The target rate, the sent and acknowledged rates, errors, skipped records and the
+ * latency until acknowledgement are logged for each topic at every report interval and recorded
+ * in the metrics registry.
+ *
+ * <p>In open-loop mode, each record has a scheduled send time that does not depend on how long
+ * sending earlier records took, and latency is measured from that time. A stalled producer then
+ * shows up as increased latency instead of a lower sending rate.
+ */
+public class LoadGenerator implements SubCommand {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    /** Interval between scheduling rounds of a generator thread. */
+    private static final long TICK_NANOS = 1_000_000L;
+
+    private final LoadTestConfig config;
+    private final Producer<Object, Object> producer;
+    private final List<TopicLoad> topics;
+    private volatile boolean isRunning;
+    private Thread supervisor;
+
+    /**
+     * Load generator.
+     * @param config load test configuration.
+     * @param producer producer to send records with. It is closed when the test ends.
+     * @throws IllegalArgumentException if the configuration is invalid.
+     */
+    public LoadGenerator(@Nonnull LoadTestConfig config,
+            @Nonnull Producer<Object, Object> producer) {
+        if (config.getTopics().isEmpty()) {
+            throw new IllegalArgumentException("Load test does not specify any topics");
+        }
+        if (config.getThreads() < 1 || config.getDevices() < config.getThreads()) {
+            throw new IllegalArgumentException(
+                    "Load test needs at least one thread and one device per thread");
+        }
+        this.config = config;
+        this.producer = producer;
+        this.topics = new ArrayList<>(config.getTopics().size());
+        for (TopicConfig topic : config.getTopics()) {
+            topics.add(new TopicLoad(topic));
+        }
+        this.isRunning = false;
+    }
+
+    /**
+     * Properties of a producer that sends large amounts of Avro records directly to Kafka.
+     * Records are batched and compressed with LZ4 by default.
+     * @param radar configuration with the brokers and schema registry.
+     * @param overrides producer properties that override the defaults.
+     */
+    public static Properties producerProperties(@Nonnull ConfigRadar radar,
+            @Nonnull Map<String, String> overrides) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, radar.getBrokerPaths());
+        props.put(SCHEMA_REGISTRY_URL_CONFIG, radar.getSchemaRegistryPaths());
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, KafkaAvroSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, KafkaAvroSerializer.class);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, "65536");
+        props.put(ProducerConfig.LINGER_MS_CONFIG, "10");
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.putAll(overrides);
+        return props;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (supervisor != null) {
+            throw new IllegalStateException("Load test already started");
+        }
+        isRunning = true;
+        supervisor = new Thread(this::run, "load-test");
+        supervisor.start();
+    }
+
+    /** Run generator threads until the duration is over or the test is stopped. */
+    private void run() {
+        long startNanos = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        int numThreads = config.getThreads();
+        int numDevices = config.getDevices();
+
+        logger.info("Starting load test with {} devices on {} threads", numDevices, numThreads);
+        List<Thread> generators = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            int first = numDevices * i / numThreads;
+            int count = numDevices * (i + 1) / numThreads - first;
+            Thread generator = new Thread(() -> generate(first, count, startNanos, startMillis),
+                    "load-test-" + i);
+            generator.start();
+            generators.add(generator);
+        }
+
+        for (TopicLoad topic : topics) {
+            topic.reportNanos = startNanos;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long interval = config.getReportInterval();
+        reporter.scheduleAtFixedRate(() -> report(startNanos), interval, interval,
+                TimeUnit.SECONDS);
+
+        try {
+            for (Thread generator : generators) {
+                generator.join();
+            }
+        } catch (InterruptedException ex) {
+            logger.warn("Load test interrupted");
+            isRunning = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            reporter.shutdownNow();
+            producer.flush();
+            producer.close();
+            summarize(startNanos);
+        }
+    }
+
+    /**
+     * Send records for a range of devices.
+     * @param first index of the first device.
+     * @param count number of devices.
+     * @param startNanos start of the test in {@link System#nanoTime()}.
+     * @param startMillis start of the test in {@link System#currentTimeMillis()}.
+     */
+    private void generate(int first, int count, long startNanos, long startMillis) {
+        ObservationKey[] keys = new ObservationKey[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new ObservationKey("load-test", "user-" + (first + i),
+                    "device-" + (first + i));
+        }
+        SyntheticRecords records = new SyntheticRecords(new Random(first));
+        long[] sent = new long[topics.size()];
+        double duration = config.getDuration();
+        double previous = 0.0;
+        boolean isLast = false;
+
+        while (isRunning && !isLast) {
+            double elapsed = (System.nanoTime() - startNanos) / 1e9;
+            if (duration > 0 && elapsed >= duration) {
+                elapsed = duration;
+                isLast = true;
+            }
+            double fullRateTime = fullRateTime(elapsed, config.getRampUp(),
+                    config.getRampSteps());
+
+            for (int i = 0; i < sent.length; i++) {
+                TopicLoad topic = topics.get(i);
+                double rate = topic.frequency * count;
+                long due = (long) (rate * fullRateTime) - sent[i];
+                if (due <= 0) {
+                    continue;
+                }
+                if (!config.isOpenLoop()) {
+                    // skip records that could not be sent on time
+                    long maxDue = closedLoopAllowance(rate, elapsed - previous);
+                    if (due > maxDue) {
+                        topic.skipped.add(due - maxDue);
+                        sent[i] += due - maxDue;
+                        due = maxDue;
+                    }
+                }
+                for (long j = 0; j < due; j++) {
+                    double scheduled = config.isOpenLoop()
+                            ? previous + (elapsed - previous) * (j + 1) / due
+                            : (System.nanoTime() - startNanos) / 1e9;
+                    ObservationKey key = keys[(int) ((sent[i] + j) % count)];
+                    producer.send(new ProducerRecord<>(topic.name, key,
+                            records.create(topic.schema, startMillis / 1000d + scheduled)),
+                            topic.callback(startNanos + (long) (scheduled * 1e9)));
+                }
+                sent[i] += due;
+                topic.sent.add(due);
+            }
+            previous = elapsed;
+            LockSupport.parkNanos(TICK_NANOS);
+        }
+    }
+
+    /**
+     * Time in seconds that records would have been sent at the full rate, after a given time
+     * since the start of the test. Multiplied by the full rate, this gives the number of records
+     * that should have been sent.
+     * @param elapsed seconds since the start of the test.
+     * @param rampUp seconds until the full rate is reached.
+     * @param steps number of equal steps to ramp up with, or 0 to ramp up linearly.
+     */
+    static double fullRateTime(double elapsed, double rampUp, int steps) {
+        if (elapsed >= rampUp) {
+            double ramp = steps > 0 ? rampUp * (steps + 1) / (2.0 * steps) : rampUp / 2.0;
+            return ramp + elapsed - rampUp;
+        } else if (steps > 0) {
+            double stepLength = rampUp / steps;
+            long completed = (long) (elapsed / stepLength);
+            return stepLength * completed * (completed + 1) / (2.0 * steps)
+                    + (elapsed - completed * stepLength) * (completed + 1) / steps;
+        } else {
+            return elapsed * elapsed / (2.0 * rampUp);
+        }
+    }
+
+    /**
+     * Maximum number of records of a topic to send in a closed-loop tick. Records that were due
+     * earlier are skipped. Ticks often take longer than {@link #TICK_NANOS}, so this allows the
+     * records that became due in the measured length of the tick, plus one nominal tick as slack
+     * for scheduling jitter.
+     * @param rate records per second.
+     * @param tickSeconds seconds since the previous tick.
+     */
+    static long closedLoopAllowance(double rate, double tickSeconds) {
+        return Math.max(1L, (long) Math.ceil(rate * (tickSeconds + TICK_NANOS / 1e9)));
+    }
+
+    /**
+     * Fraction of the full rate at a given time since the start of the test.
+     * @see #fullRateTime(double, double, int)
+     */
+    static double rateFraction(double elapsed, double rampUp, int steps) {
+        if (elapsed >= rampUp) {
+            return 1.0;
+        } else if (steps > 0) {
+            return Math.min(1.0, (Math.floor(elapsed * steps / rampUp) + 1) / steps);
+        } else {
+            return elapsed / rampUp;
+        }
+    }
+
+    /** Log the rates of the last report interval. */
+    private void report(long startNanos) {
+        long now = System.nanoTime();
+        double fraction = rateFraction((now - startNanos) / 1e9, config.getRampUp(),
+                config.getRampSteps());
+        for (TopicLoad topic : topics) {
+            double seconds = (now - topic.reportNanos) / 1e9;
+            long sent = topic.sent.sum();
+            long acked = topic.acked.sum();
+            Histogram latency = topic.intervalLatency;
+            logger.info("{}: target {}/s, sent {}/s, acked {}/s, errors {}, skipped {},"
+                            + " latency p50={} p99={} max={} ms", topic.name,
+                    Math.round(topic.frequency * config.getDevices() * fraction),
+                    Math.round((sent - topic.reportSent) / seconds),
+                    Math.round((acked - topic.reportAcked) / seconds),
+                    topic.errors.sum(), topic.skipped.sum(), latency.getValueAtPercentile(50.0),
+                    latency.getValueAtPercentile(99.0), latency.getMax());
+            latency.reset();
+            topic.reportNanos = now;
+            topic.reportSent = sent;
+            topic.reportAcked = acked;
+        }
+    }
+
+    /** Log the totals of the test. */
+    private void summarize(long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        for (TopicLoad topic : topics) {
+            logger.info("{} total: sent {}, acked {} ({}/s), errors {}, skipped {},"
+                            + " latency p50={} p99={} p99.9={} max={} ms", topic.name,
+                    topic.sent.sum(), topic.acked.sum(), Math.round(topic.acked.sum() / seconds),
+                    topic.errors.sum(), topic.skipped.sum(),
+                    topic.latency.getValueAtPercentile(50.0),
+                    topic.latency.getValueAtPercentile(99.0),
+                    topic.latency.getValueAtPercentile(99.9), topic.latency.getMax());
+        }
+    }
+
+    /** Wait until the load test has ended. */
+    public void awaitCompletion() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = supervisor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        isRunning = false;
+        awaitCompletion();
+    }
+
+    /** Load and metrics of a single topic. */
+    private static class TopicLoad {
+        private final String name;
+        private final Schema schema;
+        private final double frequency;
+        private final LongAdder sent;
+        private final LongAdder acked;
+        private final LongAdder errors;
+        private final LongAdder skipped;
+        private final Histogram latency;
+        private final Histogram intervalLatency;
+        // only accessed by the reporting thread
+        private long reportNanos;
+        private long reportSent;
+        private long reportAcked;
+
+        private TopicLoad(TopicConfig config) {
+            this.name = config.getTopic();
+            try {
+                this.schema = SpecificData.get().getSchema(
+                        Class.forName(config.getValueSchema()));
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Value schema " + config.getValueSchema()
+                        + " of topic " + name + " is not a known record class", ex);
+            }
+            this.frequency = config.getFrequency();
+
+            MetricGroup metrics = RadarSingletonFactory.getMetricsRegistry()
+                    .group("load", name);
+            this.sent = metrics.counter("sent");
+            this.acked = metrics.counter("acked");
+            this.errors = metrics.counter("errors");
+            this.skipped = metrics.counter("skipped");
+            this.latency = metrics.histogram("latency_ms");
+            this.intervalLatency = new Histogram();
+        }
+
+        /** Callback that records the acknowledgement of a record scheduled at given time. */
+        private Callback callback(long scheduledNanos) {
+            return (metadata, exception) -> {
+                if (exception != null) {
+                    errors.increment();
+                } else {
+                    acked.increment();
+                    long latencyMs = (System.nanoTime() - scheduledNanos) / 1_000_000L;
+                    latency.record(latencyMs);
+                    intervalLatency.record(latencyMs);
+                }
+            };
+        }
+    }
+}
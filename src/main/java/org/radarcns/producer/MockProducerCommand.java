@@ -18,7 +18,9 @@ package org.radarcns.producer;
 
 import java.io.File;
 import java.io.IOException;
+import org.apache.kafka.clients.producer.KafkaProducer;
 import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.LoadTestConfig;
 import org.radarcns.config.MockConfig;
 import org.radarcns.config.RadarBackendOptions;
 import org.radarcns.config.RadarPropertyHandler;
@@ -27,8 +29,13 @@ import org.radarcns.config.YamlConfigLoader;
 import org.radarcns.mock.MockProducer;
 import org.radarcns.mock.config.BasicMockConfig;
 
+/**
+ * Sends mock data to the backend. If the mock file contains a {@code load_test}, a
+ * {@link LoadGenerator} is run instead.
+ */
 public class MockProducerCommand implements SubCommand {
     private final MockProducer producer;
+    private final LoadGenerator loadGenerator;
 
     public MockProducerCommand(RadarBackendOptions options,
             RadarPropertyHandler radarPropertyHandler) throws IOException {
@@ -40,6 +47,13 @@ public class MockProducerCommand implements SubCommand {
 
         if (mockFile != null) {
             MockConfig mockConfig = new YamlConfigLoader().load(mockFile, MockConfig.class);
+            LoadTestConfig loadTest = mockConfig.getLoadTest();
+            if (loadTest != null) {
+                producer = null;
+                loadGenerator = new LoadGenerator(loadTest, new KafkaProducer<>(
+                        LoadGenerator.producerProperties(radar, loadTest.getProducer())));
+                return;
+            }
             producerConfig.setData(mockConfig.getData());
         } else {
             producerConfig.setNumberOfDevices(options.getNumMockDevices());
@@ -48,15 +62,24 @@ public class MockProducerCommand implements SubCommand {
         producerConfig.setSchemaRegistry(radar.getSchemaRegistry().get(0));
         producerConfig.setProducerMode(options.isMockDirect() ? "direct" : "rest");
         producer = new MockProducer(producerConfig);
+        loadGenerator = null;
     }
 
     @Override
     public void start() throws IOException, InterruptedException {
-        producer.start();
+        if (loadGenerator != null) {
+            loadGenerator.start();
+        } else {
+            producer.start();
+        }
     }
 
     @Override
     public void shutdown() throws IOException, InterruptedException {
-        producer.shutdown();
+        if (loadGenerator != null) {
+            loadGenerator.shutdown();
+        } else {
+            producer.shutdown();
+        }
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nonnull;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.radarcns.config.RadarBackendOptions;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.SubCommand;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4BloodVolumePulse;
+import org.radarcns.passive.empatica.EmpaticaE4ElectroDermalActivity;
+import org.radarcns.passive.empatica.EmpaticaE4InterBeatInterval;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays Empatica E4 recordings in the E4 export format into the E4 topics. The files
+ * {@code ACC.csv}, {@code BVP.csv}, {@code EDA.csv}, {@code IBI.csv} and {@code TEMP.csv} of a
+ * directory are read in order of sample time and sent directly to Kafka. The replay can be
+ * accelerated, repeated and fanned out to many devices, which all send the same samples.
+ *
+ * <p>Sample times are shifted so that the last sample is sent with the current time. Both
+ * {@code time} and {@code timeReceived} are set to the shifted sample time, so windows in event
+ * time contain the same samples as in the original recording.
+ */
+public class ReplayCommand implements SubCommand {
+    private static final Logger logger = LoggerFactory.getLogger(ReplayCommand.class);
+    private static final long REPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final Producer<Object, Object> producer;
+    private final double speed;
+    private final int repeat;
+    private final ObservationKey[] keys;
+    private final List<Replay> replays;
+    private final double startTime;
+    private final double span;
+    private volatile boolean isRunning;
+    private Thread thread;
+
+    /**
+     * Replay command for the command-line. The directory is the first subcommand argument.
+     * @throws IOException if the recordings cannot be read.
+     */
+    public ReplayCommand(RadarBackendOptions options, RadarPropertyHandler radarPropertyHandler)
+            throws IOException {
+        this(directory(options), options.getReplaySpeed(), options.getReplayRepeat(),
+                options.getNumMockDevices(), new KafkaProducer<>(LoadGenerator.producerProperties(
+                        radarPropertyHandler.getRadarProperties(), Collections.emptyMap())));
+    }
+
+    /**
+     * Replay command.
+     * @param directory directory with E4 CSV files.
+     * @param speed time acceleration, or 0 to send as fast as possible.
+     * @param repeat number of times to replay the recording.
+     * @param devices number of devices that send the recording.
+     * @param producer producer to send records with. It is closed when the replay ends.
+     * @throws IOException if the recordings cannot be read.
+     * @throws IllegalArgumentException if the directory does not contain any E4 recordings.
+     */
+    ReplayCommand(@Nonnull Path directory, double speed, int repeat, int devices,
+            @Nonnull Producer<Object, Object> producer) throws IOException {
+        if (speed < 0 || repeat < 1 || devices < 1) {
+            throw new IllegalArgumentException("Replay speed must be non-negative and the number"
+                    + " of repetitions and devices must be positive");
+        }
+        this.producer = producer;
+        this.speed = speed;
+        this.repeat = repeat;
+
+        keys = new ObservationKey[devices];
+        for (int i = 0; i < devices; i++) {
+            keys[i] = new ObservationKey("replay", "user-" + i, "device-" + i);
+        }
+
+        replays = new ArrayList<>();
+        for (E4File file : E4File.values()) {
+            Path path = directory.resolve(file.name() + ".csv");
+            if (Files.isRegularFile(path)) {
+                replays.add(new Replay(file, new E4CsvReader(path)));
+            }
+        }
+        if (replays.isEmpty()) {
+            throw new IllegalArgumentException("Directory " + directory
+                    + " does not contain any E4 recordings");
+        }
+
+        double start = Double.POSITIVE_INFINITY;
+        double end = Double.NEGATIVE_INFINITY;
+        for (Replay replay : replays) {
+            start = Math.min(start, replay.reader.getStartTime());
+            end = Math.max(end, replay.endTime());
+        }
+        this.startTime = start;
+        this.span = end - start;
+    }
+
+    private static Path directory(RadarBackendOptions options) {
+        String[] args = options.getSubCommandArgs();
+        if (args == null || args.length == 0) {
+            throw new IllegalArgumentException(
+                    "Specify a directory with E4 recordings to replay");
+        }
+        return Paths.get(args[0]);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Replay already started");
+        }
+        isRunning = true;
+        thread = new Thread(this::run, "replay");
+        thread.start();
+    }
+
+    /** Send all samples in order of their time. */
+    private void run() {
+        double duration = span * repeat;
+        long startNanos = System.nanoTime();
+        double shiftedStart = System.currentTimeMillis() / 1000d - duration
+                + (speed > 0 ? duration / speed : 0.0);
+        logger.info("Replaying {} s of recordings to {} devices at {} speed",
+                Math.round(duration), keys.length, speed > 0 ? speed + "x" : "maximum");
+
+        PriorityQueue<Replay> queue = new PriorityQueue<>(
+                Comparator.comparingDouble(Replay::getTime));
+        for (Replay replay : replays) {
+            replay.reset();
+            if (replay.next()) {
+                queue.add(replay);
+            }
+        }
+
+        long reportNanos = startNanos;
+        try {
+            while (isRunning && !queue.isEmpty()) {
+                Replay replay = queue.poll();
+                double offset = replay.getTime() - startTime;
+                if (speed > 0) {
+                    long waitNanos = startNanos + (long) (offset / speed * 1e9)
+                            - System.nanoTime();
+                    if (waitNanos > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                }
+                replay.send(shiftedStart + offset);
+                if (replay.next()) {
+                    queue.add(replay);
+                }
+
+                long now = System.nanoTime();
+                if (now - reportNanos >= REPORT_INTERVAL_NANOS) {
+                    logger.info("Replayed {} of {} s", Math.round(offset), Math.round(duration));
+                    reportNanos = now;
+                }
+            }
+        } finally {
+            producer.flush();
+            producer.close();
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            for (Replay replay : replays) {
+                logger.info("{}: sent {} records ({}/s), errors {}", replay.file.topic,
+                        replay.sent.sum(), Math.round(replay.sent.sum() / seconds),
+                        replay.errors.sum());
+            }
+        }
+    }
+
+    /** Wait until the replay has ended. */
+    void awaitCompletion() throws InterruptedException {
+        Thread replayThread;
+        synchronized (this) {
+            replayThread = thread;
+        }
+        if (replayThread != null) {
+            replayThread.join();
+        }
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        isRunning = false;
+        awaitCompletion();
+    }
+
+    /** Replay state of a single file. */
+    private class Replay {
+        private final E4File file;
+        private final E4CsvReader reader;
+        private final LongAdder sent;
+        private final LongAdder errors;
+        private final Callback callback;
+        private int repetition;
+
+        private Replay(E4File file, E4CsvReader reader) {
+            this.file = file;
+            this.reader = reader;
+            MetricGroup metrics = RadarSingletonFactory.getMetricsRegistry()
+                    .group("replay", file.topic);
+            this.sent = metrics.counter("sent");
+            this.errors = metrics.counter("errors");
+            this.callback = (metadata, exception) -> {
+                if (exception != null) {
+                    errors.increment();
+                }
+            };
+        }
+
+        /** Time after the last sample in the file. */
+        private double endTime() {
+            double end = reader.getStartTime();
+            while (reader.next()) {
+                end = reader.getTime();
+            }
+            double rate = reader.getSampleRate();
+            return rate > 0 ? end + 1.0 / rate : end;
+        }
+
+        private void reset() {
+            reader.rewind();
+            repetition = 0;
+        }
+
+        /** Read the next sample, rewinding the file if it should be repeated. */
+        private boolean next() {
+            if (reader.next()) {
+                return true;
+            }
+            if (++repetition < repeat) {
+                reader.rewind();
+                return reader.next();
+            }
+            return false;
+        }
+
+        private double getTime() {
+            return reader.getTime() + repetition * span;
+        }
+
+        /** Send the current sample for every device with given time. */
+        private void send(double time) {
+            if (reader.getNumValues() < file.numValues) {
+                return;
+            }
+            SpecificRecord record = file.toRecord(time, reader);
+            // the producer serializes records while sending, so they can be reused
+            for (ObservationKey key : keys) {
+                producer.send(new ProducerRecord<>(file.topic, key, record), callback);
+            }
+            sent.add(keys.length);
+        }
+    }
+
+    /** E4 export files that can be replayed, with their topic and conversion to records. */
+    enum E4File {
+        // acceleration is exported in units of 1/64 g
+        ACC("android_empatica_e4_acceleration", 3, (time, r) -> new EmpaticaE4Acceleration(
+                time, time, (float) (r.getValue(0) / 64.0), (float) (r.getValue(1) / 64.0),
+                (float) (r.getValue(2) / 64.0))),
+        BVP("android_empatica_e4_blood_volume_pulse", 1, (time, r) ->
+                new EmpaticaE4BloodVolumePulse(time, time, (float) r.getValue(0))),
+        EDA("android_empatica_e4_electrodermal_activity", 1, (time, r) ->
+                new EmpaticaE4ElectroDermalActivity(time, time, (float) r.getValue(0))),
+        IBI("android_empatica_e4_inter_beat_interval", 1, (time, r) ->
+                new EmpaticaE4InterBeatInterval(time, time, (float) r.getValue(0))),
+        TEMP("android_empatica_e4_temperature", 1, (time, r) ->
+                new EmpaticaE4Temperature(time, time, (float) r.getValue(0)));
+
+        private final String topic;
+        private final int numValues;
+        private final RecordConverter converter;
+
+        E4File(String topic, int numValues, RecordConverter converter) {
+            this.topic = topic;
+            this.numValues = numValues;
+            this.converter = converter;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        SpecificRecord toRecord(double time, E4CsvReader reader) {
+            return converter.convert(time, reader);
+        }
+    }
+
+    /** Converts the current sample of a reader to a record. */
+    @FunctionalInterface
+    private interface RecordConverter {
+        SpecificRecord convert(double time, E4CsvReader reader);
+    }
+}
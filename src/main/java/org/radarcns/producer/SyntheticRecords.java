@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+
+/**
+ * Generates records with synthetic values for any specific Avro schema. Fields whose name starts
+ * with {@code time} get the requested time, numeric fields get small random values and strings
+ * and enums are drawn from a small set, so that grouping by value gives few groups.
+ */
+public class SyntheticRecords {
+    private static final String[] STRING_VALUES = {"a", "b", "c", "d", "e", "f", "g", "h"};
+
+    private final Random random;
+
+    /** Synthetic records with a fixed seed, so that runs are reproducible. */
+    public SyntheticRecords() {
+        this(new Random(1L));
+    }
+
+    public SyntheticRecords(@Nonnull Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Create a record.
+     * @param schema schema of a specific record class.
+     * @param time time in seconds since the Unix epoch.
+     * @return new record.
+     */
+    public SpecificRecord create(@Nonnull Schema schema, double time) {
+        return (SpecificRecord) value(schema, "", time);
+    }
+
+    private Object value(Schema schema, String name, double time) {
+        switch (schema.getType()) {
+            case RECORD:
+                SpecificRecord record = (SpecificRecord) SpecificData.get().newRecord(null, schema);
+                for (Field field : schema.getFields()) {
+                    record.put(field.pos(), value(field.schema(), field.name(), time));
+                }
+                return record;
+            case UNION:
+                for (Schema type : schema.getTypes()) {
+                    if (type.getType() != Schema.Type.NULL) {
+                        return value(type, name, time);
+                    }
+                }
+                return null;
+            case DOUBLE:
+                return name.startsWith("time") ? time : random.nextDouble();
+            case FLOAT:
+                return random.nextFloat();
+            case INT:
+                return random.nextInt(100);
+            case LONG:
+                return (long) random.nextInt(100);
+            case BOOLEAN:
+                return random.nextBoolean();
+            case STRING:
+                return STRING_VALUES[random.nextInt(STRING_VALUES.length)];
+            case ENUM:
+                List<String> symbols = schema.getEnumSymbols();
+                return SpecificData.get().createEnum(
+                        symbols.get(random.nextInt(symbols.size())), schema);
+            case BYTES:
+                return ByteBuffer.allocate(0);
+            case FIXED:
+                return SpecificData.get().createFixed(null, new byte[schema.getFixedSize()],
+                        schema);
+            case ARRAY:
+                return Collections.emptyList();
+            case MAP:
+                return Collections.emptyMap();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.radarcns.config.AdmissionConfig;
+import org.radarcns.util.metrics.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control of the records of each source. Every key has a token bucket that is filled
+ * at the allowed rate of the topic, in record time, up to a burst capacity. A record takes a
+ * token; records that find the bucket empty are excess records, which are replaced with null
+ * so they can be filtered out, or of which only a fraction is passed when downsampling. This
+ * keeps a source that floods its partition from delaying the other sources on it.
+ *
+ * <p>A source is counted as an offender when it starts exceeding its rate, and again only after
+ * its bucket was full in the meantime. The metrics {@code admission_offenders},
+ * {@code admission_dropped} and {@code admission_downsampled} count these offenses, the dropped
+ * records and the passed excess records.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class AdmissionControl<K, V> implements ValueTransformerWithKey<K, V, V> {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    private final String topic;
+    private final double ratePerMs;
+    private final double capacity;
+    private final int downsample;
+    private final int maxKeys;
+    private final LinkedHashMap<K, Bucket> buckets;
+    private final LongAdder offenders;
+    private final LongAdder dropped;
+    private final LongAdder downsampled;
+    private ProcessorContext context;
+
+    /**
+     * Admission control.
+     * @param topic input topic, for logging.
+     * @param config admission configuration of the topic.
+     * @param metrics metrics to count offenders and excess records in.
+     * @param maxKeys maximum number of keys to keep a bucket of; the bucket of a key that is
+     *                evicted is full when the key returns.
+     * @throws IllegalArgumentException if the configuration is invalid.
+     */
+    public AdmissionControl(@Nonnull String topic, @Nonnull AdmissionConfig config,
+            @Nonnull MetricGroup metrics, int maxKeys) {
+        double rate = config.getRate() * config.getTolerance();
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Admission rate of topic " + topic
+                    + " must be positive");
+        }
+        this.topic = topic;
+        this.ratePerMs = rate / 1000d;
+        this.capacity = Math.max(1d, rate * config.getBurstSeconds());
+        this.downsample = parseExcess(config);
+        this.maxKeys = maxKeys;
+        this.buckets = new LinkedHashMap<K, Bucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Bucket> eldest) {
+                return size() > AdmissionControl.this.maxKeys;
+            }
+        };
+        this.offenders = metrics.counter("admission_offenders");
+        this.dropped = metrics.counter("admission_dropped");
+        this.downsampled = metrics.counter("admission_downsampled");
+    }
+
+    /** Number of excess records per passed excess record, or 0 to drop all excess records. */
+    private static int parseExcess(AdmissionConfig config) {
+        switch (config.getExcess().toLowerCase(Locale.US)) {
+            case "drop":
+                return 0;
+            case "downsample":
+                if (config.getDownsample() < 1) {
+                    throw new IllegalArgumentException("Downsample factor must be positive");
+                }
+                return config.getDownsample();
+            default:
+                throw new IllegalArgumentException("Unknown excess policy "
+                        + config.getExcess() + "; use drop or downsample");
+        }
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public V transform(K key, V value) {
+        long time = context.timestamp();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(time);
+            buckets.put(key, bucket);
+        } else {
+            bucket.refill(time);
+        }
+
+        if (bucket.tokens >= 1d) {
+            bucket.tokens -= 1d;
+            return value;
+        }
+
+        if (!bucket.offending) {
+            bucket.offending = true;
+            offenders.increment();
+            log.warn("Source {} of topic {} exceeds its admission rate; {} excess records",
+                    key, topic, downsample == 0 ? "dropping" : "downsampling");
+        }
+        if (downsample > 0 && bucket.excess++ % downsample == 0) {
+            downsampled.increment();
+            return value;
+        }
+        dropped.increment();
+        return null;
+    }
+
+    /** Number of keys that a bucket is kept of. */
+    int numKeys() {
+        return buckets.size();
+    }
+
+    @Override
+    public void close() {
+        buckets.clear();
+    }
+
+    /** Token bucket of a single key. */
+    private final class Bucket {
+        private double tokens;
+        private long time;
+        /** Whether the key exceeded its rate since its bucket was last full. */
+        private boolean offending;
+        private long excess;
+
+        private Bucket(long time) {
+            this.tokens = capacity;
+            this.time = time;
+        }
+
+        /** Add the tokens of the time since the latest record; late records add none. */
+        private void refill(long newTime) {
+            if (newTime > time) {
+                tokens = Math.min(capacity, tokens + (newTime - time) * ratePerMs);
+                time = newTime;
+                if (tokens == capacity) {
+                    offending = false;
+                }
+            }
+        }
+    }
+}
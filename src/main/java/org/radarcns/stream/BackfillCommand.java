@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.GROUP_ID_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.RadarBackendOptions;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.SubCommand;
+import org.radarcns.topic.KafkaTopic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recomputes the aggregates of an input topic for a time range, for example after a collector
+ * fix. The chosen stream definitions of the input topic run under a separate application ID,
+ * starting from the first offset with a record timestamp at or after the start time. They stop
+ * by themselves when the last offset before the end time, or the last offset at the moment of
+ * starting, has been processed. The backfill uses large batches and infrequent commits, since
+ * its output only needs to be complete at the end.
+ *
+ * <p>Offsets are resolved with the Kafka record timestamps, which are normally the times the
+ * records were produced, not the sample times. Windows at the edges of the range may therefore
+ * contain only part of their samples, so the aggregates are always written to output topics
+ * with a suffix, to be merged or compared with the regular output.
+ *
+ * <p>Each run uses a new application ID. When the backfill ends, its local state and its
+ * internal topics are deleted.
+ */
+public class BackfillCommand implements SubCommand {
+    private static final Logger logger = LoggerFactory.getLogger(BackfillCommand.class);
+    private static final long COMMIT_INTERVAL_MS = 60_000L;
+    private static final long REPORT_INTERVAL_MS = 10_000L;
+
+    private final ConfigRadar config;
+    private final StreamMaster master;
+    private final String topic;
+    private final Instant from;
+    private final Instant to;
+    private final List<String> windows;
+    private final String outputSuffix;
+    private volatile boolean isRunning;
+    private volatile boolean isFailed;
+    private Thread thread;
+
+    /**
+     * Backfill command for the command-line. The subcommand arguments are the input topic, the
+     * start time and optionally the end time, as ISO-8601 instants.
+     */
+    public BackfillCommand(RadarBackendOptions options, RadarPropertyHandler properties) {
+        this(properties.getRadarProperties(),
+                new KafkaStreamFactory(options, properties).createStreamMaster(
+                        properties.getRadarProperties().getStreamMasters()),
+                argument(options, 0), Instant.parse(argument(options, 1)),
+                options.getSubCommandArgs().length > 2
+                        ? Instant.parse(options.getSubCommandArgs()[2]) : null,
+                options.getBackfillWindows(), options.getBackfillOutputSuffix());
+    }
+
+    /**
+     * Backfill command.
+     * @param config RADAR configuration.
+     * @param master stream master that creates the stream workers.
+     * @param topic input topic.
+     * @param from time of the first records to process.
+     * @param to time after the last records to process, or null to process all current records.
+     * @param windows labels of the windows to compute, like {@code 10sec}, or null for all.
+     * @param outputSuffix non-empty suffix to append to output topics.
+     */
+    BackfillCommand(@Nonnull ConfigRadar config, @Nonnull StreamMaster master,
+            @Nonnull String topic, @Nonnull Instant from, Instant to, List<String> windows,
+            String outputSuffix) {
+        if (to != null && !to.isAfter(from)) {
+            throw new IllegalArgumentException("Backfill end time must be after its start time");
+        }
+        if (outputSuffix == null || outputSuffix.isEmpty()) {
+            throw new IllegalArgumentException("Backfill requires an output suffix, since"
+                    + " windows at the edges of the range may be incomplete");
+        }
+        this.config = config;
+        this.master = master;
+        this.topic = topic;
+        this.from = from;
+        this.to = to;
+        this.windows = windows;
+        this.outputSuffix = outputSuffix;
+    }
+
+    private static String argument(RadarBackendOptions options, int index) {
+        String[] args = options.getSubCommandArgs();
+        if (args == null || args.length < 2) {
+            throw new IllegalArgumentException("Usage: backfill --output-suffix <suffix>"
+                    + " <topic> <start time> [<end time>]");
+        }
+        return args[index];
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Backfill already started");
+        }
+        List<Backfill> backfills = createBackfills();
+        if (backfills.isEmpty()) {
+            throw new IllegalArgumentException("No stream definitions of topic " + topic
+                    + " match windows " + windows);
+        }
+        isRunning = true;
+        thread = new Thread(() -> run(backfills), "backfill");
+        thread.start();
+    }
+
+    /** Create a backfill for each chosen stream definition of the input topic. */
+    private List<Backfill> createBackfills() {
+        List<StreamWorker> workers = new ArrayList<>();
+        master.createWorkers(workers, master);
+
+        List<Backfill> backfills = new ArrayList<>();
+        for (StreamWorker worker : workers) {
+            if (!(worker instanceof KStreamWorker)) {
+                continue;
+            }
+            KStreamWorker<?, ?> kstreamWorker = (KStreamWorker<?, ?>) worker;
+            for (StreamDefinition definition : kstreamWorker.getStreamDefinitions()) {
+                if (definition.getInputTopic().getName().equals(topic)
+                        && isChosen(definition)) {
+                    backfills.add(new Backfill(kstreamWorker, definition));
+                }
+            }
+        }
+        return backfills;
+    }
+
+    private boolean isChosen(StreamDefinition definition) {
+        return windows == null || windows.stream().anyMatch(
+                w -> definition.getOutputTopic().getName().endsWith("_" + w));
+    }
+
+    private void run(List<Backfill> backfills) {
+        long startTime = System.currentTimeMillis();
+        try {
+            Map<TopicPartition, Long>[] offsets = resolveOffsets();
+            for (Backfill backfill : backfills) {
+                backfill.start(new BackfillRange(topic, offsets[0], offsets[1]));
+            }
+            logger.info("Backfilling {} records of {} from {} until {} for {} stream"
+                            + " definitions", backfills.get(0).range.size(), topic, from,
+                    to == null ? "now" : to, backfills.size());
+
+            long reportTime = startTime;
+            while (isRunning && !isFailed
+                    && !backfills.stream().allMatch(b -> b.range.isComplete())) {
+                Thread.sleep(1000L);
+                long now = System.currentTimeMillis();
+                if (now - reportTime >= REPORT_INTERVAL_MS) {
+                    for (Backfill backfill : backfills) {
+                        logger.info("Backfill of {}: {} of {} records processed",
+                                backfill.definition.getOutputTopic(),
+                                backfill.worker.getMetrics(backfill.definition)
+                                        .counter("records").sum(),
+                                backfill.range.size());
+                    }
+                    reportTime = now;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            logger.error("Backfill of {} failed", topic, ex);
+            isFailed = true;
+        } finally {
+            // closing the streams flushes and commits the remaining aggregates
+            backfills.forEach(Backfill::close);
+        }
+        logger.info("Backfill of {} {} after {} s", topic,
+                isFailed ? "failed" : isRunning ? "completed" : "stopped",
+                (System.currentTimeMillis() - startTime) / 1000L);
+    }
+
+    /** Start and end offset of each partition of the input topic. */
+    @SuppressWarnings("unchecked")
+    private Map<TopicPartition, Long>[] resolveOffsets() {
+        try (Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProperties(null))) {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(p -> new TopicPartition(p.topic(), p.partition()))
+                    .collect(Collectors.toList());
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            Map<TopicPartition, Long> start = offsetsForTime(consumer, partitions, from,
+                    endOffsets);
+            Map<TopicPartition, Long> end = to == null ? endOffsets
+                    : offsetsForTime(consumer, partitions, to, endOffsets);
+            return new Map[] {start, end};
+        }
+    }
+
+    /** First offset at or after given time, or the end offset if there is none. */
+    private static Map<TopicPartition, Long> offsetsForTime(Consumer<?, ?> consumer,
+            List<TopicPartition> partitions, Instant time, Map<TopicPartition, Long> endOffsets) {
+        Map<TopicPartition, Long> query = new HashMap<>();
+        partitions.forEach(p -> query.put(p, time.toEpochMilli()));
+        Map<TopicPartition, OffsetAndTimestamp> found = consumer.offsetsForTimes(query);
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndTimestamp offset = found.get(partition);
+            offsets.put(partition, offset != null ? offset.offset() : endOffsets.get(partition));
+        }
+        return offsets;
+    }
+
+    private Properties consumerProperties(String groupId) {
+        Properties props = new Properties();
+        props.put(BOOTSTRAP_SERVERS_CONFIG, config.getBrokerPaths());
+        props.put(KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ENABLE_AUTO_COMMIT_CONFIG, "false");
+        if (groupId != null) {
+            props.put(GROUP_ID_CONFIG, groupId);
+        }
+        return props;
+    }
+
+    /** Wait until the backfill has ended. */
+    void awaitCompletion() throws InterruptedException {
+        Thread backfillThread;
+        synchronized (this) {
+            backfillThread = thread;
+        }
+        if (backfillThread != null) {
+            backfillThread.join();
+        }
+    }
+
+    /** Stop the backfill, writing the aggregates computed so far. */
+    @Override
+    public void shutdown() throws InterruptedException {
+        isRunning = false;
+        awaitCompletion();
+    }
+
+    /** Backfill of a single stream definition. */
+    private class Backfill {
+        private final KStreamWorker<?, ?> worker;
+        private final StreamDefinition definition;
+        private final Properties properties;
+        private final long runTime;
+        private BackfillRange range;
+        private KafkaStreams streams;
+
+        private Backfill(KStreamWorker<?, ?> worker, StreamDefinition original) {
+            this.worker = worker;
+            this.definition = new StreamDefinition(original.getInputTopic(),
+                    new KafkaTopic(original.getOutputTopic().getName() + outputSuffix),
+                    original.getTimeWindows(), COMMIT_INTERVAL_MS, original.getStorePolicy());
+
+            // a new application ID per run, so no offsets or state of a previous run are used.
+            // The prefix keeps the production application ID from being a prefix of it, so
+            // that resetting the production state does not delete internal topics of backfills.
+            runTime = System.currentTimeMillis();
+            properties = worker.getStreamProperties(definition);
+            properties.put(StreamsConfig.APPLICATION_ID_CONFIG, "backfill-"
+                    + properties.getProperty(StreamsConfig.APPLICATION_ID_CONFIG)
+                    + "-" + definition.getOutputTopic().getName()
+                    + "-" + from.toEpochMilli() + "-" + runTime);
+            properties.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, COMMIT_INTERVAL_MS);
+            properties.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 64L * 1024 * 1024);
+            properties.put(StreamsConfig.consumerPrefix(ConsumerConfig.MAX_POLL_RECORDS_CONFIG),
+                    10_000);
+            properties.put(StreamsConfig.consumerPrefix(
+                    ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG), 4 * 1024 * 1024);
+            properties.put(StreamsConfig.consumerPrefix(ConsumerConfig.FETCH_MIN_BYTES_CONFIG),
+                    1024 * 1024);
+            properties.put(StreamsConfig.producerPrefix(ProducerConfig.BATCH_SIZE_CONFIG),
+                    256 * 1024);
+            properties.put(StreamsConfig.producerPrefix(ProducerConfig.LINGER_MS_CONFIG), 100);
+            properties.put(StreamsConfig.producerPrefix(ProducerConfig.COMPRESSION_TYPE_CONFIG),
+                    "lz4");
+        }
+
+        /** Commit the start offsets for the application and start the stream. */
+        private void start(BackfillRange backfillRange) {
+            range = backfillRange;
+            String applicationId = properties.getProperty(StreamsConfig.APPLICATION_ID_CONFIG);
+            try (Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(
+                    consumerProperties(applicationId))) {
+                consumer.commitSync(range.getStart().entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey,
+                                e -> new OffsetAndMetadata(e.getValue()))));
+            }
+            streams = new KafkaStreams(worker.createTopology(definition, null, range),
+                    properties);
+            streams.setUncaughtExceptionHandler((t, ex) -> {
+                logger.error("Backfill of {} failed in thread {}", definition.getOutputTopic(),
+                        t.getName(), ex);
+                isFailed = true;
+            });
+            streams.start();
+        }
+
+        /** Close the stream and delete its local state and internal topics. */
+        private void close() {
+            if (streams == null) {
+                return;
+            }
+            streams.close();
+            streams.cleanUp();
+            streams = null;
+            String applicationId = properties.getProperty(StreamsConfig.APPLICATION_ID_CONFIG);
+            try {
+                StateCompatibility.deleteInternalTopics(properties, applicationId);
+            } catch (ExecutionException | IOException ex) {
+                logger.warn("Failed to delete internal topics of {}", applicationId, ex);
+            } catch (InterruptedException ex) {
+                logger.warn("Interrupted while deleting internal topics of {}", applicationId);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "backfill of " + topic + " from " + from + " until " + to + " in windows "
+                + (windows == null ? "all" : String.join(", ", windows));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.streams.kstream.ValueTransformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Range of offsets of an input topic to process in a backfill. The start offsets are committed
+ * before the stream starts. The {@link #limiter()} passes values with an offset before the end
+ * offset of their partition and replaces later values with null, so they can be filtered out.
+ * The range is complete when the last offset of every partition has been read.
+ */
+public class BackfillRange {
+    private final String topic;
+    private final Map<TopicPartition, Long> start;
+    private final Map<TopicPartition, Long> end;
+    private final Set<TopicPartition> remaining;
+
+    /**
+     * Backfill range.
+     * @param topic input topic.
+     * @param start first offset to process, per partition.
+     * @param end offset after the last offset to process, per partition.
+     */
+    public BackfillRange(@Nonnull String topic, @Nonnull Map<TopicPartition, Long> start,
+            @Nonnull Map<TopicPartition, Long> end) {
+        this.topic = topic;
+        this.start = start;
+        this.end = end;
+        this.remaining = ConcurrentHashMap.newKeySet();
+        start.forEach((partition, offset) -> {
+            if (offset < end.get(partition)) {
+                remaining.add(partition);
+            }
+        });
+    }
+
+    public Map<TopicPartition, Long> getStart() {
+        return Collections.unmodifiableMap(start);
+    }
+
+    public Map<TopicPartition, Long> getEnd() {
+        return Collections.unmodifiableMap(end);
+    }
+
+    /** Number of records in the range. */
+    public long size() {
+        return start.entrySet().stream()
+                .mapToLong(e -> Math.max(0L, end.get(e.getKey()) - e.getValue()))
+                .sum();
+    }
+
+    /** Whether the last offset of every partition has been read. */
+    public boolean isComplete() {
+        return remaining.isEmpty();
+    }
+
+    /** Transformer that replaces values after the end of the range with null. */
+    public <V> ValueTransformer<V, V> limiter() {
+        return new ValueTransformer<V, V>() {
+            private ProcessorContext context;
+
+            @Override
+            public void init(ProcessorContext context) {
+                this.context = context;
+            }
+
+            @Override
+            public V transform(V value) {
+                TopicPartition partition = new TopicPartition(topic, context.partition());
+                Long endOffset = end.get(partition);
+                if (endOffset == null) {
+                    return null;
+                }
+                long offset = context.offset();
+                if (offset >= endOffset - 1) {
+                    remaining.remove(partition);
+                }
+                return offset < endOffset ? value : null;
+            }
+
+            @SuppressWarnings("deprecation")
+            @Override
+            public V punctuate(long timestamp) {
+                return null;
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return topic + " offsets " + start + " until " + end;
+    }
+}
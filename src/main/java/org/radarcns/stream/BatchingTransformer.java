@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nonnull;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+/**
+ * Collects the latest value per key in a persistent key-value store and forwards the collected
+ * values in a single batch. A batch is forwarded when the flush timeout passes in wall-clock time
+ * or when the number of pending keys reaches the maximum batch size, whichever comes first.
+ *
+ * <p>Because pending values are kept in a state store, they are restored from the store
+ * changelog after a restart and are never lost between batches. The store should be registered
+ * with the topology under {@link #getStoreName()} before this transformer is used.
+ */
+public class BatchingTransformer<K, V> implements Transformer<K, V, KeyValue<K, V>> {
+    private final String storeName;
+    private final int maxBatchSize;
+    private final long flushTimeout;
+
+    private ProcessorContext context;
+    private KeyValueStore<K, V> pending;
+    private long numPending;
+
+    /**
+     * Batching transformer.
+     * @param storeName name of the key-value store to keep pending values in.
+     * @param maxBatchSize maximum number of pending keys before the batch is forwarded.
+     * @param flushTimeout wall-clock time in milliseconds after which pending values are
+     *                     forwarded regardless of the batch size.
+     */
+    public BatchingTransformer(@Nonnull String storeName, int maxBatchSize, long flushTimeout) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be at least 1");
+        }
+        if (flushTimeout < 1) {
+            throw new IllegalArgumentException("Flush timeout must be positive");
+        }
+        this.storeName = storeName;
+        this.maxBatchSize = maxBatchSize;
+        this.flushTimeout = flushTimeout;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.pending = (KeyValueStore<K, V>) context.getStateStore(storeName);
+        this.numPending = pending.approximateNumEntries();
+        context.schedule(flushTimeout, PunctuationType.WALL_CLOCK_TIME, t -> flush());
+    }
+
+    @Override
+    public KeyValue<K, V> transform(K key, V value) {
+        if (pending.get(key) == null) {
+            numPending++;
+        }
+        pending.put(key, value);
+        if (numPending >= maxBatchSize) {
+            flush();
+        }
+        return null;
+    }
+
+    /** Forward all pending values and clear them from the store. */
+    public void flush() {
+        List<K> sent = new ArrayList<>();
+        try (KeyValueIterator<K, V> iterator = pending.all()) {
+            while (iterator.hasNext()) {
+                KeyValue<K, V> entry = iterator.next();
+                context.forward(entry.key, entry.value);
+                sent.add(entry.key);
+            }
+        }
+        sent.forEach(pending::delete);
+        numPending = 0;
+    }
+
+    @Override
+    @Deprecated
+    public KeyValue<K, V> punctuate(long timestamp) {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        // state store is closed by the framework
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+}
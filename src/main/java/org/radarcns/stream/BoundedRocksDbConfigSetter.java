@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.state.RocksDBConfigSetter;
+import org.radarcns.config.RadarPropertyHandler.Priority;
+import org.radarcns.config.RocksDbConfig;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricGroup;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the off-heap memory of each RocksDB instance of the Kafka Streams state stores, and
+ * keeps the memory of all instances in the process within a single budget. Each instance gets
+ * a block cache that also holds its index and filter blocks, and memtables sized by the
+ * priority of its stream. An instance that would exceed the budget gets the minimum sizes
+ * instead. Stored values are compressed. The number of open instances and their estimated
+ * memory are registered as the {@code rocksdb} metrics.
+ */
+public class BoundedRocksDbConfigSetter implements RocksDBConfigSetter {
+    private static final Logger logger = LoggerFactory.getLogger(BoundedRocksDbConfigSetter.class);
+
+    public static final String MEMORY_BUDGET_CONFIG = "radar.rocksdb.memory.budget.bytes";
+    public static final String BLOCK_CACHE_CONFIG = "radar.rocksdb.block.cache.bytes";
+    public static final String WRITE_BUFFER_CONFIG = "radar.rocksdb.write.buffer.bytes";
+    public static final String MAX_WRITE_BUFFERS_CONFIG = "radar.rocksdb.max.write.buffers";
+    public static final String COMPRESSION_CONFIG = "radar.rocksdb.compression";
+
+    static final long MIN_BLOCK_CACHE_BYTES = 64L * 1024;
+    static final long MIN_WRITE_BUFFER_BYTES = 512L * 1024;
+    private static final long BLOCK_SIZE = 4096L;
+
+    /** Estimated memory of each RocksDB instance, by its options. */
+    private static final Map<Options, Long> INSTANCES = new WeakHashMap<>();
+    private static final MetricGroup METRICS = RadarSingletonFactory.getMetricsRegistry()
+            .group("rocksdb", "memory");
+    private static final LongAdder REDUCED_INSTANCES = METRICS.counter("reduced_instances");
+    private static volatile long memoryBudget = new RocksDbConfig().getMemoryBudgetBytes();
+    private static boolean isOverBudget = false;
+
+    static {
+        METRICS.gauge("instances", BoundedRocksDbConfigSetter::numInstances);
+        METRICS.gauge("estimated_bytes", BoundedRocksDbConfigSetter::estimatedBytes);
+        METRICS.gauge("budget_bytes", () -> memoryBudget);
+    }
+
+    @Override
+    public void setConfig(String storeName, Options options, Map<String, Object> configs) {
+        RocksDbConfig defaults = new RocksDbConfig();
+        long budget = getLong(configs, MEMORY_BUDGET_CONFIG, defaults.getMemoryBudgetBytes());
+        long blockCache = getLong(configs, BLOCK_CACHE_CONFIG, defaults.getBlockCacheBytes());
+        long writeBuffer = getLong(configs, WRITE_BUFFER_CONFIG,
+                defaults.getWriteBufferBytes(Priority.NORMAL));
+        int maxWriteBuffers = (int) getLong(configs, MAX_WRITE_BUFFERS_CONFIG,
+                defaults.getMaxWriteBuffers());
+        Object compression = configs.get(COMPRESSION_CONFIG);
+
+        synchronized (INSTANCES) {
+            memoryBudget = budget;
+            long used = estimatedBytes();
+            if (used + blockCache + writeBuffer * maxWriteBuffers > budget) {
+                blockCache = Math.min(blockCache, MIN_BLOCK_CACHE_BYTES);
+                writeBuffer = Math.min(writeBuffer, MIN_WRITE_BUFFER_BYTES);
+                REDUCED_INSTANCES.increment();
+                if (!isOverBudget) {
+                    logger.warn("RocksDB memory budget of {} bytes is exhausted by {} store"
+                            + " instances; opening {} and further stores with minimal memory",
+                            budget, numInstances(), storeName);
+                    isOverBudget = true;
+                }
+            } else {
+                isOverBudget = false;
+            }
+            INSTANCES.put(options, blockCache + writeBuffer * maxWriteBuffers);
+        }
+
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        tableConfig.setBlockCacheSize(blockCache);
+        tableConfig.setBlockSize(BLOCK_SIZE);
+        tableConfig.setCacheIndexAndFilterBlocks(true);
+        tableConfig.setPinL0FilterAndIndexBlocksInCache(true);
+        options.setTableFormatConfig(tableConfig);
+        options.setWriteBufferSize(writeBuffer);
+        options.setMaxWriteBufferNumber(maxWriteBuffers);
+        options.setCompressionType(parseCompression(
+                compression != null ? compression.toString() : defaults.getCompression()));
+    }
+
+    /**
+     * Stream properties that configure this setter, with the memtable sizes of given stream
+     * priority.
+     */
+    public static Map<String, Object> streamProperties(RocksDbConfig config, Priority priority) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG,
+                BoundedRocksDbConfigSetter.class);
+        props.put(MEMORY_BUDGET_CONFIG, config.getMemoryBudgetBytes());
+        props.put(BLOCK_CACHE_CONFIG, config.getBlockCacheBytes());
+        props.put(WRITE_BUFFER_CONFIG, config.getWriteBufferBytes(priority));
+        props.put(MAX_WRITE_BUFFERS_CONFIG, config.getMaxWriteBuffers());
+        // fail on start-up rather than when the first store is opened
+        parseCompression(config.getCompression());
+        props.put(COMPRESSION_CONFIG, config.getCompression());
+        return props;
+    }
+
+    /** Number of RocksDB instances that are currently open. */
+    static int numInstances() {
+        synchronized (INSTANCES) {
+            return (int) INSTANCES.keySet().stream()
+                    .filter(Options::isOwningHandle)
+                    .count();
+        }
+    }
+
+    /** Estimated maximum memory of the block caches and memtables of all open instances. */
+    static long estimatedBytes() {
+        synchronized (INSTANCES) {
+            return INSTANCES.entrySet().stream()
+                    .filter(e -> e.getKey().isOwningHandle())
+                    .mapToLong(Map.Entry::getValue)
+                    .sum();
+        }
+    }
+
+    static CompressionType parseCompression(String compression) {
+        switch (compression.toLowerCase(Locale.US)) {
+            case "none":
+                return CompressionType.NO_COMPRESSION;
+            case "snappy":
+                return CompressionType.SNAPPY_COMPRESSION;
+            case "lz4":
+                return CompressionType.LZ4_COMPRESSION;
+            case "zstd":
+                return CompressionType.ZSTD_COMPRESSION;
+            default:
+                throw new IllegalArgumentException("Unknown RocksDB compression '"
+                        + compression + "'; use none, snappy, lz4 or zstd");
+        }
+    }
+
+    private static long getLong(Map<String, Object> configs, String key, long defaultValue) {
+        Object value = configs.get(key);
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else {
+            return Long.parseLong(value.toString());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.Map;
+import javax.annotation.Nonnull;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Aggregator;
+import org.apache.kafka.streams.kstream.Initializer;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.kstream.Window;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.Windows;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.radarcns.util.metrics.Histogram;
+
+/**
+ * Windowed aggregation on a {@link CombiningWindowStore}. Records update the live aggregates of
+ * their windows. Updated aggregates are forwarded by a wall-clock punctuation every commit
+ * interval, which requests a commit right after, when the transformer is closed, and when they
+ * are evicted from memory. Like the windowed aggregation of Kafka Streams, records with a null
+ * key or value are skipped, as are windows that are older than the retention time of the
+ * windows.
+ *
+ * <p>Forwarding only uses the public processor API, so forwarded aggregates have the timestamp
+ * of the record or punctuation during which they are forwarded. Aggregates that a commit of
+ * Kafka Streams writes before they are forwarded are forwarded by the next punctuation. The
+ * emission latency, the time between the latest record of an aggregate and the moment it is
+ * forwarded, is therefore recorded here rather than from the timestamp of the output.
+ * @param <K> key type
+ * @param <V> value type
+ * @param <C> aggregate type
+ */
+public class CombiningWindowAggregator<K, V, C>
+        implements Transformer<K, V, KeyValue<Windowed<K>, C>> {
+    private final String storeName;
+    private final Windows<?> windows;
+    private final Initializer<C> initializer;
+    private final Aggregator<? super K, ? super V, C> aggregator;
+    private final Histogram emissionLatency;
+
+    private ProcessorContext context;
+    private CombiningWindowStore<K, C> store;
+    private long observedTime;
+
+    /**
+     * Combining window aggregator.
+     * @param storeName name of the combining window store to use.
+     * @param windows windows to aggregate in.
+     * @param initializer initial aggregate of a window.
+     * @param aggregator function to add a record to an aggregate.
+     */
+    public CombiningWindowAggregator(@Nonnull String storeName, @Nonnull Windows<?> windows,
+            @Nonnull Initializer<C> initializer,
+            @Nonnull Aggregator<? super K, ? super V, C> aggregator) {
+        this(storeName, windows, initializer, aggregator, null);
+    }
+
+    /**
+     * Combining window aggregator.
+     * @param storeName name of the combining window store to use.
+     * @param windows windows to aggregate in.
+     * @param initializer initial aggregate of a window.
+     * @param aggregator function to add a record to an aggregate.
+     * @param emissionLatency histogram to record the emission latency of aggregates in, in
+     *                        milliseconds, or null if it should not be recorded.
+     */
+    public CombiningWindowAggregator(@Nonnull String storeName, @Nonnull Windows<?> windows,
+            @Nonnull Initializer<C> initializer,
+            @Nonnull Aggregator<? super K, ? super V, C> aggregator, Histogram emissionLatency) {
+        this.storeName = storeName;
+        this.windows = windows;
+        this.initializer = initializer;
+        this.aggregator = aggregator;
+        this.emissionLatency = emissionLatency;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.store = (CombiningWindowStore<K, C>) context.getStateStore(storeName);
+        this.store.setForwardListener((key, value, timestamp) -> {
+            if (emissionLatency != null) {
+                emissionLatency.record(System.currentTimeMillis() - timestamp);
+            }
+            context.forward(key, value);
+        });
+        this.observedTime = Long.MIN_VALUE;
+        long commitIntervalMs = ((Number) context.appConfigs().get(
+                StreamsConfig.COMMIT_INTERVAL_MS_CONFIG)).longValue();
+        context.schedule(commitIntervalMs, PunctuationType.WALL_CLOCK_TIME, time -> {
+            store.forward();
+            context.commit();
+        });
+    }
+
+    @Override
+    public KeyValue<Windowed<K>, C> transform(K key, V value) {
+        if (key == null || value == null) {
+            return null;
+        }
+        long timestamp = context.timestamp();
+        if (timestamp > observedTime) {
+            observedTime = timestamp;
+        }
+        long expiryTime = observedTime - windows.maintainMs();
+
+        for (Map.Entry<Long, ? extends Window> window : windows.windowsFor(timestamp)
+                .entrySet()) {
+            if (window.getKey() < expiryTime) {
+                continue;
+            }
+            Windowed<K> windowedKey = new Windowed<>(key, window.getValue());
+            C aggregate = store.get(windowedKey);
+            if (aggregate == null) {
+                aggregate = initializer.apply();
+            }
+            store.put(windowedKey, aggregator.apply(key, value, aggregate), timestamp);
+        }
+        return null;
+    }
+
+    @Override
+    @Deprecated
+    public KeyValue<Windowed<K>, C> punctuate(long timestamp) {
+        return null;
+    }
+
+    /** Forward the remaining updates, before the framework commits and closes the store. */
+    @Override
+    public void close() {
+        store.forward();
+    }
+}
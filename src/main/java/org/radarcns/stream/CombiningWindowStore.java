@@ -0,0 +1,329 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.Windows;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.StoreBuilder;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * Write-combining front of a window store. Aggregates that are updated are kept in memory as
+ * live objects, so that updating them does not need to deserialize and serialize them. Updated
+ * aggregates are written to the window store, and so to its changelog, when the store is
+ * flushed, which Kafka Streams does before committing offsets. They are passed to the forward
+ * listener by {@link #forward()}, which the processor of the store calls while processing or
+ * punctuating, along with the latest timestamp of the records that updated them. The least
+ * recently used aggregates are written, passed to the forward listener and removed from memory
+ * when more than the maximum number of aggregates are kept. Aggregates of windows that have
+ * ended are removed from memory once they are forwarded, and read again from the window store
+ * if a late record arrives.
+ * @param <K> key type
+ * @param <C> aggregate type
+ */
+public class CombiningWindowStore<K, C> implements StateStore {
+    private final WindowStore<K, C> inner;
+    private final int maxEntries;
+    private final LinkedHashMap<Windowed<K>, Entry<C>> entries;
+    private ForwardListener<K, C> forwardListener;
+    private long observedTime;
+
+    /**
+     * Combining window store.
+     * @param inner window store to persist aggregates in.
+     * @param maxEntries maximum number of aggregates to keep in memory.
+     */
+    public CombiningWindowStore(@Nonnull WindowStore<K, C> inner, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be at least 1");
+        }
+        this.inner = inner;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Windowed<K>, Entry<C>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Windowed<K>, Entry<C>> eldest) {
+                if (size() <= CombiningWindowStore.this.maxEntries) {
+                    return false;
+                }
+                Entry<C> entry = eldest.getValue();
+                if (entry.isDirty) {
+                    write(eldest.getKey(), entry);
+                }
+                if (entry.isPending) {
+                    forward(eldest.getKey(), entry);
+                }
+                return true;
+            }
+        };
+        this.observedTime = Long.MIN_VALUE;
+    }
+
+    /** Listener that receives updated aggregates to forward. */
+    @FunctionalInterface
+    public interface ForwardListener<K, C> {
+        /**
+         * Aggregate was updated.
+         * @param key key and window of the aggregate.
+         * @param value aggregate.
+         * @param timestamp latest timestamp of the records that updated the aggregate.
+         */
+        void apply(Windowed<K> key, C value, long timestamp);
+    }
+
+    /**
+     * Set the listener of updated aggregates. It is called from {@link #forward()} and from
+     * {@link #get(Windowed)} and {@link #put(Windowed, Object, long)} when they evict aggregates
+     * from memory.
+     */
+    public void setForwardListener(ForwardListener<K, C> forwardListener) {
+        this.forwardListener = forwardListener;
+    }
+
+    /**
+     * Get the aggregate of a key and window, from memory or else from the window store.
+     * @return aggregate or null if there is no aggregate for the window yet.
+     */
+    public C get(@Nonnull Windowed<K> key) {
+        Entry<C> entry = entries.get(key);
+        if (entry != null) {
+            return entry.value;
+        }
+        long start = key.window().start();
+        try (WindowStoreIterator<C> iterator = inner.fetch(key.key(), start, start)) {
+            if (iterator.hasNext()) {
+                C value = iterator.next().value;
+                entries.put(key, new Entry<>(value, false, false, Long.MIN_VALUE));
+                return value;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Fetch the aggregates of a key that were written to the window store, without the updates
+     * that are only kept in memory. Unlike {@link #get(Windowed)}, this may be called from the
+     * forward listener.
+     * @param key key of the aggregates.
+     * @param timeFrom start of the first window to fetch, inclusive.
+     * @param timeTo start of the last window to fetch, inclusive.
+     * @return iterator over window start times and aggregates, which must be closed.
+     */
+    public WindowStoreIterator<C> fetchWritten(@Nonnull K key, long timeFrom, long timeTo) {
+        return inner.fetch(key, timeFrom, timeTo);
+    }
+
+    /**
+     * Update the aggregate of a key and window. It is written to the window store on the next
+     * flush or forward, and forwarded on the next forward or when it is evicted from memory.
+     * @param key key and window of the aggregate.
+     * @param value aggregate.
+     * @param timestamp timestamp of the record that updated the aggregate.
+     */
+    public void put(@Nonnull Windowed<K> key, @Nonnull C value, long timestamp) {
+        Entry<C> entry = entries.get(key);
+        if (entry == null) {
+            entries.put(key, new Entry<>(value, true, true, timestamp));
+        } else {
+            entry.value = value;
+            entry.isDirty = true;
+            entry.isPending = true;
+            if (timestamp > entry.timestamp) {
+                entry.timestamp = timestamp;
+            }
+        }
+        if (timestamp > observedTime) {
+            observedTime = timestamp;
+        }
+    }
+
+    /** Number of aggregates kept in memory. */
+    public int numEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public String name() {
+        return inner.name();
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        inner.init(context, root);
+    }
+
+    /**
+     * Write all updated aggregates to the window store and pass all aggregates that were not
+     * forwarded yet to the forward listener. Aggregates of ended windows are then removed from
+     * memory. This must be called while processing or punctuating, so that the forward listener
+     * can forward the aggregates.
+     */
+    public void forward() {
+        Iterator<Map.Entry<Windowed<K>, Entry<C>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Windowed<K>, Entry<C>> entry = iterator.next();
+            if (entry.getValue().isDirty) {
+                write(entry.getKey(), entry.getValue());
+            }
+            if (entry.getValue().isPending) {
+                forward(entry.getKey(), entry.getValue());
+            }
+            if (entry.getKey().window().end() <= observedTime) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Write all updated aggregates to the window store before flushing it. Since Kafka Streams
+     * flushes stores outside of processing, aggregates that were not forwarded yet stay in memory
+     * until the next forward.
+     */
+    @Override
+    public void flush() {
+        for (Map.Entry<Windowed<K>, Entry<C>> entry : entries.entrySet()) {
+            if (entry.getValue().isDirty) {
+                write(entry.getKey(), entry.getValue());
+            }
+        }
+        inner.flush();
+    }
+
+    private void write(Windowed<K> key, Entry<C> entry) {
+        inner.put(key.key(), entry.value, key.window().start());
+        entry.isDirty = false;
+    }
+
+    private void forward(Windowed<K> key, Entry<C> entry) {
+        entry.isPending = false;
+        if (forwardListener != null) {
+            forwardListener.apply(key, entry.value, entry.timestamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+        inner.close();
+    }
+
+    @Override
+    public boolean persistent() {
+        return inner.persistent();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return inner.isOpen();
+    }
+
+    /** Aggregate kept in memory. */
+    private static class Entry<C> {
+        private C value;
+        private boolean isDirty;
+        private boolean isPending;
+        private long timestamp;
+
+        private Entry(C value, boolean isDirty, boolean isPending, long timestamp) {
+            this.value = value;
+            this.isDirty = isDirty;
+            this.isPending = isPending;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Builder of a combining window store. Because Kafka Streams does not recognize this store as
+     * a window store, the changelog retention of a window store is configured explicitly.
+     */
+    public static class Builder<K, C> implements StoreBuilder<CombiningWindowStore<K, C>> {
+        /** Default additional retention of window store changelogs in Kafka Streams. */
+        private static final long ADDITIONAL_RETENTION_MS = TimeUnit.DAYS.toMillis(1);
+
+        private final StoreBuilder<WindowStore<K, C>> inner;
+        private final Map<String, String> windowLogConfig;
+        private final int maxEntries;
+
+        /**
+         * Builder of a combining window store.
+         * @param inner builder of the window store, without caching.
+         * @param windows windows that are stored.
+         * @param maxEntries maximum number of aggregates to keep in memory.
+         */
+        public Builder(@Nonnull StoreBuilder<WindowStore<K, C>> inner,
+                @Nonnull Windows<?> windows, int maxEntries) {
+            this.inner = inner;
+            this.maxEntries = maxEntries;
+            this.windowLogConfig = new HashMap<>();
+            windowLogConfig.put(TopicConfig.CLEANUP_POLICY_CONFIG,
+                    TopicConfig.CLEANUP_POLICY_COMPACT + "," + TopicConfig.CLEANUP_POLICY_DELETE);
+            windowLogConfig.put(TopicConfig.RETENTION_MS_CONFIG,
+                    String.valueOf(windows.maintainMs() + ADDITIONAL_RETENTION_MS));
+        }
+
+        /** Enable the record cache of the window store, to buffer writes of the aggregates. */
+        @Override
+        public Builder<K, C> withCachingEnabled() {
+            inner.withCachingEnabled();
+            return this;
+        }
+
+        @Override
+        public Builder<K, C> withLoggingEnabled(Map<String, String> config) {
+            inner.withLoggingEnabled(config);
+            return this;
+        }
+
+        @Override
+        public Builder<K, C> withLoggingDisabled() {
+            inner.withLoggingDisabled();
+            return this;
+        }
+
+        @Override
+        public CombiningWindowStore<K, C> build() {
+            return new CombiningWindowStore<>(inner.build(), maxEntries);
+        }
+
+        @Override
+        public Map<String, String> logConfig() {
+            Map<String, String> config = new HashMap<>(windowLogConfig);
+            config.putAll(inner.logConfig());
+            return config;
+        }
+
+        @Override
+        public boolean loggingEnabled() {
+            return inner.loggingEnabled();
+        }
+
+        @Override
+        public String name() {
+            return inner.name();
+        }
+    }
+}
@@ -16,18 +16,27 @@
 
 package org.radarcns.stream;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.IndexedRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.streams.processor.TimestampExtractor;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Custom TimestampExtractor for TimeWindows Streams. */
+/**
+ * Custom TimestampExtractor for TimeWindows Streams. It also records the ingestion latency of
+ * each topic, the time between {@code timeReceived} and the moment a record is read.
+ */
 public class DeviceTimestampExtractor implements TimestampExtractor {
 
     private static final Logger log = LoggerFactory.getLogger(DeviceTimestampExtractor.class);
+    private static final ConcurrentMap<String, Histogram> INGESTION_LATENCY =
+            new ConcurrentHashMap<>();
 
     /**
      * Return the timeReceived value converted in long. timeReceived is the timestamp at which the
@@ -43,7 +52,9 @@ public class DeviceTimestampExtractor implements TimestampExtractor {
         try {
             Schema.Field field = recordSchema.getField("timeReceived");
             if (value.get(field.pos()) instanceof Double) {
-                return (long) (1000d * (Double) value.get(field.pos()));
+                long time = (long) (1000d * (Double) value.get(field.pos()));
+                getIngestionLatency(record.topic()).record(System.currentTimeMillis() - time);
+                return time;
             } else {
                 log.error("timeReceived id not a Double in {}", record);
             }
@@ -54,4 +65,13 @@ public class DeviceTimestampExtractor implements TimestampExtractor {
 
         throw new RuntimeException("Impossible to extract timeReceived from " + record);
     }
+
+    /**
+     * Histogram of the ingestion latency of a topic in milliseconds. It is registered as the
+     * {@code ingestion_latency_ms} metric of the topic.
+     */
+    public static Histogram getIngestionLatency(String topic) {
+        return INGESTION_LATENCY.computeIfAbsent(topic, t -> RadarSingletonFactory
+                .getMetricsRegistry().group("topic", t).histogram("ingestion_latency_ms"));
+    }
 }
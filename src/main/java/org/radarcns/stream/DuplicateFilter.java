@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.radarcns.config.DedupConfig;
+import org.radarcns.util.RotatingBloomFilter;
+
+/**
+ * Eliminates duplicate records, as sent by clients that retry an upload. A record is a
+ * duplicate if a record with the same key and {@code time} field was seen within the horizon,
+ * as tracked by a {@link RotatingBloomFilter}. The filter rotates when the record timestamp has
+ * advanced by the horizon, or earlier when it holds the expected number of records, so a
+ * generation never exceeds its false positive rate. Duplicates are replaced with null so they
+ * can be filtered out. Records without a key, value or time field are passed unchanged.
+ *
+ * <p>The filter is kept in memory, so duplicates of records that were processed before a
+ * restart or rebalance are not detected.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class DuplicateFilter<K, V extends IndexedRecord>
+        implements ValueTransformerWithKey<K, V, V> {
+    private final long horizonMs;
+    private final RotatingBloomFilter filter;
+    private final LongAdder duplicates;
+    private ProcessorContext context;
+    private long generationStart;
+    private Schema schema;
+    private int timePos;
+
+    /**
+     * Duplicate filter.
+     * @param config horizon and false positive rate of the filter.
+     * @param duplicates counter of the eliminated duplicates.
+     * @throws IllegalArgumentException if the configuration is invalid.
+     */
+    public DuplicateFilter(@Nonnull DedupConfig config, @Nonnull LongAdder duplicates) {
+        if (config.getHorizonSeconds() < 1) {
+            throw new IllegalArgumentException("Duplicate horizon must be positive");
+        }
+        this.horizonMs = config.getHorizonSeconds() * 1000L;
+        this.filter = new RotatingBloomFilter(config.getExpectedRecords(),
+                config.getFalsePositiveRate());
+        this.duplicates = duplicates;
+        this.generationStart = Long.MIN_VALUE;
+        this.schema = null;
+        this.timePos = -1;
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public V transform(K key, V value) {
+        if (key == null || value == null) {
+            return value;
+        }
+        int pos = timePosition(value.getSchema());
+        Object time = pos != -1 ? value.get(pos) : null;
+        if (!(time instanceof Double)) {
+            return value;
+        }
+
+        long timestamp = context.timestamp();
+        if (generationStart == Long.MIN_VALUE) {
+            generationStart = timestamp;
+        } else if (timestamp - generationStart >= horizonMs || filter.isFull()) {
+            filter.rotate();
+            generationStart = timestamp;
+        }
+
+        if (filter.put(RotatingBloomFilter.hash(key.hashCode(),
+                Double.doubleToLongBits((Double) time)))) {
+            duplicates.increment();
+            return null;
+        }
+        return value;
+    }
+
+    /** Position of the time field in given schema, or -1 if it has none. */
+    private int timePosition(Schema valueSchema) {
+        if (valueSchema != schema) {
+            Schema.Field field = valueSchema.getField("time");
+            timePos = field != null ? field.pos() : -1;
+            schema = valueSchema;
+        }
+        return timePos;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -20,13 +20,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.radarcns.config.AggregationConfig;
+import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.topic.KafkaTopic;
+import org.radarcns.util.RadarSingletonFactory;
 
 /**
  * Implementation of a {@link StreamGroup}. Override to create specific streams for a given
@@ -86,9 +93,9 @@ public class GeneralStreamGroup implements StreamGroup {
     }
 
     /**
-     * Create a set of sensor streams, for each of the RADAR standard time frames. An input topic
-     * {@code my_input} will create, e.g., {@code my_input_10sec}, {@code my_input_10min} output
-     * topics.
+     * Create a set of sensor streams, for each of the RADAR standard time frames of
+     * {@link #getTimeWindowsForTopic(String)}. An input topic {@code my_input} will create, e.g.,
+     * {@code my_input_10sec}, {@code my_input_10min} output topics.
      * @param input topic to stream from
      * @return stream definitions to stream
      */
@@ -97,9 +104,10 @@ public class GeneralStreamGroup implements StreamGroup {
     }
 
     /**
-     * Create a set of sensor streams, for each of the RADAR standard time frames. An input topic
-     * {@code my_input} with output base {@code my_output} will create, e.g.,
-     * {@code my_output_10sec}, {@code my_output_10min} output topics.
+     * Create a set of sensor streams, for each of the RADAR standard time frames of
+     * {@link #getTimeWindowsForTopic(String)}. An input topic {@code my_input} with output base
+     * {@code my_output} will create, e.g., {@code my_output_10sec}, {@code my_output_10min} output
+     * topics.
      * @param input topic to stream from
      * @param outputBase base topic name to stream to
      * @return stream definitions to stream
@@ -108,10 +116,11 @@ public class GeneralStreamGroup implements StreamGroup {
             String outputBase) {
 
         topicNames.add(input);
-        Collection<StreamDefinition> streams = Arrays.stream(TimeWindowMetadata.values())
+        Collection<StreamDefinition> streams = getTimeWindowsForTopic(input).stream()
                 .map(w -> new StreamDefinition(
                         new KafkaTopic(input), new KafkaTopic(w.getTopicLabel(outputBase)),
-                        w.getIntervalInMilliSec(), getCommitIntervalForTimeWindow(w)))
+                        getTimeWindows(w),
+                        getCommitIntervalForTimeWindow(w), getStorePolicyForTimeWindow(w)))
                 .collect(Collectors.toList());
 
         topicNames.addAll(streams.stream()
@@ -127,6 +136,37 @@ public class GeneralStreamGroup implements StreamGroup {
         return streams;
     }
 
+    /**
+     * Create a sliding window sensor stream, with windows of given size that advance by a
+     * smaller window. An input topic {@code my_input} with output base {@code my_output}, one
+     * hour windows and one minute advance will create the {@code my_output_1hour_every_1min}
+     * output topic.
+     * @param input topic to stream from
+     * @param outputBase base topic name to stream to
+     * @param size size of the windows
+     * @param advance advance of the windows, which must divide their size
+     * @return stream definition to stream
+     */
+    protected StreamDefinition createSlidingSensorStream(String input, String outputBase,
+            TimeWindowMetadata size, TimeWindowMetadata advance) {
+        TimeWindows windows = TimeWindows.of(size.getIntervalInMilliSec())
+                .advanceBy(advance.getIntervalInMilliSec())
+                .until(size.getIntervalInMilliSec() + getGracePeriodForTimeWindow(size));
+        StreamDefinition stream = new StreamDefinition(new KafkaTopic(input),
+                new KafkaTopic(size.getTopicLabel(outputBase) + "_every" + advance.getLabel()),
+                windows, getCommitIntervalForTimeWindow(advance), StorePolicy.PERSISTENT);
+
+        topicNames.add(input);
+        topicNames.add(stream.getOutputTopic().getName());
+        topicMap.merge(input, Collections.singleton(stream), (v1, v2) -> {
+            Set<StreamDefinition> newSet = new TreeSet<>(v1);
+            newSet.addAll(v2);
+            return newSet;
+        });
+
+        return stream;
+    }
+
     public void addTopicName(String topicName) {
         this.topicNames.add(topicName);
     }
@@ -154,6 +194,101 @@ public class GeneralStreamGroup implements StreamGroup {
         }
     }
 
+    /**
+     * Aggregations of given input topic, read from the {@code aggregations} section of the
+     * configuration.
+     * @return aggregation configuration, or null if none is configured for the topic.
+     */
+    protected AggregationConfig getAggregationConfig(String input) {
+        RadarPropertyHandler properties = RadarSingletonFactory.getRadarPropertyHandler();
+        if (!properties.isLoaded()) {
+            return null;
+        }
+        Map<String, AggregationConfig> aggregations = properties.getRadarProperties()
+                .getAggregations();
+        return aggregations != null ? aggregations.get(input) : null;
+    }
+
+    /**
+     * Time windows to aggregate given input topic in. These are the {@code windows} of the
+     * aggregation configuration of the topic, as lowercase names, e.g. {@code one_hour}, or all
+     * time windows if none are configured. Streams that are derived from the same input topic,
+     * such as the heart rate from the inter-beat interval, use the same time windows.
+     * @throws IllegalArgumentException if a configured time window does not exist.
+     */
+    public Set<TimeWindowMetadata> getTimeWindowsForTopic(String input) {
+        AggregationConfig config = getAggregationConfig(input);
+        if (config == null || config.getWindows() == null) {
+            return EnumSet.allOf(TimeWindowMetadata.class);
+        }
+        Set<TimeWindowMetadata> windows = EnumSet.noneOf(TimeWindowMetadata.class);
+        for (String window : config.getWindows()) {
+            try {
+                windows.add(TimeWindowMetadata.valueOf(window.toUpperCase(Locale.US)));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown time window " + window
+                        + " of topic " + input + "; use one of "
+                        + Arrays.toString(TimeWindowMetadata.values()).toLowerCase(Locale.US),
+                        ex);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Time windows of given metadata. Windows are retained for their size plus the grace period
+     * of {@link #getGracePeriodForTimeWindow(TimeWindowMetadata)}, so that records that arrive
+     * later than that are dropped and older windows are removed from the state stores.
+     */
+    public TimeWindows getTimeWindows(TimeWindowMetadata metadata) {
+        return TimeWindows.of(metadata.getIntervalInMilliSec())
+                .until(metadata.getIntervalInMilliSec() + getGracePeriodForTimeWindow(metadata));
+    }
+
+    /**
+     * Time in milliseconds after the end of a window that late records are still aggregated in
+     * it. It is read from the {@code window_grace} section of the configuration, in seconds per
+     * lowercase time window name, e.g. {@code ten_second: 3600}. Short windows have a short
+     * grace period by default, since they are kept by the thousands per source.
+     */
+    public long getGracePeriodForTimeWindow(TimeWindowMetadata metadata) {
+        RadarPropertyHandler properties = RadarSingletonFactory.getRadarPropertyHandler();
+        if (properties.isLoaded()) {
+            Map<String, Long> grace = properties.getRadarProperties().getWindowGrace();
+            if (grace != null) {
+                Long seconds = grace.get(metadata.name().toLowerCase(Locale.US));
+                if (seconds != null) {
+                    return TimeUnit.SECONDS.toMillis(seconds);
+                }
+            }
+        }
+        switch (metadata) {
+            case TEN_SECOND:
+            case ONE_MIN:
+                return TimeUnit.HOURS.toMillis(2);
+            case TEN_MIN:
+            case ONE_HOUR:
+                return TimeUnit.HOURS.toMillis(6);
+            default:
+                return TimeUnit.DAYS.toMillis(1);
+        }
+    }
+
+    /**
+     * Type of store to keep the aggregates of given time window in. Windows of up to a minute
+     * may be kept in memory, since they are updated and expired constantly, if in-memory windows
+     * are configured. Longer windows are kept in RocksDB.
+     */
+    public StorePolicy getStorePolicyForTimeWindow(TimeWindowMetadata metadata) {
+        switch (metadata) {
+            case TEN_SECOND:
+            case ONE_MIN:
+                return StorePolicy.IN_MEMORY;
+            default:
+                return StorePolicy.PERSISTENT;
+        }
+    }
+
     @Override
     public Collection<StreamDefinition> getStreamDefinition(String inputTopic) {
         Collection<StreamDefinition> topic = topicMap.get(inputTopic);
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Window;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Window store that keeps serialized aggregates in memory, for short windows that would
+ * otherwise cause constant RocksDB compaction. Aggregates are indexed by window start first, so
+ * that expired windows are removed in bulk and a lookup of a single window of a key takes two
+ * hash or tree lookups. The store is restored from its changelog when a task is started. It
+ * does not support duplicates.
+ *
+ * <p>The store is bounded only by the retention period, so it tracks the number and serialized
+ * size of its aggregates, and logs a warning when the size exceeds a maximum.
+ */
+public class InMemoryWindowStore implements WindowStore<Bytes, byte[]> {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryWindowStore.class);
+
+    /** Size of the timestamp and sequence number suffix of changelog keys. */
+    private static final int CHANGELOG_SUFFIX_SIZE = 12;
+
+    private final String name;
+    private final long retentionPeriod;
+    private final long windowSize;
+    private final long maxBytes;
+    private final LongAdder totalEntries;
+    private final LongAdder totalBytes;
+    private final NavigableMap<Long, Map<Bytes, byte[]>> windows;
+    private ProcessorContext context;
+    private long observedTime;
+    private long numEntries;
+    private long numBytes;
+    private boolean isOverLimit;
+    private volatile boolean isOpen;
+
+    /**
+     * In-memory window store.
+     * @param name store name.
+     * @param retentionPeriod time in milliseconds after the latest window start that windows
+     *                        are kept.
+     * @param windowSize window size in milliseconds.
+     */
+    public InMemoryWindowStore(@Nonnull String name, long retentionPeriod, long windowSize) {
+        this(name, retentionPeriod, windowSize, Long.MAX_VALUE, new LongAdder(),
+                new LongAdder());
+    }
+
+    /**
+     * In-memory window store that adds its number of entries and bytes to shared totals.
+     * @param name store name.
+     * @param retentionPeriod time in milliseconds after the latest window start that windows
+     *                        are kept.
+     * @param windowSize window size in milliseconds.
+     * @param maxBytes serialized size above which a warning is logged.
+     * @param totalEntries total number of entries to add the entries of this store to.
+     * @param totalBytes total serialized size to add the size of this store to.
+     */
+    public InMemoryWindowStore(@Nonnull String name, long retentionPeriod, long windowSize,
+            long maxBytes, @Nonnull LongAdder totalEntries, @Nonnull LongAdder totalBytes) {
+        this.name = name;
+        this.retentionPeriod = retentionPeriod;
+        this.windowSize = windowSize;
+        this.maxBytes = maxBytes;
+        this.totalEntries = totalEntries;
+        this.totalBytes = totalBytes;
+        this.windows = new TreeMap<>();
+        this.observedTime = Long.MIN_VALUE;
+        this.isOpen = false;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        this.context = context;
+        context.register(root, false, this::restore);
+        isOpen = true;
+    }
+
+    /** Restore a changelog record, with a key made of the store key, timestamp and sequence. */
+    private void restore(byte[] key, byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(key);
+        long timestamp = buffer.getLong(key.length - CHANGELOG_SUFFIX_SIZE);
+        put(Bytes.wrap(Arrays.copyOf(key, key.length - CHANGELOG_SUFFIX_SIZE)), value, timestamp);
+    }
+
+    @Override
+    public void put(Bytes key, byte[] value) {
+        put(key, value, context.timestamp());
+    }
+
+    @Override
+    public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+        if (windowStartTimestamp > observedTime) {
+            observedTime = windowStartTimestamp;
+            Map<Long, Map<Bytes, byte[]>> expired = windows.headMap(
+                    observedTime - retentionPeriod);
+            expired.values().forEach(w -> w.forEach(this::removed));
+            expired.clear();
+        }
+        if (windowStartTimestamp < observedTime - retentionPeriod) {
+            return;
+        }
+        if (value == null) {
+            Map<Bytes, byte[]> window = windows.get(windowStartTimestamp);
+            if (window != null) {
+                byte[] previous = window.remove(key);
+                if (previous != null) {
+                    removed(key, previous);
+                }
+                if (window.isEmpty()) {
+                    windows.remove(windowStartTimestamp);
+                }
+            }
+        } else {
+            byte[] previous = windows.computeIfAbsent(windowStartTimestamp, t -> new HashMap<>())
+                    .put(key, value);
+            if (previous != null) {
+                removed(key, previous);
+            }
+            added(key, value);
+        }
+    }
+
+    private void added(Bytes key, byte[] value) {
+        long size = key.get().length + value.length;
+        numEntries++;
+        numBytes += size;
+        totalEntries.increment();
+        totalBytes.add(size);
+        if (numBytes > maxBytes && !isOverLimit) {
+            isOverLimit = true;
+            logger.warn("In-memory window store {} holds {} bytes of aggregates, more than {}."
+                    + " Give it more heap or keep its windows in RocksDB.", name, numBytes,
+                    maxBytes);
+        }
+    }
+
+    private void removed(Bytes key, byte[] value) {
+        long size = key.get().length + value.length;
+        numEntries--;
+        numBytes -= size;
+        totalEntries.decrement();
+        totalBytes.add(-size);
+        if (numBytes <= maxBytes) {
+            isOverLimit = false;
+        }
+    }
+
+    @Override
+    public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+        List<KeyValue<Long, byte[]>> result = new ArrayList<>();
+        if (timeFrom == timeTo) {
+            Map<Bytes, byte[]> window = windows.get(timeFrom);
+            if (window != null && window.containsKey(key)) {
+                result.add(KeyValue.pair(timeFrom, window.get(key)));
+            }
+        } else {
+            for (Map.Entry<Long, Map<Bytes, byte[]>> window
+                    : windows.subMap(timeFrom, true, timeTo, true).entrySet()) {
+                byte[] value = window.getValue().get(key);
+                if (value != null) {
+                    result.add(KeyValue.pair(window.getKey(), value));
+                }
+            }
+        }
+        return new WindowIterator(result);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom,
+            long timeTo) {
+        return collect(windows.subMap(timeFrom, true, timeTo, true), from, to);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+        return collect(windows, null, null);
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+        return collect(windows.subMap(timeFrom, true, timeTo, true), null, null);
+    }
+
+    /** Copy all windowed values with keys in given range, sorted by key within a window. */
+    private KeyValueIterator<Windowed<Bytes>, byte[]> collect(
+            NavigableMap<Long, Map<Bytes, byte[]>> range, Bytes from, Bytes to) {
+        List<KeyValue<Windowed<Bytes>, byte[]>> result = new ArrayList<>();
+        for (Map.Entry<Long, Map<Bytes, byte[]>> window : range.entrySet()) {
+            Window timeWindow = WindowFactory.timeWindow(window.getKey(),
+                    window.getKey() + windowSize);
+            new TreeMap<>(window.getValue()).forEach((key, value) -> {
+                if ((from == null || key.compareTo(from) >= 0)
+                        && (to == null || key.compareTo(to) <= 0)) {
+                    result.add(KeyValue.pair(new Windowed<>(key, timeWindow), value));
+                }
+            });
+        }
+        return new ListIterator<>(result);
+    }
+
+    /** Number of windows of all keys in the store. */
+    public long approximateNumEntries() {
+        return numEntries;
+    }
+
+    /** Serialized size in bytes of the keys and aggregates in the store. */
+    public long approximateBytes() {
+        return numBytes;
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush
+    }
+
+    @Override
+    public void close() {
+        windows.clear();
+        totalEntries.add(-numEntries);
+        totalBytes.add(-numBytes);
+        numEntries = 0L;
+        numBytes = 0L;
+        isOpen = false;
+    }
+
+    @Override
+    public boolean persistent() {
+        return false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    /** Iterator over a copy of the values in a store. */
+    private static class ListIterator<K> implements KeyValueIterator<K, byte[]> {
+        private final Iterator<KeyValue<K, byte[]>> iterator;
+        private KeyValue<K, byte[]> next;
+
+        private ListIterator(List<KeyValue<K, byte[]>> values) {
+            this.iterator = values.iterator();
+            this.next = iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public KeyValue<K, byte[]> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            KeyValue<K, byte[]> result = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+            return result;
+        }
+
+        @Override
+        public K peekNextKey() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            return next.key;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    /** Iterator over a copy of the windows of a single key. */
+    private static class WindowIterator extends ListIterator<Long>
+            implements WindowStoreIterator<byte[]> {
+        private WindowIterator(List<KeyValue<Long, byte[]>> values) {
+            super(values);
+        }
+    }
+
+    /**
+     * Supplier of in-memory window stores, for use with {@code Stores.windowStoreBuilder}. It
+     * keeps the total number of entries and bytes of the open stores it supplied.
+     */
+    public static class Supplier implements WindowBytesStoreSupplier {
+        private final String name;
+        private final long retentionPeriod;
+        private final long windowSize;
+        private final long maxBytes;
+        private final LongAdder totalEntries;
+        private final LongAdder totalBytes;
+
+        /**
+         * In-memory window store supplier.
+         * @param name store name.
+         * @param retentionPeriod time in milliseconds that windows are kept.
+         * @param windowSize window size in milliseconds.
+         * @param maxBytes serialized size of a single store above which a warning is logged.
+         */
+        public Supplier(@Nonnull String name, long retentionPeriod, long windowSize,
+                long maxBytes) {
+            this.name = name;
+            this.retentionPeriod = retentionPeriod;
+            this.windowSize = windowSize;
+            this.maxBytes = maxBytes;
+            this.totalEntries = new LongAdder();
+            this.totalBytes = new LongAdder();
+        }
+
+        /** Number of windows in all open stores of this supplier. */
+        public long approximateNumEntries() {
+            return totalEntries.sum();
+        }
+
+        /** Serialized size in bytes of the keys and aggregates in all open stores. */
+        public long approximateBytes() {
+            return totalBytes.sum();
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public WindowStore<Bytes, byte[]> get() {
+            return new InMemoryWindowStore(name, retentionPeriod, windowSize, maxBytes,
+                    totalEntries, totalBytes);
+        }
+
+        @Override
+        public String metricsScope() {
+            return "in-memory-window";
+        }
+
+        @Override
+        public int segments() {
+            return 1;
+        }
+
+        @Override
+        public long windowSize() {
+            return windowSize;
+        }
+
+        @Override
+        public boolean retainDuplicates() {
+            return false;
+        }
+
+        @Override
+        public long retentionPeriod() {
+            return retentionPeriod;
+        }
+    }
+}
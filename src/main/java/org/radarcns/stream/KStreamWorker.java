@@ -20,25 +20,55 @@ import static org.apache.kafka.streams.KeyValue.pair;
 import static org.radarcns.util.StreamUtil.first;
 import static org.radarcns.util.StreamUtil.second;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import org.apache.avro.Schema;
 import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.TopologyDescription;
 import org.apache.kafka.streams.errors.StreamsException;
+import org.apache.kafka.streams.kstream.Aggregator;
+import org.apache.kafka.streams.kstream.Initializer;
 import org.apache.kafka.streams.kstream.KStream;
-import org.apache.kafka.streams.kstream.KStreamBuilder;
 import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.radarcns.config.AdmissionConfig;
+import org.radarcns.config.AggregationConfig;
+import org.radarcns.config.DedupConfig;
+import org.radarcns.config.InMemoryWindowConfig;
 import org.radarcns.config.KafkaProperty;
 import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.RocksDbConfig;
 import org.radarcns.kafka.AggregateKey;
 import org.radarcns.kafka.ObservationKey;
 import org.radarcns.stream.aggregator.AggregateList;
@@ -46,8 +76,12 @@ import org.radarcns.stream.aggregator.NumericAggregate;
 import org.radarcns.stream.collector.AggregateListCollector;
 import org.radarcns.stream.collector.NumericAggregateCollector;
 import org.radarcns.util.Monitor;
+import org.radarcns.util.PersistentStateStore;
 import org.radarcns.util.RadarSingletonFactory;
 import org.radarcns.util.RadarUtilities;
+import org.radarcns.util.YamlPersistentStateStore;
+import org.radarcns.util.metrics.Histogram;
+import org.radarcns.util.metrics.MetricGroup;
 import org.radarcns.util.serde.RadarSerdes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +92,12 @@ import org.slf4j.LoggerFactory;
 public abstract class KStreamWorker<K extends SpecificRecord, V extends SpecificRecord>
         implements StreamWorker, Thread.UncaughtExceptionHandler {
     private static final Logger log = LoggerFactory.getLogger(KStreamWorker.class);
+    /** Maximum number of window aggregates per task to keep in memory. */
+    private static final int MAX_COMBINED_WINDOWS = 1000;
+    /** Maximum number of keys per stream task to keep sliding window panes of in memory. */
+    private static final int MAX_SLIDING_KEYS = 1000;
+    /** Maximum number of keys per stream task to keep an admission token bucket of. */
+    private static final int MAX_ADMISSION_KEYS = 100_000;
 
     private final Logger monitorLog;
     private final int numThreads;
@@ -66,10 +106,21 @@ public abstract class KStreamWorker<K extends SpecificRecord, V extends Specific
     private final String buildVersion;
     private Collection<ScheduledFuture<?>> monitors;
     private final KafkaProperty kafkaProperty;
+    private final PersistentStateStore persistentStateStore;
+    private final Map<String, Map<String, String>> stateFormats;
+    private final RocksDbConfig rocksDbConfig;
+    private final InMemoryWindowConfig inMemoryConfig;
+    private final Map<String, AdmissionConfig> admissionConfigs;
+    private final DedupConfig dedupConfig;
+    private final Map<String, AggregationConfig> aggregationConfigs;
+    /** Latency histograms as they were last logged, by log message. */
+    private final Map<String, Histogram> loggedLatencies;
 
     protected final RadarUtilities utilities = RadarSingletonFactory.getRadarUtilities();
 
     private List<KafkaStreams> streams;
+    /** Builder of the topology that is being created, for registering state stores. */
+    private StreamsBuilder topologyBuilder;
 
     public KStreamWorker(@Nonnull Collection<StreamDefinition> streamDefinitions,
             int numThreads, @Nonnull StreamMaster master, RadarPropertyHandler properties,
@@ -83,57 +134,336 @@ public abstract class KStreamWorker<K extends SpecificRecord, V extends Specific
         this.numThreads = numThreads;
         this.buildVersion = properties.getRadarProperties().getBuildVersion();
         this.kafkaProperty = properties.getKafkaProperties();
+        RocksDbConfig rocksdb = properties.getRadarProperties().getRocksdb();
+        this.rocksDbConfig = rocksdb != null ? rocksdb : new RocksDbConfig();
+        this.inMemoryConfig = properties.getRadarProperties().getInMemoryWindows();
+        Map<String, AdmissionConfig> admission = properties.getRadarProperties().getAdmission();
+        this.admissionConfigs = admission != null ? admission : Collections.emptyMap();
+        this.dedupConfig = properties.getRadarProperties().getDedup();
+        Map<String, AggregationConfig> aggregations = properties.getRadarProperties()
+                .getAggregations();
+        this.aggregationConfigs = aggregations != null ? aggregations : Collections.emptyMap();
+        this.stateFormats = new ConcurrentHashMap<>();
+        this.loggedLatencies = new ConcurrentHashMap<>();
+        PersistentStateStore stateStore;
+        try {
+            stateStore = properties.getPersistentStateStore();
+        } catch (IOException ex) {
+            log.warn("Cannot get persistent state store. Storing state formats in the stream"
+                    + " state directory.", ex);
+            stateStore = null;
+        }
+        this.persistentStateStore = stateStore;
         this.streams = null;
         this.monitors = null;
         this.monitorLog = monitorLog;
     }
 
+    @Override
+    public Map<String, Collection<String>> getApplicationTopics() {
+        Map<String, Collection<String>> applicationTopics = new HashMap<>();
+        for (StreamDefinition def : getStreamDefinitions()) {
+            String applicationId = getStreamProperties(def)
+                    .getProperty(StreamsConfig.APPLICATION_ID_CONFIG);
+            applicationTopics.computeIfAbsent(applicationId, id -> new TreeSet<>())
+                    .add(def.getInputTopic().getName());
+        }
+        return applicationTopics;
+    }
+
     /**
      * Create a Kafka Stream builder. This implementation will create a stream from given
-     * input topic to given output topic. It monitors the amount of messages that are read.
+     * input topic to given output topic. It monitors the amount of messages that are read and
+     * registers the stream metrics, including the Kafka client metrics and the size of its
+     * local state, in total and per state store. Along with the number of records, the ingestion
+     * and emission latency percentiles and the state store sizes are logged periodically.
      */
     protected KeyValue<ScheduledFuture<?>, KafkaStreams> createBuilder(StreamDefinition def) {
         Monitor monitor;
-        ScheduledFuture<?> future = null;
         if (monitorLog != null) {
             monitor = new Monitor(monitorLog, "records have been read from "
                     + def.getInputTopic() + " to " + def.getOutputTopic());
-            future = master.addMonitor(monitor);
         } else {
             monitor = null;
         }
 
-        KStreamBuilder builder = new KStreamBuilder();
+        MetricGroup metrics = getMetrics(def);
+        Properties props = getStreamProperties(def);
+        Topology topology = createTopology(def, monitor);
+        KafkaStreams kafkaStreams = new KafkaStreams(topology, props);
+        if (resetIncompatibleState(def, props)) {
+            kafkaStreams.cleanUp();
+        }
+        metrics.kafkaMetrics("streams", kafkaStreams::metrics);
+        Path stateDir = getStateDirectory(props)
+                .resolve(props.getProperty(StreamsConfig.APPLICATION_ID_CONFIG));
+        metrics.gauge("state_bytes", () -> directorySize(stateDir));
+        if (def.getTimeWindows() != null) {
+            long retention = def.getTimeWindows().maintainMs();
+            metrics.gauge("retention_ms", () -> retention);
+        }
+        Collection<String> stores = getStoreNames(topology);
+        for (String store : stores) {
+            RadarSingletonFactory.getMetricsRegistry().group("store", store)
+                    .gauge("state_bytes", () -> storeSize(stateDir, store));
+        }
+
+        ScheduledFuture<?> future = null;
+        if (monitor != null) {
+            future = master.addMonitor(() -> {
+                monitor.run();
+                logLatency(def);
+                logStateSize(stores, stateDir);
+            });
+        }
+
+        return pair(future, kafkaStreams);
+    }
+
+    /**
+     * Create the topology of a single stream definition, from its input topic to its output
+     * topic, counting the records that are read.
+     * @param def stream definition
+     * @param monitor monitor to count records with, or null if records should only be counted in
+     *                the stream metrics.
+     */
+    final Topology createTopology(@Nonnull StreamDefinition def, Monitor monitor) {
+        return createTopology(def, monitor, null);
+    }
+
+    /**
+     * Create the topology of a single stream definition, processing only the records of given
+     * offset range. If admission control is configured for the input topic, the records of
+     * sources that exceed their rate are dropped or downsampled after they are counted, see
+     * {@link AdmissionControl}.
+     * @param def stream definition
+     * @param monitor monitor to count records with, or null if records should only be counted in
+     *                the stream metrics.
+     * @param range range of input offsets to process, or null to process all records.
+     */
+    final Topology createTopology(@Nonnull StreamDefinition def, Monitor monitor,
+            BackfillRange range) {
+        LongAdder recordCount = getMetrics(def).counter("records");
+
+        StreamsBuilder builder = new StreamsBuilder();
+
+        KStream<K, V> input = createInputStream(builder, def);
+        if (range != null) {
+            input = input.transformValues(() -> range.<V>limiter())
+                    .filter((k, v) -> v != null);
+        }
+
+        input = input.map((k, v) -> {
+            if (monitor != null) {
+                monitor.increment();
+            }
+            recordCount.increment();
+            return pair(k, v);
+        });
+
+        String inputTopic = def.getInputTopic().getName();
+        AdmissionConfig admission = admissionConfigs.get(inputTopic);
+        if (admission != null) {
+            MetricGroup metrics = getMetrics(def);
+            input = input.transformValues(() -> new AdmissionControl<K, V>(
+                    inputTopic, admission, metrics, MAX_ADMISSION_KEYS))
+                    .filter((k, v) -> v != null);
+        }
 
-        implementStream(def,
-                builder.<K, V>stream(def.getInputTopic().getName())
-                        .map((k, v) -> {
-                            if (monitor != null) {
-                                monitor.increment();
-                            }
-                            return pair(k, v);
-                        })
-        ).to(def.getOutputTopic().getName());
+        topologyBuilder = builder;
+        try {
+            implementStream(def, input).to(def.getOutputTopic().getName());
+        } finally {
+            topologyBuilder = null;
+        }
 
-        return pair(future, new KafkaStreams(builder, getStreamProperties(def)));
+        return builder.build();
     }
 
     /**
+     * Reset the internal topics and input offsets of the stream if its state formats changed
+     * since it last ran, unless another instance already did. If no persistence path is
+     * configured, the local formats are kept in the stream state directory. If only the
+     * retention of its windows changed, the local state is restored from the changelog instead.
+     * @return whether the local state of the stream should be cleaned up.
+     */
+    boolean resetIncompatibleState(@Nonnull StreamDefinition def, @Nonnull Properties props) {
+        Map<String, String> formats = stateFormats.get(def.getStateStoreName());
+        TimeWindows windows = def.getTimeWindows();
+        if (formats == null && windows == null) {
+            return false;
+        }
+        try {
+            PersistentStateStore stateStore = persistentStateStore;
+            if (stateStore == null) {
+                stateStore = new YamlPersistentStateStore(getStateDirectory(props).toFile());
+            }
+            StateCompatibility compatibility = new StateCompatibility(stateStore);
+            boolean reset = formats != null && compatibility.check(props,
+                    Collections.singleton(def.getInputTopic().getName()), formats);
+            if (windows != null) {
+                reset |= compatibility.checkLayout(
+                        props.getProperty(StreamsConfig.APPLICATION_ID_CONFIG),
+                        Collections.singletonMap(def.getStateStoreName(),
+                                "retention=" + windows.maintainMs()
+                                        + ",segments=" + windows.segments));
+            }
+            return reset;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Declare the format of a state store of given stream. If the format differs from the
+     * previous run, the stream is recomputed from the start of its input topic, see
+     * {@link StateCompatibility}. Call this while implementing the stream.
+     * @param definition stream definition.
+     * @param storeName name of the state store.
+     * @param format identifier of the serialized format of the values in the store.
+     */
+    protected final void setStateFormat(@Nonnull StreamDefinition definition,
+            @Nonnull String storeName, @Nonnull String format) {
+        stateFormats.computeIfAbsent(definition.getStateStoreName(),
+                k -> new ConcurrentHashMap<>()).put(storeName, format);
+    }
+
+    private static Path getStateDirectory(Properties props) {
+        return Paths.get(props.getProperty(StreamsConfig.STATE_DIR_CONFIG, "/tmp/kafka-streams"));
+    }
+
+    /** Metrics of the stream of given definition. */
+    protected final MetricGroup getMetrics(@Nonnull StreamDefinition definition) {
+        return RadarSingletonFactory.getMetricsRegistry()
+                .group("stream", definition.getStateStoreName());
+    }
+
+    /**
+     * Log the latency percentiles of the input and output of given stream since the previous
+     * log, if any. The metrics registry keeps the cumulative latencies.
+     */
+    private void logLatency(StreamDefinition def) {
+        logLatency("Ingestion latency of " + def.getInputTopic().getName(),
+                DeviceTimestampExtractor.getIngestionLatency(def.getInputTopic().getName()));
+        logLatency("Emission latency of " + def.getOutputTopic().getName(),
+                getMetrics(def).histogram("emission_latency_ms"));
+    }
+
+    private void logLatency(String message, Histogram latency) {
+        Histogram current = latency.since(null);
+        Histogram interval = current.since(loggedLatencies.put(message, current));
+        if (interval.getCount() > 0) {
+            monitorLog.info("{} (ms): p50={} p95={} p99={} max={}", message,
+                    interval.getValueAtPercentile(50.0), interval.getValueAtPercentile(95.0),
+                    interval.getValueAtPercentile(99.0), interval.getMax());
+        }
+    }
+
+    /** Log the local state size of each store of a stream, if any. */
+    private void logStateSize(Collection<String> stores, Path stateDir) {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        for (String store : stores) {
+            long size = storeSize(stateDir, store);
+            if (size > 0) {
+                sizes.put(store, size);
+            }
+        }
+        if (!sizes.isEmpty()) {
+            monitorLog.info("Local state (bytes): {}", sizes);
+        }
+    }
+
+    /** Names of the state stores of a topology. */
+    static Collection<String> getStoreNames(Topology topology) {
+        return topology.describe().subtopologies().stream()
+                .flatMap(s -> s.nodes().stream())
+                .filter(n -> n instanceof TopologyDescription.Processor)
+                .flatMap(n -> ((TopologyDescription.Processor) n).stores().stream())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Local size in bytes of a state store over all tasks of an application. Window stores are
+     * kept in a directory of the store name per task, and key-value stores in the
+     * {@code rocksdb} directory of each task.
+     * @param stateDir state directory of the application.
+     * @param store name of the store.
+     */
+    static long storeSize(Path stateDir, String store) {
+        if (!Files.isDirectory(stateDir)) {
+            return 0L;
+        }
+        try (Stream<Path> tasks = Files.list(stateDir)) {
+            return tasks.mapToLong(task -> directorySize(task.resolve(store))
+                    + directorySize(task.resolve("rocksdb").resolve(store)))
+                    .sum();
+        } catch (IOException ex) {
+            // the state directory was removed, e.g. by a cleanup
+            return 0L;
+        }
+    }
+
+    /**
+     * Total size in bytes of the files in a directory, or 0 if it does not exist. Files that are
+     * removed while walking the directory, as RocksDB does during compaction, are skipped.
+     */
+    static long directorySize(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return 0L;
+        }
+        long[] size = {0L};
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return size[0];
+    }
+
+    /**
+     * Create the stream that is passed to {@link #implementStream(StreamDefinition, KStream)}.
+     * This implementation reads the input topic of the definition with the default serdes.
+     * Override to read from other sources or to register additional state stores with the
+     * builder.
+     */
+    protected KStream<K, V> createInputStream(@Nonnull StreamsBuilder builder,
+            @Nonnull StreamDefinition definition) {
+        return builder.stream(definition.getInputTopic().getName());
+    }
+
+    /**
+     * Properties for a Kafka Stream. The application ID only depends on the stream class and its
+     * window, so that state and offsets are kept across upgrades. The build version is part of
+     * the client ID.
      * @return Properties for a Kafka Stream
      */
     protected Properties getStreamProperties(@Nonnull StreamDefinition definition) {
-        String localClientId = getClass().getName() + "-" + buildVersion;
+        String applicationId = getClass().getName();
         TimeWindows window = definition.getTimeWindows();
         if (window != null) {
-            localClientId += '-' + window.sizeMs + '-' + window.advanceMs;
+            applicationId += "-" + window.sizeMs + "-" + window.advanceMs;
         }
 
-        Properties props = kafkaProperty.getStreamProperties(localClientId, numThreads,
+        Properties props = kafkaProperty.getStreamProperties(applicationId, numThreads,
                 DeviceTimestampExtractor.class);
+        props.put(StreamsConfig.CLIENT_ID_CONFIG, applicationId + "-" + buildVersion);
         long interval = (long)(ThreadLocalRandom.current().nextDouble(0.75, 1.25)
                 * definition.getCommitIntervalMs());
         props.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG,
                 String.valueOf(interval));
+        props.putAll(BoundedRocksDbConfigSetter.streamProperties(rocksDbConfig,
+                master.getPriority(numThreads)));
 
         return props;
     }
@@ -220,45 +550,184 @@ public abstract class KStreamWorker<K extends SpecificRecord, V extends Specific
     protected final KStream<AggregateKey, NumericAggregate> aggregateNumeric(
             @Nonnull StreamDefinition definition, @Nonnull KStream<ObservationKey, V> kstream,
             @Nonnull String fieldName, @Nonnull Schema schema) {
-        return kstream.groupByKey()
-                .aggregate(
-                        () -> new NumericAggregateCollector(fieldName, schema),
-                        (k, v, valueCollector) -> valueCollector.add(v),
-                        definition.getTimeWindows(),
-                        RadarSerdes.getInstance().getNumericAggregateCollector(),
-                        definition.getStateStoreName())
-                .toStream()
+        setStateFormat(definition, definition.getStateStoreName(),
+                RadarSerdes.NUMERIC_COLLECTOR_FORMAT);
+        MetricGroup metrics = getMetrics(definition);
+        Histogram aggregateTime = metrics.histogram("aggregate_time_ns");
+        return aggregateNumericWindows(definition, kstream,
+                () -> new NumericAggregateCollector(fieldName, schema),
+                (k, v, valueCollector) -> {
+                    long startTime = System.nanoTime();
+                    NumericAggregateCollector result = valueCollector.add(v);
+                    aggregateTime.record(System.nanoTime() - startTime);
+                    return result;
+                })
                 .map(utilities::numericCollectorToAvro);
     }
 
     protected final KStream<AggregateKey, NumericAggregate> aggregateCustomNumeric(
             @Nonnull StreamDefinition definition, @Nonnull KStream<ObservationKey, V> kstream,
             @Nonnull Function<V, Double> calculation, @Nonnull String fieldName) {
-        return kstream.groupByKey()
-                .aggregate(
-                        () -> new NumericAggregateCollector(fieldName),
-                        (k, v, valueCollector) -> valueCollector.add(calculation.apply(v)),
-                        definition.getTimeWindows(),
-                        RadarSerdes.getInstance().getNumericAggregateCollector(),
-                        definition.getStateStoreName())
-                .toStream()
+        setStateFormat(definition, definition.getStateStoreName(),
+                RadarSerdes.NUMERIC_COLLECTOR_FORMAT);
+        MetricGroup metrics = getMetrics(definition);
+        Histogram aggregateTime = metrics.histogram("aggregate_time_ns");
+        return aggregateNumericWindows(definition, kstream,
+                () -> new NumericAggregateCollector(fieldName),
+                (k, v, valueCollector) -> {
+                    long startTime = System.nanoTime();
+                    NumericAggregateCollector result = valueCollector.add(
+                            calculation.apply(v));
+                    aggregateTime.record(System.nanoTime() - startTime);
+                    return result;
+                })
                 .map(utilities::numericCollectorToAvro);
     }
 
     protected final KStream<AggregateKey, AggregateList> aggregateFields(
             @Nonnull StreamDefinition definition, @Nonnull KStream<ObservationKey, V> kstream,
             @Nonnull String[] fieldNames, @Nonnull Schema schema) {
-        return kstream.groupByKey()
-                .aggregate(
-                        () -> new AggregateListCollector(fieldNames, schema),
-                        (k, v, valueCollector) -> valueCollector.add(v),
-                        definition.getTimeWindows(),
-                        RadarSerdes.getInstance().getAggregateListCollector(),
-                        definition.getStateStoreName())
-                .toStream()
+        String topic = definition.getInputTopic().getName();
+        AggregationConfig config = aggregationConfigs.get(topic);
+        String[] fields = selectFields(topic, fieldNames, config);
+        String format = RadarSerdes.AGGREGATE_LIST_COLLECTOR_FORMAT;
+        if (fields.length < fieldNames.length) {
+            // collectors of a subset of the fields cannot be combined with existing state
+            format += Arrays.toString(fields);
+        }
+        setStateFormat(definition, definition.getStateStoreName(), format);
+        MetricGroup metrics = getMetrics(definition);
+        Histogram aggregateTime = metrics.histogram("aggregate_time_ns");
+        return aggregateWindows(definition, definition.getTimeWindows(), kstream,
+                () -> new AggregateListCollector(fields, schema),
+                (k, v, valueCollector) -> {
+                    long startTime = System.nanoTime();
+                    AggregateListCollector result = valueCollector.add(v);
+                    aggregateTime.record(System.nanoTime() - startTime);
+                    return result;
+                },
+                RadarSerdes.getInstance().getAggregateListCollector())
                 .map(utilities::listCollectorToAvro);
     }
 
+    /**
+     * Fields of a multi-field aggregation to aggregate. These are the {@code fields} of the
+     * aggregation configuration of the topic, in the order of the stream, or all fields if none
+     * are configured.
+     * @throws IllegalArgumentException if a configured field is not aggregated by the stream, or
+     *                                  no fields are configured.
+     */
+    static String[] selectFields(@Nonnull String topic, @Nonnull String[] fieldNames,
+            AggregationConfig config) {
+        if (config == null || config.getFields() == null) {
+            return fieldNames;
+        }
+        List<String> available = Arrays.asList(fieldNames);
+        for (String field : config.getFields()) {
+            if (!available.contains(field)) {
+                throw new IllegalArgumentException("Field " + field + " of topic " + topic
+                        + " is not aggregated; use a subset of " + available);
+            }
+        }
+        String[] fields = available.stream()
+                .filter(config.getFields()::contains)
+                .toArray(String[]::new);
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("No fields of topic " + topic
+                    + " to aggregate; leave out its fields or its windows instead");
+        }
+        return fields;
+    }
+
+    /**
+     * Aggregate a stream in numeric collectors in the time windows of given definition. Sliding
+     * windows are combined by a {@link SlidingNumericAggregator} from panes of the size of their
+     * advance, so that each record updates a single pane instead of all overlapping windows.
+     */
+    private KStream<Windowed<ObservationKey>, NumericAggregateCollector> aggregateNumericWindows(
+            @Nonnull StreamDefinition definition, @Nonnull KStream<ObservationKey, V> kstream,
+            @Nonnull Initializer<NumericAggregateCollector> initializer,
+            @Nonnull Aggregator<ObservationKey, V, NumericAggregateCollector> aggregator) {
+        Serde<NumericAggregateCollector> serde = RadarSerdes.getInstance()
+                .getNumericAggregateCollector();
+        TimeWindows windows = definition.getTimeWindows();
+        if (!definition.isSliding()) {
+            return aggregateWindows(definition, windows, kstream, initializer, aggregator, serde);
+        }
+        TimeWindows panes = TimeWindows.of(windows.advanceMs).until(windows.maintainMs());
+        String storeName = definition.getStateStoreName();
+        return aggregateWindows(definition, panes, kstream, initializer, aggregator, serde)
+                .transform(() -> new SlidingNumericAggregator<>(storeName, windows,
+                        MAX_SLIDING_KEYS), storeName);
+    }
+
+    /**
+     * Aggregate a stream in given time windows, keeping the collectors of recently updated
+     * windows in memory with a {@link CombiningWindowStore}. The window store has the same name,
+     * layout and changelog as the windowed aggregation of Kafka Streams, so existing state is
+     * reused. The window store is kept in memory if the store policy of the definition allows
+     * it and in-memory windows are configured, with its size in the {@code in_memory_entries}
+     * and {@code in_memory_bytes} stream metrics, and in RocksDB otherwise. The time between the
+     * latest record of an aggregate and its emission is recorded in the
+     * {@code emission_latency_ms} stream metric.
+     */
+    private <C> KStream<Windowed<ObservationKey>, C> aggregateWindows(
+            @Nonnull StreamDefinition definition, @Nonnull TimeWindows windows,
+            @Nonnull KStream<ObservationKey, V> kstream, @Nonnull Initializer<C> initializer,
+            @Nonnull Aggregator<ObservationKey, V, C> aggregator, @Nonnull Serde<C> serde) {
+        if (topologyBuilder == null) {
+            throw new IllegalStateException("Aggregations can only be made while creating a"
+                    + " topology");
+        }
+        String storeName = definition.getStateStoreName();
+        Histogram emissionLatency = getMetrics(definition).histogram("emission_latency_ms");
+        WindowBytesStoreSupplier storeSupplier;
+        if (definition.getStorePolicy() == StorePolicy.IN_MEMORY && inMemoryConfig != null) {
+            InMemoryWindowStore.Supplier inMemory = new InMemoryWindowStore.Supplier(storeName,
+                    windows.maintainMs(), windows.size(), inMemoryConfig.getMaxBytes());
+            MetricGroup metrics = getMetrics(definition);
+            metrics.gauge("in_memory_entries", inMemory::approximateNumEntries);
+            metrics.gauge("in_memory_bytes", inMemory::approximateBytes);
+            storeSupplier = inMemory;
+        } else {
+            storeSupplier = Stores.persistentWindowStore(storeName, windows.maintainMs(),
+                    windows.segments, windows.size(), false);
+        }
+        topologyBuilder.addStateStore(new CombiningWindowStore.Builder<>(
+                Stores.windowStoreBuilder(storeSupplier, null, serde),
+                windows, MAX_COMBINED_WINDOWS));
+        return deduplicate(definition, kstream).transform(
+                () -> new CombiningWindowAggregator<>(storeName, windows, initializer,
+                        aggregator, emissionLatency),
+                storeName);
+    }
+
+    /**
+     * Remove duplicate records from a stream with a {@link DuplicateFilter}, if duplicate
+     * elimination is configured. The stream metrics include the number of {@code duplicates},
+     * their fraction of all records as {@code duplicate_rate} and the configured
+     * {@code dedup_false_positive_rate}.
+     */
+    private KStream<ObservationKey, V> deduplicate(@Nonnull StreamDefinition definition,
+            @Nonnull KStream<ObservationKey, V> kstream) {
+        DedupConfig dedup = dedupConfig;
+        if (dedup == null) {
+            return kstream;
+        }
+        MetricGroup metrics = getMetrics(definition);
+        LongAdder duplicates = metrics.counter("duplicates");
+        LongAdder records = metrics.counter("records");
+        metrics.gauge("duplicate_rate", () -> {
+            long total = records.sum();
+            return total > 0 ? duplicates.sum() / (double) total : 0d;
+        });
+        double falsePositiveRate = dedup.getFalsePositiveRate();
+        metrics.gauge("dedup_false_positive_rate", () -> falsePositiveRate);
+        return kstream.transformValues(() -> new DuplicateFilter<ObservationKey, V>(
+                dedup, duplicates))
+                .filter((k, v) -> v != null);
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName();
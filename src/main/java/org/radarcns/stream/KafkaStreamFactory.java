@@ -49,6 +49,15 @@ public class KafkaStreamFactory {
             streamTypes = config.getStreamMasters();
         }
 
+        return createStreamMaster(streamTypes);
+    }
+
+    /**
+     * Create a stream master for given stream master classes.
+     * @param streamTypes fully qualified class names of stream masters.
+     * @throws IllegalArgumentException if none of the stream masters can be created.
+     */
+    public StreamMaster createStreamMaster(List<String> streamTypes) {
         List<StreamMaster> masters = new ArrayList<>(streamTypes.size());
 
         for (String streamType : streamTypes) {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nonnull;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+
+/**
+ * Sliding window aggregation from panes. Records are aggregated in tumbling panes of the size of
+ * the window advance, with a {@link CombiningWindowAggregator}, and this transformer combines
+ * the panes that it receives into the window that ends with the latest pane of each key. Per
+ * key, the sorted values of the panes in that window are kept in a queue, so that advancing the
+ * window appends one pane and evicts the panes that fell out of it, without touching the other
+ * panes. Emitting a window merges the sorted panes, since exact quartiles need all values.
+ *
+ * <p>Late panes within the latest window of a key update that window. Panes of keys that are
+ * not kept in memory, for example after a restart, are read from the pane store.
+ * @param <K> key type
+ */
+public class SlidingNumericAggregator<K> implements Transformer<Windowed<K>,
+        NumericAggregateCollector, KeyValue<Windowed<K>, NumericAggregateCollector>> {
+    private final String paneStoreName;
+    private final long sizeMs;
+    private final long advanceMs;
+    private final int maxKeys;
+    private final LinkedHashMap<K, PaneQueue> windows;
+    private CombiningWindowStore<K, NumericAggregateCollector> paneStore;
+
+    /**
+     * Sliding window aggregator.
+     * @param paneStoreName name of the combining window store of the panes.
+     * @param windows sliding windows, with an advance that divides their size.
+     * @param maxKeys maximum number of keys to keep the window panes of in memory.
+     */
+    public SlidingNumericAggregator(@Nonnull String paneStoreName, @Nonnull TimeWindows windows,
+            int maxKeys) {
+        if (windows.advanceMs >= windows.sizeMs || windows.sizeMs % windows.advanceMs != 0) {
+            throw new IllegalArgumentException("Sliding windows must advance by a divisor of"
+                    + " their size");
+        }
+        this.paneStoreName = paneStoreName;
+        this.sizeMs = windows.sizeMs;
+        this.advanceMs = windows.advanceMs;
+        this.maxKeys = maxKeys;
+        this.windows = new LinkedHashMap<K, PaneQueue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, PaneQueue> eldest) {
+                return size() > SlidingNumericAggregator.this.maxKeys;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        paneStore = (CombiningWindowStore<K, NumericAggregateCollector>) context.getStateStore(
+                paneStoreName);
+    }
+
+    @Override
+    public KeyValue<Windowed<K>, NumericAggregateCollector> transform(Windowed<K> pane,
+            NumericAggregateCollector value) {
+        K key = pane.key();
+        long paneStart = pane.window().start();
+        PaneQueue queue = windows.get(key);
+        if (queue == null) {
+            queue = readPanes(key, paneStart);
+            windows.put(key, queue);
+        } else if (paneStart < queue.windowStart()) {
+            // pane is older than the latest window
+            return null;
+        }
+        queue.put(paneStart, value);
+
+        long start = queue.windowStart();
+        if (start < 0) {
+            // like Kafka Streams, windows do not start before the epoch
+            return null;
+        }
+        return new KeyValue<>(new Windowed<>(key, WindowFactory.timeWindow(start, start + sizeMs)),
+                queue.aggregate(value.getName()));
+    }
+
+    /**
+     * Read the panes preceding given pane from the pane store. Only panes that were written are
+     * read, because this is called while the pane store forwards its updates. Panes that are
+     * still in memory are passed to this transformer later in the same forward.
+     */
+    private PaneQueue readPanes(K key, long paneStart) {
+        PaneQueue queue = new PaneQueue();
+        try (WindowStoreIterator<NumericAggregateCollector> iterator = paneStore.fetchWritten(
+                key, paneStart + advanceMs - sizeMs, paneStart - advanceMs)) {
+            while (iterator.hasNext()) {
+                KeyValue<Long, NumericAggregateCollector> previous = iterator.next();
+                queue.put(previous.key, previous.value);
+            }
+        }
+        return queue;
+    }
+
+    /** Number of keys of which the window panes are kept in memory. */
+    int numKeys() {
+        return windows.size();
+    }
+
+    @Override
+    @Deprecated
+    public KeyValue<Windowed<K>, NumericAggregateCollector> punctuate(long timestamp) {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        windows.clear();
+    }
+
+    /** Sorted values of the panes of the latest window of a key, ordered by pane start. */
+    private class PaneQueue {
+        private final ArrayDeque<Pane> panes = new ArrayDeque<>();
+        private long latestStart = Long.MIN_VALUE;
+
+        /** Start of the latest window. */
+        long windowStart() {
+            return latestStart + advanceMs - sizeMs;
+        }
+
+        /** Add or replace a pane, and evict the panes that are no longer in the window. */
+        void put(long start, NumericAggregateCollector collector) {
+            Pane pane = new Pane(start, collector.getHistory());
+            if (start > latestStart) {
+                latestStart = start;
+                panes.addLast(pane);
+                long windowStart = windowStart();
+                while (panes.getFirst().start < windowStart) {
+                    panes.removeFirst();
+                }
+            } else if (panes.getLast().start == start) {
+                panes.removeLast();
+                panes.addLast(pane);
+            } else {
+                // late pane: rebuild the queue, which holds at most size / advance panes
+                ArrayDeque<Pane> previous = new ArrayDeque<>(panes);
+                panes.clear();
+                boolean isAdded = false;
+                for (Pane other : previous) {
+                    if (!isAdded && other.start >= start) {
+                        panes.addLast(pane);
+                        isAdded = true;
+                    }
+                    if (other.start != start) {
+                        panes.addLast(other);
+                    }
+                }
+            }
+        }
+
+        /** Aggregate all values of the window, adding them in order. */
+        NumericAggregateCollector aggregate(String name) {
+            NumericAggregateCollector collector = new NumericAggregateCollector(name);
+            PriorityQueue<PaneCursor> cursors = new PriorityQueue<>(panes.size());
+            for (Pane pane : panes) {
+                if (pane.values.length > 0) {
+                    cursors.add(new PaneCursor(pane.values));
+                }
+            }
+            while (!cursors.isEmpty()) {
+                PaneCursor cursor = cursors.poll();
+                collector.add(cursor.current());
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+            return collector;
+        }
+    }
+
+    /** Sorted values of a pane. */
+    private static class Pane {
+        private final long start;
+        private final double[] values;
+
+        Pane(long start, List<Double> history) {
+            this.start = start;
+            this.values = new double[history.size()];
+            Iterator<Double> iterator = history.iterator();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = iterator.next();
+            }
+            Arrays.sort(values);
+        }
+    }
+
+    /** Position in the sorted values of a pane, ordered by its current value. */
+    private static class PaneCursor implements Comparable<PaneCursor> {
+        private final double[] values;
+        private int position;
+
+        PaneCursor(double[] values) {
+            this.values = values;
+            this.position = 0;
+        }
+
+        double current() {
+            return values[position];
+        }
+
+        boolean next() {
+            return ++position < values.length;
+        }
+
+        @Override
+        public int compareTo(@Nonnull PaneCursor o) {
+            return Double.compare(current(), o.current());
+        }
+    }
+}
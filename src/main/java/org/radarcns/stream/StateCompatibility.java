@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.radarcns.util.PersistentStateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks whether the state of a stream application can be reused after an upgrade. The format
+ * of each state store of an application is kept in a persistent state store, and in the
+ * metadata of an offset committed by a separate consumer group of the application in Kafka. If
+ * a store is started with a different format, the state of its application is rebuilt: the
+ * internal topics of the application are deleted and its input offsets are reset, so that it
+ * reprocesses its input from the start. Applications that keep their formats, including all
+ * applications without declared formats, keep their state and offsets.
+ *
+ * <p>Because the formats are also kept in Kafka, an application is rebuilt once, by the first
+ * instance that starts with the new formats. Other instances only clean up their local state.
+ * The state is not rebuilt while the application has active members, so all instances of an
+ * application must be stopped before it is rebuilt.
+ */
+public class StateCompatibility {
+    private static final Logger logger = LoggerFactory.getLogger(StateCompatibility.class);
+    private static final String CLIENT_ID = "state-format";
+    private static final String LAYOUT_CLIENT_ID = "state-layout";
+    private static final long DELETE_TIMEOUT_MS = 60_000L;
+    /** Suffix of the consumer group that keeps the state formats of an application. */
+    private static final String FORMAT_GROUP_SUFFIX = "-state-format";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final PersistentStateStore stateStore;
+
+    /**
+     * State compatibility check.
+     * @param stateStore store to keep the state formats of applications in.
+     */
+    public StateCompatibility(@Nonnull PersistentStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Check the state formats of an application, and rebuild its state if they changed. The
+     * formats recorded in Kafka take precedence over the locally stored formats, so that the
+     * state is only rebuilt once. The local state of the application should be cleaned up if
+     * this returns true.
+     * @param streamProperties properties of the application.
+     * @param inputTopics topics that the application reads.
+     * @param formats format of each state store of the application.
+     * @return whether the state of the application was reset, here or by another instance.
+     * @throws IOException if the formats cannot be read or stored or the state cannot be reset.
+     */
+    public boolean check(@Nonnull Properties streamProperties,
+            @Nonnull Collection<String> inputTopics, @Nonnull Map<String, String> formats)
+            throws IOException {
+        if (formats.isEmpty()) {
+            return false;
+        }
+        String applicationId = streamProperties.getProperty(StreamsConfig.APPLICATION_ID_CONFIG);
+        boolean locallyCompatible = isCompatible(applicationId, formats);
+        Map<String, String> applicationFormats = readApplicationFormats(streamProperties,
+                applicationId, inputTopics);
+        boolean compatible = applicationFormats != null
+                ? isCompatible(applicationFormats, formats)
+                : locallyCompatible;
+        if (!compatible) {
+            logger.warn("State format of {} changed to {}; rebuilding its state from the start"
+                    + " of {}", applicationId, formats, inputTopics);
+            if (!resetApplication(streamProperties, applicationId, inputTopics)) {
+                logger.error("Cannot rebuild the state of {} while other instances of it are"
+                        + " running. Stop all instances and start them again.", applicationId);
+                return false;
+            }
+        } else if (!locallyCompatible) {
+            logger.info("State of {} was already rebuilt with formats {}; cleaning up local"
+                    + " state", applicationId, formats);
+        }
+        writeApplicationFormats(streamProperties, applicationId, inputTopics, formats);
+        stateStore.storeState(applicationId, CLIENT_ID, new HashMap<>(formats));
+        return !locallyCompatible || !compatible;
+    }
+
+    /**
+     * Check the local layout of the state stores of an application, such as the retention of
+     * window stores, which determines the segments that RocksDB window stores are split into.
+     * Unlike a format change, a layout change only requires the local state to be cleaned up, so
+     * that it is restored from the changelog in the new layout.
+     * @param applicationId application ID.
+     * @param layouts layout of each state store of the application.
+     * @return whether the local state of the application should be cleaned up.
+     * @throws IOException if the layouts cannot be read or stored.
+     */
+    public boolean checkLayout(@Nonnull String applicationId,
+            @Nonnull Map<String, String> layouts) throws IOException {
+        if (layouts.isEmpty()) {
+            return false;
+        }
+        boolean compatible = isCompatible(applicationId, LAYOUT_CLIENT_ID, layouts);
+        if (!compatible) {
+            logger.warn("State layout of {} changed to {}; restoring its local state from the"
+                    + " changelog", applicationId, layouts);
+        }
+        stateStore.storeState(applicationId, LAYOUT_CLIENT_ID, new HashMap<>(layouts));
+        return !compatible;
+    }
+
+    /**
+     * Whether the stored formats of an application match given formats. Stores that were not
+     * stored before are compatible, as are applications without stored formats.
+     */
+    boolean isCompatible(@Nonnull String applicationId, @Nonnull Map<String, String> formats)
+            throws IOException {
+        return isCompatible(applicationId, CLIENT_ID, formats);
+    }
+
+    private boolean isCompatible(String applicationId, String clientId,
+            Map<String, String> formats) throws IOException {
+        return isCompatible(stateStore.retrieveState(applicationId, clientId,
+                new HashMap<String, String>()), formats);
+    }
+
+    private static boolean isCompatible(Map<String, String> stored, Map<String, String> formats) {
+        return formats.entrySet().stream().allMatch(e -> {
+            String storedFormat = stored.get(e.getKey());
+            return storedFormat == null || storedFormat.equals(e.getValue());
+        });
+    }
+
+    /**
+     * Read the state formats of an application that were recorded in Kafka.
+     * @return formats, or null if none were recorded or they cannot be read.
+     */
+    Map<String, String> readApplicationFormats(Properties streamProperties, String applicationId,
+            Collection<String> inputTopics) throws IOException {
+        try (Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProperties(
+                streamProperties, applicationId + FORMAT_GROUP_SUFFIX))) {
+            OffsetAndMetadata marker = consumer.committed(formatPartition(inputTopics));
+            if (marker == null || marker.metadata() == null || marker.metadata().isEmpty()) {
+                return null;
+            }
+            return MAPPER.readValue(marker.metadata(),
+                    new TypeReference<Map<String, String>>() {});
+        } catch (KafkaException ex) {
+            logger.warn("Cannot read state formats of {} from Kafka: {}", applicationId,
+                    ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Record the state formats of an application in Kafka, as metadata of an offset committed
+     * by a consumer group without members. The commit also renews the retention of the
+     * formats.
+     */
+    void writeApplicationFormats(Properties streamProperties, String applicationId,
+            Collection<String> inputTopics, Map<String, String> formats) throws IOException {
+        String metadata = MAPPER.writeValueAsString(new TreeMap<>(formats));
+        try (Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProperties(
+                streamProperties, applicationId + FORMAT_GROUP_SUFFIX))) {
+            consumer.commitSync(Collections.singletonMap(formatPartition(inputTopics),
+                    new OffsetAndMetadata(0L, metadata)));
+        } catch (KafkaException ex) {
+            logger.warn("Cannot record state formats of {} in Kafka: {}", applicationId,
+                    ex.toString());
+        }
+    }
+
+    /** Partition that the offset with the state formats of an application is committed on. */
+    private static TopicPartition formatPartition(Collection<String> inputTopics) {
+        return new TopicPartition(Collections.min(inputTopics), 0);
+    }
+
+    /**
+     * Reset the input offsets of an application and delete its internal topics.
+     * @return whether the application was reset, false if it has active members.
+     */
+    boolean resetApplication(Properties streamProperties, String applicationId,
+            Collection<String> inputTopics) throws IOException {
+        if (!resetOffsets(streamProperties, applicationId, inputTopics)) {
+            return false;
+        }
+        try {
+            deleteInternalTopics(streamProperties, applicationId);
+        } catch (ExecutionException ex) {
+            throw new IOException("Cannot delete internal topics of " + applicationId,
+                    ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deleting internal topics", ex);
+        }
+        return true;
+    }
+
+    /** Delete the changelog and repartition topics of an application and wait for it. */
+    static void deleteInternalTopics(Properties streamProperties, String applicationId)
+            throws ExecutionException, InterruptedException, IOException {
+        Properties props = new Properties();
+        props.put(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG,
+                streamProperties.get(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG));
+
+        try (AdminClient admin = AdminClient.create(props)) {
+            Set<String> internalTopics = internalTopics(admin, applicationId);
+            if (internalTopics.isEmpty()) {
+                return;
+            }
+            logger.info("Deleting internal topics {}", internalTopics);
+            admin.deleteTopics(internalTopics).all().get();
+
+            long deadline = System.currentTimeMillis() + DELETE_TIMEOUT_MS;
+            while (!internalTopics(admin, applicationId).isEmpty()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Internal topics of " + applicationId
+                            + " were not deleted within " + DELETE_TIMEOUT_MS + " ms");
+                }
+                Thread.sleep(1000L);
+            }
+        }
+    }
+
+    private static Set<String> internalTopics(AdminClient admin, String applicationId)
+            throws ExecutionException, InterruptedException {
+        return admin.listTopics().names().get().stream()
+                .filter(t -> t.startsWith(applicationId + "-")
+                        && (t.endsWith("-changelog") || t.endsWith("-repartition")))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Commit the first offset of each input partition for the application. A consumer without
+     * a group generation can only commit offsets of a group without members.
+     * @return whether the offsets were reset, false if the group has active members.
+     */
+    private static boolean resetOffsets(Properties streamProperties, String applicationId,
+            Collection<String> inputTopics) {
+        try (Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProperties(
+                streamProperties, applicationId))) {
+            List<TopicPartition> partitions = inputTopics.stream()
+                    .map(consumer::partitionsFor)
+                    .filter(Objects::nonNull)
+                    .flatMap(List::stream)
+                    .map(p -> new TopicPartition(p.topic(), p.partition()))
+                    .collect(Collectors.toList());
+            consumer.commitSync(consumer.beginningOffsets(partitions).entrySet().stream()
+                    .collect(Collectors.toMap(Map.Entry::getKey,
+                            e -> new OffsetAndMetadata(e.getValue()))));
+            return true;
+        } catch (CommitFailedException ex) {
+            return false;
+        }
+    }
+
+    private static Properties consumerProperties(Properties streamProperties, String groupId) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,
+                streamProperties.get(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG));
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return props;
+    }
+}
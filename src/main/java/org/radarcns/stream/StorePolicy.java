@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+/**
+ * Type of state store that keeps the windowed aggregates of a stream definition.
+ */
+public enum StorePolicy {
+    /**
+     * RocksDB window store on local disk. Suitable for long windows, since only recently used
+     * data needs to be in memory and local state survives restarts.
+     */
+    PERSISTENT,
+    /**
+     * In-memory window store that is restored from its changelog on restart. Suitable for short
+     * windows, which are updated and expired constantly. It is only used if in-memory windows are
+     * configured, and RocksDB is used otherwise.
+     */
+    IN_MEMORY
+}
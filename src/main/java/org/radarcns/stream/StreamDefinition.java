@@ -31,6 +31,7 @@ public class StreamDefinition implements Comparable<StreamDefinition> {
     private final KafkaTopic outputTopic;
     private final TimeWindows window;
     private final long commitIntervalMs;
+    private final StorePolicy storePolicy;
 
     /**
      * Constructor. It takes in input the topic name to be consumed and to topic name where the
@@ -78,13 +79,30 @@ public class StreamDefinition implements Comparable<StreamDefinition> {
      */
     public StreamDefinition(@Nonnull KafkaTopic input, @Nonnull KafkaTopic output,
             @Nullable TimeWindows window, @Nonnull long commitIntervalMs) {
+        this(input, output, window, commitIntervalMs, StorePolicy.PERSISTENT);
+    }
+
+    /**
+     * Constructor. It takes in input the topic name to be consumed and to topic name where the
+     *      related stream will write the computed values.
+     * @param input source {@link KafkaTopic}
+     * @param output output {@link KafkaTopic}
+     * @param window time window for aggregation.
+     * @param commitIntervalMs The commit.interval.ms config for the stream
+     * @param storePolicy type of store to keep windowed aggregates in.
+     */
+    public StreamDefinition(@Nonnull KafkaTopic input, @Nonnull KafkaTopic output,
+            @Nullable TimeWindows window, long commitIntervalMs,
+            @Nonnull StorePolicy storePolicy) {
         Objects.requireNonNull(input);
         Objects.requireNonNull(output);
+        Objects.requireNonNull(storePolicy);
 
         this.inputTopic = input;
         this.outputTopic = output;
         this.window = window;
         this.commitIntervalMs = commitIntervalMs;
+        this.storePolicy = storePolicy;
     }
 
     @Nonnull
@@ -114,11 +132,21 @@ public class StreamDefinition implements Comparable<StreamDefinition> {
         return window;
     }
 
+    /** Whether the windows of this stream advance by less than their size. */
+    public boolean isSliding() {
+        return window != null && window.advanceMs < window.sizeMs;
+    }
+
     @Nullable
     public long getCommitIntervalMs(){
         return commitIntervalMs;
     }
 
+    @Nonnull
+    public StorePolicy getStorePolicy() {
+        return storePolicy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -23,8 +23,12 @@ import static org.radarcns.config.RadarPropertyHandler.Priority.NORMAL;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -35,8 +39,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import org.radarcns.config.ConfigRadar;
+import org.radarcns.config.RadarPropertyHandler.Priority;
 import org.radarcns.config.SubCommand;
-import org.radarcns.util.Monitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,6 +102,22 @@ public abstract class StreamMaster implements SubCommand, UncaughtExceptionHandl
      */
     protected abstract void createWorkers(List<StreamWorker> list, StreamMaster master);
 
+    /**
+     * Input topics per Kafka Streams application ID of all workers that this master would start.
+     * The workers are created but not started.
+     */
+    public Map<String, Collection<String>> getApplicationTopics() {
+        List<StreamWorker> workers = new ArrayList<>();
+        createWorkers(workers, this);
+        Map<String, Collection<String>> applicationTopics = new TreeMap<>();
+        for (StreamWorker worker : workers) {
+            worker.getApplicationTopics().forEach((applicationId, topics) ->
+                    applicationTopics.computeIfAbsent(applicationId, id -> new TreeSet<>())
+                            .addAll(topics));
+        }
+        return applicationTopics;
+    }
+
     /** Starts all workers. */
     @Override
     public void start() throws IOException {
@@ -212,10 +232,26 @@ public abstract class StreamMaster implements SubCommand, UncaughtExceptionHandl
     protected abstract StreamGroup getStreamGroup();
 
     /** Add a monitor to the master. It will run every 30 seconds. */
-    ScheduledFuture<?> addMonitor(Monitor monitor) {
+    ScheduledFuture<?> addMonitor(Runnable monitor) {
         return executor.scheduleAtFixedRate(monitor, 0, 30, TimeUnit.SECONDS);
     }
 
+    /**
+     * Priority that was configured with given number of threads. If priorities share the same
+     * number of threads, as in standalone mode, normal priority is preferred.
+     */
+    public synchronized Priority getPriority(int numThreads) {
+        if (numThreads == normalPriorityThreads) {
+            return NORMAL;
+        } else if (numThreads == highPriorityThreads) {
+            return HIGH;
+        } else if (numThreads == lowPriorityThreads) {
+            return LOW;
+        } else {
+            return NORMAL;
+        }
+    }
+
     protected synchronized int lowPriority() {
         return lowPriorityThreads;
     }
@@ -1,6 +1,12 @@
 package org.radarcns.stream;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface StreamWorker {
     void start();
     void shutdown();
+
+    /** Input topics of this worker, per Kafka Streams application ID. */
+    Map<String, Collection<String>> getApplicationTopics();
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import org.apache.kafka.streams.kstream.Window;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+
+/**
+ * Creates windows of fixed start and end times. Kafka Streams does not offer a public
+ * implementation of {@link Window}, so this is the only place that uses its internal one.
+ */
+final class WindowFactory {
+    private WindowFactory() {
+        // utility class
+    }
+
+    /**
+     * Create a time window.
+     * @param startMs start time of the window, inclusive.
+     * @param endMs end time of the window, exclusive.
+     * @return window with given bounds
+     */
+    static Window timeWindow(long startMs, long endMs) {
+        return new TimeWindow(startMs, endMs);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.Nonnull;
+import org.radarcns.config.RadarBackendOptions;
+import org.radarcns.config.SubCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the windowed aggregates of a sensor topic from files instead of Kafka, for example to
+ * reprocess historical data. The input is any number of Avro container files or CSV exports of
+ * the topic, or directories containing them. No broker is needed.
+ *
+ * <p>Files are grouped by directory and each group is aggregated by a single task, so all files
+ * of a source must be in one directory, as in the output of the HDFS restructure tool. Groups
+ * are aggregated in parallel on a fork-join pool and files of a group are read in order of their
+ * name. Each group writes its own output file per output topic.
+ */
+public class AggregateCommand implements SubCommand {
+    private static final Logger logger = LoggerFactory.getLogger(AggregateCommand.class);
+
+    private final List<BatchAggregation<?>> aggregations;
+    private final Path outputDirectory;
+    private final List<Path> inputs;
+    private final int parallelism;
+    private volatile boolean isRunning;
+    private Thread thread;
+
+    /**
+     * Aggregate command for the command-line. The subcommand arguments are the input topic, the
+     * output directory and the input files or directories.
+     */
+    public AggregateCommand(RadarBackendOptions options) {
+        this(argument(options, 0), Paths.get(argument(options, 1)),
+                Arrays.stream(options.getSubCommandArgs())
+                        .skip(2)
+                        .map(Paths::get)
+                        .collect(Collectors.toList()),
+                options.getNumThreads());
+    }
+
+    /**
+     * Aggregate command.
+     * @param topic input topic.
+     * @param outputDirectory directory to write aggregates to.
+     * @param inputs input files or directories.
+     * @param parallelism number of groups to aggregate in parallel.
+     * @throws IllegalArgumentException if the topic has no aggregations or no inputs are given.
+     */
+    AggregateCommand(@Nonnull String topic, @Nonnull Path outputDirectory,
+            @Nonnull List<Path> inputs, int parallelism) {
+        if (inputs.isEmpty() || parallelism < 1) {
+            throw new IllegalArgumentException("Specify input files and a positive number of "
+                    + "threads to aggregate");
+        }
+        this.aggregations = BatchAggregation.forTopic(topic);
+        this.outputDirectory = outputDirectory;
+        this.inputs = inputs;
+        this.parallelism = parallelism;
+    }
+
+    private static String argument(RadarBackendOptions options, int index) {
+        String[] args = options.getSubCommandArgs();
+        if (args == null || args.length < 3) {
+            throw new IllegalArgumentException("Usage: aggregate <topic> <output directory>"
+                    + " <input file or directory>...");
+        }
+        return args[index];
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Aggregation already started");
+        }
+        isRunning = true;
+        thread = new Thread(this::run, "aggregate");
+        thread.start();
+    }
+
+    private void run() {
+        long startNanos = System.nanoTime();
+        List<List<Path>> groups;
+        try {
+            groups = groupFiles();
+        } catch (IOException ex) {
+            logger.error("Failed to list input files", ex);
+            return;
+        }
+        logger.info("Aggregating {} groups of files of {} with {} threads", groups.size(),
+                aggregations.get(0).getInputTopic(), parallelism);
+
+        LongAdder records = new LongAdder();
+        AtomicInteger failures = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, groups.size()).parallel().forEach(i -> {
+                String part = String.format("part-%05d", i);
+                try (BatchAggregator aggregator = new BatchAggregator(
+                        aggregations, outputDirectory, part)) {
+                    records.add(aggregator.aggregate(groups.get(i), () -> isRunning));
+                } catch (IOException | RuntimeException ex) {
+                    logger.error("Failed to aggregate {}", groups.get(i), ex);
+                    failures.incrementAndGet();
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            logger.error("Aggregation failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        logger.info("Aggregated {} records in {} s ({}/s) to {}; {} groups failed",
+                records.sum(), Math.round(seconds), Math.round(records.sum() / seconds),
+                outputDirectory, failures.get());
+    }
+
+    /** Supported input files, grouped by directory and sorted by name. */
+    private List<List<Path>> groupFiles() throws IOException {
+        Map<Path, List<Path>> groups = new TreeMap<>();
+        for (Path input : inputs) {
+            try (Stream<Path> files = Files.walk(input)) {
+                files.filter(f -> Files.isRegularFile(f) && RecordReader.isSupported(f))
+                        .forEach(f -> groups.computeIfAbsent(f.toAbsolutePath().getParent(),
+                                d -> new ArrayList<>()).add(f));
+            }
+        }
+        groups.values().forEach(files -> files.sort(null));
+        return new ArrayList<>(groups.values());
+    }
+
+    /** Wait until the aggregation has ended. */
+    void awaitCompletion() throws InterruptedException {
+        Thread aggregateThread;
+        synchronized (this) {
+            aggregateThread = thread;
+        }
+        if (aggregateThread != null) {
+            aggregateThread.join();
+        }
+    }
+
+    /** Stop reading input and write the aggregates computed so far. */
+    @Override
+    public void shutdown() throws InterruptedException {
+        isRunning = false;
+        awaitCompletion();
+    }
+}
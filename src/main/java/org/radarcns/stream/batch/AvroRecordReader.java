@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificRecord;
+import org.radarcns.kafka.ObservationKey;
+
+/**
+ * Reads records from an Avro container file with {@code key} and {@code value} fields. Keys and
+ * values are resolved to {@link ObservationKey} and the value class of the topic.
+ */
+class AvroRecordReader implements RecordReader {
+    private final DataFileReader<GenericRecord> reader;
+    private GenericRecord record;
+
+    AvroRecordReader(@Nonnull Path path, @Nonnull Schema valueSchema) throws IOException {
+        SpecificDatumReader<GenericRecord> datumReader = new SpecificDatumReader<>();
+        reader = new DataFileReader<>(path.toFile(), datumReader);
+        Schema writerSchema = reader.getSchema();
+        if (writerSchema.getType() != Schema.Type.RECORD
+                || writerSchema.getField("key") == null
+                || writerSchema.getField("value") == null) {
+            reader.close();
+            throw new IOException("File " + path + " does not contain key and value records");
+        }
+        // keep the writer record name so the schemas resolve
+        datumReader.setExpected(Schema.createRecord(writerSchema.getName(), null,
+                writerSchema.getNamespace(), false, Arrays.asList(
+                        new Field("key", ObservationKey.getClassSchema(), null, (Object) null),
+                        new Field("value", valueSchema, null, (Object) null))));
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (!reader.hasNext()) {
+            return false;
+        }
+        record = reader.next(record);
+        return true;
+    }
+
+    @Override
+    public ObservationKey getKey() {
+        return (ObservationKey) record.get(0);
+    }
+
+    @Override
+    public SpecificRecord getValue() {
+        return (SpecificRecord) record.get(1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
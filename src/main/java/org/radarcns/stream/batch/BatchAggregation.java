@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import static org.radarcns.util.Serialization.floatToDouble;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.radarcns.kafka.AggregateKey;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.passive.empatica.EmpaticaE4BatteryLevel;
+import org.radarcns.passive.empatica.EmpaticaE4BloodVolumePulse;
+import org.radarcns.passive.empatica.EmpaticaE4ElectroDermalActivity;
+import org.radarcns.passive.empatica.EmpaticaE4InterBeatInterval;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.passive.phone.PhoneAcceleration;
+import org.radarcns.passive.phone.PhoneBatteryLevel;
+import org.radarcns.stream.StreamDefinition;
+import org.radarcns.stream.aggregator.AggregateList;
+import org.radarcns.stream.aggregator.NumericAggregate;
+import org.radarcns.stream.collector.AggregateListCollector;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+import org.radarcns.stream.empatica.E4Streams;
+import org.radarcns.stream.phone.PhoneStreams;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.RadarUtilities;
+
+/**
+ * Aggregation of a sensor topic into windowed aggregates, as computed by the corresponding
+ * {@link org.radarcns.stream.KStreamWorker}. It uses the same stream definitions, collectors and
+ * Avro conversion as the streams, without Kafka.
+ * @param <C> collector type
+ */
+public final class BatchAggregation<C> {
+    private static final Map<String, List<BatchAggregation<?>>> AGGREGATIONS = new HashMap<>();
+
+    static {
+        E4Streams e4 = E4Streams.getInstance();
+        register(fields(e4.getAccelerationStream(), EmpaticaE4Acceleration.getClassSchema(),
+                "x", "y", "z"));
+        register(numeric(e4.getBatteryLevelStream(), EmpaticaE4BatteryLevel.getClassSchema(),
+                "batteryLevel"));
+        register(numeric(e4.getBloodVolumePulseStream(),
+                EmpaticaE4BloodVolumePulse.getClassSchema(), "bloodVolumePulse"));
+        register(numeric(e4.getElectroDermalActivityStream(),
+                EmpaticaE4ElectroDermalActivity.getClassSchema(), "electroDermalActivity"));
+        register(numeric(e4.getInterBeatIntervalStream(),
+                EmpaticaE4InterBeatInterval.getClassSchema(), "interBeatInterval"));
+        register(numeric(e4.getTemperatureStream(), EmpaticaE4Temperature.getClassSchema(),
+                "temperature"));
+        register(customNumeric(e4.getHeartRateStream(),
+                EmpaticaE4InterBeatInterval.getClassSchema(), "heartRate",
+                v -> 60d / floatToDouble(((EmpaticaE4InterBeatInterval) v)
+                        .getInterBeatInterval())));
+
+        PhoneStreams phone = PhoneStreams.getInstance();
+        register(fields(phone.getAccelerationStream(), PhoneAcceleration.getClassSchema(),
+                "x", "y", "z"));
+        register(numeric(phone.getBatteryStream(), PhoneBatteryLevel.getClassSchema(),
+                "batteryLevel"));
+    }
+
+    private final Collection<StreamDefinition> definitions;
+    private final Schema valueSchema;
+    private final Schema outputSchema;
+    private final Supplier<C> collectorFactory;
+    private final BiFunction<C, SpecificRecord, C> adder;
+    private final BiFunction<Windowed<ObservationKey>, C,
+            ? extends KeyValue<AggregateKey, ? extends SpecificRecord>> converter;
+
+    private BatchAggregation(Collection<StreamDefinition> definitions, Schema valueSchema,
+            Schema outputSchema, Supplier<C> collectorFactory,
+            BiFunction<C, SpecificRecord, C> adder,
+            BiFunction<Windowed<ObservationKey>, C,
+                    ? extends KeyValue<AggregateKey, ? extends SpecificRecord>> converter) {
+        this.definitions = definitions;
+        this.valueSchema = valueSchema;
+        this.outputSchema = outputSchema;
+        this.collectorFactory = collectorFactory;
+        this.adder = adder;
+        this.converter = converter;
+    }
+
+    private static void register(BatchAggregation<?> aggregation) {
+        AGGREGATIONS.computeIfAbsent(aggregation.getInputTopic(), t -> new ArrayList<>())
+                .add(aggregation);
+    }
+
+    /**
+     * Aggregations of given input topic.
+     * @throws IllegalArgumentException if the topic has no windowed aggregations.
+     */
+    public static List<BatchAggregation<?>> forTopic(@Nonnull String topic) {
+        List<BatchAggregation<?>> aggregations = AGGREGATIONS.get(topic);
+        if (aggregations == null) {
+            throw new IllegalArgumentException("Topic " + topic + " has no aggregations. Choose"
+                    + " one of " + AGGREGATIONS.keySet());
+        }
+        return Collections.unmodifiableList(aggregations);
+    }
+
+    /** Aggregate a single field, as {@code KStreamWorker#aggregateNumeric}. */
+    static BatchAggregation<NumericAggregateCollector> numeric(
+            Collection<StreamDefinition> definitions, Schema schema, String field) {
+        RadarUtilities utilities = RadarSingletonFactory.getRadarUtilities();
+        return new BatchAggregation<>(definitions, schema, NumericAggregate.getClassSchema(),
+                () -> new NumericAggregateCollector(field, schema),
+                NumericAggregateCollector::add, utilities::numericCollectorToAvro);
+    }
+
+    /** Aggregate a computed value, as {@code KStreamWorker#aggregateCustomNumeric}. */
+    static BatchAggregation<NumericAggregateCollector> customNumeric(
+            Collection<StreamDefinition> definitions, Schema schema, String name,
+            Function<SpecificRecord, Double> calculation) {
+        RadarUtilities utilities = RadarSingletonFactory.getRadarUtilities();
+        return new BatchAggregation<>(definitions, schema, NumericAggregate.getClassSchema(),
+                () -> new NumericAggregateCollector(name),
+                (collector, value) -> collector.add(calculation.apply(value)),
+                utilities::numericCollectorToAvro);
+    }
+
+    /** Aggregate multiple fields, as {@code KStreamWorker#aggregateFields}. */
+    static BatchAggregation<AggregateListCollector> fields(
+            Collection<StreamDefinition> definitions, Schema schema, String... fields) {
+        RadarUtilities utilities = RadarSingletonFactory.getRadarUtilities();
+        return new BatchAggregation<>(definitions, schema, AggregateList.getClassSchema(),
+                () -> new AggregateListCollector(fields, schema),
+                AggregateListCollector::add, utilities::listCollectorToAvro);
+    }
+
+    public String getInputTopic() {
+        return definitions.iterator().next().getInputTopic().getName();
+    }
+
+    /** Stream definitions, one per window size. */
+    public Collection<StreamDefinition> getDefinitions() {
+        return definitions;
+    }
+
+    /** Schema of the input values. */
+    public Schema getValueSchema() {
+        return valueSchema;
+    }
+
+    /** Schema of the aggregate values. */
+    public Schema getOutputSchema() {
+        return outputSchema;
+    }
+
+    C createCollector() {
+        return collectorFactory.get();
+    }
+
+    C add(C collector, SpecificRecord value) {
+        return adder.apply(collector, value);
+    }
+
+    KeyValue<AggregateKey, ? extends SpecificRecord> toAvro(
+            Windowed<ObservationKey> window, C collector) {
+        return converter.apply(window, collector);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.kstream.Window;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.radarcns.kafka.AggregateKey;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.stream.StreamDefinition;
+import org.radarcns.util.RadarSingletonFactory;
+import org.radarcns.util.metrics.MetricGroup;
+
+/**
+ * Aggregates the records of a group of files into the windows of all stream definitions of a
+ * topic. Records are assigned to windows by their {@code timeReceived}, as by the
+ * {@link org.radarcns.stream.DeviceTimestampExtractor}. A window is written once the latest
+ * record time has passed its start by more than the window retention, like windows expire in the
+ * streams. Records that fall in an expired window are dropped and counted as late, so files
+ * should be read in order of time.
+ *
+ * <p>Aggregates are written to {@code <output>/<output topic>/<part>.avro} as records with
+ * {@code key} and {@code value} fields. An aggregator is not thread-safe.
+ */
+class BatchAggregator implements Closeable {
+    private final List<WindowState<?>> states;
+    private final Path outputDirectory;
+    private final String part;
+    private final Schema valueSchema;
+
+    /**
+     * Aggregator for the files of one group.
+     * @param aggregations aggregations of a single input topic.
+     * @param outputDirectory base directory to write aggregates to.
+     * @param part file name of the output files of this group, without extension.
+     */
+    BatchAggregator(@Nonnull List<BatchAggregation<?>> aggregations,
+            @Nonnull Path outputDirectory, @Nonnull String part) {
+        this.outputDirectory = outputDirectory;
+        this.part = part;
+        this.valueSchema = aggregations.get(0).getValueSchema();
+        this.states = new ArrayList<>();
+        for (BatchAggregation<?> aggregation : aggregations) {
+            for (StreamDefinition definition : aggregation.getDefinitions()) {
+                states.add(new WindowState<>(aggregation, definition));
+            }
+        }
+    }
+
+    /**
+     * Aggregate all records of given files, in order.
+     * @param files files to read.
+     * @param isRunning whether to continue reading.
+     * @return number of records read.
+     * @throws IOException if a file cannot be read or the output cannot be written.
+     */
+    long aggregate(@Nonnull List<Path> files, @Nonnull BooleanSupplier isRunning)
+            throws IOException {
+        long count = 0;
+        for (Path file : files) {
+            try (RecordReader reader = RecordReader.open(file, valueSchema)) {
+                while (isRunning.getAsBoolean() && reader.next()) {
+                    SpecificRecord value = reader.getValue();
+                    long time = (long) (1000d * (Double) value.get(
+                            valueSchema.getField("timeReceived").pos()));
+                    for (WindowState<?> state : states) {
+                        state.add(reader.getKey(), value, time);
+                    }
+                    count++;
+                }
+            }
+        }
+        for (WindowState<?> state : states) {
+            state.records.add(count);
+        }
+        return count;
+    }
+
+    /** Write all remaining windows and close the output files. */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (WindowState<?> state : states) {
+            try {
+                state.close();
+            } catch (IOException ex) {
+                exception = ex;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /** Open windows and output of a single stream definition. */
+    private class WindowState<C> {
+        private final BatchAggregation<C> aggregation;
+        private final String outputTopic;
+        private final TimeWindows windows;
+        private final long retention;
+        private final TreeMap<Long, WindowCollectors<C>> open;
+        private final LongAdder records;
+        private final LongAdder late;
+        private final LongAdder written;
+        private long streamTime;
+        private DataFileWriter<GenericRecord> writer;
+        private GenericRecord outputRecord;
+
+        private WindowState(BatchAggregation<C> aggregation, StreamDefinition definition) {
+            this.aggregation = aggregation;
+            this.outputTopic = definition.getOutputTopic().getName();
+            this.windows = definition.getTimeWindows();
+            this.retention = windows.maintainMs();
+            this.open = new TreeMap<>();
+            this.streamTime = Long.MIN_VALUE;
+            MetricGroup metrics = RadarSingletonFactory.getMetricsRegistry()
+                    .group("aggregate", outputTopic);
+            this.records = metrics.counter("records");
+            this.late = metrics.counter("late");
+            this.written = metrics.counter("windows");
+        }
+
+        private void add(ObservationKey key, SpecificRecord value, long time) throws IOException {
+            streamTime = Math.max(streamTime, time);
+            long expiry = streamTime - retention;
+            for (Map.Entry<Long, ? extends Window> entry : windows.windowsFor(time).entrySet()) {
+                if (entry.getKey() < expiry) {
+                    late.increment();
+                    continue;
+                }
+                WindowCollectors<C> window = open.computeIfAbsent(entry.getKey(),
+                        start -> new WindowCollectors<>(entry.getValue()));
+                C collector = window.collectors.get(key);
+                if (collector == null) {
+                    collector = aggregation.createCollector();
+                }
+                window.collectors.put(key, aggregation.add(collector, value));
+            }
+
+            Iterator<WindowCollectors<C>> expired = open.headMap(expiry).values().iterator();
+            while (expired.hasNext()) {
+                write(expired.next());
+                expired.remove();
+            }
+        }
+
+        private void write(WindowCollectors<C> window) throws IOException {
+            if (writer == null) {
+                Schema outputSchema = Schema.createRecord("AggregateRecord",
+                        "Aggregate with its key", BatchAggregator.class.getPackage().getName(),
+                        false, Arrays.asList(
+                                new Field("key", AggregateKey.getClassSchema(), null,
+                                        (Object) null),
+                                new Field("value", aggregation.getOutputSchema(), null,
+                                        (Object) null)));
+                Path directory = outputDirectory.resolve(outputTopic);
+                Files.createDirectories(directory);
+                writer = new DataFileWriter<GenericRecord>(new SpecificDatumWriter<>(outputSchema))
+                        .setCodec(CodecFactory.deflateCodec(6))
+                        .create(outputSchema, directory.resolve(part + ".avro").toFile());
+                outputRecord = new GenericData.Record(outputSchema);
+            }
+            for (Map.Entry<ObservationKey, C> entry : window.collectors.entrySet()) {
+                KeyValue<AggregateKey, ? extends SpecificRecord> aggregate = aggregation.toAvro(
+                        new Windowed<>(entry.getKey(), window.window), entry.getValue());
+                outputRecord.put(0, aggregate.key);
+                outputRecord.put(1, aggregate.value);
+                writer.append(outputRecord);
+            }
+            written.add(window.collectors.size());
+        }
+
+        private void close() throws IOException {
+            try {
+                for (WindowCollectors<C> window : open.values()) {
+                    write(window);
+                }
+                open.clear();
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    /** Collectors of all keys in a single window. */
+    private static class WindowCollectors<C> {
+        private final Window window;
+        private final Map<ObservationKey, C> collectors;
+
+        private WindowCollectors(Window window) {
+            this.window = window;
+            this.collectors = new HashMap<>();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+import org.radarcns.kafka.ObservationKey;
+
+/**
+ * Reads records from a CSV file with a header of {@code key.*} and {@code value.*} columns, as
+ * written by the HDFS restructure tool. Value columns are matched to the fields of the topic
+ * value schema by name. Files ending with {@code .gz} are decompressed.
+ */
+class CsvRecordReader implements RecordReader {
+    private final BufferedReader reader;
+    private final Schema valueSchema;
+    private final int[] keyColumns;
+    private final int[] valueColumns;
+    private final List<String> columns;
+    private ObservationKey key;
+    private SpecificRecord value;
+
+    CsvRecordReader(@Nonnull Path path, @Nonnull Schema valueSchema) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (path.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.valueSchema = valueSchema;
+        this.columns = new ArrayList<>();
+
+        String header = reader.readLine();
+        if (header == null) {
+            reader.close();
+            throw new IOException("File " + path + " is empty");
+        }
+        List<String> names = new ArrayList<>();
+        split(header, names);
+
+        keyColumns = new int[] {
+                names.indexOf("key.projectId"),
+                names.indexOf("key.userId"),
+                names.indexOf("key.sourceId")};
+        List<Field> fields = valueSchema.getFields();
+        valueColumns = new int[fields.size()];
+        for (Field field : fields) {
+            valueColumns[field.pos()] = names.indexOf("value." + field.name());
+        }
+        if (keyColumns[1] == -1 || keyColumns[2] == -1) {
+            reader.close();
+            throw new IOException("File " + path + " has no key.userId and key.sourceId columns");
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+        } while (line.isEmpty());
+
+        split(line, columns);
+        key = new ObservationKey(column(keyColumns[0]), column(keyColumns[1]),
+                column(keyColumns[2]));
+        value = (SpecificRecord) SpecificData.get().newRecord(null, valueSchema);
+        for (Field field : valueSchema.getFields()) {
+            String text = column(valueColumns[field.pos()]);
+            value.put(field.pos(), text == null ? null : parse(field.schema(), text));
+        }
+        return true;
+    }
+
+    /** Column value, or null if the column is missing or empty. */
+    private String column(int index) {
+        if (index < 0 || index >= columns.size()) {
+            return null;
+        }
+        String text = columns.get(index);
+        return text.isEmpty() ? null : text;
+    }
+
+    /** Parse a value of given schema. */
+    private static Object parse(Schema schema, String text) {
+        switch (schema.getType()) {
+            case UNION:
+                for (Schema type : schema.getTypes()) {
+                    if (type.getType() != Schema.Type.NULL) {
+                        return parse(type, text);
+                    }
+                }
+                return null;
+            case FLOAT:
+                return Float.parseFloat(text);
+            case DOUBLE:
+                return Double.parseDouble(text);
+            case INT:
+                return Integer.parseInt(text);
+            case LONG:
+                return Long.parseLong(text);
+            case BOOLEAN:
+                return Boolean.parseBoolean(text);
+            case STRING:
+                return text;
+            case ENUM:
+                return SpecificData.get().createEnum(text, schema);
+            default:
+                throw new IllegalArgumentException("Cannot read " + schema.getType()
+                        + " values from CSV");
+        }
+    }
+
+    /** Split a CSV line into columns, removing quotes. */
+    static void split(String line, List<String> result) {
+        result.clear();
+        StringBuilder column = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (isQuoted) {
+                if (c != '"') {
+                    column.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    column.append('"');
+                    i++;
+                } else {
+                    isQuoted = false;
+                }
+            } else if (c == '"') {
+                isQuoted = true;
+            } else if (c == ',') {
+                result.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        result.add(column.toString());
+    }
+
+    @Override
+    public ObservationKey getKey() {
+        return key;
+    }
+
+    @Override
+    public SpecificRecord getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificRecord;
+import org.radarcns.kafka.ObservationKey;
+
+/** Reads the records of a sensor topic from a file. */
+public interface RecordReader extends Closeable {
+    /**
+     * Read the next record.
+     * @return whether a record was read.
+     * @throws IOException if the file cannot be read.
+     */
+    boolean next() throws IOException;
+
+    /** Key of the current record. */
+    ObservationKey getKey();
+
+    /** Value of the current record. */
+    SpecificRecord getValue();
+
+    /** Whether given file can be read, based on its extension. */
+    static boolean isSupported(@Nonnull Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".avro") || name.endsWith(".csv") || name.endsWith(".csv.gz");
+    }
+
+    /**
+     * Open a reader for an Avro container file with {@code key} and {@code value} fields, as
+     * written by the HDFS connector, or a CSV file with {@code key.*} and {@code value.*}
+     * columns, optionally gzipped.
+     * @param path file to read.
+     * @param valueSchema schema of the values of the topic.
+     * @throws IOException if the file cannot be opened or does not match the topic.
+     */
+    static RecordReader open(@Nonnull Path path, @Nonnull Schema valueSchema) throws IOException {
+        if (path.getFileName().toString().endsWith(".avro")) {
+            return new AvroRecordReader(path, valueSchema);
+        } else {
+            return new CsvRecordReader(path, valueSchema);
+        }
+    }
+}
@@ -17,12 +17,18 @@
 package org.radarcns.stream.empatica;
 
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.radarcns.stream.GeneralStreamGroup;
 import org.radarcns.stream.StreamDefinition;
+import org.radarcns.stream.TimeWindowMetadata;
 
 /**
- * Singleton class representing the list of Empatica E4 topics
+ * Singleton class representing the list of Empatica E4 topics. The time windows of each sensor
+ * topic can be declared in the configuration, see
+ * {@link GeneralStreamGroup#getTimeWindowsForTopic(String)}, so the configuration must be loaded
+ * before the instance is first accessed.
  */
 public final class E4Streams extends GeneralStreamGroup {
     private static final E4Streams INSTANCE = new E4Streams();
@@ -56,9 +62,18 @@ public final class E4Streams extends GeneralStreamGroup {
         temperatureStream = createWindowedSensorStream(
                 "android_empatica_e4_temperature");
 
-        heartRateStream = createWindowedSensorStream(
+        // rolling hourly heart rate, updated every minute, if hourly windows are declared
+        List<StreamDefinition> heartRate = new ArrayList<>(createWindowedSensorStream(
                 "android_empatica_e4_inter_beat_interval",
-                "android_empatica_e4_heart_rate");
+                "android_empatica_e4_heart_rate"));
+        if (getTimeWindowsForTopic("android_empatica_e4_inter_beat_interval")
+                .contains(TimeWindowMetadata.ONE_HOUR)) {
+            heartRate.add(createSlidingSensorStream(
+                    "android_empatica_e4_inter_beat_interval",
+                    "android_empatica_e4_heart_rate",
+                    TimeWindowMetadata.ONE_HOUR, TimeWindowMetadata.ONE_MIN));
+        }
+        heartRateStream = heartRate;
     }
 
     public Collection<StreamDefinition> getAccelerationStream() {
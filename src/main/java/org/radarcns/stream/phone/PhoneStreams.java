@@ -21,6 +21,12 @@ import java.util.concurrent.TimeUnit;
 import org.radarcns.stream.GeneralStreamGroup;
 import org.radarcns.stream.StreamDefinition;
 
+/**
+ * Singleton class representing the list of phone topics. The time windows of each sensor topic
+ * can be declared in the configuration, see
+ * {@link GeneralStreamGroup#getTimeWindowsForTopic(String)}, so the configuration must be loaded
+ * before the instance is first accessed.
+ */
 public final class PhoneStreams extends GeneralStreamGroup {
     private static final PhoneStreams INSTANCE = new PhoneStreams();
 
@@ -30,6 +30,8 @@ public class PhoneUsageAggregationStream extends KStreamWorker<ObservationKey, P
     protected KStream<AggregateKey, PhoneUsageAggregate> implementStream(
             StreamDefinition definition,
             @Nonnull KStream<ObservationKey, PhoneUsageEvent> kstream) {
+        setStateFormat(definition, definition.getStateStoreName(),
+                RadarSerdes.PHONE_USAGE_COLLECTOR_FORMAT);
         return kstream.groupBy(PhoneUsageAggregationStream::temporaryKey)
                 .aggregate(
                         PhoneUsageCollector::new,
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.statistics;
+
+import static io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG;
+import static org.apache.kafka.streams.KeyValue.pair;
+
+import io.confluent.kafka.streams.serdes.avro.GenericAvroSerde;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.annotation.Nonnull;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.streams.Consumed;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Materialized;
+import org.apache.kafka.streams.processor.WallclockTimestampExtractor;
+import org.apache.kafka.streams.state.Stores;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.SourceStatisticsMonitorConfig;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.stream.BatchingTransformer;
+import org.radarcns.stream.KStreamWorker;
+import org.radarcns.stream.SourceStatistics;
+import org.radarcns.stream.StreamDefinition;
+import org.radarcns.stream.StreamMaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the first and last time that each source was seen in a set of topics. The statistics
+ * are kept in a RocksDB-backed KTable with a changelog, so they survive restarts and can be
+ * spread over multiple instances. Updates are forwarded to the output topic in batches, at most
+ * every {@code flush_timeout} milliseconds or when {@code max_batch_size} sources have changed.
+ */
+public class SourceStatisticsStream extends KStreamWorker<ObservationKey, SourceStatistics> {
+    private static final Logger logger = LoggerFactory.getLogger(SourceStatisticsStream.class);
+
+    private final SourceStatisticsMonitorConfig config;
+    private final String schemaRegistryUrl;
+
+    public SourceStatisticsStream(Collection<StreamDefinition> definitions, int numThread,
+            StreamMaster master, RadarPropertyHandler properties,
+            SourceStatisticsMonitorConfig config) {
+        super(definitions, numThread, master, properties, logger);
+        this.config = config;
+        this.schemaRegistryUrl = properties.getRadarProperties().getSchemaRegistryPaths();
+    }
+
+    /**
+     * Reads all configured topics with generic Avro serdes and extracts the source statistics
+     * of each record. Records without a valid key or without time values are dropped. The store
+     * used for batching updates is registered with the builder as well.
+     */
+    @Override
+    protected KStream<ObservationKey, SourceStatistics> createInputStream(
+            @Nonnull StreamsBuilder builder, @Nonnull StreamDefinition definition) {
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(getBatchStoreName(definition)), null, null));
+
+        GenericAvroSerde keySerde = new GenericAvroSerde();
+        keySerde.configure(Collections.singletonMap(SCHEMA_REGISTRY_URL_CONFIG,
+                schemaRegistryUrl), true);
+        GenericAvroSerde valueSerde = new GenericAvroSerde();
+        valueSerde.configure(Collections.singletonMap(SCHEMA_REGISTRY_URL_CONFIG,
+                schemaRegistryUrl), false);
+
+        return builder.stream(config.getTopics(), Consumed.with(keySerde, valueSerde,
+                new WallclockTimestampExtractor(), null))
+                .flatMap(SourceStatisticsStream::toStatistics);
+    }
+
+    @Override
+    protected KStream<ObservationKey, SourceStatistics> implementStream(
+            StreamDefinition definition,
+            @Nonnull KStream<ObservationKey, SourceStatistics> kstream) {
+        String batchStore = getBatchStoreName(definition);
+        int maxBatchSize = config.getMaxBatchSize();
+        long flushTimeout = config.getFlushTimeout();
+
+        return kstream.groupByKey()
+                .reduce(SourceStatisticsStream::merge,
+                        Materialized.as(definition.getStateStoreName()))
+                .toStream()
+                .transform(() -> new BatchingTransformer<>(
+                        batchStore, maxBatchSize, flushTimeout), batchStore);
+    }
+
+    /**
+     * Uses a stable application ID per output topic, so that multiple statistics streams do not
+     * share state. The commit interval is set by {@link KStreamWorker} from the commit interval
+     * of the definition, which is the flush timeout, randomized by up to 25%. Independently of
+     * commits, the {@link BatchingTransformer} forwards its batch every flush timeout in
+     * wall-clock time, or earlier when the batch is full.
+     */
+    @Override
+    protected Properties getStreamProperties(@Nonnull StreamDefinition definition) {
+        Properties props = super.getStreamProperties(definition);
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG,
+                getClass().getName() + "-" + definition.getOutputTopic().getName());
+        return props;
+    }
+
+    /**
+     * Reports all configured topics as input of the application, instead of only the input
+     * topic of the stream definition.
+     */
+    @Override
+    public Map<String, Collection<String>> getApplicationTopics() {
+        Map<String, Collection<String>> applicationTopics = super.getApplicationTopics();
+        applicationTopics.values().forEach(topics -> topics.addAll(config.getTopics()));
+        return applicationTopics;
+    }
+
+    /** Merge two statistics into the earliest start time and the latest end time. */
+    static SourceStatistics merge(SourceStatistics first, SourceStatistics second) {
+        return new SourceStatistics(
+                Math.min(first.getTimeStart(), second.getTimeStart()),
+                Math.max(first.getTimeEnd(), second.getTimeEnd()));
+    }
+
+    /**
+     * Extract the source statistics of a single record. A key {@code timeStart} and
+     * {@code timeEnd} take precedence over the value {@code timeReceived}, which takes precedence
+     * over the value {@code time}.
+     * @return a list with a single statistics entry or an empty list if the record is invalid.
+     */
+    static List<KeyValue<ObservationKey, SourceStatistics>> toStatistics(
+            GenericRecord key, GenericRecord value) {
+        if (key == null || value == null) {
+            logger.error("Cannot process records without both a key and a value");
+            return Collections.emptyList();
+        }
+        Schema keySchema = key.getSchema();
+        ObservationKey newKey;
+        try {
+            newKey = extractKey(key, keySchema);
+        } catch (IllegalArgumentException ex) {
+            logger.error("Could not deserialize key without projectId, userId or sourceId: {}",
+                    key);
+            return Collections.emptyList();
+        }
+
+        Schema valueSchema = value.getSchema();
+        double time = getTime(value, valueSchema, "time", Double.NaN);
+        time = getTime(value, valueSchema, "timeReceived", time);
+        double start = getTime(key, keySchema, "timeStart", time);
+        double end = getTime(key, keySchema, "timeEnd", time);
+
+        if (Double.isNaN(start) || Double.isNaN(end)) {
+            logger.error("Record did not contain time values: <{}, {}>", key, value);
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(pair(newKey, new SourceStatistics(start, end)));
+    }
+
+    private static ObservationKey extractKey(GenericRecord record, Schema schema) {
+        Field projectIdField = schema.getField("projectId");
+        Field userIdField = schema.getField("userId");
+        Field sourceIdField = schema.getField("sourceId");
+        if (projectIdField == null || userIdField == null || sourceIdField == null) {
+            throw new IllegalArgumentException("Failed to process record with key type "
+                    + schema + " without project ID, user ID or source ID.");
+        }
+        Object projectIdValue = record.get(projectIdField.pos());
+        return new ObservationKey(
+                projectIdValue != null ? projectIdValue.toString() : null,
+                record.get(userIdField.pos()).toString(),
+                record.get(sourceIdField.pos()).toString());
+    }
+
+    private static double getTime(GenericRecord record, Schema schema, String fieldName,
+            double defaultValue) {
+        Field field = schema.getField(fieldName);
+        if (field != null) {
+            return ((Number) record.get(field.pos())).doubleValue();
+        } else {
+            return defaultValue;
+        }
+    }
+
+    private static String getBatchStoreName(StreamDefinition definition) {
+        return definition.getStateStoreName() + "-batch";
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.statistics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import org.radarcns.config.SourceStatisticsMonitorConfig;
+import org.radarcns.stream.GeneralStreamGroup;
+import org.radarcns.stream.StreamDefinition;
+import org.radarcns.topic.KafkaTopic;
+
+/**
+ * Stream definitions of the source statistics streams, one for each configured statistics
+ * monitor. The first configured topic acts as the nominal input topic of a definition.
+ */
+public class SourceStatisticsStreamGroup extends GeneralStreamGroup {
+    private final Map<SourceStatisticsMonitorConfig, Collection<StreamDefinition>> definitions;
+
+    /** Create stream definitions for given source statistics configurations. */
+    public SourceStatisticsStreamGroup(@Nonnull List<SourceStatisticsMonitorConfig> configs) {
+        definitions = new LinkedHashMap<>();
+        for (SourceStatisticsMonitorConfig config : configs) {
+            if (config.getTopics() == null || config.getTopics().isEmpty()) {
+                throw new IllegalArgumentException("Source statistics " + config.getName()
+                        + " must specify at least one topic");
+            }
+            addTopicNames(config.getTopics());
+            addTopicName(config.getOutputTopic());
+            definitions.put(config, Collections.singleton(new StreamDefinition(
+                    new KafkaTopic(config.getTopics().get(0)),
+                    new KafkaTopic(config.getOutputTopic()),
+                    0L, config.getFlushTimeout())));
+        }
+    }
+
+    public Collection<StreamDefinition> getStatisticsStream(
+            @Nonnull SourceStatisticsMonitorConfig config) {
+        Collection<StreamDefinition> result = definitions.get(config);
+        if (result == null) {
+            throw new IllegalArgumentException("Source statistics " + config.getName()
+                    + " unknown");
+        }
+        return result;
+    }
+}
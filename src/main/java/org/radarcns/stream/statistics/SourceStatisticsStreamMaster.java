@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.statistics;
+
+import java.util.Collections;
+import java.util.List;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.SourceStatisticsMonitorConfig;
+import org.radarcns.stream.StreamMaster;
+import org.radarcns.stream.StreamWorker;
+import org.radarcns.util.RadarSingletonFactory;
+
+/**
+ * StreamMaster for source statistics. It starts one stream for each entry in the
+ * {@code statistics_monitors} configuration.
+ * @see StreamMaster
+ */
+public class SourceStatisticsStreamMaster extends StreamMaster {
+    private SourceStatisticsStreamGroup streamGroup;
+
+    @Override
+    protected synchronized SourceStatisticsStreamGroup getStreamGroup() {
+        if (streamGroup == null) {
+            streamGroup = new SourceStatisticsStreamGroup(getConfigs());
+        }
+        return streamGroup;
+    }
+
+    @Override
+    protected void createWorkers(List<StreamWorker> list, StreamMaster master) {
+        RadarPropertyHandler propertyHandler = RadarSingletonFactory.getRadarPropertyHandler();
+        SourceStatisticsStreamGroup defs = getStreamGroup();
+        for (SourceStatisticsMonitorConfig config : getConfigs()) {
+            list.add(new SourceStatisticsStream(defs.getStatisticsStream(config),
+                    lowPriority(), master, propertyHandler, config));
+        }
+    }
+
+    private static List<SourceStatisticsMonitorConfig> getConfigs() {
+        List<SourceStatisticsMonitorConfig> configs = RadarSingletonFactory
+                .getRadarPropertyHandler().getRadarProperties().getStatisticsMonitors();
+        return configs != null ? configs : Collections.emptyList();
+    }
+}
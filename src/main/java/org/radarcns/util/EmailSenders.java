@@ -4,6 +4,7 @@ import org.radarcns.config.MonitorConfig;
 import org.radarcns.config.NotifyConfig;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -45,4 +46,9 @@ public class EmailSenders {
         return emailSenderMap.get(projectId);
     }
 
+    /** Email senders of all projects. */
+    public Collection<EmailSender> getEmailSenders() {
+        return emailSenderMap.values();
+    }
+
 }
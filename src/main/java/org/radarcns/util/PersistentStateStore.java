@@ -27,6 +27,16 @@ public interface PersistentStateStore {
      */
     void storeState(String groupId, String clientId, Object value) throws IOException;
 
+    /**
+     * Append a value to the archive of a consumer or producer. Archived values are not
+     * retrieved again by the application.
+     * @param groupId Kafka group ID of a consumer or producer.
+     * @param clientId Kafka client ID of a consumer or producer.
+     * @param value value to archive.
+     * @throws IOException if the value cannot be serialized or persisted.
+     */
+    void archiveState(String groupId, String clientId, Object value) throws IOException;
+
     /**
      * Uniquely and efficiently serializes an observation key. It can be deserialized with
      * {@link #stringToKey(String)}.
@@ -18,6 +18,7 @@ package org.radarcns.util;
 
 import org.radarcns.config.RadarPropertyHandler;
 import org.radarcns.config.RadarPropertyHandlerImpl;
+import org.radarcns.util.metrics.MetricsRegistry;
 
 /**
  * SingletonFactory of RadarBackend project. This factory composites all singleton objects that need
@@ -29,6 +30,8 @@ public final class RadarSingletonFactory {
 
     private static RadarPropertyHandler propertyHandler;
 
+    private static MetricsRegistry metricsRegistry;
+
     private static final Object SYNC_OBJECT = new Object();
 
     private RadarSingletonFactory() {
@@ -63,4 +66,18 @@ public final class RadarSingletonFactory {
         }
     }
 
+    /**
+     * Returns the singleton object of MetricsRegistry
+     *
+     * @return a MetricsRegistry object
+     */
+    public static MetricsRegistry getMetricsRegistry() {
+        synchronized (SYNC_OBJECT) {
+            if (metricsRegistry == null) {
+                metricsRegistry = new MetricsRegistry();
+            }
+            return metricsRegistry;
+        }
+    }
+
 }
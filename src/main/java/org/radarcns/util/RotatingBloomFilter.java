@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.util;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter of two generations, for approximate membership tests over a bounded horizon.
+ * Hashes are added to the current generation and looked up in both; {@link #rotate()} drops the
+ * previous generation and starts a new one. Each generation is sized for given number of
+ * hashes at half the false positive rate, so that a lookup in both generations stays within
+ * the false positive rate as long as no generation exceeds its capacity. Not thread-safe.
+ */
+public class RotatingBloomFilter {
+    private final int numBits;
+    private final int numHashes;
+    private final long capacity;
+    private long[] current;
+    private long[] previous;
+    private long size;
+
+    /**
+     * Rotating Bloom filter.
+     * @param capacity expected number of hashes per generation.
+     * @param falsePositiveRate false positive rate of a lookup, between 0 and 1.
+     * @throws IllegalArgumentException if the capacity or false positive rate are invalid.
+     */
+    public RotatingBloomFilter(long capacity, double falsePositiveRate) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Bloom filter capacity must be positive");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate / 2) / (ln2 * ln2));
+        if (bits > Integer.MAX_VALUE - 63) {
+            throw new IllegalArgumentException("Bloom filter of " + capacity
+                    + " hashes is too large");
+        }
+        this.numBits = (int) Math.max(64, bits);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * ln2));
+        this.capacity = capacity;
+        this.current = new long[(numBits + 63) / 64];
+        this.previous = new long[current.length];
+        this.size = 0;
+    }
+
+    /**
+     * Add a hash to the current generation.
+     * @return whether the hash was possibly added before, in either generation.
+     */
+    public boolean put(long hash) {
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            int combined = hash1 + i * hash2;
+            int bit = (combined & Integer.MAX_VALUE) % numBits;
+            int index = bit >>> 6;
+            long mask = 1L << bit;
+            if ((current[index] & mask) == 0) {
+                inCurrent = false;
+                current[index] |= mask;
+            }
+            inPrevious &= (previous[index] & mask) != 0;
+        }
+        if (!inCurrent) {
+            size++;
+        }
+        return inCurrent || inPrevious;
+    }
+
+    /** Drop the previous generation and start a new, empty one. */
+    public void rotate() {
+        long[] oldest = previous;
+        previous = current;
+        Arrays.fill(oldest, 0L);
+        current = oldest;
+        size = 0;
+    }
+
+    /** Number of distinct hashes that were added to the current generation. */
+    public long size() {
+        return size;
+    }
+
+    /** Whether the current generation holds its expected number of hashes. */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /** Number of bytes of both generations. */
+    public long sizeInBytes() {
+        return 16L * current.length;
+    }
+
+    /**
+     * 64-bit hash of a 32-bit and a 64-bit value, mixed with the finalizer of MurmurHash3 so
+     * that both halves are usable as independent hashes.
+     */
+    public static long hash(int first, long second) {
+        long hash = second * 0x9E3779B97F4A7C15L + first;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -19,13 +19,17 @@ package org.radarcns.util;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import org.radarcns.config.YamlConfigLoader;
 import org.radarcns.kafka.ObservationKey;
 
 /**
  * Store a state for a Kafka consumer. This uses a file storage, storing files to YAML format. It
  * uses Jackson for serialization and deserialization, so state objects must be serializable and
- * deserializable with this mechanism.
+ * deserializable with this mechanism. Archived values are appended as separate YAML documents
+ * to a single archive file per consumer.
  */
 public class YamlPersistentStateStore implements PersistentStateStore {
     private final File basePath;
@@ -89,6 +93,15 @@ public class YamlPersistentStateStore implements PersistentStateStore {
         loader.store(getFile(groupId, clientId), value);
     }
 
+    @Override
+    public void archiveState(String groupId, String clientId, Object value) throws IOException {
+        File archiveFile = new File(basePath, groupId + "_" + clientId + ".archive.yml");
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(archiveFile, true), StandardCharsets.UTF_8)) {
+            writer.write(loader.prettyString(value));
+        }
+    }
+
     /** File for given consumer. */
     private File getFile(String groupId, String clientId) {
         return new File(basePath, groupId + "_" + clientId + ".yml");
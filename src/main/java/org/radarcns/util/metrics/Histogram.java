@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative long values with log-linear buckets, in the style of HdrHistogram.
+ * Values below {@code 2^precisionBits} are counted exactly; larger values are counted in buckets
+ * with a relative width of at most {@code 2^(1 - precisionBits)}. Recording a value is lock-free
+ * and uses a constant amount of memory, so it is safe to use on hot paths.
+ */
+public class Histogram {
+    /** Default precision, giving a relative error of at most about 6%. */
+    public static final int DEFAULT_PRECISION_BITS = 5;
+
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final int halfSubBucketCount;
+    private final AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final AtomicLong max;
+
+    /** Histogram with the default precision. */
+    public Histogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Histogram with given precision.
+     * @param precisionBits number of bits of each value that are retained, between 1 and 16.
+     */
+    public Histogram(int precisionBits) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("Histogram precision must be between 1 and 16 bits");
+        }
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.halfSubBucketCount = subBucketCount / 2;
+        // the highest bit of a positive long is bit 62
+        this.counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong(0L);
+    }
+
+    /** Record a single value. Negative values are recorded as 0. */
+    public void record(long value) {
+        long positiveValue = Math.max(value, 0L);
+        counts.incrementAndGet(index(positiveValue));
+        count.increment();
+        sum.add(positiveValue);
+        max.accumulateAndGet(positiveValue, Math::max);
+    }
+
+    /** Number of values recorded. */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Largest value recorded, or 0 if none was recorded. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Mean of the values recorded, or 0 if none was recorded. */
+    public double getMean() {
+        long numValues = count.sum();
+        return numValues == 0 ? 0.0 : (double) sum.sum() / numValues;
+    }
+
+    /**
+     * Value at given percentile. The highest value that is equivalent to the actual value within
+     * the precision of this histogram is returned.
+     * @param percentile percentile between 0 and 100.
+     * @return value at percentile, or 0 if no values were recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long numValues = count.sum();
+        if (numValues == 0) {
+            return 0L;
+        }
+        long threshold = Math.max(1L, (long) Math.ceil(
+                Math.min(Math.max(percentile, 0.0), 100.0) / 100.0 * numValues));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= threshold) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Values recorded since an earlier copy of this histogram, as a new histogram. With a null
+     * argument, this is a copy of all values recorded so far. The maximum of the result is only
+     * known within the precision of the histogram. Values recorded concurrently may be partially
+     * included.
+     * @param earlier histogram previously returned by this method, or null.
+     */
+    public Histogram since(Histogram earlier) {
+        if (earlier != null && earlier.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("Histograms must have the same precision");
+        }
+        Histogram interval = new Histogram(precisionBits);
+        int highest = -1;
+        for (int i = 0; i < counts.length(); i++) {
+            long numValues = counts.get(i) - (earlier != null ? earlier.counts.get(i) : 0L);
+            if (numValues > 0) {
+                interval.counts.set(i, numValues);
+                interval.count.add(numValues);
+                highest = i;
+            }
+        }
+        interval.sum.add(sum.sum() - (earlier != null ? earlier.sum.sum() : 0L));
+        if (highest >= 0) {
+            interval.max.set(Math.min(highestEquivalentValue(highest), getMax()));
+        }
+        return interval;
+    }
+
+    /** Clear all recorded values. Values recorded concurrently may be partially cleared. */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0L);
+    }
+
+    /** Bucket index of given non-negative value. */
+    private int index(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+        int subBucket = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * halfSubBucketCount + subBucket - halfSubBucketCount;
+    }
+
+    /** Highest value that maps to given bucket index. */
+    private long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int offset = index - subBucketCount;
+        int shift = offset / halfSubBucketCount + 1;
+        long subBucket = offset % halfSubBucketCount + halfSubBucketCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a single stream or monitor. Metrics are created on first use and are identified by
+ * name within the group.
+ */
+public class MetricGroup {
+    private static final Logger logger = LoggerFactory.getLogger(MetricGroup.class);
+
+    /** Percentiles that are reported for each histogram. */
+    private static final double[] PERCENTILES = {50.0, 95.0, 99.0, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p95", "p99", "p999"};
+
+    private final String type;
+    private final String name;
+    private final ConcurrentMap<String, LongAdder> counters;
+    private final ConcurrentMap<String, Histogram> histograms;
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges;
+    private final ConcurrentMap<String, Supplier<Map<MetricName, ? extends Metric>>> kafkaMetrics;
+
+    MetricGroup(@Nonnull String type, @Nonnull String name) {
+        this.type = type;
+        this.name = name;
+        this.counters = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+        this.kafkaMetrics = new ConcurrentHashMap<>();
+    }
+
+    /** Type of component, for example stream or monitor. */
+    public String getType() {
+        return type;
+    }
+
+    /** Name of the component. */
+    public String getName() {
+        return name;
+    }
+
+    /** Counter with given name. */
+    public LongAdder counter(@Nonnull String metric) {
+        return counters.computeIfAbsent(metric, m -> new LongAdder());
+    }
+
+    /** Histogram with given name. */
+    public Histogram histogram(@Nonnull String metric) {
+        return histograms.computeIfAbsent(metric, m -> new Histogram());
+    }
+
+    /** Register a gauge with given name, replacing any existing gauge of that name. */
+    public void gauge(@Nonnull String metric, @Nonnull Supplier<? extends Number> gauge) {
+        gauges.put(metric, gauge);
+    }
+
+    /**
+     * Expose the metrics of a Kafka client, replacing any client metrics registered with the
+     * same prefix.
+     * @param prefix prefix of the metric names.
+     * @param metrics supplier of the client metrics, for example {@code consumer::metrics}.
+     */
+    public void kafkaMetrics(@Nonnull String prefix,
+            @Nonnull Supplier<Map<MetricName, ? extends Metric>> metrics) {
+        kafkaMetrics.put(prefix, metrics);
+    }
+
+    /** Remove the Kafka client metrics with given prefix. */
+    public void removeKafkaMetrics(@Nonnull String prefix) {
+        kafkaMetrics.remove(prefix);
+    }
+
+    /**
+     * Current values of all metrics, sorted by name. Histograms are reported by their count,
+     * mean, maximum and percentiles, with the statistic appended to the histogram name.
+     */
+    public Map<String, Number> values() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((metric, counter) -> values.put(metric, counter.sum()));
+        gauges.forEach((metric, gauge) -> {
+            try {
+                Number value = gauge.get();
+                if (value != null) {
+                    values.put(metric, value);
+                }
+            } catch (RuntimeException ex) {
+                logger.debug("Failed to read gauge {} of {}: {}", metric, name, ex.toString());
+            }
+        });
+        histograms.forEach((metric, histogram) -> {
+            values.put(metric + "_count", histogram.getCount());
+            values.put(metric + "_mean", histogram.getMean());
+            values.put(metric + "_max", histogram.getMax());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(metric + "_" + PERCENTILE_NAMES[i],
+                        histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+        });
+        kafkaMetrics.forEach((prefix, metrics) -> addKafkaValues(values, prefix, metrics));
+        return values;
+    }
+
+    private static void addKafkaValues(Map<String, Number> values, String prefix,
+            Supplier<Map<MetricName, ? extends Metric>> metrics) {
+        for (Map.Entry<MetricName, ? extends Metric> entry : metrics.get().entrySet()) {
+            Object value = entry.getValue().metricValue();
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            MetricName metricName = entry.getKey();
+            StringBuilder key = new StringBuilder(64)
+                    .append(prefix).append('_')
+                    .append(metricName.group()).append('_')
+                    .append(metricName.name());
+            metricName.tags().entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(tag -> key.append('_').append(tag.getValue()));
+            values.put(key.toString(), (Number) value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name;
+    }
+}
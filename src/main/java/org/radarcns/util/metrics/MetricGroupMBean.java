@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Read-only JMX view of a metric group. Each metric value is exposed as an attribute.
+ */
+class MetricGroupMBean implements DynamicMBean {
+    private final MetricGroup group;
+
+    MetricGroupMBean(MetricGroup group) {
+        this.group = group;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = group.values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("Metric " + attribute + " not found in "
+                    + group);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = group.values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics do not have operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = group.values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(),
+                    entry.getValue().getClass().getName(), entry.getKey(),
+                    true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of " + group, attributes,
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0],
+                new MBeanNotificationInfo[0]);
+    }
+}
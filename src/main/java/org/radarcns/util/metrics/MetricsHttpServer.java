@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded HTTP server that exposes all metrics of a registry at {@code /metrics}, in the
+ * Prometheus text format. Each metric is reported as a gauge named
+ * {@code radar_<type>_<metric>} with a {@code name} label for the component.
+ */
+public class MetricsHttpServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private final MetricsRegistry registry;
+    private final HttpServer server;
+
+    /**
+     * Start a metrics server.
+     * @param registry registry to expose.
+     * @param port port to listen on, or 0 to choose a free port.
+     * @throws IOException if the server cannot be started.
+     */
+    public MetricsHttpServer(@Nonnull MetricsRegistry registry, int port) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.start();
+        logger.info("Serving metrics on port {}", getPort());
+    }
+
+    /** Port that the server listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = format(registry).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Format all metrics of a registry in the Prometheus text format. */
+    static String format(MetricsRegistry registry) {
+        StringBuilder builder = new StringBuilder(4096);
+        for (MetricGroup group : registry.getGroups()) {
+            String prefix = "radar_" + sanitize(group.getType()) + "_";
+            String label = "{name=\"" + group.getName()
+                    .replace("\\", "\\\\").replace("\"", "\\\"") + "\"} ";
+            for (Map.Entry<String, Number> metric : group.values().entrySet()) {
+                builder.append(prefix).append(sanitize(metric.getKey()))
+                        .append(label).append(metric.getValue()).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /** Stop the server. */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the metrics of all streams and monitors in this application. Each metric group is
+ * registered as an MBean named {@code org.radarcns:type=<type>,name=<name>}.
+ */
+public class MetricsRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final String JMX_DOMAIN = "org.radarcns";
+
+    private final ConcurrentMap<ObjectName, MetricGroup> groups;
+    private final MBeanServer mbeanServer;
+
+    /** Registry that registers its metric groups with the platform MBean server. */
+    public MetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Registry that registers its metric groups with given MBean server.
+     * @param mbeanServer MBean server, or null to not register metrics with JMX.
+     */
+    public MetricsRegistry(MBeanServer mbeanServer) {
+        this.groups = new ConcurrentHashMap<>();
+        this.mbeanServer = mbeanServer;
+    }
+
+    /**
+     * Metric group of a single component. If the group does not exist yet, it is created and
+     * registered with JMX.
+     * @param type type of component, for example stream or monitor.
+     * @param name unique name of the component.
+     */
+    public MetricGroup group(@Nonnull String type, @Nonnull String name) {
+        return groups.computeIfAbsent(objectName(type, name), objectName -> {
+            MetricGroup group = new MetricGroup(type, name);
+            if (mbeanServer != null) {
+                try {
+                    mbeanServer.registerMBean(new MetricGroupMBean(group), objectName);
+                } catch (JMException ex) {
+                    logger.warn("Failed to register metrics {} with JMX: {}", objectName,
+                            ex.toString());
+                }
+            }
+            return group;
+        });
+    }
+
+    /** Remove a metric group and unregister it from JMX. */
+    public void remove(@Nonnull MetricGroup group) {
+        ObjectName objectName = objectName(group.getType(), group.getName());
+        if (groups.remove(objectName, group) && mbeanServer != null) {
+            try {
+                mbeanServer.unregisterMBean(objectName);
+            } catch (JMException ex) {
+                logger.warn("Failed to unregister metrics {} from JMX: {}", objectName,
+                        ex.toString());
+            }
+        }
+    }
+
+    /** All registered metric groups, sorted by type and name. */
+    public Collection<MetricGroup> getGroups() {
+        List<MetricGroup> result = new ArrayList<>(groups.values());
+        result.sort(Comparator.comparing(MetricGroup::getType)
+                .thenComparing(MetricGroup::getName));
+        return result;
+    }
+
+    private static ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + ObjectName.quote(type)
+                    + ",name=" + ObjectName.quote(name));
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("Invalid metric group " + type + " " + name, ex);
+        }
+    }
+}
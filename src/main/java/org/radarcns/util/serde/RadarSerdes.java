@@ -25,6 +25,16 @@ import org.radarcns.stream.phone.PhoneUsageCollector;
  * Set of Serde useful for Kafka Streams
  */
 public final class RadarSerdes {
+    /**
+     * State format of numeric aggregate collectors. Increment the version when a collector can
+     * no longer read collectors that were serialized by an earlier version.
+     */
+    public static final String NUMERIC_COLLECTOR_FORMAT = "NumericAggregateCollector-1";
+    /** State format of aggregate list collectors. */
+    public static final String AGGREGATE_LIST_COLLECTOR_FORMAT = "AggregateListCollector-1";
+    /** State format of phone usage collectors. */
+    public static final String PHONE_USAGE_COLLECTOR_FORMAT = "PhoneUsageCollector-1";
+
     private final Serde<NumericAggregateCollector> numericCollector;
     private final Serde<AggregateListCollector> aggregateListCollector;
     private final Serde<PhoneUsageCollector> phoneUsageCollector;
@@ -16,18 +16,32 @@
 
 package org.radarcns.monitor;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.radarcns.monitor.BatteryLevelMonitor.Status.LOW;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.mail.MessagingException;
 import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -103,6 +117,223 @@ public class BatteryLevelMonitorTest {
         verify(sender, times(timesSent)).sendEmail(anyString(), anyString());
     }
 
+    @Test
+    public void storeOffsetsWithState() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        TopicPartition partition = new TopicPartition("mytopic", 0);
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition,
+                Arrays.asList(createRecord(1.0f), createRecord(0.9f)))));
+
+        BatteryLevelMonitor restarted = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        assertThat(restarted.getState(partition).getOffset(partition), is(1002L));
+        assertThat(restarted.getState(partition).getLevels(), hasEntry("test#me#1", 0.9f));
+    }
+
+    @Test
+    public void evaluateReducedBatch() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        TopicPartition partition = new TopicPartition("mytopic", 0);
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition,
+                Arrays.asList(createRecord(0, "1", 1.0f), createRecord(0, "1", 0.1f),
+                        createRecord(0, "2", 0.9f), createRecord(0, "1", 0.5f)))));
+
+        // the low level is reported once, even though it recovered within the batch
+        verify(sender, times(1)).sendEmail(anyString(), anyString());
+        BatteryLevelState state = monitor.getState(partition);
+        assertThat(state.getLevels(), hasEntry("test#me#1", 0.1f));
+        assertThat(state.getLevels(), hasEntry("test#me#2", 0.9f));
+        assertThat(state.getOffset(partition), is(1004L));
+    }
+
+    @Test
+    public void storeStateSegmentPerPartition() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        TopicPartition partition0 = new TopicPartition("mytopic", 0);
+        TopicPartition partition1 = new TopicPartition("mytopic", 1);
+        Map<TopicPartition, List<ConsumerRecord<GenericRecord, GenericRecord>>> records =
+                new HashMap<>();
+        records.put(partition0, Collections.singletonList(createRecord(0, "1", 1.0f)));
+        records.put(partition1, Collections.singletonList(createRecord(1, "2", 0.8f)));
+        monitor.evaluateRecords(new ConsumerRecords<>(records));
+
+        // another instance that is assigned only partition 1 takes over its segment
+        BatteryLevelMonitor restarted = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        BatteryLevelState segment = restarted.getState(partition1);
+        assertThat(segment.getOffset(partition1), is(1002L));
+        assertThat(segment.getOffset(partition0), is(nullValue()));
+        assertThat(segment.getLevels(), hasEntry("test#me#2", 0.8f));
+        assertThat(segment.getLevels(), not(hasKey("test#me#1")));
+        assertThat(restarted.getStates(), contains(segment));
+    }
+
+    @Test
+    public void migrateUnsegmentedState() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        TopicPartition partition0 = new TopicPartition("mytopic", 0);
+        TopicPartition partition1 = new TopicPartition("mytopic", 1);
+        BatteryLevelState legacy = new BatteryLevelState();
+        legacy.setOffset(partition1, 500L);
+        legacy.updateLevel("test#me#1", 0.9f);
+        legacy.touch("test#me#1", System.currentTimeMillis());
+        new YamlPersistentStateStore(new File(config.getPersistencePath()))
+                .storeState(BatteryLevelMonitor.GROUP_ID,
+                        BatteryLevelMonitor.class.getName() + "-1", legacy);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        // the owner of the first partition also loads the unsegmented state
+        monitor.getState(partition0);
+        assertThat(monitor.getStates().size(), is(2));
+
+        BatteryLevelState segment = monitor.getState(partition1, "test#me#1");
+        assertThat(segment.getLevels(), hasEntry("test#me#1", 0.9f));
+        assertThat(monitor.getNumberOfLiveKeys(), is(1L));
+
+        // the empty legacy state is dropped, and its offsets are kept by the segments
+        monitor.storeState();
+        assertThat(monitor.getStates().size(), is(2));
+        YamlPersistentStateStore store = new YamlPersistentStateStore(
+                new File(config.getPersistencePath()));
+        BatteryLevelState storedLegacy = store.retrieveState(BatteryLevelMonitor.GROUP_ID,
+                BatteryLevelMonitor.class.getName() + "-1", new BatteryLevelState());
+        assertThat(storedLegacy.isEmpty(), is(true));
+        assertThat(storedLegacy.getOffsets().isEmpty(), is(true));
+        BatteryLevelState storedSegment = store.retrieveState(BatteryLevelMonitor.GROUP_ID,
+                BatteryLevelMonitor.class.getName() + "-1-mytopic-1", new BatteryLevelState());
+        assertThat(storedSegment.getOffset(partition1), is(500L));
+        assertThat(storedSegment.getLevels(), hasEntry("test#me#1", 0.9f));
+    }
+
+    @Test
+    public void storeModifiedSegments() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        TopicPartition partition0 = new TopicPartition("mytopic", 0);
+        TopicPartition partition1 = new TopicPartition("mytopic", 1);
+        File segment0 = new File(config.getPersistencePath(), "battery_monitors_"
+                + BatteryLevelMonitor.class.getName() + "-1-mytopic-0.yml");
+        File segment1 = new File(config.getPersistencePath(), "battery_monitors_"
+                + BatteryLevelMonitor.class.getName() + "-1-mytopic-1.yml");
+
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition0,
+                Collections.singletonList(createRecord(0, "1", 1.0f)))));
+        assertThat(segment0.delete(), is(true));
+
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition1,
+                Collections.singletonList(createRecord(1, "2", 1.0f)))));
+        assertThat(segment0.exists(), is(false));
+        assertThat(segment1.isFile(), is(true));
+    }
+
+    @Test
+    public void expireStaleSources() throws Exception {
+        offset = 1000L;
+        timeReceived = 2000L;
+        sender = mock(EmailSender.class);
+        senders = new EmailSenders(Collections.singletonMap(PROJECT_ID, sender));
+
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getBatteryMonitorConfig(25252, folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        BatteryLevelMonitor monitor = new BatteryLevelMonitor(properties,
+                Collections.singletonList("mytopic"), senders, LOW, 10L);
+        monitor.setStateExpiry(100L, true);
+        TopicPartition partition = new TopicPartition("mytopic", 0);
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition,
+                Collections.singletonList(createRecord(0, "1", 1.0f)))));
+        assertThat(monitor.getNumberOfLiveKeys(), is(1L));
+
+        Thread.sleep(200L);
+        monitor.evaluateRecords(new ConsumerRecords<>(Collections.singletonMap(partition,
+                Collections.singletonList(createRecord(0, "2", 1.0f)))));
+
+        BatteryLevelState state = monitor.getState(partition);
+        assertThat(state.getLevels(), not(hasKey("test#me#1")));
+        assertThat(state.getLevels(), hasKey("test#me#2"));
+        assertThat(monitor.getNumberOfLiveKeys(), is(1L));
+        assertThat(monitor.getNumberOfExpiredKeys(), is(1L));
+
+        File archive = new File(config.getPersistencePath(), "battery_monitors_"
+                + BatteryLevelMonitor.class.getName() + "-1.archive.yml");
+        String archived = new String(Files.readAllBytes(archive.toPath()), UTF_8);
+        assertThat(archived, containsString("test#me#1"));
+        assertThat(archived, not(containsString("test#me#2")));
+    }
+
+    private ConsumerRecord<GenericRecord, GenericRecord> createRecord(float batteryLevel) {
+        return createRecord(0, "1", batteryLevel);
+    }
+
+    private ConsumerRecord<GenericRecord, GenericRecord> createRecord(int partition,
+            String sourceId, float batteryLevel) {
+        Record key = new Record(ObservationKey.getClassSchema());
+        key.put("projectId", PROJECT_ID);
+        key.put("sourceId", sourceId);
+        key.put("userId", "me");
+
+        Record value = new Record(EmpaticaE4BatteryLevel.getClassSchema());
+        value.put("time", timeReceived);
+        value.put("timeReceived", timeReceived++);
+        value.put("batteryLevel", batteryLevel);
+        return new ConsumerRecord<>("mytopic", partition, offset++, key, value);
+    }
+
     @Test
     public void retrieveState() throws Exception {
         File base = folder.newFolder();
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsumerGroupLagTest {
+    private ConsumerGroupLag lag;
+    private TopicPartition partition0;
+    private TopicPartition partition1;
+    private Map<TopicPartition, Long> endOffsets;
+
+    @Before
+    public void setUp() {
+        lag = new ConsumerGroupLag("group", Arrays.asList("a", "b"));
+        partition0 = new TopicPartition("a", 0);
+        partition1 = new TopicPartition("a", 1);
+        endOffsets = new HashMap<>();
+    }
+
+    @Test
+    public void lag() {
+        lag.updateCommitted(partition0, 10L);
+        lag.updateCommitted(new TopicPartition("c", 0), 10L);
+        endOffsets.put(partition0, 25L);
+        endOffsets.put(partition1, 5L);
+        endOffsets.put(new TopicPartition("c", 0), 100L);
+        lag.update(endOffsets, 1000L);
+
+        assertEquals(15L, lag.getLag());
+        assertEquals(Long.valueOf(15L), lag.getLag(partition0));
+        assertNull(lag.getLag(partition1));
+        assertTrue(Double.isNaN(lag.getCatchUpTime()));
+
+        lag.updateCommitted(partition0, -1L);
+        lag.update(endOffsets, 2000L);
+        assertEquals(0L, lag.getLag());
+        assertEquals(0.0, lag.getCatchUpTime(), 0.0);
+    }
+
+    @Test
+    public void catchUpTime() {
+        lag.updateCommitted(partition0, 0L);
+        endOffsets.put(partition0, 100L);
+        lag.update(endOffsets, 0L);
+
+        // consumed 30 and produced 10 records in 10 seconds: catching up at 2 records/s
+        lag.updateCommitted(partition0, 30L);
+        endOffsets.put(partition0, 110L);
+        lag.update(endOffsets, 10_000L);
+        assertEquals(80L, lag.getLag());
+        assertEquals(40.0, lag.getCatchUpTime(), 1e-9);
+        assertEquals(0, lag.getGrowingIntervals());
+    }
+
+    @Test
+    public void growingLag() {
+        lag.updateCommitted(partition0, 0L);
+        for (int i = 0; i < 4; i++) {
+            endOffsets.put(partition0, 100L * (i + 1));
+            lag.update(endOffsets, 1000L * i);
+        }
+        assertEquals(3, lag.getGrowingIntervals());
+        assertEquals(Double.POSITIVE_INFINITY, lag.getCatchUpTime(), 0.0);
+
+        lag.updateCommitted(partition0, 400L);
+        lag.update(endOffsets, 5000L);
+        assertEquals(0, lag.getGrowingIntervals());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+import org.radarcns.monitor.ConsumerLagMonitor.OffsetKey;
+
+public class ConsumerLagMonitorTest {
+    @Test
+    public void parseKey() {
+        byte[] group = "group".getBytes(StandardCharsets.UTF_8);
+        byte[] topic = "topic".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 2 + group.length + 2 + topic.length + 4);
+        buffer.putShort((short) 1)
+                .putShort((short) group.length).put(group)
+                .putShort((short) topic.length).put(topic)
+                .putInt(3);
+
+        OffsetKey key = ConsumerLagMonitor.parseKey(buffer.array());
+        assertEquals("group", key.groupId);
+        assertEquals(new TopicPartition("topic", 3), key.partition);
+    }
+
+    @Test
+    public void parseGroupMetadataKey() {
+        byte[] group = "group".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 2 + group.length);
+        buffer.putShort((short) 2).putShort((short) group.length).put(group);
+        assertNull(ConsumerLagMonitor.parseKey(buffer.array()));
+    }
+
+    @Test
+    public void parseOffset() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 8 + 2 + 8);
+        buffer.putShort((short) 2).putLong(1234L).putShort((short) 0).putLong(5678L);
+        assertEquals(Long.valueOf(1234L), ConsumerLagMonitor.parseOffset(buffer.array()));
+        assertEquals(Long.valueOf(-1L), ConsumerLagMonitor.parseOffset(null));
+    }
+
+    @Test
+    public void parseUnrecognizedVersion() {
+        ByteBuffer value = ByteBuffer.allocate(2 + 8);
+        value.putShort((short) 99).putLong(1234L);
+        assertNull(ConsumerLagMonitor.parseOffset(value.array()));
+
+        byte[] group = "group".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer key = ByteBuffer.allocate(2 + 2 + group.length);
+        key.putShort((short) 99).putShort((short) group.length).put(group);
+        assertNull(ConsumerLagMonitor.parseKey(key.array()));
+    }
+}
@@ -28,6 +28,7 @@ import static org.mockito.Mockito.verify;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
@@ -39,6 +40,7 @@ import org.apache.kafka.common.TopicPartition;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.radarcns.config.ConfigRadar;
 import org.radarcns.config.DisconnectMonitorConfig;
@@ -54,6 +56,9 @@ public class DisconnectMonitorTest {
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
 
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
     private long offset;
     private long timeReceived;
     private int timesSent;
@@ -134,6 +139,18 @@ public class DisconnectMonitorTest {
         verify(sender, times(timesSent)).sendEmail(anyString(), anyString());
     }
 
+    @Test
+    public void checkCoPartitioned() {
+        Map<String, Integer> numPartitions = new HashMap<>();
+        numPartitions.put("topic1", 3);
+        numPartitions.put("topic2", 3);
+        AbstractKafkaMonitor.checkCoPartitioned(numPartitions);
+
+        numPartitions.put("topic3", 2);
+        exception.expect(IllegalStateException.class);
+        AbstractKafkaMonitor.checkCoPartitioned(numPartitions);
+    }
+
     private void sendMessage(DisconnectMonitor monitor, String source, int sentMessages) {
         Record key = new Record(keySchema);
         key.put("projectId", PROJECT_ID);
@@ -16,6 +16,7 @@
 
 package org.radarcns.monitor;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.either;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
@@ -55,9 +57,11 @@ public class KafkaMonitorFactoryTest {
         KafkaMonitor monitor = new KafkaMonitorFactory(options, properties).createMonitor();
         assertEquals(BatteryLevelMonitor.class, monitor.getClass());
         BatteryLevelMonitor batteryMonitor = (BatteryLevelMonitor) monitor;
+        batteryMonitor.getState(new TopicPartition("android_empatica_e4_battery_level", 0));
         batteryMonitor.evaluateRecords(new ConsumerRecords<>(Collections.emptyMap()));
         assertTrue(new File(config.getPersistencePath(), "battery_monitors_" +
-                BatteryLevelMonitor.class.getName() + "-1.yml").isFile());
+                BatteryLevelMonitor.class.getName()
+                + "-1-android_empatica_e4_battery_level-0.yml").isFile());
     }
 
     @Test(expected = IOException.class)
@@ -80,9 +84,11 @@ public class KafkaMonitorFactoryTest {
         KafkaMonitor monitor = new KafkaMonitorFactory(options, properties).createMonitor();
         assertEquals(DisconnectMonitor.class, monitor.getClass());
         DisconnectMonitor disconnectMonitor = (DisconnectMonitor) monitor;
+        disconnectMonitor.getState(new TopicPartition("android_empatica_e4_temperature", 0));
         disconnectMonitor.evaluateRecords(new ConsumerRecords<>(Collections.emptyMap()));
         assertTrue(new File(config.getPersistencePath(), "disconnect_monitor_" +
-                DisconnectMonitor.class.getName() + "-1.yml").isFile());
+                DisconnectMonitor.class.getName()
+                + "-1-android_empatica_e4_temperature-0.yml").isFile());
     }
 
     @Test
@@ -104,6 +110,21 @@ public class KafkaMonitorFactoryTest {
         assertThat(monitors.get(0).getClass(), not(equalTo(monitors.get(1).getClass())));
     }
 
+    @Test
+    public void createLagMonitor() throws Exception {
+        String[] args = {"monitor", "lag"};
+        RadarBackendOptions options = RadarBackendOptions.parse(args);
+        ConfigRadar config = getSourceStatisticsMonitorConfig(folder);
+        config.setBatteryMonitor(getBatteryMonitorConfig(emailServer.getPort()));
+        config.setLagMonitor(new LagMonitorConfig());
+        RadarPropertyHandler properties = getRadarPropertyHandler(config, folder);
+
+        KafkaMonitor monitor = new KafkaMonitorFactory(options, properties).createMonitor();
+        assertEquals(ConsumerLagMonitor.class, monitor.getClass());
+        assertThat(((ConsumerLagMonitor) monitor).getGroupIds(),
+                containsInAnyOrder(BatteryLevelMonitor.GROUP_ID, "source_statistics_test"));
+    }
+
     public static RadarPropertyHandler getRadarPropertyHandler(ConfigRadar config, TemporaryFolder folder) throws IOException {
         File tmpConfig = folder.newFile("radar.yml");
         new YamlConfigLoader().store(tmpConfig, config);
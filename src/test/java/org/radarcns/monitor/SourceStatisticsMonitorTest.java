@@ -17,20 +17,17 @@
 package org.radarcns.monitor;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.times;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +35,8 @@ import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,8 +47,6 @@ import org.radarcns.config.SourceStatisticsMonitorConfig;
 import org.radarcns.kafka.AggregateKey;
 import org.radarcns.kafka.ObservationKey;
 import org.radarcns.passive.empatica.EmpaticaE4BatteryLevel;
-import org.radarcns.producer.KafkaSender;
-import org.radarcns.producer.KafkaTopicSender;
 import org.radarcns.monitor.SourceStatisticsMonitor.SourceStatisticsState;
 import org.radarcns.stream.SourceStatistics;
 import org.radarcns.stream.aggregator.NumericAggregate;
@@ -78,34 +75,92 @@ public class SourceStatisticsMonitorTest {
 
         SourceStatisticsMonitor actualMonitor = new SourceStatisticsMonitor(properties, statConfig);
         SourceStatisticsMonitor monitor = spy(actualMonitor);
-        KafkaSender producer = mock(KafkaSender.class);
-        @SuppressWarnings("unchecked")
-        KafkaTopicSender<ObservationKey, SourceStatistics> sender = mock(KafkaTopicSender.class);
+        MockProducer<ObservationKey, SourceStatistics> producer = new MockProducer<>(
+                false, null, null);
         doReturn(producer).when(monitor).createSender();
-        when(producer.<ObservationKey, SourceStatistics>sender(any())).thenReturn(sender);
         monitor.setupSender();
 
-
         Map<TopicPartition, List<ConsumerRecord<GenericRecord, GenericRecord>>> recordMap;
         recordMap = new HashMap<>();
-        recordMap.put(new TopicPartition("android_empatica_e4_battery_level", 0),
+        TopicPartition partition = new TopicPartition("android_empatica_e4_battery_level", 0);
+        recordMap.put(partition,
                 Arrays.asList(getBatteryLevelRecord(), getBatteryLevelRecord()));
         recordMap.put(new TopicPartition("android_empatica_e4_battery_level_10sec", 0),
                 Arrays.asList(getAggregateRecord(), getAggregateRecord()));
         ConsumerRecords<GenericRecord, GenericRecord> records = new ConsumerRecords<>(recordMap);
         monitor.evaluateRecords(records);
 
-        verify(sender, times(1)).send(
-                new ObservationKey("test", "me", "1"),
-                new SourceStatistics(1999.0, 2010.0));
+        assertEquals(1, producer.history().size());
+        ProducerRecord<ObservationKey, SourceStatistics> sent = producer.history().get(0);
+        assertEquals(new ObservationKey("test", "me", "1"), sent.key());
+        assertEquals(new SourceStatistics(1999.0, 2010.0), sent.value());
+
+        // not acknowledged yet
+        assertThat(monitor.getState(partition).getUnsent(), hasItem(sent.key()));
+        monitor.evaluateRecords(ConsumerRecords.empty());
+        assertEquals(1, producer.history().size());
+
+        producer.completeNext();
+        monitor.processAcknowledgements();
+        assertThat(monitor.getState(partition).getUnsent(), not(hasItem(sent.key())));
+
+        // unchanged statistics are not sent again
+        monitor.evaluateRecords(records);
+        assertEquals(1, producer.history().size());
+
+        monitor.cleanUpSender();
+    }
+
+    @Test
+    public void sendBatchOfManySources() throws Exception {
+        ConfigRadar config = KafkaMonitorFactoryTest
+                .getSourceStatisticsMonitorConfig(folder);
+        RadarPropertyHandler properties = KafkaMonitorFactoryTest
+                .getRadarPropertyHandler(config, folder);
+
+        SourceStatisticsMonitorConfig statConfig = config.getStatisticsMonitors().get(0);
+        statConfig.setMaxBatchSize(20_000);
+
+        SourceStatisticsMonitor monitor = spy(new SourceStatisticsMonitor(properties, statConfig));
+        MockProducer<ObservationKey, SourceStatistics> producer = new MockProducer<>(
+                false, null, null);
+        doReturn(producer).when(monitor).createSender();
+        monitor.setupSender();
+
+        List<ConsumerRecord<GenericRecord, GenericRecord>> recordList = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            recordList.add(getBatteryLevelRecord("source-" + i));
+        }
+        TopicPartition partition = new TopicPartition("android_empatica_e4_battery_level", 0);
+        ConsumerRecords<GenericRecord, GenericRecord> records = new ConsumerRecords<>(
+                Collections.singletonMap(partition, recordList));
+        monitor.evaluateRecords(records);
+
+        assertEquals(20_000, producer.history().size());
+        assertEquals(20_000, monitor.getState(partition).getUnsent().size());
+
+        // fail a single record, acknowledge the rest
+        producer.errorNext(new RuntimeException("failed"));
+        while (producer.completeNext()) {
+            // acknowledge all
+        }
+        monitor.processAcknowledgements();
+        assertEquals(1, monitor.getState(partition).getUnsent().size());
+
+        monitor.evaluateRecords(ConsumerRecords.empty());
+        assertEquals(20_001, producer.history().size());
 
         monitor.cleanUpSender();
     }
 
     private ConsumerRecord<GenericRecord, GenericRecord> getBatteryLevelRecord() {
+        return getBatteryLevelRecord("1");
+    }
+
+    private ConsumerRecord<GenericRecord, GenericRecord> getBatteryLevelRecord(String sourceId) {
         Record key = new Record(ObservationKey.getClassSchema());
         key.put("projectId", "test");
-        key.put("sourceId", "1");
+        key.put("sourceId", sourceId);
         key.put("userId", "me");
 
         Record value = new Record(EmpaticaE4BatteryLevel.getClassSchema());
@@ -149,15 +204,10 @@ public class SourceStatisticsMonitorTest {
         state.updateSource(key1, stateStore.keyToString(key1), 2000.0, 2010.0);
         stateStore.storeState("source_statistics_test", "1", state);
 
-        SourceStatisticsState tmpState = new SourceStatisticsState();
-        assertThat(tmpState.getGroupId(), not(equalTo(state.getGroupId())));
-
         YamlPersistentStateStore stateStore2 = new YamlPersistentStateStore(base);
-        SourceStatisticsState state2 = stateStore2.retrieveState("source_statistics_test", "1", tmpState);
+        SourceStatisticsState state2 = stateStore2.retrieveState("source_statistics_test", "1",
+                new SourceStatisticsState());
         assertThat(state2.getSources(), hasEntry(stateStore.keyToString(key1), new SourceStatistics(2000.0, 2010.0)));
         assertThat(state2.getUnsent(), hasItem(key1));
-        assertThat(state2.getGroupId(), equalTo(state.getGroupId()));
-
-        assertThat(tmpState.getGroupId(), not(equalTo(state.getGroupId())));
     }
 }
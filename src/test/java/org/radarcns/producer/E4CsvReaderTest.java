@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class E4CsvReaderTest {
+    private static final Path RECORDINGS = Paths.get("src/test/resources/org/radarcns/collect");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readSampled() throws IOException {
+        E4CsvReader reader = new E4CsvReader(RECORDINGS.resolve("ACC.csv"));
+        assertEquals(1469111681.0, reader.getStartTime(), 1e-9);
+        assertEquals(32.0, reader.getSampleRate(), 1e-9);
+
+        assertTrue(reader.next());
+        assertEquals(1469111681.0, reader.getTime(), 1e-9);
+        assertEquals(3, reader.getNumValues());
+        assertEquals(-40.0, reader.getValue(0), 1e-9);
+        assertEquals(57.0, reader.getValue(1), 1e-9);
+        assertEquals(45.0, reader.getValue(2), 1e-9);
+
+        assertTrue(reader.next());
+        assertEquals(1469111681.0 + 1 / 32.0, reader.getTime(), 1e-9);
+
+        int count = 2;
+        while (reader.next()) {
+            count++;
+        }
+        assertEquals(32, count);
+
+        reader.rewind();
+        assertTrue(reader.next());
+        assertEquals(-40.0, reader.getValue(0), 1e-9);
+    }
+
+    @Test
+    public void readInterBeatInterval() throws IOException {
+        E4CsvReader reader = new E4CsvReader(RECORDINGS.resolve("IBI.csv"));
+        assertEquals(0.0, reader.getSampleRate(), 0.0);
+        assertTrue(reader.next());
+        assertEquals(1469111681.0 + 19.782156, reader.getTime(), 1e-6);
+        assertEquals(1, reader.getNumValues());
+        assertEquals(0.812537, reader.getValue(0), 1e-9);
+    }
+
+    @Test
+    public void parseNumbers() throws IOException {
+        Path file = folder.newFile("TEMP.csv").toPath();
+        Files.write(file, "1469111681.5\r\n4.0\r\n-0.25\r\n\r\n1.5e2\r\nerror\r\n12"
+                .getBytes(StandardCharsets.US_ASCII));
+        E4CsvReader reader = new E4CsvReader(file);
+        assertEquals(1469111681.5, reader.getStartTime(), 1e-9);
+        assertTrue(reader.next());
+        assertEquals(-0.25, reader.getValue(0), 1e-9);
+        assertTrue(reader.next());
+        assertEquals(150.0, reader.getValue(0), 1e-9);
+        assertTrue(reader.next());
+        assertTrue(Double.isNaN(reader.getValue(0)));
+        assertTrue(reader.next());
+        assertEquals(12.0, reader.getValue(0), 1e-9);
+        assertEquals(1469111681.5 + 3 / 4.0, reader.getTime(), 1e-9);
+        assertFalse(reader.next());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Test;
+import org.radarcns.config.LoadTestConfig;
+import org.radarcns.config.LoadTestConfig.TopicConfig;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+
+public class LoadGeneratorTest {
+    @Test
+    public void fullRateTimeLinear() {
+        assertEquals(3.0, LoadGenerator.fullRateTime(3.0, 0.0, 0), 1e-9);
+        assertEquals(1.25, LoadGenerator.fullRateTime(5.0, 10.0, 0), 1e-9);
+        assertEquals(5.0, LoadGenerator.fullRateTime(10.0, 10.0, 0), 1e-9);
+        assertEquals(15.0, LoadGenerator.fullRateTime(20.0, 10.0, 0), 1e-9);
+        assertEquals(0.5, LoadGenerator.rateFraction(5.0, 10.0, 0), 1e-9);
+        assertEquals(1.0, LoadGenerator.rateFraction(15.0, 10.0, 0), 1e-9);
+    }
+
+    @Test
+    public void fullRateTimeSteps() {
+        // two steps of five seconds, at half and at full rate
+        assertEquals(1.0, LoadGenerator.fullRateTime(2.0, 10.0, 2), 1e-9);
+        assertEquals(2.5, LoadGenerator.fullRateTime(5.0, 10.0, 2), 1e-9);
+        assertEquals(5.0, LoadGenerator.fullRateTime(7.5, 10.0, 2), 1e-9);
+        assertEquals(7.5, LoadGenerator.fullRateTime(10.0, 10.0, 2), 1e-9);
+        assertEquals(0.5, LoadGenerator.rateFraction(2.0, 10.0, 2), 1e-9);
+        assertEquals(1.0, LoadGenerator.rateFraction(7.5, 10.0, 2), 1e-9);
+    }
+
+    @Test
+    public void closedLoopAllowance() {
+        // 1000 records per second in a tick of 1 ms, with 1 ms of slack
+        assertEquals(2L, LoadGenerator.closedLoopAllowance(1000.0, 0.001));
+        // a tick that overslept to 5 ms does not skip records that were due in it
+        assertEquals(6L, LoadGenerator.closedLoopAllowance(1000.0, 0.005));
+        // low rates may always send a record
+        assertEquals(1L, LoadGenerator.closedLoopAllowance(1.0, 0.001));
+    }
+
+    @Test
+    public void sendsScheduledRecords() throws InterruptedException {
+        TopicConfig topic = new TopicConfig();
+        topic.setTopic("load_generator_test");
+        topic.setValueSchema(EmpaticaE4Temperature.class.getName());
+        topic.setFrequency(10.0);
+
+        LoadTestConfig config = new LoadTestConfig();
+        config.setDevices(10);
+        config.setThreads(2);
+        config.setDuration(1L);
+        config.setRampUp(1L);
+        config.setTopics(Collections.singletonList(topic));
+
+        MockProducer<Object, Object> producer = new MockProducer<>(true, null, null);
+        LoadGenerator generator = new LoadGenerator(config, producer);
+        generator.start();
+        generator.awaitCompletion();
+
+        // ramping up linearly for the full second gives half of 10 devices * 10 Hz
+        List<ProducerRecord<Object, Object>> records = producer.history();
+        assertEquals(50, records.size());
+        Set<Object> keys = records.stream()
+                .map(ProducerRecord::key)
+                .collect(Collectors.toSet());
+        assertEquals(10, keys.size());
+        assertEquals(EmpaticaE4Temperature.class, records.get(0).value().getClass());
+    }
+}
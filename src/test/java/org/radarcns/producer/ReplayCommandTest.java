@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.producer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Test;
+import org.radarcns.passive.empatica.EmpaticaE4Acceleration;
+import org.radarcns.producer.ReplayCommand.E4File;
+
+public class ReplayCommandTest {
+    @Test
+    public void replay() throws IOException, InterruptedException {
+        MockProducer<Object, Object> producer = new MockProducer<>(true, null, null);
+        ReplayCommand command = new ReplayCommand(
+                Paths.get("src/test/resources/org/radarcns/collect"), 0.0, 2, 3, producer);
+        command.start();
+        command.awaitCompletion();
+
+        List<ProducerRecord<Object, Object>> records = producer.history();
+        Map<String, Long> counts = records.stream()
+                .collect(Collectors.groupingBy(ProducerRecord::topic, Collectors.counting()));
+        // samples per file * 2 repetitions * 3 devices
+        assertEquals(32L * 6, (long) counts.get(E4File.ACC.getTopic()));
+        assertEquals(64L * 6, (long) counts.get(E4File.BVP.getTopic()));
+        assertEquals(4L * 6, (long) counts.get(E4File.EDA.getTopic()));
+        assertEquals(9L * 6, (long) counts.get(E4File.IBI.getTopic()));
+        assertEquals(4L * 6, (long) counts.get(E4File.TEMP.getTopic()));
+
+        EmpaticaE4Acceleration first = (EmpaticaE4Acceleration) records.stream()
+                .filter(r -> r.topic().equals(E4File.ACC.getTopic()))
+                .findFirst().get().value();
+        assertEquals(-40 / 64f, first.getX(), 1e-6f);
+
+        double previous = 0.0;
+        double now = System.currentTimeMillis() / 1000d;
+        for (ProducerRecord<Object, Object> record : records) {
+            // all E4 records start with the time field
+            double time = (Double) ((SpecificRecord) record.value()).get(0);
+            assertTrue(time >= previous);
+            assertTrue(time <= now);
+            previous = time;
+        }
+    }
+}
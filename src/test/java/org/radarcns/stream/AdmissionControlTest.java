@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.management.MBeanServerFactory;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.radarcns.config.AdmissionConfig;
+import org.radarcns.util.metrics.MetricGroup;
+import org.radarcns.util.metrics.MetricsRegistry;
+
+public class AdmissionControlTest {
+    private AdmissionConfig config;
+    private MetricGroup metrics;
+    private ProcessorContext context;
+
+    @Before
+    public void setUp() {
+        config = new AdmissionConfig();
+        config.setRate(1.0);
+        config.setTolerance(1.0);
+        config.setBurstSeconds(2.0);
+        metrics = new MetricsRegistry(MBeanServerFactory.newMBeanServer())
+                .group("stream", "test");
+        context = mock(ProcessorContext.class);
+    }
+
+    private AdmissionControl<String, String> create() {
+        AdmissionControl<String, String> control = new AdmissionControl<>(
+                "input", config, metrics, 100);
+        control.init(context);
+        return control;
+    }
+
+    @Test
+    public void dropExcess() {
+        AdmissionControl<String, String> control = create();
+        when(context.timestamp()).thenReturn(10_000L);
+        assertEquals("a1", control.transform("a", "a1"));
+        assertEquals("a2", control.transform("a", "a2"));
+        assertNull(control.transform("a", "a3"));
+        assertEquals("b1", control.transform("b", "b1"));
+
+        when(context.timestamp()).thenReturn(11_000L);
+        assertEquals("a4", control.transform("a", "a4"));
+        assertNull(control.transform("a", "a5"));
+
+        assertThat(metrics.values(), hasEntry("admission_offenders", 1L));
+        assertThat(metrics.values(), hasEntry("admission_dropped", 2L));
+        assertEquals(2, control.numKeys());
+    }
+
+    @Test
+    public void offendAgainAfterFullBucket() {
+        AdmissionControl<String, String> control = create();
+        when(context.timestamp()).thenReturn(10_000L);
+        for (int i = 0; i < 3; i++) {
+            control.transform("a", "a");
+        }
+        // late records do not refill the bucket
+        when(context.timestamp()).thenReturn(5_000L);
+        assertNull(control.transform("a", "a"));
+
+        when(context.timestamp()).thenReturn(12_000L);
+        for (int i = 0; i < 3; i++) {
+            control.transform("a", "a");
+        }
+        assertThat(metrics.values(), hasEntry("admission_offenders", 2L));
+        assertThat(metrics.values(), hasEntry("admission_dropped", 3L));
+    }
+
+    @Test
+    public void downsampleExcess() {
+        config.setExcess("Downsample");
+        config.setDownsample(2);
+        AdmissionControl<String, String> control = create();
+        when(context.timestamp()).thenReturn(10_000L);
+        int passed = 0;
+        for (int i = 0; i < 8; i++) {
+            if (control.transform("a", "a") != null) {
+                passed++;
+            }
+        }
+        assertEquals(5, passed);
+        assertThat(metrics.values(), hasEntry("admission_downsampled", 3L));
+        assertThat(metrics.values(), hasEntry("admission_dropped", 3L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownExcessPolicy() {
+        config.setExcess("queue");
+        create();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingRate() {
+        config.setRate(0.0);
+        create();
+    }
+}
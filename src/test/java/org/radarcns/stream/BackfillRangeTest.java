@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Properties;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackfillRangeTest {
+    private static final TopicPartition PARTITION = new TopicPartition("input", 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BackfillRange range;
+    private TopologyTestDriver driver;
+    private ConsumerRecordFactory<String, String> factory;
+
+    @Before
+    public void setUp() throws Exception {
+        range = new BackfillRange("input", Collections.singletonMap(PARTITION, 0L),
+                Collections.singletonMap(PARTITION, 3L));
+
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.<String, String>stream("input")
+                .transformValues(() -> range.<String>limiter())
+                .filter((k, v) -> v != null)
+                .to("output");
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, folder.newFolder().getAbsolutePath());
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+
+        driver = new TopologyTestDriver(builder.build(), props, 0L);
+        factory = new ConsumerRecordFactory<>("input", new StringSerializer(),
+                new StringSerializer());
+    }
+
+    @After
+    public void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    public void stopAtEndOffset() {
+        assertEquals(3L, range.size());
+        assertFalse(range.isComplete());
+
+        for (int i = 0; i < 2; i++) {
+            driver.pipeInput(factory.create("input", "a", String.valueOf(i)));
+        }
+        assertFalse(range.isComplete());
+
+        for (int i = 2; i < 5; i++) {
+            driver.pipeInput(factory.create("input", "a", String.valueOf(i)));
+        }
+        assertTrue(range.isComplete());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(String.valueOf(i), readOutput().value());
+        }
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void emptyRange() {
+        BackfillRange empty = new BackfillRange("input", Collections.singletonMap(PARTITION, 5L),
+                Collections.singletonMap(PARTITION, 5L));
+        assertEquals(0L, empty.size());
+        assertTrue(empty.isComplete());
+    }
+
+    private ProducerRecord<String, String> readOutput() {
+        return driver.readOutput("output", new StringDeserializer(), new StringDeserializer());
+    }
+}
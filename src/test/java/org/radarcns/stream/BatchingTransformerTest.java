@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchingTransformerTest {
+    private static final String STORE = "batch";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TopologyTestDriver driver;
+    private ConsumerRecordFactory<String, String> factory;
+
+    @Before
+    public void setUp() throws Exception {
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(STORE), null, null));
+        builder.<String, String>stream("input")
+                .transform(() -> new BatchingTransformer<>(STORE, 3, 1000L), STORE)
+                .to("output");
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, folder.newFolder().getAbsolutePath());
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+
+        driver = new TopologyTestDriver(builder.build(), props, 0L);
+        factory = new ConsumerRecordFactory<>("input", new StringSerializer(),
+                new StringSerializer());
+    }
+
+    @After
+    public void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    public void flushOnTimeout() {
+        pipe("a", "1");
+        pipe("a", "2");
+        pipe("b", "1");
+        assertNull(readOutput());
+
+        driver.advanceWallClockTime(1000L);
+        assertEquals("2", readOutput().value());
+        assertEquals("1", readOutput().value());
+        assertNull(readOutput());
+
+        driver.advanceWallClockTime(1000L);
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void flushOnBatchSize() {
+        pipe("a", "1");
+        pipe("b", "1");
+        assertNull(readOutput());
+        pipe("c", "1");
+
+        ProducerRecord<String, String> record = readOutput();
+        assertEquals("a", record.key());
+        assertEquals("b", readOutput().key());
+        assertEquals("c", readOutput().key());
+        assertNull(readOutput());
+    }
+
+    private void pipe(String key, String value) {
+        driver.pipeInput(factory.create("input", key, value));
+    }
+
+    private ProducerRecord<String, String> readOutput() {
+        return driver.readOutput("output", new StringDeserializer(), new StringDeserializer());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.radarcns.config.RadarPropertyHandler.Priority;
+import org.radarcns.config.RocksDbConfig;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+
+public class BoundedRocksDbConfigSetterTest {
+    @Test
+    public void prioritySizing() {
+        RocksDbConfig config = new RocksDbConfig();
+        config.setCompression("zstd");
+        Map<String, Object> configs = BoundedRocksDbConfigSetter.streamProperties(
+                config, Priority.HIGH);
+
+        long before = BoundedRocksDbConfigSetter.estimatedBytes();
+        try (Options options = new Options()) {
+            new BoundedRocksDbConfigSetter().setConfig("store", options, configs);
+
+            assertEquals(4L * 1024 * 1024, options.writeBufferSize());
+            assertEquals(2, options.maxWriteBufferNumber());
+            assertEquals(CompressionType.ZSTD_COMPRESSION, options.compressionType());
+            BlockBasedTableConfig tableConfig = (BlockBasedTableConfig) options.tableFormatConfig();
+            assertEquals(1024L * 1024, tableConfig.blockCacheSize());
+            assertTrue(tableConfig.cacheIndexAndFilterBlocks());
+            assertEquals(before + 9L * 1024 * 1024, BoundedRocksDbConfigSetter.estimatedBytes());
+        }
+        assertEquals(before, BoundedRocksDbConfigSetter.estimatedBytes());
+    }
+
+    @Test
+    public void overBudget() {
+        RocksDbConfig config = new RocksDbConfig();
+        config.setMemoryBudgetBytes(BoundedRocksDbConfigSetter.estimatedBytes()
+                + 4L * 1024 * 1024);
+        Map<String, Object> configs = new HashMap<>(BoundedRocksDbConfigSetter.streamProperties(
+                config, Priority.LOW));
+
+        try (Options first = new Options(); Options second = new Options()) {
+            new BoundedRocksDbConfigSetter().setConfig("first", first, configs);
+            assertEquals(1024L * 1024, first.writeBufferSize());
+
+            new BoundedRocksDbConfigSetter().setConfig("second", second, configs);
+            assertEquals(BoundedRocksDbConfigSetter.MIN_WRITE_BUFFER_BYTES,
+                    second.writeBufferSize());
+            assertEquals(BoundedRocksDbConfigSetter.MIN_BLOCK_CACHE_BYTES,
+                    ((BlockBasedTableConfig) second.tableFormatConfig()).blockCacheSize());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCompression() {
+        RocksDbConfig config = new RocksDbConfig();
+        config.setCompression("gzip");
+        BoundedRocksDbConfigSetter.streamProperties(config, Priority.NORMAL);
+    }
+}
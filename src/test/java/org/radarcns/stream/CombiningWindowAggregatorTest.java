@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.apache.kafka.streams.KeyValue.pair;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.LongDeserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.util.metrics.Histogram;
+
+public class CombiningWindowAggregatorTest {
+    private static final String STORE = "windows";
+    private static final TimeWindows WINDOWS = TimeWindows.of(10_000L).until(20_000L);
+    private static final long COMMIT_INTERVAL_MS = 1_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TopologyTestDriver driver;
+    private ConsumerRecordFactory<String, String> factory;
+    private long wallClockTime;
+    private Histogram emissionLatency;
+
+    @Before
+    public void setUp() throws Exception {
+        emissionLatency = new Histogram();
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(new CombiningWindowStore.Builder<>(
+                Stores.windowStoreBuilder(Stores.persistentWindowStore(STORE,
+                        WINDOWS.maintainMs(), WINDOWS.segments, WINDOWS.size(), false),
+                        Serdes.String(), Serdes.Long()),
+                WINDOWS, 2));
+        builder.<String, String>stream("input")
+                .transform(() -> new CombiningWindowAggregator<String, String, Long>(
+                        STORE, WINDOWS, () -> 0L, (k, v, count) -> count + 1,
+                        emissionLatency), STORE)
+                .map((k, v) -> pair(k.key() + "@" + k.window().start(), v))
+                .to("output", Produced.with(Serdes.String(), Serdes.Long()));
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, folder.newFolder().getAbsolutePath());
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, COMMIT_INTERVAL_MS);
+
+        wallClockTime = 0L;
+        driver = new TopologyTestDriver(builder.build(), props, wallClockTime);
+        factory = new ConsumerRecordFactory<>("input", new StringSerializer(),
+                new StringSerializer());
+    }
+
+    @After
+    public void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    public void forwardOnPunctuation() {
+        pipe("a", 1_000L);
+        pipe("a", 2_000L);
+        assertNull(readOutput());
+        punctuate();
+        assertOutput("a@0", 2L, wallClockTime);
+        pipe("a", 12_000L);
+        punctuate();
+        assertOutput("a@10000", 1L, wallClockTime);
+        pipe("a", 9_000L);
+        punctuate();
+        assertOutput("a@0", 3L, wallClockTime);
+        punctuate();
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void skipExpiredWindows() {
+        pipe("a", 100_000L);
+        punctuate();
+        assertOutput("a@100000", 1L, wallClockTime);
+        pipe("a", 1_000L);
+        punctuate();
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void forwardEvicted() {
+        pipe("a", 1_000L);
+        pipe("b", 1_000L);
+        assertNull(readOutput());
+        // the least recently used aggregate is forwarded when it is evicted
+        pipe("c", 3_000L);
+        assertOutput("a@0", 1L, 3_000L);
+        assertNull(readOutput());
+        punctuate();
+        assertOutput("b@0", 1L, wallClockTime);
+        assertOutput("c@0", 1L, wallClockTime);
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void forwardOnClose() {
+        pipe("a", 1_000L);
+        driver.close();
+        assertOutput("a@0", 1L, 1_000L);
+    }
+
+    @Test
+    public void recordEmissionLatency() {
+        // the middle of a window that ended a minute ago
+        long recordTime = (System.currentTimeMillis() - 60_000L) / 10_000L * 10_000L - 5_000L;
+        pipe("a", recordTime - 1_000L);
+        pipe("a", recordTime);
+        punctuate();
+        readOutput();
+        // latency is measured from the latest record, not from the punctuation time
+        assertEquals(1L, emissionLatency.getCount());
+        assertThat(emissionLatency.getMax(), greaterThanOrEqualTo(65_000L));
+        assertThat(emissionLatency.getMax(), lessThanOrEqualTo(80_000L));
+    }
+
+    @Test
+    public void boundedEntries() {
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            pipe(key, 1_000L);
+            punctuate();
+            assertOutput(key + "@0", 1L, wallClockTime);
+        }
+        pipe("a", 2_000L);
+        punctuate();
+        assertOutput("a@0", 2L, wallClockTime);
+
+        @SuppressWarnings("unchecked")
+        CombiningWindowStore<String, Long> store =
+                (CombiningWindowStore<String, Long>) driver.getStateStore(STORE);
+        assertThat(store.numEntries(), lessThanOrEqualTo(2));
+        assertEquals(Long.valueOf(1L), store.get(new Windowed<>("b",
+                WindowFactory.timeWindow(0L, 10_000L))));
+    }
+
+    private void pipe(String key, long timestamp) {
+        driver.pipeInput(factory.create("input", key, "value", timestamp));
+    }
+
+    private void punctuate() {
+        wallClockTime += COMMIT_INTERVAL_MS;
+        driver.advanceWallClockTime(COMMIT_INTERVAL_MS);
+    }
+
+    private void assertOutput(String key, long count, long timestamp) {
+        ProducerRecord<String, Long> record = readOutput();
+        assertEquals(key, record.key());
+        assertEquals(Long.valueOf(count), record.value());
+        assertEquals(Long.valueOf(timestamp), record.timestamp());
+    }
+
+    private ProducerRecord<String, Long> readOutput() {
+        return driver.readOutput("output", new StringDeserializer(), new LongDeserializer());
+    }
+}
@@ -18,6 +18,7 @@ package org.radarcns.stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
@@ -27,6 +28,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.radarcns.util.metrics.Histogram;
 
 /**
  * Created by nivethika on 20-12-16.
@@ -59,6 +61,23 @@ public class DeviceTimestampExtractorTest {
         assertEquals((long) (1000d * timeValue), extracted);
     }
 
+    @Test
+    public void recordIngestionLatency() {
+        String userSchema = "{\"namespace\": \"test.radar.backend\", \"type\": \"record\", "
+                +"\"name\": \"TestTimeExtract\","
+                +"\"fields\": [{\"name\": \"timeReceived\", \"type\": \"double\"}]}";
+        GenericRecord record = buildIndexedRecord(userSchema);
+        record.put("timeReceived", (System.currentTimeMillis() - 2000L) / 1000d);
+        String latencyTopic = "TESTLatencyTopic";
+        ConsumerRecord<Object, Object> consumerRecord = new ConsumerRecord<>(latencyTopic, 3, 30, null, record);
+        this.timestampExtractor.extract(consumerRecord, -1L);
+
+        Histogram latency = DeviceTimestampExtractor.getIngestionLatency(latencyTopic);
+        assertEquals(1, latency.getCount());
+        assertTrue(latency.getMax() >= 2000L);
+        assertTrue(latency.getMax() < 60_000L);
+    }
+
     @Test
     public void extractWithNotDoubleTimeReceived() {
         String userSchema = "{\"namespace\": \"test.radar.backend\", \"type\": \"record\", "
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.radarcns.config.DedupConfig;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+import org.radarcns.util.RotatingBloomFilter;
+
+public class DuplicateFilterTest {
+    private DedupConfig config;
+    private LongAdder duplicates;
+    private ProcessorContext context;
+
+    @Before
+    public void setUp() {
+        config = new DedupConfig();
+        config.setHorizonSeconds(60L);
+        duplicates = new LongAdder();
+        context = mock(ProcessorContext.class);
+    }
+
+    private DuplicateFilter<ObservationKey, EmpaticaE4Temperature> create() {
+        DuplicateFilter<ObservationKey, EmpaticaE4Temperature> filter = new DuplicateFilter<>(
+                config, duplicates);
+        filter.init(context);
+        return filter;
+    }
+
+    @Test
+    public void removeDuplicates() {
+        DuplicateFilter<ObservationKey, EmpaticaE4Temperature> filter = create();
+        ObservationKey key1 = new ObservationKey("test", "a", "b");
+        ObservationKey key2 = new ObservationKey("test", "a", "c");
+        EmpaticaE4Temperature first = new EmpaticaE4Temperature(10.0, 10.5, 30f);
+        EmpaticaE4Temperature second = new EmpaticaE4Temperature(11.0, 11.5, 30f);
+
+        when(context.timestamp()).thenReturn(10_500L);
+        assertSame(first, filter.transform(key1, first));
+        assertSame(second, filter.transform(key1, second));
+        assertSame(first, filter.transform(key2, first));
+        assertNull(filter.transform(key1, new EmpaticaE4Temperature(10.0, 10.5, 30f)));
+        assertEquals(1L, duplicates.sum());
+
+        // still detected after a single rotation
+        when(context.timestamp()).thenReturn(70_500L);
+        assertNull(filter.transform(key1, first));
+
+        // forgotten after the horizon
+        when(context.timestamp()).thenReturn(130_500L);
+        assertSame(second, filter.transform(key1, second));
+        assertEquals(2L, duplicates.sum());
+    }
+
+    @Test
+    public void passNullKeyOrValue() {
+        DuplicateFilter<ObservationKey, EmpaticaE4Temperature> filter = create();
+        EmpaticaE4Temperature value = new EmpaticaE4Temperature(10.0, 10.5, 30f);
+        when(context.timestamp()).thenReturn(10_500L);
+        assertSame(value, filter.transform(null, value));
+        assertSame(value, filter.transform(null, value));
+        assertNull(filter.transform(new ObservationKey("test", "a", "b"), null));
+        assertEquals(0L, duplicates.sum());
+    }
+
+    @Test
+    public void rotateWhenFull() {
+        config.setExpectedRecords(10L);
+        DuplicateFilter<ObservationKey, EmpaticaE4Temperature> filter = create();
+        ObservationKey key = new ObservationKey("test", "a", "b");
+        when(context.timestamp()).thenReturn(1_000L);
+        for (int i = 0; i < 30; i++) {
+            filter.transform(key, new EmpaticaE4Temperature((double) i, 1.0, 30f));
+        }
+        assertNull(filter.transform(key, new EmpaticaE4Temperature(29.0, 1.0, 30f)));
+        // the first generation was dropped before its horizon
+        assertNotNull(filter.transform(key, new EmpaticaE4Temperature(0.0, 1.0, 30f)));
+        assertEquals(1L, duplicates.sum());
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(100_000L, 0.01);
+        for (long i = 0; i < 100_000L; i++) {
+            filter.put(RotatingBloomFilter.hash(1, i));
+        }
+        filter.rotate();
+        for (long i = 100_000L; i < 200_000L; i++) {
+            filter.put(RotatingBloomFilter.hash(1, i));
+        }
+        filter.rotate();
+
+        int falsePositives = 0;
+        for (long i = 200_000L; i < 300_000L; i++) {
+            if (filter.put(RotatingBloomFilter.hash(1, i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positive rate " + falsePositives / 100_000d,
+                falsePositives < 1_000);
+    }
+}
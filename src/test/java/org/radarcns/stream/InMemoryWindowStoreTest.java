@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateRestoreCallback;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class InMemoryWindowStoreTest {
+    private static final Bytes KEY_A = Bytes.wrap(new byte[] {1});
+    private static final Bytes KEY_B = Bytes.wrap(new byte[] {2});
+
+    private InMemoryWindowStore store;
+    private StateRestoreCallback restoreCallback;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryWindowStore("store", 20_000L, 10_000L);
+        ProcessorContext context = mock(ProcessorContext.class);
+        store.init(context, store);
+        ArgumentCaptor<StateRestoreCallback> callback =
+                ArgumentCaptor.forClass(StateRestoreCallback.class);
+        verify(context).register(eq(store), any(Boolean.class), callback.capture());
+        restoreCallback = callback.getValue();
+    }
+
+    @Test
+    public void fetch() {
+        store.put(KEY_A, new byte[] {10}, 0L);
+        store.put(KEY_B, new byte[] {20}, 0L);
+        store.put(KEY_A, new byte[] {11}, 10_000L);
+
+        try (WindowStoreIterator<byte[]> iterator = store.fetch(KEY_A, 0L, 0L)) {
+            assertEquals(Long.valueOf(0L), iterator.peekNextKey());
+            assertArrayEquals(new byte[] {10}, iterator.next().value);
+            assertFalse(iterator.hasNext());
+        }
+
+        List<Long> starts = new ArrayList<>();
+        try (WindowStoreIterator<byte[]> iterator = store.fetch(KEY_A, 0L, 20_000L)) {
+            iterator.forEachRemaining(kv -> starts.add(kv.key));
+        }
+        assertEquals(2, starts.size());
+        assertEquals(Long.valueOf(10_000L), starts.get(1));
+
+        try (KeyValueIterator<Windowed<Bytes>, byte[]> iterator = store.all()) {
+            KeyValue<Windowed<Bytes>, byte[]> first = iterator.next();
+            assertEquals(KEY_A, first.key.key());
+            assertEquals(10_000L, first.key.window().end());
+            assertEquals(KEY_B, iterator.next().key.key());
+            assertEquals(10_000L, iterator.next().key.window().start());
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void expire() {
+        store.put(KEY_A, new byte[] {10}, 0L);
+        store.put(KEY_A, new byte[] {11}, 30_000L);
+        assertEquals(1L, store.approximateNumEntries());
+
+        store.put(KEY_B, new byte[] {20}, 0L);
+        assertEquals(1L, store.approximateNumEntries());
+    }
+
+    @Test
+    public void trackSize() {
+        LongAdder totalEntries = new LongAdder();
+        LongAdder totalBytes = new LongAdder();
+        InMemoryWindowStore bounded = new InMemoryWindowStore("bounded", 20_000L, 10_000L,
+                4L, totalEntries, totalBytes);
+        bounded.put(KEY_A, new byte[] {10, 11}, 0L);
+        bounded.put(KEY_B, new byte[] {20}, 0L);
+        assertEquals(2L, bounded.approximateNumEntries());
+        assertEquals(5L, bounded.approximateBytes());
+        assertEquals(5L, totalBytes.sum());
+
+        // replaced values and expired windows are no longer counted
+        bounded.put(KEY_A, new byte[] {12}, 0L);
+        assertEquals(4L, bounded.approximateBytes());
+        bounded.put(KEY_A, new byte[] {13}, 30_000L);
+        assertEquals(1L, bounded.approximateNumEntries());
+        assertEquals(2L, bounded.approximateBytes());
+        assertEquals(1L, totalEntries.sum());
+
+        bounded.close();
+        assertEquals(0L, totalEntries.sum());
+        assertEquals(0L, totalBytes.sum());
+    }
+
+    @Test
+    public void restore() {
+        restoreCallback.restore(changelogKey(KEY_A, 10_000L), new byte[] {10});
+        restoreCallback.restore(changelogKey(KEY_B, 10_000L), new byte[] {20});
+        restoreCallback.restore(changelogKey(KEY_B, 10_000L), null);
+
+        try (WindowStoreIterator<byte[]> iterator = store.fetch(KEY_A, 10_000L, 10_000L)) {
+            assertArrayEquals(new byte[] {10}, iterator.next().value);
+        }
+        assertEquals(1L, store.approximateNumEntries());
+    }
+
+    private static byte[] changelogKey(Bytes key, long timestamp) {
+        return ByteBuffer.allocate(key.get().length + 12)
+                .put(key.get())
+                .putLong(timestamp)
+                .putInt(0)
+                .array();
+    }
+}
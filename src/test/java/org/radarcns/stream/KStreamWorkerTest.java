@@ -16,21 +16,38 @@
 
 package org.radarcns.stream;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.streams.kstream.KStream;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.config.AggregationConfig;
 import org.radarcns.config.KafkaProperty;
 import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.RadarPropertyHandlerImpl;
 import org.radarcns.topic.KafkaTopic;
 import org.radarcns.util.RadarSingletonFactory;
 
@@ -38,6 +55,9 @@ import org.radarcns.util.RadarSingletonFactory;
  * Created by nivethika on 20-12-16.
  */
 public class KStreamWorkerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private KStreamWorker aggregator;
     @Before
     public void setUp() {
@@ -49,17 +69,79 @@ public class KStreamWorkerTest {
     public void getBuilder() throws IOException {
         String topicName = "TESTTopic";
         StreamDefinition sensorTopic = new StreamDefinition(new KafkaTopic(topicName), new KafkaTopic(topicName + "_output"));
-        when(aggregator.getStreamDefinitions()).thenReturn(Collections.singleton(sensorTopic));
 
         RadarPropertyHandler propertyHandler = RadarSingletonFactory.getRadarPropertyHandler();
         propertyHandler.load("src/test/resources/config/radar.yml");
         KafkaProperty kafkaProperty = propertyHandler.getKafkaProperties();
-        when(aggregator.getStreamProperties(eq(sensorTopic))).thenReturn(
+
+        // use a spy, so that the fields initialized by the constructor are set
+        KStreamWorker<SpecificRecord, SpecificRecord> worker = spy(
+                new KStreamWorker<SpecificRecord, SpecificRecord>(
+                        Collections.singleton(sensorTopic), 1, mock(StreamMaster.class),
+                        propertyHandler, null) {
+                    @Override
+                    protected KStream<?, ?> implementStream(StreamDefinition definition,
+                            @Nonnull KStream<SpecificRecord, SpecificRecord> kstream) {
+                        return kstream;
+                    }
+                });
+        doReturn(kafkaProperty.getStreamProperties("test", 1, DeviceTimestampExtractor.class))
+                .when(worker).getStreamProperties(eq(sensorTopic));
+        doReturn(mock(KStream.class)).when(worker).implementStream(eq(sensorTopic), any());
+        doReturn(false).when(worker).resetIncompatibleState(eq(sensorTopic), any());
+        worker.createBuilder(sensorTopic);
+
+        verify(worker, times(1)).implementStream(eq(sensorTopic), any());
+    }
+
+    @Test
+    public void getApplicationTopics() throws IOException {
+        StreamDefinition first = new StreamDefinition(new KafkaTopic("a"), new KafkaTopic("a_out"));
+        StreamDefinition second = new StreamDefinition(new KafkaTopic("b"), new KafkaTopic("b_out"));
+        when(aggregator.getStreamDefinitions()).thenReturn(Arrays.asList(first, second));
+
+        RadarPropertyHandler propertyHandler = new RadarPropertyHandlerImpl();
+        propertyHandler.load("src/test/resources/config/radar.yml");
+        KafkaProperty kafkaProperty = propertyHandler.getKafkaProperties();
+        when(aggregator.getStreamProperties(any())).thenReturn(
                 kafkaProperty.getStreamProperties("test", 1, DeviceTimestampExtractor.class));
-        when(aggregator.implementStream(eq(sensorTopic), any())).thenReturn(mock(KStream.class));
-        doCallRealMethod().when(aggregator).createBuilder(sensorTopic);
-        aggregator.createBuilder(sensorTopic);
+        doCallRealMethod().when(aggregator).getApplicationTopics();
+
+        Map<String, Collection<String>> applicationTopics = aggregator.getApplicationTopics();
+        assertEquals(1, applicationTopics.size());
+        assertThat(applicationTopics.get("test"), contains("a", "b"));
+    }
+
+    @Test
+    public void storeSize() throws IOException {
+        Path stateDir = folder.newFolder("app").toPath();
+        Path windowStore = Files.createDirectories(stateDir.resolve("0_0/store/store.0"));
+        Files.write(windowStore.resolve("data"), new byte[10]);
+        Path keyValueStore = Files.createDirectories(stateDir.resolve("0_1/rocksdb/store"));
+        Files.write(keyValueStore.resolve("data"), new byte[5]);
+        Path otherStore = Files.createDirectories(stateDir.resolve("0_1/other"));
+        Files.write(otherStore.resolve("data"), new byte[20]);
+
+        assertEquals(15L, KStreamWorker.storeSize(stateDir, "store"));
+        assertEquals(20L, KStreamWorker.storeSize(stateDir, "other"));
+        assertEquals(0L, KStreamWorker.storeSize(stateDir.resolve("missing"), "store"));
+    }
+
+    @Test
+    public void selectFields() {
+        String[] fields = {"x", "y", "z"};
+        assertArrayEquals(fields, KStreamWorker.selectFields("acc", fields, null));
+
+        AggregationConfig config = new AggregationConfig();
+        config.setFields(Arrays.asList("z", "x"));
+        assertArrayEquals(new String[] {"x", "z"},
+                KStreamWorker.selectFields("acc", fields, config));
+    }
 
-        verify(aggregator, times(1)).implementStream(eq(sensorTopic), any());
+    @Test(expected = IllegalArgumentException.class)
+    public void selectUnknownField() {
+        AggregationConfig config = new AggregationConfig();
+        config.setFields(Collections.singletonList("w"));
+        KStreamWorker.selectFields("acc", new String[] {"x", "y", "z"}, config);
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.radarcns.stream;
+
+import static org.apache.kafka.streams.KeyValue.pair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.stream.collector.NumericAggregateCollector;
+import org.radarcns.util.serde.RadarSerdes;
+
+public class SlidingNumericAggregatorTest {
+    private static final String STORE = "panes";
+    private static final TimeWindows WINDOWS = TimeWindows.of(30_000L).advanceBy(10_000L)
+            .until(60_000L);
+    private static final TimeWindows PANES = TimeWindows.of(10_000L).until(60_000L);
+    private static final long COMMIT_INTERVAL_MS = 1_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TopologyTestDriver driver;
+    private ConsumerRecordFactory<String, String> factory;
+
+    @Before
+    public void setUp() throws Exception {
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(new CombiningWindowStore.Builder<>(
+                Stores.windowStoreBuilder(Stores.persistentWindowStore(STORE,
+                        PANES.maintainMs(), PANES.segments, PANES.size(), false),
+                        Serdes.String(), RadarSerdes.getInstance().getNumericAggregateCollector()),
+                PANES, 100));
+        builder.<String, String>stream("input")
+                .transform(() -> new CombiningWindowAggregator<String, String,
+                        NumericAggregateCollector>(STORE, PANES,
+                        () -> new NumericAggregateCollector("value"),
+                        (k, v, collector) -> collector.add(Double.parseDouble(v))), STORE)
+                .transform(() -> new SlidingNumericAggregator<>(STORE, WINDOWS, 1), STORE)
+                .map((k, v) -> pair(k.key() + "@" + k.window().start(),
+                        v.getCount() + "/" + v.getMin() + "/" + v.getMax() + "/" + v.getSum()))
+                .to("output");
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, folder.newFolder().getAbsolutePath());
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.String().getClass());
+        props.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, COMMIT_INTERVAL_MS);
+
+        driver = new TopologyTestDriver(builder.build(), props, 0L);
+        factory = new ConsumerRecordFactory<>("input", new StringSerializer(),
+                new StringSerializer());
+    }
+
+    @After
+    public void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    public void slideOverPanes() {
+        pipe("a", "1", 101_000L);
+        assertOutput("a@80000", "1/1.0/1.0/1.0");
+        pipe("a", "2", 112_000L);
+        assertOutput("a@90000", "2/1.0/2.0/3.0");
+        pipe("a", "3", 125_000L);
+        assertOutput("a@100000", "3/1.0/3.0/6.0");
+        // first pane falls out of the window
+        pipe("a", "4", 131_000L);
+        assertOutput("a@110000", "3/2.0/4.0/9.0");
+        // update of the latest pane
+        pipe("a", "5", 132_000L);
+        assertOutput("a@110000", "4/2.0/5.0/14.0");
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void latePanes() {
+        pipe("a", "1", 101_000L);
+        assertOutput("a@80000", "1/1.0/1.0/1.0");
+        pipe("a", "3", 125_000L);
+        assertOutput("a@100000", "2/1.0/3.0/4.0");
+        // late pane within the latest window updates it
+        pipe("a", "2", 112_000L);
+        assertOutput("a@100000", "3/1.0/3.0/6.0");
+        pipe("a", "4", 145_000L);
+        assertOutput("a@120000", "2/3.0/4.0/7.0");
+        // late pane before the latest window is only stored
+        pipe("a", "5", 113_000L);
+        assertNull(readOutput());
+    }
+
+    @Test
+    public void readEvictedPanes() {
+        pipe("a", "1", 101_000L);
+        assertOutput("a@80000", "1/1.0/1.0/1.0");
+        pipe("b", "2", 101_000L);
+        assertOutput("b@80000", "1/2.0/2.0/2.0");
+        // panes of a are read from the store
+        pipe("a", "3", 112_000L);
+        assertOutput("a@90000", "2/1.0/3.0/4.0");
+        assertNull(readOutput());
+    }
+
+    private void pipe(String key, String value, long timestamp) {
+        driver.pipeInput(factory.create("input", key, value, timestamp));
+        driver.advanceWallClockTime(COMMIT_INTERVAL_MS);
+    }
+
+    private void assertOutput(String key, String value) {
+        ProducerRecord<String, String> record = readOutput();
+        assertEquals(key, record.key());
+        assertEquals(value, record.value());
+    }
+
+    private ProducerRecord<String, String> readOutput() {
+        return driver.readOutput("output", new StringDeserializer(), new StringDeserializer());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.kafka.streams.StreamsConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.util.YamlPersistentStateStore;
+
+public class StateCompatibilityTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StateCompatibility compatibility;
+    private Properties props;
+
+    @Before
+    public void setUp() throws Exception {
+        // do not connect to Kafka: no formats are recorded there and resets succeed
+        compatibility = spy(new StateCompatibility(
+                new YamlPersistentStateStore(folder.getRoot())));
+        doReturn(null).when(compatibility).readApplicationFormats(any(), anyString(),
+                anyCollection());
+        doNothing().when(compatibility).writeApplicationFormats(any(), anyString(),
+                anyCollection(), anyMap());
+        doReturn(true).when(compatibility).resetApplication(any(), anyString(),
+                anyCollection());
+        props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "app");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+    }
+
+    @Test
+    public void keepUnchangedFormats() throws Exception {
+        Map<String, String> formats = Collections.singletonMap("store", "Collector-1");
+        assertTrue(compatibility.isCompatible("app", formats));
+        assertFalse(compatibility.check(props, Collections.singleton("in"), formats));
+        assertFalse(compatibility.check(props, Collections.singleton("in"), formats));
+        assertTrue(compatibility.isCompatible("other", Collections.singletonMap(
+                "store", "Collector-2")));
+    }
+
+    @Test
+    public void detectChangedFormats() throws Exception {
+        Map<String, String> formats = new HashMap<>();
+        formats.put("store", "Collector-1");
+        compatibility.check(props, Collections.singleton("in"), formats);
+
+        formats.put("other-store", "Collector-1");
+        assertTrue(compatibility.isCompatible("app", formats));
+
+        formats.put("store", "Collector-2");
+        assertFalse(compatibility.isCompatible("app", formats));
+        assertTrue(compatibility.check(props, Collections.singleton("in"), formats));
+        verify(compatibility).resetApplication(eq(props), eq("app"), any());
+        assertTrue(compatibility.isCompatible("app", formats));
+    }
+
+    @Test
+    public void rebuildOnce() throws Exception {
+        compatibility.check(props, Collections.singleton("in"),
+                Collections.singletonMap("store", "Collector-1"));
+
+        // another instance already rebuilt the state with the new format
+        Map<String, String> formats = Collections.singletonMap("store", "Collector-2");
+        doReturn(formats).when(compatibility).readApplicationFormats(any(), anyString(),
+                anyCollection());
+        assertTrue(compatibility.check(props, Collections.singleton("in"), formats));
+        verify(compatibility, never()).resetApplication(any(), anyString(), anyCollection());
+        assertTrue(compatibility.isCompatible("app", formats));
+    }
+
+    @Test
+    public void skipResetWithActiveMembers() throws Exception {
+        compatibility.check(props, Collections.singleton("in"),
+                Collections.singletonMap("store", "Collector-1"));
+
+        doReturn(false).when(compatibility).resetApplication(any(), anyString(),
+                anyCollection());
+        Map<String, String> formats = Collections.singletonMap("store", "Collector-2");
+        assertFalse(compatibility.check(props, Collections.singleton("in"), formats));
+        // the reset is attempted again on the next start
+        assertFalse(compatibility.isCompatible("app", formats));
+    }
+
+    @Test
+    public void ignoreUndeclaredFormats() throws Exception {
+        assertFalse(compatibility.check(props, Collections.singleton("in"),
+                Collections.emptyMap()));
+    }
+
+    @Test
+    public void detectChangedLayout() throws Exception {
+        Map<String, String> formats = Collections.singletonMap("store", "Collector-1");
+        compatibility.check(props, Collections.singleton("in"), formats);
+
+        assertFalse(compatibility.checkLayout("app",
+                Collections.singletonMap("store", "retention=10")));
+        assertFalse(compatibility.checkLayout("app",
+                Collections.singletonMap("store", "retention=10")));
+        assertTrue(compatibility.checkLayout("app",
+                Collections.singletonMap("store", "retention=20")));
+        assertTrue(compatibility.isCompatible("app", formats));
+    }
+}
@@ -16,12 +16,21 @@
 
 package org.radarcns.stream;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.regex.Pattern;
+import org.apache.kafka.streams.kstream.TimeWindows;
 import org.junit.Test;
+import org.radarcns.config.AggregationConfig;
 import org.radarcns.topic.KafkaTopic;
 
 public class StreamDefinitionTest {
@@ -51,4 +60,45 @@ public class StreamDefinitionTest {
         StreamDefinition definition = new StreamDefinition(inputTopic, outputTopic);
         assertFalse(TOPIC_PATTERN.matcher(definition.getStateStoreName()).matches());
     }
+
+    @Test
+    public void windowRetention() {
+        GeneralStreamGroup group = new GeneralStreamGroup();
+        TimeWindows tenSeconds = group.getTimeWindows(TimeWindowMetadata.TEN_SECOND);
+        assertEquals(10_000L, tenSeconds.size());
+        assertEquals(10_000L + 2 * 3_600_000L, tenSeconds.maintainMs());
+
+        TimeWindows oneWeek = group.getTimeWindows(TimeWindowMetadata.ONE_WEEK);
+        assertEquals(7 * 86_400_000L + 86_400_000L, oneWeek.maintainMs());
+    }
+
+    @Test
+    public void declaredWindows() {
+        AggregationConfig config = new AggregationConfig();
+        config.setWindows(Arrays.asList("one_hour", "ONE_DAY"));
+        GeneralStreamGroup group = new GeneralStreamGroup() {
+            @Override
+            protected AggregationConfig getAggregationConfig(String input) {
+                return INPUT.equals(input) ? config : null;
+            }
+        };
+
+        Collection<StreamDefinition> streams = group.createWindowedSensorStream(INPUT);
+        assertEquals(2, streams.size());
+        assertThat(group.getTopicNames(), hasItems(INPUT + "_1hour", INPUT + "_1day"));
+        assertThat(group.getTopicNames(), not(hasItem(INPUT + "_10sec")));
+        assertEquals(6, group.createWindowedSensorStream("other").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownDeclaredWindow() {
+        AggregationConfig config = new AggregationConfig();
+        config.setWindows(Collections.singletonList("one_month"));
+        new GeneralStreamGroup() {
+            @Override
+            protected AggregationConfig getAggregationConfig(String input) {
+                return config;
+            }
+        }.createWindowedSensorStream(INPUT);
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.batch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4InterBeatInterval;
+import org.radarcns.passive.empatica.EmpaticaE4Temperature;
+
+public class AggregateCommandTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aggregateCsvAndAvro() throws Exception {
+        File input = folder.newFolder("input");
+        File csvDir = new File(input, "u1");
+        csvDir.mkdir();
+        // 60 samples at 2 Hz, split over two files
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        first.add("key.projectId,key.userId,key.sourceId,value.time,value.timeReceived,"
+                + "value.temperature");
+        second.add(first.get(0));
+        for (int i = 0; i < 60; i++) {
+            double time = 1000.0 + i / 2.0;
+            (i < 30 ? first : second).add("p,u1,\"s1\"," + time + "," + time + "," + i);
+        }
+        Files.write(csvDir.toPath().resolve("0001.csv"), first, StandardCharsets.UTF_8);
+        Files.write(csvDir.toPath().resolve("0002.csv"), second, StandardCharsets.UTF_8);
+
+        File avroDir = new File(input, "u2");
+        avroDir.mkdir();
+        Schema schema = keyValueSchema(EmpaticaE4Temperature.getClassSchema());
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new SpecificDatumWriter<>(schema))
+                .create(schema, new File(avroDir, "0001.avro"))) {
+            ObservationKey key = new ObservationKey("p", "u2", "s2");
+            for (int i = 0; i < 60; i++) {
+                double time = 1000.0 + i / 2.0;
+                GenericRecord record = new GenericData.Record(schema);
+                record.put("key", key);
+                record.put("value", new EmpaticaE4Temperature(time, time, (float) i));
+                writer.append(record);
+            }
+        }
+
+        File output = folder.newFolder("output");
+        AggregateCommand command = new AggregateCommand("android_empatica_e4_temperature",
+                output.toPath(), Collections.singletonList(input.toPath()), 2);
+        command.start();
+        command.awaitCompletion();
+
+        for (String part : Arrays.asList("part-00000", "part-00001")) {
+            List<GenericRecord> tenSeconds = read(output.toPath().resolve(
+                    "android_empatica_e4_temperature_10sec/" + part + ".avro"));
+            // windows [1000, 1010), [1010, 1020) and [1020, 1030)
+            assertEquals(3, tenSeconds.size());
+            for (int i = 0; i < 3; i++) {
+                GenericRecord key = (GenericRecord) tenSeconds.get(i).get("key");
+                GenericRecord value = (GenericRecord) tenSeconds.get(i).get("value");
+                assertEquals(1000.0 + 10 * i, (Double) key.get("timeStart"), 1e-9);
+                assertEquals(20, value.get("count"));
+                assertEquals(20 * i + 9.5, (Double) value.get("mean"), 1e-9);
+            }
+
+            List<GenericRecord> week = read(output.toPath().resolve(
+                    "android_empatica_e4_temperature_1week/" + part + ".avro"));
+            assertEquals(1, week.size());
+            assertEquals(60, ((GenericRecord) week.get(0).get("value")).get("count"));
+        }
+    }
+
+    @Test
+    public void aggregateHeartRate() throws Exception {
+        File input = folder.newFolder("input");
+        List<String> lines = new ArrayList<>();
+        lines.add("key.projectId,key.userId,key.sourceId,value.time,value.timeReceived,"
+                + "value.interBeatInterval");
+        for (int i = 0; i < 10; i++) {
+            lines.add("p,u,s," + (1000.0 + i) + "," + (1000.0 + i) + ",0.5");
+        }
+        Files.write(input.toPath().resolve("ibi.csv"), lines, StandardCharsets.UTF_8);
+
+        File output = folder.newFolder("output");
+        AggregateCommand command = new AggregateCommand("android_empatica_e4_inter_beat_interval",
+                output.toPath(), Collections.singletonList(input.toPath()), 1);
+        command.start();
+        command.awaitCompletion();
+
+        List<GenericRecord> heartRate = read(output.toPath().resolve(
+                "android_empatica_e4_heart_rate_10sec/part-00000.avro"));
+        assertEquals(1, heartRate.size());
+        GenericRecord value = (GenericRecord) heartRate.get(0).get("value");
+        assertEquals(10, value.get("count"));
+        assertEquals(120.0, (Double) value.get("mean"), 1e-9);
+
+        List<GenericRecord> interBeatInterval = read(output.toPath().resolve(
+                "android_empatica_e4_inter_beat_interval_10sec/part-00000.avro"));
+        assertEquals(0.5, (Double) ((GenericRecord) interBeatInterval.get(0).get("value"))
+                .get("mean"), 1e-9);
+    }
+
+    @Test
+    public void splitCsv() {
+        List<String> columns = new ArrayList<>();
+        CsvRecordReader.split("a,\"b,c\",,\"d\"\"e\"", columns);
+        assertEquals(Arrays.asList("a", "b,c", "", "d\"e"), columns);
+    }
+
+    private static Schema keyValueSchema(Schema valueSchema) {
+        return Schema.createRecord("KeyValue", null, "org.radarcns.test", false, Arrays.asList(
+                new Field("key", ObservationKey.getClassSchema(), null, (Object) null),
+                new Field("value", valueSchema, null, (Object) null)));
+    }
+
+    private static List<GenericRecord> read(Path path) throws IOException {
+        List<GenericRecord> records = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(path.toFile(),
+                new GenericDatumReader<>())) {
+            reader.forEach(records::add);
+        }
+        return records;
+    }
+}
@@ -17,6 +17,7 @@
 package org.radarcns.stream.empatica;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -76,7 +77,10 @@ public class E4StreamsTest {
     @Test
     public void getTopicNames() {
         System.out.println(this.e4Streams.getTopicNames());
-        assertEquals(8 * TimeWindowMetadata.values().length,
+        // one sliding heart rate topic
+        assertEquals(8 * TimeWindowMetadata.values().length + 1,
                 this.e4Streams.getTopicNames().size()); // sort removes the redundant
+        assertTrue(this.e4Streams.getTopicNames().contains(
+                "android_empatica_e4_heart_rate_1hour_every_1min"));
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.stream.statistics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.kafka.streams.KeyValue;
+import org.junit.Test;
+import org.radarcns.config.RadarPropertyHandler;
+import org.radarcns.config.RadarPropertyHandlerImpl;
+import org.radarcns.config.SourceStatisticsMonitorConfig;
+import org.radarcns.kafka.AggregateKey;
+import org.radarcns.kafka.ObservationKey;
+import org.radarcns.passive.empatica.EmpaticaE4BloodVolumePulse;
+import org.radarcns.stream.SourceStatistics;
+import org.radarcns.stream.StreamMaster;
+import org.radarcns.stream.aggregator.NumericAggregate;
+
+public class SourceStatisticsStreamTest {
+    @Test
+    public void toStatistics() {
+        GenericRecord key = new GenericRecordBuilder(ObservationKey.getClassSchema())
+                .set("projectId", "test")
+                .set("userId", "me")
+                .set("sourceId", "1")
+                .build();
+        GenericRecord value = new GenericRecordBuilder(
+                EmpaticaE4BloodVolumePulse.getClassSchema())
+                .set("time", 1000.0)
+                .set("timeReceived", 1001.0)
+                .set("bloodVolumePulse", 1.0f)
+                .build();
+
+        List<KeyValue<ObservationKey, SourceStatistics>> result =
+                SourceStatisticsStream.toStatistics(key, value);
+        assertEquals(1, result.size());
+        assertEquals(new ObservationKey("test", "me", "1"), result.get(0).key);
+        assertEquals(new SourceStatistics(1001.0, 1001.0), result.get(0).value);
+    }
+
+    @Test
+    public void toStatisticsAggregate() {
+        GenericRecord key = new GenericRecordBuilder(AggregateKey.getClassSchema())
+                .set("projectId", "test")
+                .set("userId", "me")
+                .set("sourceId", "1")
+                .set("timeStart", 1000.0)
+                .set("timeEnd", 1060.0)
+                .build();
+        GenericRecord value = new GenericData.Record(NumericAggregate.getClassSchema());
+        value.put("name", "bloodVolumePulse");
+        value.put("count", 2);
+
+        List<KeyValue<ObservationKey, SourceStatistics>> result =
+                SourceStatisticsStream.toStatistics(key, value);
+        assertEquals(new SourceStatistics(1000.0, 1060.0), result.get(0).value);
+    }
+
+    @Test
+    public void toStatisticsInvalid() {
+        GenericRecord key = new GenericRecordBuilder(ObservationKey.getClassSchema())
+                .set("projectId", "test")
+                .set("userId", "me")
+                .set("sourceId", "1")
+                .build();
+        GenericRecord value = new GenericData.Record(NumericAggregate.getClassSchema());
+        value.put("name", "bloodVolumePulse");
+        value.put("count", 2);
+        assertTrue(SourceStatisticsStream.toStatistics(key, value).isEmpty());
+        assertTrue(SourceStatisticsStream.toStatistics(null, value).isEmpty());
+    }
+
+    @Test
+    public void getApplicationTopics() throws IOException {
+        SourceStatisticsMonitorConfig config = new SourceStatisticsMonitorConfig();
+        config.setName("statistics");
+        config.setTopics(Arrays.asList("a", "b"));
+        config.setOutputTopic("statistics_out");
+
+        RadarPropertyHandler properties = new RadarPropertyHandlerImpl();
+        properties.load("src/test/resources/config/radar.yml");
+        SourceStatisticsStream stream = new SourceStatisticsStream(
+                new SourceStatisticsStreamGroup(Collections.singletonList(config))
+                        .getStatisticsStream(config),
+                1, mock(StreamMaster.class), properties, config);
+
+        Map<String, Collection<String>> applicationTopics = stream.getApplicationTopics();
+        assertEquals(1, applicationTopics.size());
+        assertThat(applicationTopics.values().iterator().next(), contains("a", "b"));
+    }
+
+    @Test
+    public void merge() {
+        assertEquals(new SourceStatistics(1000.0, 1100.0), SourceStatisticsStream.merge(
+                new SourceStatistics(1000.0, 1050.0), new SourceStatistics(1010.0, 1100.0)));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void exactSmallValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertEquals(20, histogram.getCount());
+        assertEquals(20, histogram.getMax());
+        assertEquals(10.5, histogram.getMean(), 1e-9);
+        assertEquals(10, histogram.getValueAtPercentile(50.0));
+        assertEquals(20, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void relativePrecision() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1_000_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(500_000, histogram.getValueAtPercentile(50.0), 500_000 / 16.0);
+        assertEquals(990_000, histogram.getValueAtPercentile(99.0), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void extremeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5L);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50.0));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void since() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000L);
+        histogram.record(10L);
+        Histogram first = histogram.since(null);
+        assertEquals(2, first.getCount());
+        assertEquals(1000, first.getValueAtPercentile(100.0), 1000 / 16.0);
+
+        histogram.record(20L);
+        histogram.record(30L);
+        Histogram interval = histogram.since(first);
+        assertEquals(2, interval.getCount());
+        assertEquals(25.0, interval.getMean(), 1e-9);
+        assertEquals(20, interval.getValueAtPercentile(50.0));
+        assertEquals(30, interval.getMax(), 30 / 16.0);
+        assertEquals(0, histogram.since(histogram.since(null)).getCount());
+    }
+
+    @Test
+    public void reset() {
+        Histogram histogram = new Histogram();
+        histogram.record(100L);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+}
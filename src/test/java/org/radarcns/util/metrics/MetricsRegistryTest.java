@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 King's College London and The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.util.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.stats.Total;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+    private MBeanServer mbeanServer;
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() {
+        mbeanServer = MBeanServerFactory.newMBeanServer();
+        registry = new MetricsRegistry(mbeanServer);
+    }
+
+    @Test
+    public void values() {
+        MetricGroup group = registry.group("monitor", "test");
+        assertSame(group, registry.group("monitor", "test"));
+
+        group.counter("records").add(3);
+        group.gauge("keys", () -> 5);
+        group.histogram("time_us").record(10);
+
+        Map<String, Number> values = group.values();
+        assertThat(values, hasEntry("records", 3L));
+        assertThat(values, hasEntry("keys", 5));
+        assertThat(values, hasEntry("time_us_count", 1L));
+        assertThat(values, hasEntry("time_us_p99", 10L));
+    }
+
+    @Test
+    public void kafkaMetrics() {
+        try (Metrics metrics = new Metrics()) {
+            metrics.sensor("commit").add(metrics.metricName("commit-total", "consumer-metrics",
+                    "total commits"), new Total());
+            metrics.sensor("commit").record(2.0);
+
+            MetricGroup group = registry.group("stream", "test");
+            group.kafkaMetrics("streams", metrics::metrics);
+            assertThat(group.values(),
+                    hasEntry("streams_consumer-metrics_commit-total", 2.0));
+        }
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        MetricGroup group = registry.group("monitor", "test, with \"quotes\"");
+        group.counter("records").increment();
+
+        ObjectName name = new ObjectName("org.radarcns:type=\"monitor\",name="
+                + ObjectName.quote("test, with \"quotes\""));
+        assertEquals(1L, mbeanServer.getAttribute(name, "records"));
+
+        registry.remove(group);
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void http() throws Exception {
+        registry.group("monitor", "test").counter("records").add(2);
+
+        try (MetricsHttpServer server = new MetricsHttpServer(registry, 0)) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://localhost:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int numRead;
+                while ((numRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, numRead);
+                }
+                body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+            assertThat(body, containsString("radar_monitor_records{name=\"test\"} 2\n"));
+            assertTrue(body.endsWith("\n"));
+        }
+    }
+}